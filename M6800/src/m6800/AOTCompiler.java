@@ -0,0 +1,223 @@
+/*
+** AOTCompiler.java
+** Offline translation of a fixed program, such as a lab reference solution
+** or the monitor ROM, into classes for the BLOCK and JIT engines:
+**
+**      java -cp M6800.jar m6800.AOTCompiler [-rom] [-entry XXXX]... [file.s19] out.jar
+**
+** Without -rom the S-records are loaded into RAM as Load does and the
+** program is entered at 0000 unless -entry gives other addresses.  With
+** -rom they are loaded as the monitor ROM, or with no file the built in
+** monitor is used, and the reset, NMI, SWI and IRQ vectors are the entries.
+**
+** Code is found by following every branch, jump and call with a fixed
+** target from the entries, plus the return address after calls, SWI and
+** WAI.  Blocks are what CPU would cache at those addresses.  Whatever
+** can't be reached that way, e.g. through JMP ,X, and blocks holding
+** invalid opcodes, which are more likely data, are left to the interpreter.
+** Load the result with CPU.LoadTranslation or Headless -aot.  The jar also
+** holds the file, and runs it with Headless and the translations loaded
+** when M6800.jar is beside it:
+**
+**      java -jar out.jar [-start XXXX] [options] ...
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Put the file in the jar and make it runnable
+*/
+package m6800;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ *
+ * @author daves
+ */
+public class AOTCompiler {
+
+    final static int VECTORS[] = {0xFFF8, 0xFFFA, 0xFFFC, 0xFFFE}; // IRQ, SWI, NMI, reset
+
+    public static void main(String[] args) {
+        boolean bROM = false;
+        ArrayList<Integer> entries = new ArrayList<>();
+        ArrayList<String> files = new ArrayList<>();
+        int icounter;
+
+        for(icounter = 0; icounter < args.length; icounter++)
+        {
+            if(args[icounter].equals("-rom"))
+                bROM = true;
+            else if(args[icounter].equals("-entry") && (icounter + 1 < args.length))
+                entries.add(Integer.parseInt(args[++icounter], 16));
+            else
+                files.add(args[icounter]);
+        }
+        if((files.isEmpty()) || (files.size() > 2) || (!bROM && (files.size() != 2)))
+        {
+            System.err.println("usage: AOTCompiler [-rom] [-entry XXXX]... [file.s19] out.jar");
+            System.exit(2);
+        }
+
+        MemoryModule mem = new MemoryModule();
+        String source = "built in monitor ROM";
+        byte program[] = null;
+        if(files.size() == 2)
+        {
+            source = files.get(0);
+            CPU loader = new CPU(mem);
+            int result;
+            try {
+                program = Files.readAllBytes(Paths.get(source));
+            } catch (IOException e) {
+                System.err.println(source + ": " + e.getMessage());
+                System.exit(1);
+                return;
+            }
+            try (Reader in = new InputStreamReader(new ByteArrayInputStream(program), StandardCharsets.US_ASCII)) {
+                result = bROM ? M6800.ReadSRecordFileROM(in, mem, loader)
+                              : M6800.ReadSRecordFile(in, mem, loader);
+            } catch (IOException e) {
+                System.err.println(source + ": " + e.getMessage());
+                System.exit(1);
+                return;
+            }
+            if(result != SRecord.NO_ERROR)
+            {
+                System.err.println(source + ": bad S-record (" + result + ")");
+                System.exit(1);
+            }
+        }
+        if(entries.isEmpty())
+        {
+            if(bROM)
+            {
+                for(int vector : VECTORS)
+                    entries.add((mem.MemRead(vector) << 8) + mem.MemRead(vector + 1));
+            }
+            else
+                entries.add(0);
+        }
+
+        int entry[] = new int[entries.size()];
+        for(icounter = 0; icounter < entry.length; icounter++)
+            entry[icounter] = entries.get(icounter);
+        AOTImage image = Translate(mem, entry);
+        int blocks = 0;
+        for(AOTImage.Group group : image.groups)
+            blocks += group.starts.length;
+        try {
+            image.Write(files.get(files.size() - 1), source, program, bROM);
+        } catch (IOException e) {
+            System.err.println(files.get(files.size() - 1) + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println(source + ": " + blocks + " blocks in " + image.GetGroupCount() + " classes");
+    }
+
+/*
+**      Translate - find the code reachable from the entries in mem and
+**      translate it in address order, as many blocks per class as HotSpot
+**      will still compile
+*/
+    static AOTImage Translate(MemoryModule mem, int entries[])
+    {
+        BlockCache cache = new BlockCache(mem);
+        Translator compiler = new Translator(cache);
+        AOTImage image = new AOTImage();
+        ArrayList<CodeBlock> found = Discover(cache, entries);
+        ArrayList<CodeBlock> group = new ArrayList<>();
+        byte bytes[] = null;
+        byte larger[];
+
+        found.sort((a, b) -> a.startPC - b.startPC);
+        for(CodeBlock block : found)
+        {
+            group.add(block);
+            larger = compiler.TranslateImage(group);
+            if((larger == null) && (group.size() > 1))
+            {
+                group.remove(group.size() - 1);
+                AddGroup(image, mem, group, bytes);
+                group = new ArrayList<>();
+                group.add(block);
+                larger = compiler.TranslateImage(group);
+            }
+            bytes = larger;
+        }
+        if(!group.isEmpty())
+            AddGroup(image, mem, group, bytes);
+        return (image);
+    }
+
+    private static void AddGroup(AOTImage image, MemoryModule mem, ArrayList<CodeBlock> group, byte bytes[])
+    {
+        int starts[] = new int[group.size()];
+        int ends[] = new int[group.size()];
+        int icounter;
+        if(bytes == null)
+            return;
+        for(icounter = 0; icounter < starts.length; icounter++)
+        {
+            starts[icounter] = group.get(icounter).startPC;
+            ends[icounter] = group.get(icounter).endPC;
+        }
+        image.groups.add(new AOTImage.Group(String.format("Image%04X", starts[0]), starts, ends,
+                AOTImage.Checksum(mem, starts, ends), bytes));
+    }
+
+/*
+**      Discover - blocks reachable from the entries
+*/
+    static ArrayList<CodeBlock> Discover(BlockCache cache, int entries[])
+    {
+        ArrayList<CodeBlock> found = new ArrayList<>();
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        boolean seen[] = new boolean[MemoryModule.MEMSIZE];
+        for(int iAddress : entries)
+            work.add(iAddress);
+        while(!work.isEmpty())
+        {
+            int iAddress = work.remove();
+            if((iAddress < 0) || (iAddress >= MemoryModule.MEMSIZE) || seen[iAddress])
+                continue;
+            seen[iAddress] = true;
+            CodeBlock block = cache.Lookup(iAddress);
+            if((block == null) || !Analyzable(block))
+                continue;
+            found.add(block);
+            for(int next : Translator.Successors(block))
+                work.add(next);
+            switch(CPU.InstructionLookup(block.opcode[block.length - 1]).ID)
+            {
+                case BSR:
+                case JSR:
+                case SWI:
+                case WAI:
+                    work.add(block.endPC); // where it comes back to
+                break;
+                default:
+                break;
+            }
+        }
+        return (found);
+    }
+
+    private static boolean Analyzable(CodeBlock block)
+    {
+        int icounter;
+        for(icounter = 0; icounter < block.length; icounter++)
+        {
+            if(CPU.InstructionLookup(block.opcode[icounter]).ID == Instruction.CommandID.INVALID)
+                return (false);
+        }
+        return (true);
+    }
+}
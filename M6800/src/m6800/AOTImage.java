@@ -0,0 +1,275 @@
+/*
+** AOTImage.java
+** Classes translated ahead of time by AOTCompiler, kept in a jar:
+**
+**      aot/index.txt           one line per class, all numbers in hex
+**                              <name> <start>-<end> ... <crc32>
+**      aot/<name>.class        the translated blocks <start>-<end> ...
+**      aot/program.s19         the program translated, loaded into RAM,
+**      aot/rom.s19             or ROM, by Headless, if there was a file
+**
+** CPU.LoadTranslation installs each class whose blocks are in memory just
+** as they were translated, checked against the CRC, so the BLOCK and JIT
+** engines run them from the first instruction.  The classes are defined
+** by Translator.Define, so any runtime from Java 8 on can load them.
+**
+** The jar's manifest runs Headless with M6800.jar next to it on the class
+** path, and Headless loads the image and program it finds there first:
+**
+**      java -jar out.jar [options] ...
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Keep the program in the jar and make it runnable, read an
+**            image from the class path, install without a Translator
+*/
+package m6800;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author daves
+ */
+public class AOTImage {
+
+    final static String INDEX = "aot/index.txt";
+    final static String PROGRAM = "aot/program.s19";
+    final static String ROM = "aot/rom.s19";
+    final static String MAINCLASS = "m6800.Headless";
+    final static String CLASSPATH = "M6800.jar";
+
+/*
+**      Group - one translated class and the blocks it was made from
+*/
+    static class Group {
+        final String name;
+        final int starts[];
+        final int ends[];
+        final long crc;
+        final byte bytes[];
+        Class<?> loaded;    // defined on first install
+        boolean rejected;   // couldn't be defined, don't try again
+
+        Group(String name, int starts[], int ends[], long crc, byte bytes[])
+        {
+            this.name = name;
+            this.starts = starts;
+            this.ends = ends;
+            this.crc = crc;
+            this.bytes = bytes;
+        }
+    }
+
+    final ArrayList<Group> groups = new ArrayList<>();
+
+/*
+**      Entries - where Parse gets a class file named in the index
+*/
+    private interface Entries
+    {
+        InputStream Open(String name) throws IOException;
+    }
+
+    public int GetGroupCount()
+    {
+        return (groups.size());
+    }
+
+/*
+**      Read - load an image written by AOTCompiler
+*/
+    public static AOTImage Read(String fileName) throws IOException
+    {
+        try (JarFile jar = new JarFile(fileName)) {
+            JarEntry index = jar.getJarEntry(INDEX);
+            if(index == null)
+                throw new IOException(fileName + " has no " + INDEX);
+            return (Parse(fileName, jar.getInputStream(index), name -> {
+                JarEntry entry = jar.getJarEntry(name);
+                return ((entry == null) ? null : jar.getInputStream(entry));
+            }));
+        }
+    }
+
+/*
+**      ReadResource - the image on the class path, as when the jar is run,
+**      or null if there isn't one
+*/
+    public static AOTImage ReadResource() throws IOException
+    {
+        ClassLoader loader = AOTImage.class.getClassLoader();
+        InputStream index = loader.getResourceAsStream(INDEX);
+        if(index == null)
+            return (null);
+        return (Parse("class path", index, loader::getResourceAsStream));
+    }
+
+/*
+**      Resource - a reader for S-records kept in the jar on the class path,
+**      PROGRAM or ROM, or null if there aren't any
+*/
+    public static Reader Resource(String name)
+    {
+        InputStream in = AOTImage.class.getClassLoader().getResourceAsStream(name);
+        return ((in == null) ? null : new InputStreamReader(in, StandardCharsets.US_ASCII));
+    }
+
+/*
+**      Parse - an image from its index, the class files from entries,
+**      source naming where it came from in errors
+*/
+    private static AOTImage Parse(String source, InputStream index, Entries entries) throws IOException
+    {
+        AOTImage image = new AOTImage();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(index, StandardCharsets.US_ASCII))) {
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                String fields[] = line.trim().split("\\s+");
+                int icounter;
+                if((fields.length < 3) || fields[0].startsWith("#"))
+                    continue;
+                int starts[] = new int[fields.length - 2];
+                int ends[] = new int[fields.length - 2];
+                for(icounter = 0; icounter < starts.length; icounter++)
+                {
+                    String range[] = fields[icounter + 1].split("-");
+                    starts[icounter] = Integer.parseInt(range[0], 16);
+                    ends[icounter] = Integer.parseInt(range[1], 16);
+                }
+                InputStream entry = entries.Open("aot/" + fields[0] + ".class");
+                if(entry == null)
+                    throw new IOException(source + " has no class " + fields[0]);
+                try (InputStream classFile = entry) {
+                    image.groups.add(new Group(fields[0], starts, ends,
+                            Long.parseLong(fields[fields.length - 1], 16), ReadAll(classFile)));
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("bad index in " + source, e);
+        }
+        return (image);
+    }
+
+    private static byte[] ReadAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte buffer[] = new byte[4096];
+        int count;
+        while((count = in.read(buffer)) > 0)
+            bytes.write(buffer, 0, count);
+        return (bytes.toByteArray());
+    }
+
+/*
+**      Write - save the image as a jar, source is noted in the index.  The
+**      S-records in program, null for none, go in as PROGRAM, or ROM with
+**      bROM.
+*/
+    void Write(String fileName, String source, byte program[], boolean bROM) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, MAINCLASS);
+        manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, CLASSPATH);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(fileName), manifest)) {
+            out.putNextEntry(new JarEntry(INDEX));
+            Writer index = new OutputStreamWriter(out, StandardCharsets.US_ASCII);
+            index.write("# ET-3400A translation of " + source + "\n");
+            for(Group group : groups)
+            {
+                int icounter;
+                index.write(group.name);
+                for(icounter = 0; icounter < group.starts.length; icounter++)
+                    index.write(String.format(" %04X-%04X", group.starts[icounter], group.ends[icounter]));
+                index.write(String.format(" %08X%n", group.crc));
+            }
+            index.flush();
+            out.closeEntry();
+            for(Group group : groups)
+            {
+                out.putNextEntry(new JarEntry("aot/" + group.name + ".class"));
+                out.write(group.bytes);
+                out.closeEntry();
+            }
+            if(program != null)
+            {
+                out.putNextEntry(new JarEntry(bROM ? ROM : PROGRAM));
+                out.write(program);
+                out.closeEntry();
+            }
+        }
+    }
+
+/*
+**      Checksum - CRC32 of the bytes in each [start, end) range
+*/
+    static long Checksum(MemoryModule mem, int starts[], int ends[])
+    {
+        CRC32 crc = new CRC32();
+        int icounter, iAddress;
+        for(icounter = 0; icounter < starts.length; icounter++)
+        {
+            for(iAddress = starts[icounter]; iAddress < ends[icounter]; iAddress++)
+                crc.update(mem.MemRead(iAddress));
+        }
+        return (crc.getValue());
+    }
+
+/*
+**      Install - hook every group whose code is unchanged into the cache,
+**      entered at any of its blocks.  Returns the number installed.
+*/
+    synchronized int Install(BlockCache cache, MemoryModule mem)
+    {
+        int installed = 0;
+        int icounter;
+        for(Group group : groups)
+        {
+            if(group.rejected || (Checksum(mem, group.starts, group.ends) != group.crc))
+                continue;
+            CodeBlock blocks[] = new CodeBlock[group.starts.length];
+            boolean bMatch = true;
+            for(icounter = 0; (icounter < blocks.length) && bMatch; icounter++)
+            {
+                blocks[icounter] = cache.Lookup(group.starts[icounter]);
+                bMatch = (blocks[icounter] != null) && (blocks[icounter].endPC == group.ends[icounter]);
+            }
+            if(!bMatch)
+                continue;
+            CompiledRegion region;
+            try {
+                if(group.loaded == null)
+                    group.loaded = Translator.Define(group.bytes);
+                region = Translator.NewRegion(group.loaded);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                group.rejected = true;
+                continue;
+            }
+            for(CodeBlock block : blocks)
+            {
+                block.AddRegion(region);
+                block.compiled = region;
+            }
+            installed++;
+        }
+        return (installed);
+    }
+}
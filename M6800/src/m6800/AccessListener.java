@@ -0,0 +1,18 @@
+/*
+** AccessListener.java
+** Told about each MemWrite before it's stored, and each MemRead after it
+** if asked for.
+**
+** Revisions:
+** 10/17/2026 Initial version, moved out of MemoryModule
+*/
+package m6800;
+
+/**
+ *
+ * @author daves
+ */
+interface AccessListener {
+    void Written(int iAddress, int iValue);
+    void Read(int iAddress, int iValue);
+}
@@ -0,0 +1,173 @@
+/*
+** Batch.java
+** Runs a list of jobs at once, each on its own Headless machine, spread
+** over a work stealing pool with a thread per core.  The list has a job a
+** line, a name and then the options and files Headless takes, e.g.
+**
+**      alice   -start 0000 -until 0040 -cycles 5000000 -dump 0080-008F alice.s19
+**      bob     -state lab3.snap -key 20000:1 -key 90000:D -wai bob.s19
+**
+** with blank lines and lines starting with # left out.  Each result is
+** printed as a line of JSON as soon as its job finishes, so in whatever
+** order they finish, with the job's name and the milliseconds it took in
+** front of what Headless -json prints, or the error that stopped it:
+**
+**      java -cp M6800.jar m6800.Batch [-threads n] [-timeout s] [jobs.txt]
+**
+** The list is read from stdin if no file is given, so a job can't read a
+** program from stdin.  -timeout is the wall clock limit for jobs that
+** don't set their own, DEFAULTTIMEOUT seconds if not given.  The machines
+** share nothing, so jobs don't wait on each other, and one that never
+** stops ends at its cycle budget or timeout.  The exit status is 1 if any
+** job couldn't be run.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 A job throwing an Error gets an error line, the rest still run
+*/
+package m6800;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * @author daves
+ */
+public class Batch {
+
+    final static double DEFAULTTIMEOUT = 10;
+
+    private final ForkJoinPool pool;
+    private final PrintStream out;
+    private final double timeout;
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public Batch(int threads, double timeout, PrintStream out)
+    {
+        pool = new ForkJoinPool(threads);
+        this.timeout = timeout;
+        this.out = out;
+    }
+
+/*
+**      Submit - start the job a line of the list describes, nothing for a
+**      blank line or comment
+*/
+    public ForkJoinTask<?> Submit(String line)
+    {
+        String words[] = line.trim().split("\\s+");
+        if(words[0].isEmpty() || words[0].startsWith("#"))
+            return (null);
+        return (pool.submit(() -> RunJob(words[0], Arrays.copyOfRange(words, 1, words.length))));
+    }
+
+/*
+**      RunJob - on a pool thread, run a job and print its result
+*/
+    private void RunJob(String name, String args[])
+    {
+        long begin = System.nanoTime();
+        Headless runner;
+        String result;
+        try {
+            if(Arrays.asList(args).contains("-"))
+                throw new IllegalArgumentException("jobs can't read stdin");
+            runner = new Headless();
+            runner.Configure(args);
+            if(!runner.GetTimeoutSet())
+                runner.SetTimeout(timeout);
+            runner.Run();
+            result = runner.Json();
+            result = String.format("{\"job\":%s,\"millis\":%d,%s", Quote(name),
+                    (System.nanoTime() - begin) / 1000000, result.substring(1));
+        } catch (Throwable e) {
+            // a bad option or file, or the machine going wrong, even with
+            // an Error such as a stack overflow, is only this job's
+            failed.incrementAndGet();
+            result = String.format("{\"job\":%s,\"millis\":%d,\"stop\":\"error\",\"error\":%s}", Quote(name),
+                    (System.nanoTime() - begin) / 1000000,
+                    Quote((e.getMessage() != null) ? e.getMessage() : e.toString()));
+        }
+        synchronized(out) {
+            out.println(result);
+            out.flush();
+        }
+    }
+
+/*
+**      Finish - wait for every job submitted, returning how many failed
+*/
+    public int Finish(ArrayList<ForkJoinTask<?>> jobs)
+    {
+        for(ForkJoinTask<?> job : jobs)
+            job.join();
+        pool.shutdown();
+        return (failed.get());
+    }
+
+    static String Quote(String text)
+    {
+        StringBuilder quoted = new StringBuilder("\"");
+        for(char character : text.toCharArray())
+        {
+            if((character == '"') || (character == '\\'))
+                quoted.append('\\').append(character);
+            else if(character < ' ')
+                quoted.append(String.format("\\u%04x", (int) character));
+            else
+                quoted.append(character);
+        }
+        return (quoted.append('"').toString());
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        double timeout = DEFAULTTIMEOUT;
+        String fileName = null;
+        ArrayList<ForkJoinTask<?>> jobs = new ArrayList<>();
+        ForkJoinTask<?> job;
+        Batch batch;
+        String line;
+        int icounter;
+        try {
+            for(icounter = 0; icounter < args.length; icounter++)
+            {
+                if(args[icounter].equals("-threads") && (icounter + 1 < args.length))
+                    threads = Integer.parseInt(args[++icounter]);
+                else if(args[icounter].equals("-timeout") && (icounter + 1 < args.length))
+                    timeout = Double.parseDouble(args[++icounter]);
+                else if(!args[icounter].startsWith("-") && (fileName == null))
+                    fileName = args[icounter];
+                else
+                    throw new IllegalArgumentException(args[icounter]);
+            }
+            if(threads < 1)
+                throw new IllegalArgumentException("-threads " + threads);
+        } catch (IllegalArgumentException e) {
+            System.err.println("usage: Batch [-threads n] [-timeout s] [jobs.txt]");
+            System.exit(2);
+        }
+        batch = new Batch(threads, timeout, System.out);
+        try (BufferedReader in = new BufferedReader((fileName == null) ?
+                new InputStreamReader(System.in) : new FileReader(fileName))) {
+            while((line = in.readLine()) != null)
+            {
+                if((job = batch.Submit(line)) != null)
+                    jobs.add(job);
+            }
+        } catch (IOException e) {
+            System.err.println(((fileName == null) ? "stdin" : fileName) + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit((batch.Finish(jobs) > 0) ? 1 : 0);
+    }
+}
@@ -0,0 +1,347 @@
+/*
+** Benchmark.java
+** Measure simulator throughput running the example 1 program from the
+** ET-3400A manual and a shift and add multiply loop.  Run with:
+**
+**      java -cp M6800.jar m6800.Benchmark [seconds]
+**
+** Revisions:
+** 10/17/2026 Initial version, compare linear and table opcode decode
+** 10/17/2026 Run the sample with each CPU.Engine
+** 10/17/2026 Time run() as well as clock()
+** 10/17/2026 Add the multiply loop, arithmetic the JIT engine should speed up
+** 10/17/2026 Time the multiply loop with lazy flags off too
+** 10/17/2026 Compare flag rules against FlagTables for each ALU family
+** 10/17/2026 Report the heap used per MemoryModule
+** 10/17/2026 Time snapshot save and restore
+** 10/17/2026 Line up the labels, print each engine's multiply speedup over
+**            SWITCH run()
+** 10/17/2026 Look flags up through FlagTables.Bits, no DAA table to time
+*/
+package m6800;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+/**
+ *
+ * @author daves
+ */
+public class Benchmark {
+
+    final static int DEFAULTSECONDS = 5;
+    final static int CLOCKSPERCHECK = 1000000;
+    final static int DECODEPASSES = 100000;
+    final static int FLAGPASSES = 200;
+    final static int FOOTPRINTMODULES = 1000;
+    final static int SNAPSHOTPASSES = 100000;
+
+    // squares 1..255 over and over with an 8 x 8 shift and add multiply,
+    // loaded at MULTIPLYORIGIN with its variables in the direct page
+    final static int MULTIPLYORIGIN = 0x0100;
+    final static int [] MULTIPLY = {
+        0x86, 0x00,         //       LDAA #$00
+        0x97, 0x40,         //       STAA $40      multiplicand
+        0x96, 0x40,         // NEXT  LDAA $40
+        0x4C,               //       INCA
+        0x97, 0x40,         //       STAA $40
+        0x97, 0x41,         //       STAA $41      multiplier, low byte of product
+        0x4F,               //       CLRA          high byte of product
+        0xC6, 0x08,         //       LDAB #$08
+        0x74, 0x00, 0x41,   //       LSR  $0041
+        0x24, 0x02,         // LOOP  BCC  SKIP
+        0x9B, 0x40,         //       ADDA $40
+        0x46,               // SKIP  RORA
+        0x76, 0x00, 0x41,   //       ROR  $0041
+        0x5A,               //       DECB
+        0x26, 0xF5,         //       BNE  LOOP
+        0x97, 0x42,         //       STAA $42
+        0x20, 0xE4          //       BRA  NEXT
+    };
+
+    public static void main(String[] args) {
+        int seconds = DEFAULTSECONDS;
+        double multiply[] = new double[CPU.Engine.values().length];
+        if(args.length > 0)
+            seconds = Integer.parseInt(args[0]);
+
+        System.out.println("ET-3400A sample 1, " + seconds + " seconds per run");
+        for(CPU.Engine engine : CPU.Engine.values())
+        {
+            RunSample(engine, 1); // warm up
+            RunSample(engine, seconds);
+            RunSampleInstructions(engine, 1);
+            RunSampleInstructions(engine, seconds);
+            RunMultiply(engine, 1);
+            multiply[engine.ordinal()] = RunMultiply(engine, seconds);
+        }
+        for(CPU.Engine engine : CPU.Engine.values())
+        {
+            System.out.printf("multiply %-6s  %.1fx SWITCH run()%n", engine,
+                    multiply[engine.ordinal()] / multiply[CPU.Engine.SWITCH.ordinal()]);
+        }
+        for(CPU.Engine engine : CPU.Engine.values())
+        {
+            RunEagerMultiply(engine, 1);
+            RunEagerMultiply(engine, seconds);
+        }
+        DecodeCompare();
+        FlagCompare();
+        MemoryFootprint();
+        SnapshotTime(false);
+        SnapshotTime(true);
+    }
+
+/*
+**      NewSampleMachine - CPU with the sample program loaded at 0x0000 and
+**      the PC pointing at it, as if "DO 0000" had been keyed in.
+*/
+    static CPU NewSampleMachine(MemoryModule mem)
+    {
+        return (NewMachine(mem, M6800.SAMPLE1, 0));
+    }
+
+    static CPU NewMachine(MemoryModule mem, int program[], int origin)
+    {
+        int icounter;
+        for(icounter = 0; icounter < program.length; icounter++)
+        {
+            mem.MemWrite(origin + icounter, program[icounter]);
+        }
+        CPU aCPU = new CPU(mem);
+        aCPU.Reset();
+        aCPU.SetPC(origin);
+        return (aCPU);
+    }
+
+/*
+**      RunSample - run clock() flat out and report instructions per second
+*/
+    static void RunSample(CPU.Engine engine, int seconds)
+    {
+        CPU aCPU = NewSampleMachine(new MemoryModule());
+        aCPU.SetEngine(engine);
+        long clocks = 0;
+        long icounter;
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long now;
+        do
+        {
+            for(icounter = 0; icounter < CLOCKSPERCHECK; icounter++)
+                aCPU.clock();
+            clocks += CLOCKSPERCHECK;
+            now = System.nanoTime();
+        } while(now < end);
+        double elapsed = (now - start) / 1e9;
+        System.out.printf("%-9s%-6s  %,.0f instructions/s  %,.0f cycles/s%n", "clock()",
+                engine, aCPU.GetInstructionCount() / elapsed, clocks / elapsed);
+    }
+
+/*
+**      RunSampleInstructions - same as RunSample using run() in slices
+*/
+    static void RunSampleInstructions(CPU.Engine engine, int seconds)
+    {
+        RunInstructions("run()", NewSampleMachine(new MemoryModule()), engine, seconds);
+    }
+
+/*
+**      RunMultiply - run() on the multiply loop, returning instructions per
+**      second
+*/
+    static double RunMultiply(CPU.Engine engine, int seconds)
+    {
+        return (RunInstructions("multiply", NewMachine(new MemoryModule(), MULTIPLY, MULTIPLYORIGIN), engine, seconds));
+    }
+
+/*
+**      RunEagerMultiply - the multiply loop with lazy flags turned off, every
+**      instruction works out its flags as it runs
+*/
+    static void RunEagerMultiply(CPU.Engine engine, int seconds)
+    {
+        CPU aCPU = NewMachine(new MemoryModule(), MULTIPLY, MULTIPLYORIGIN);
+        aCPU.SetLazyFlags(false);
+        RunInstructions("eager", aCPU, engine, seconds);
+    }
+
+    static double RunInstructions(String name, CPU aCPU, CPU.Engine engine, int seconds)
+    {
+        aCPU.SetEngine(engine);
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long now;
+        do
+        {
+            aCPU.run(CLOCKSPERCHECK);
+            now = System.nanoTime();
+        } while(now < end);
+        double elapsed = (now - start) / 1e9;
+        System.out.printf("%-9s%-6s  %,.0f instructions/s  %,.0f cycles/s%n",
+                name, engine, aCPU.GetInstructionCount() / elapsed, aCPU.GetCycleCount() / elapsed);
+        return (aCPU.GetInstructionCount() / elapsed);
+    }
+
+/*
+**      DecodeCompare - time opcode decode alone, treating every byte of the
+**      sample program as an opcode, using the old linear search through the
+**      instruction list against the opcode indexed table.
+*/
+    static void DecodeCompare()
+    {
+        int opcodes[] = new int[M6800.SAMPLE1.length];
+        int icounter, pass;
+        long sum = 0;
+        for(icounter = 0; icounter < opcodes.length; icounter++)
+            opcodes[icounter] = M6800.SAMPLE1[icounter];
+
+        long start = System.nanoTime();
+        for(pass = 0; pass < DECODEPASSES; pass++)
+            for(icounter = 0; icounter < opcodes.length; icounter++)
+                sum += LinearLookup(opcodes[icounter]).cycles;
+        long linear = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for(pass = 0; pass < DECODEPASSES; pass++)
+            for(icounter = 0; icounter < opcodes.length; icounter++)
+                sum += CPU.InstructionLookup(opcodes[icounter]).cycles;
+        long table = System.nanoTime() - start;
+
+        long lookups = (long) DECODEPASSES * opcodes.length;
+        System.out.printf("decode:   linear %.1f ns/op  table %.1f ns/op  (%d)%n",
+                (double) linear / lookups, (double) table / lookups, sum & 1);
+    }
+
+/*
+**      FlagCompare - time working out flags for every input of add and
+**      subtract with the rules CPU used to apply against FlagTables
+*/
+    static void FlagCompare()
+    {
+        int icounter, pass;
+        long sum = 0;
+        long start;
+        long rules, table;
+        int inputs = 0x20000;   // every a, b and carry, as FlagTables.Index
+
+        System.out.printf("flag tables: %,d bytes%n", FlagTables.Size());
+        start = System.nanoTime();
+        for(pass = 0; pass < FLAGPASSES; pass++)
+            for(icounter = 0; icounter < inputs; icounter++)
+                sum += FlagTables.AddFlags((icounter >> 8) & 0xFF, icounter & 0xFF,
+                        ((icounter >> 8) + icounter + (icounter >> 16)) & 0xFF);
+        rules = System.nanoTime() - start;
+        start = System.nanoTime();
+        for(pass = 0; pass < FLAGPASSES; pass++)
+            for(icounter = 0; icounter < inputs; icounter++)
+                sum += FlagTables.ADD[FlagTables.Bits(icounter,
+                        ((icounter >> 8) + icounter + (icounter >> 16)) & 0xFF)];
+        table = System.nanoTime() - start;
+        FlagReport("add/adc", rules, table, (long) FLAGPASSES * inputs);
+
+        start = System.nanoTime();
+        for(pass = 0; pass < FLAGPASSES; pass++)
+            for(icounter = 0; icounter < inputs; icounter++)
+                sum += FlagTables.SubtractFlags((icounter >> 8) & 0xFF, icounter & 0xFF,
+                        ((icounter >> 8) - icounter - (icounter >> 16)) & 0xFF);
+        rules = System.nanoTime() - start;
+        start = System.nanoTime();
+        for(pass = 0; pass < FLAGPASSES; pass++)
+            for(icounter = 0; icounter < inputs; icounter++)
+                sum += FlagTables.SUB[FlagTables.Bits(icounter,
+                        ((icounter >> 8) - icounter - (icounter >> 16)) & 0xFF)];
+        table = System.nanoTime() - start;
+        FlagReport("sub/sbc", rules, table, (long) FLAGPASSES * inputs);
+
+        System.out.printf("          (%d)%n", sum & 1);
+    }
+
+    private static void FlagReport(String family, long rules, long table, long operations)
+    {
+        System.out.printf("flags:    %-8s rules %.2f ns/op  table %.2f ns/op%n",
+                family, (double) rules / operations, (double) table / operations);
+    }
+
+/*
+**      MemoryFootprint - heap held by each MemoryModule, averaged over
+**      FOOTPRINTMODULES of them as batch runs would have
+*/
+    static void MemoryFootprint()
+    {
+        MemoryModule modules[] = new MemoryModule[FOOTPRINTMODULES];
+        int icounter;
+        long before, after;
+
+        new MemoryModule(); // load the class and its shared ROM first
+        before = UsedHeap();
+        for(icounter = 0; icounter < modules.length; icounter++)
+            modules[icounter] = new MemoryModule();
+        after = UsedHeap();
+        System.out.printf("memory:   %,d bytes per MemoryModule (%d)%n",
+                (after - before) / modules.length, modules.length);
+    }
+
+    private static long UsedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        int icounter;
+        for(icounter = 0; icounter < 3; icounter++)
+            System.gc();
+        return (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+/*
+**      SnapshotTime - save and restore the sample machine through an in
+**      memory channel
+*/
+    static void SnapshotTime(boolean bCompress)
+    {
+        CPU aCPU = NewSampleMachine(new MemoryModule());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte snapshot[];
+        long start, save, restore;
+        int icounter;
+
+        aCPU.run(CLOCKSPERCHECK);
+        try {
+            start = System.nanoTime();
+            for(icounter = 0; icounter < SNAPSHOTPASSES; icounter++)
+            {
+                out.reset();
+                Snapshot.Write(aCPU, Channels.newChannel(out), bCompress);
+            }
+            save = System.nanoTime() - start;
+            snapshot = out.toByteArray();
+            start = System.nanoTime();
+            for(icounter = 0; icounter < SNAPSHOTPASSES; icounter++)
+                Snapshot.Read(aCPU, Channels.newChannel(new ByteArrayInputStream(snapshot)));
+            restore = System.nanoTime() - start;
+        } catch (IOException e) {
+            System.out.println("snapshot: " + e.getMessage());
+            return;
+        }
+        System.out.printf("snapshot: %-8s %,d bytes  save %.2f us  restore %.2f us%n",
+                bCompress ? "deflated" : "raw", snapshot.length,
+                save / 1000.0 / SNAPSHOTPASSES, restore / 1000.0 / SNAPSHOTPASSES);
+    }
+
+/*
+**      LinearLookup - the decode used before the opcode table, kept here
+**      only as the reference for DecodeCompare
+*/
+    static Instruction LinearLookup(int opcode)
+    {
+        Instruction instruction = CPU.CPUInstructions[0];
+        int icounter;
+        for(icounter = 0; icounter < CPU.NUMCOMMANDS; icounter++)
+        {
+            instruction = CPU.CPUInstructions[icounter];
+            if(instruction.opcode == opcode)
+                break;
+        }
+        return (instruction);
+    }
+}
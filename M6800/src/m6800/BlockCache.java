@@ -0,0 +1,271 @@
+/*
+** BlockCache.java
+** Cache of predecoded basic blocks keyed by start address.  Blocks are kept
+** per 256 byte page.  Pages holding cached code are flagged in the
+** MemoryModule so that a write there comes back through CodeWritten and
+** the blocks covering the written bytes are dropped.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Invalidate also drops JIT translations of the block
+** 10/17/2026 Check every operand byte, a device can be a single address
+** 10/17/2026 Decode with Peek, so building a block doesn't set off a
+**            read watch
+*/
+package m6800;
+
+/**
+ *
+ * @author daves
+ */
+class BlockCache implements CodeWriteListener {
+
+    final static int PAGESIZE = 256;
+    final static int NUMPAGES = MemoryModule.MEMSIZE / PAGESIZE;
+    // 32 instructions of at most 3 bytes, so a block never spans more than
+    // two pages and a write only has to look at its own page and the one before
+    final static int MAXINSTRUCTIONS = 32;
+
+    private final MemoryModule mem;
+    private final CodeBlock pages[][];
+    private final boolean codeBytes[][]; // bytes covered by some cached block
+
+    BlockCache(MemoryModule mem)
+    {
+        this.mem = mem;
+        pages = new CodeBlock[NUMPAGES][];
+        codeBytes = new boolean[NUMPAGES][];
+    }
+
+/*
+**      Lookup - block starting at iAddress, decoding it on first use.
+**      Returns null when the code there can't be cached (e.g. running from
+**      the keypad port).
+*/
+    CodeBlock Lookup(int iAddress)
+    {
+        if((iAddress < 0) || (iAddress >= MemoryModule.MEMSIZE))
+            return (null);
+        int page = iAddress / PAGESIZE;
+        CodeBlock blocks[] = pages[page];
+        CodeBlock block = (blocks == null) ? null : blocks[iAddress % PAGESIZE];
+        if(block == null)
+        {
+            block = Build(iAddress);
+            if(block != null)
+                Add(block);
+        }
+        return (block);
+    }
+
+/*
+**      Cacheable - true if none of count bytes from iAddress is on a device
+*/
+    private boolean Cacheable(int iAddress, int count)
+    {
+        int icounter;
+        for(icounter = 0; icounter < count; icounter++)
+        {
+            if(!mem.IsCacheable(iAddress + icounter))
+                return (false);
+        }
+        return (true);
+    }
+
+/*
+**      Build - decode instructions from iAddress up to and including the
+**      first one that can change the flow of control
+*/
+    private CodeBlock Build(int iAddress)
+    {
+        int opcode[] = new int[MAXINSTRUCTIONS];
+        int operand[] = new int[MAXINSTRUCTIONS];
+        int nextPC[] = new int[MAXINSTRUCTIONS];
+        int length = 0;
+        int cycles = 0;
+        int pc = iAddress;
+        Instruction instruction;
+
+        while(length < MAXINSTRUCTIONS)
+        {
+            if(!mem.IsCacheable(pc))
+                break;
+            instruction = CPU.InstructionLookup(mem.Peek(pc));
+            if(!Cacheable(pc + 1, instruction.commandlength - 1))
+                break;
+            opcode[length] = instruction.opcode;
+            switch(instruction.commandlength)
+            {
+                case 2:
+                    operand[length] = mem.Peek(pc + 1);
+                break;
+                case 3:
+                    operand[length] = (mem.Peek(pc + 1) << 8) + mem.Peek(pc + 2);
+                break;
+                default:
+                    operand[length] = 0;
+                break;
+            }
+            pc += instruction.commandlength;
+            nextPC[length] = pc;
+            cycles += instruction.cycles;
+            length++;
+            if(EndsBlock(instruction.ID))
+                break;
+        }
+        if(length == 0)
+            return (null);
+        return (new CodeBlock(iAddress, length, opcode, operand, nextPC, cycles));
+    }
+
+/*
+**      EndsBlock - instructions after which the next PC isn't simply the
+**      following address
+*/
+    static boolean EndsBlock(Instruction.CommandID ID)
+    {
+        switch(ID)
+        {
+            case BCC:
+            case BCS:
+            case BEQ:
+            case BGE:
+            case BGT:
+            case BHI:
+            case BLE:
+            case BLS:
+            case BLT:
+            case BMI:
+            case BNE:
+            case BPL:
+            case BRA:
+            case BSR:
+            case BVC:
+            case BVS:
+            case JMP:
+            case JSR:
+            case RTI:
+            case RTS:
+            case SWI:
+            case WAI:
+                return (true);
+            default:
+                return (false);
+        }
+    }
+
+    private void Add(CodeBlock block)
+    {
+        int page = block.startPC / PAGESIZE;
+        int iAddress;
+        if(pages[page] == null)
+            pages[page] = new CodeBlock[PAGESIZE];
+        pages[page][block.startPC % PAGESIZE] = block;
+        for(iAddress = block.startPC; iAddress < block.endPC; iAddress++)
+        {
+            page = iAddress / PAGESIZE;
+            if(codeBytes[page] == null)
+            {
+                codeBytes[page] = new boolean[PAGESIZE];
+                mem.MarkCodePage(page, true);
+            }
+            codeBytes[page][iAddress % PAGESIZE] = true;
+        }
+    }
+
+/*
+**      CodeWritten - memory in a flagged page changed.  Drop every block
+**      covering [iStart, iStart + iSize).
+*/
+    @Override
+    public void CodeWritten(int iStart, int iSize)
+    {
+        int iEnd = iStart + iSize;
+        int firstPage = Math.max(iStart / PAGESIZE - 1, 0);
+        int lastPage = Math.min((iEnd - 1) / PAGESIZE, NUMPAGES - 1);
+        int page, iAddress;
+        boolean bHit = false;
+
+        for(iAddress = iStart; (iAddress < iEnd) && !bHit; iAddress++)
+        {
+            boolean map[] = codeBytes[iAddress / PAGESIZE];
+            bHit = (map != null) && map[iAddress % PAGESIZE];
+        }
+        if(!bHit)
+            return; // data sharing a page with code
+        for(page = firstPage; page <= lastPage; page++)
+            Invalidate(page, iStart, iEnd);
+        // rebuild the byte maps the dropped blocks touched from the blocks
+        // that are left, including those running in from the page before
+        lastPage = Math.min(lastPage + 1, NUMPAGES - 1);
+        for(page = firstPage; page <= lastPage; page++)
+        {
+            if(codeBytes[page] != null)
+            {
+                codeBytes[page] = null;
+                mem.MarkCodePage(page, false);
+            }
+        }
+        for(page = Math.max(firstPage - 1, 0); page <= lastPage; page++)
+            Remark(page);
+    }
+
+/*
+**      Invalidate - drop the blocks starting in page that cover [iStart, iEnd)
+*/
+    private void Invalidate(int page, int iStart, int iEnd)
+    {
+        CodeBlock blocks[] = pages[page];
+        int icounter;
+        if(blocks == null)
+            return;
+        for(icounter = 0; icounter < PAGESIZE; icounter++)
+        {
+            CodeBlock block = blocks[icounter];
+            if((block != null) && block.Covers(iStart, iEnd))
+            {
+                block.Invalidate();
+                blocks[icounter] = null;
+            }
+        }
+    }
+
+    private void Remark(int page)
+    {
+        CodeBlock blocks[] = pages[page];
+        int icounter;
+        if(blocks == null)
+            return;
+        for(icounter = 0; icounter < PAGESIZE; icounter++)
+        {
+            if(blocks[icounter] != null)
+                Add(blocks[icounter]);
+        }
+    }
+
+/*
+**      Clear - drop every block, e.g. on reset after a new program is loaded
+*/
+    void Clear()
+    {
+        int page, icounter;
+        for(page = 0; page < NUMPAGES; page++)
+        {
+            CodeBlock blocks[] = pages[page];
+            if(blocks != null)
+            {
+                for(icounter = 0; icounter < PAGESIZE; icounter++)
+                {
+                    if(blocks[icounter] != null)
+                        blocks[icounter].Invalidate();
+                }
+                pages[page] = null;
+            }
+            if(codeBytes[page] != null)
+            {
+                codeBytes[page] = null;
+                mem.MarkCodePage(page, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+** BootSnapshot.java
+** The state the built in monitor reaches BOOTCYCLES after a reset, idle at
+** the prompt and scanning the keypad, kept in the jar as boot.snap:
+**
+**      snapshot    Snapshot of the booted machine
+**      count       2 bytes, number of ranges below
+**      ranges      2 byte start, 2 byte length of each range of the state
+**                  in the snapshot the boot leaves alone, the RAM and
+**                  display segments it doesn't write
+**
+** With CPU.SetFastBoot on, a reset loads it instead of running the power on
+** code, keeping the bytes in the ranges as they were.  The result is the
+** same as a real boot, which is checked once when boot.snap is first used
+** and fast boot is left off if it isn't.  After changing the ROM image or
+** how instructions execute, rebuild it with
+**
+**      java -cp M6800.jar m6800.BootSnapshot src/m6800/boot.snap
+**
+** and check it against a real boot from any RAM contents with
+**
+**      java -cp M6800.jar m6800.BootSnapshot -verify
+**
+** Revisions:
+** 10/17/2026 Initial version
+*/
+package m6800;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * @author daves
+ */
+public class BootSnapshot {
+
+    final static String RESOURCE = "boot.snap";
+    final static long BOOTCYCLES = 6000;    // idle at the prompt from about 5500
+    final static int VERIFYFILLS = 8;       // random RAM contents for -verify
+
+    private final ByteBuffer state;         // as Snapshot.Capture made it
+    private final int starts[];             // state left alone by the boot
+    private final int lengths[];
+
+    private BootSnapshot(ByteBuffer state, int starts[], int lengths[])
+    {
+        this.state = state;
+        this.starts = starts;
+        this.lengths = lengths;
+    }
+
+/*
+**      Embedded - boot.snap, read and checked on first use, or null if it
+**      is missing or doesn't match a real boot
+*/
+    private static class Embedded {
+        static final BootSnapshot image = LoadChecked();
+    }
+
+    private static BootSnapshot LoadChecked()
+    {
+        BootSnapshot image;
+        try (InputStream in = BootSnapshot.class.getResourceAsStream(RESOURCE)) {
+            if(in == null)
+                return (null);
+            image = Read(in);
+        } catch (IOException e) {
+            System.err.println(RESOURCE + ": " + e.getMessage() + ", fast boot is off");
+            return (null);
+        }
+        if(!image.Matches(0x00) || !image.Matches(0xFF))
+        {
+            System.err.println(RESOURCE + " doesn't match a real boot, fast boot is off");
+            return (null);
+        }
+        return (image);
+    }
+
+/*
+**      Boot - load the booted state into cpu as if it had just been reset
+**      and run BOOTCYCLES, counts included.  Only done for the built in
+**      monitor with no key down and the CPU not halted, returns false
+**      without touching cpu otherwise.
+*/
+    static boolean Boot(CPU cpu)
+    {
+        BootSnapshot image = Embedded.image;
+        MemoryModule mem = cpu.GetMemoryModule();
+        if((image == null) || cpu.GetHalted() || mem.IsROMLoaded() || mem.KeyPending())
+            return (false);
+        return (image.Apply(cpu));
+    }
+
+    private boolean Apply(CPU cpu)
+    {
+        ByteBuffer previous = Snapshot.Capture(cpu);
+        ByteBuffer booted = ByteBuffer.allocate(state.limit());
+        int icounter;
+        // memory laid out the same, e.g. no more RAM attached
+        if(previous.limit() != state.limit())
+            return (false);
+        booted.put(state.duplicate());
+        booted.flip();
+        for(icounter = 0; icounter < starts.length; icounter++)
+            System.arraycopy(previous.array(), starts[icounter], booted.array(), starts[icounter], lengths[icounter]);
+        try {
+            Snapshot.Restore(cpu, booted);
+        } catch (IOException e) {
+            return (false);
+        }
+        return (true);
+    }
+
+/*
+**      Matches - true if booting from RAM and display filled by fill
+**      (0-255, or a Random seed above that) gives the same machine as Apply
+*/
+    boolean Matches(int fill)
+    {
+        CPU real = Filled(fill);
+        CPU fast = Filled(fill);
+        real.Reset();
+        real.run(BOOTCYCLES);
+        return (Apply(fast) &&
+                Arrays.equals(Snapshot.Capture(real).array(), Snapshot.Capture(fast).array()));
+    }
+
+    private static CPU Filled(int fill)
+    {
+        MemoryModule mem = new MemoryModule();
+        Random random = new Random(fill);
+        int iAddress;
+        for(iAddress = mem.RAM.memstart; iAddress < mem.RAM.memstart + mem.RAM.memsize; iAddress++)
+            mem.MemWrite(iAddress, (fill < 0x100) ? fill : random.nextInt(0x100));
+        for(iAddress = mem.DISPLAY.memstart; iAddress < mem.DISPLAY.memstart + mem.DISPLAY.memsize; iAddress++)
+            mem.MemWrite(iAddress, (fill < 0x100) ? fill : random.nextInt(0x100));
+        return (new CPU(mem));
+    }
+
+/*
+**      Make - boot the built in monitor and find what the boot leaves alone
+**      by booting over two different fills
+*/
+    static BootSnapshot Make()
+    {
+        CPU zeros = Filled(0x00);
+        CPU ones = Filled(0xFF);
+        ArrayList<Integer> starts = new ArrayList<>();
+        ArrayList<Integer> lengths = new ArrayList<>();
+        int offset;
+
+        zeros.Reset();
+        zeros.run(BOOTCYCLES);
+        ones.Reset();
+        ones.run(BOOTCYCLES);
+        byte zerostate[] = Snapshot.Capture(zeros).array();
+        byte onestate[] = Snapshot.Capture(ones).array();
+        for(offset = 0; offset < zerostate.length; offset++)
+        {
+            if(zerostate[offset] == onestate[offset])
+                continue;
+            int last = starts.size() - 1;
+            if((last >= 0) && (starts.get(last) + lengths.get(last) == offset))
+                lengths.set(last, lengths.get(last) + 1);
+            else
+            {
+                starts.add(offset);
+                lengths.add(1);
+            }
+        }
+        return (new BootSnapshot(Snapshot.Capture(zeros),
+                starts.stream().mapToInt(Integer::intValue).toArray(),
+                lengths.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+/*
+**      Read and Write - boot.snap
+*/
+    static BootSnapshot Read(InputStream in) throws IOException
+    {
+        CPU booted = new CPU(new MemoryModule());
+        Snapshot.Read(booted, Channels.newChannel(in));
+        DataInputStream ranges = new DataInputStream(in);
+        int count = ranges.readUnsignedShort();
+        int starts[] = new int[count];
+        int lengths[] = new int[count];
+        int icounter;
+        ByteBuffer state = Snapshot.Capture(booted);
+        for(icounter = 0; icounter < count; icounter++)
+        {
+            starts[icounter] = ranges.readUnsignedShort();
+            lengths[icounter] = ranges.readUnsignedShort();
+            if(starts[icounter] + lengths[icounter] > state.limit())
+                throw new IOException("range past the end of the state");
+        }
+        return (new BootSnapshot(state, starts, lengths));
+    }
+
+    void Write(String fileName) throws IOException
+    {
+        CPU booted = new CPU(new MemoryModule());
+        int icounter;
+        Snapshot.Restore(booted, state.duplicate());
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(Paths.get(fileName)))) {
+            Snapshot.Write(booted, Channels.newChannel(out), true);
+            out.writeShort(starts.length);
+            for(icounter = 0; icounter < starts.length; icounter++)
+            {
+                out.writeShort(starts[icounter]);
+                out.writeShort(lengths[icounter]);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if((args.length == 1) && !args[0].equals("-verify"))
+        {
+            BootSnapshot image = Make();
+            try {
+                image.Write(args[0]);
+            } catch (IOException e) {
+                System.err.println(args[0] + ": " + e.getMessage());
+                System.exit(1);
+            }
+            System.out.println(args[0] + ": booted state after " + BOOTCYCLES + " cycles, "
+                    + image.starts.length + " ranges kept");
+            return;
+        }
+        if(args.length > 1)
+        {
+            System.err.println("usage: BootSnapshot [-verify | out.snap]");
+            System.exit(2);
+        }
+        BootSnapshot image = Embedded.image;
+        int fill;
+        if(image == null)
+        {
+            System.out.println(RESOURCE + " is missing or doesn't match a real boot");
+            System.exit(1);
+        }
+        // every byte the same, then random bytes
+        for(fill = 0; fill < 0x100 + VERIFYFILLS; fill = (fill == 0xFF) ? 0x100 : fill + ((fill < 0x100) ? 0x11 : 1))
+        {
+            if(!image.Matches(fill))
+            {
+                System.out.println(RESOURCE + " doesn't match a real boot over fill " + fill);
+                System.exit(1);
+            }
+        }
+        System.out.println(RESOURCE + " matches a real boot");
+    }
+}
@@ -0,0 +1,117 @@
+/*
+** BreakpointDialog.java
+** Lists the Breakpoints set on the CPU, with a field to add one in the text
+** form Breakpoints.Parse reads, and shows the last stop.  When the CPU stops
+** the dialog comes up with the registers, Run lets it go on.
+**
+** Revisions:
+** 10/17/2026 Initial version
+*/
+package m6800;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+
+/**
+ *
+ * @author daves
+ */
+public class BreakpointDialog extends JDialog implements ActionListener {
+
+    private static final long serialVersionUID = 1L;
+    final static int SPECCOLUMNS = 24;
+    final static int LISTROWS = 8;
+
+    private final CPU myCPU;
+    private final Breakpoints breakpoints;
+    private final DefaultListModel<Breakpoints.Entry> entries = new DefaultListModel<>();
+    private final JList<Breakpoints.Entry> list = new JList<>(entries);
+    private final JTextField spec = new JTextField(SPECCOLUMNS);
+    private final JLabel status = new JLabel("Not stopped");
+    private final JButton addButton = new JButton("Add");
+    private final JButton removeButton = new JButton("Remove");
+    private final JButton runButton = new JButton("Run");
+
+    public BreakpointDialog(JFrame owner, CPU aCPU, Breakpoints aBreakpoints)
+    {
+        super(owner, "Breakpoints", false);
+        myCPU = aCPU;
+        breakpoints = aBreakpoints;
+        JPanel top = new JPanel(new FlowLayout());
+        JPanel buttons = new JPanel(new FlowLayout());
+        top.add(spec);
+        top.add(addButton);
+        buttons.add(removeButton);
+        buttons.add(runButton);
+        spec.setToolTipText("break FD25 [if A == 3F], watch [read|write] 00F0[-00FF], if X >= 0100");
+        spec.addActionListener(this);
+        addButton.addActionListener(this);
+        removeButton.addActionListener(this);
+        runButton.addActionListener(this);
+        list.setVisibleRowCount(LISTROWS);
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+        JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(status, BorderLayout.NORTH);
+        bottom.add(buttons, BorderLayout.SOUTH);
+        add(bottom, BorderLayout.SOUTH);
+        setDefaultCloseOperation(JDialog.HIDE_ON_CLOSE);
+        breakpoints.SetListener((String report) -> SwingUtilities.invokeLater(() -> {
+            status.setText(report);
+            setVisible(true);
+        }));
+        pack();
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent evt) {
+        Object source = evt.getSource();
+        if((source == addButton) || (source == spec))
+        {
+            Breakpoints.Entry entry;
+            try {
+                entry = Breakpoints.Parse(spec.getText());
+            } catch (IllegalArgumentException exc) {
+                JOptionPane.showMessageDialog(this, exc.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            entries.addElement(entry);
+            spec.setText("");
+            myCPU.Post(() -> breakpoints.Add(entry));
+        }
+        if(source == removeButton)
+        {
+            Breakpoints.Entry entry = list.getSelectedValue();
+            if(entry != null)
+            {
+                entries.removeElement(entry);
+                myCPU.Post(() -> breakpoints.Remove(entry));
+            }
+        }
+        if(source == runButton)
+        {
+            status.setText("Running");
+            myCPU.Post(() -> {
+                // going on from a point History went back to drops its future
+                History history = myCPU.GetTimeline();
+                if(history != null)
+                    history.Resume();
+                else
+                    myCPU.Pause(false);
+            });
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+** Breakpoints.java
+** Places for the CPU to stop: PC breakpoints, each with an optional
+** condition, watches on reads or writes of a range of addresses, and
+** conditions to stop on wherever they come true, e.g.
+**
+**      break FD25
+**      break FD25 if A == 3F && [00F0] != 0
+**      watch write 00F0-00FF
+**      if X >= 0100
+**
+** Addresses and values are hex, registers A, B, X, SP, PC and CC, [hhhh] the
+** byte at hhhh.  Nothing is checked on the way while none are set.  The
+** MemoryModule sends opcode fetches, reads and writes in a page with one set
+** through Fetching and Accessed instead of its page tables, and code under a
+** breakpoint isn't cached, so the BLOCK and JIT engines fetch it one
+** instruction at a time.  A condition without an address has to be checked
+** before every instruction, so it watches every fetch.
+**
+** A breakpoint or condition stops the CPU before the instruction, a watch
+** right after the instruction that hit it.  The CPU is paused and clock(),
+** step() or run() return.  Running on goes past the stop.  Each stop is
+** passed to the StopListener with the registers and kept for GetLastStop.
+** Add, Remove and Clear have to be called on the thread running the CPU,
+** e.g. through CPU.Post.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Entry.True is package-private, for Scenario's expect
+*/
+package m6800;
+
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * @author daves
+ */
+public class Breakpoints implements WatchListener {
+
+    private static final int BREAK = 0;
+    private static final int WATCH = 1;
+    private static final int WHEN = 2;
+
+    private static final Pattern BREAKSPEC = Pattern.compile(
+            "(?:break\\s+)?(\\S+)(?:\\s+if\\s+(.+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WATCHSPEC = Pattern.compile(
+            "watch(?:\\s+(read|write))?\\s+([^\\s-]+)(?:\\s*-\\s*(\\S+))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WHENSPEC = Pattern.compile(
+            "if\\s+(.+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TESTSPEC = Pattern.compile(
+            "\\s*(\\[[^\\]]*\\]|[A-Za-z]+)\\s*(==|!=|<=|>=|<|>)\\s*(\\S+)\\s*");
+    private static final String OPERATORS[] = { "==", "!=", "<", "<=", ">", ">=" };
+
+/*
+**      StopListener - told about each stop, on the thread running the CPU
+*/
+    public interface StopListener {
+        void Stopped(String report);
+    }
+
+/*
+**      Entry - one breakpoint, watch or condition, made by Parse
+*/
+    public static final class Entry {
+        private final int kind;
+        private final int start;
+        private final int end;      // past the last address
+        private final int flags;    // MemoryModule WATCH flags
+        private final Test tests[];
+        private final String text;
+
+        private Entry(int kind, int start, int end, int flags, Test tests[], String text)
+        {
+            this.kind = kind;
+            this.start = start;
+            this.end = end;
+            this.flags = flags;
+            this.tests = tests;
+            this.text = text;
+        }
+
+        boolean True(CPU cpu)
+        {
+            int icounter;
+            for(icounter = 0; icounter < tests.length; icounter++)
+            {
+                if(!tests[icounter].True(cpu))
+                    return (false);
+            }
+            return (true);
+        }
+
+        @Override
+        public String toString()
+        {
+            return (text);
+        }
+    }
+
+/*
+**      Test - one comparison of a condition.  Memory is read with Peek, a
+**      device address reads as -1.
+*/
+    private static final class Test {
+        private final String register;     // null for memory
+        private final int address;
+        private final int operator;         // index in OPERATORS
+        private final int value;
+
+        private Test(String register, int address, int operator, int value)
+        {
+            this.register = register;
+            this.address = address;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        private boolean True(CPU cpu)
+        {
+            int current;
+            if(register == null)
+                current = cpu.GetMemoryModule().Peek(address);
+            else
+            {
+                switch(register)
+                {
+                    case "A":
+                        current = cpu.GetACCA();
+                    break;
+                    case "B":
+                        current = cpu.GetACCB();
+                    break;
+                    case "X":
+                        current = cpu.GetIX();
+                    break;
+                    case "SP":
+                        current = cpu.GetSP();
+                    break;
+                    case "PC":
+                        current = cpu.GetPC();
+                    break;
+                    default:
+                        current = cpu.GetCC();
+                    break;
+                }
+            }
+            switch(operator)
+            {
+                case 0:
+                    return (current == value);
+                case 1:
+                    return (current != value);
+                case 2:
+                    return (current < value);
+                case 3:
+                    return (current <= value);
+                case 4:
+                    return (current > value);
+                default:
+                    return (current >= value);
+            }
+        }
+    }
+
+    private final CPU cpu;
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private StopListener listener;
+    private volatile String lastStop;
+
+    public Breakpoints(CPU cpu)
+    {
+        this.cpu = cpu;
+    }
+
+/*
+**      Parse - an Entry from text as described above.  Throws
+**      IllegalArgumentException saying what's wrong with it.
+*/
+    public static Entry Parse(String spec)
+    {
+        Matcher match;
+        String text = spec.trim();
+        if((match = WATCHSPEC.matcher(text)).matches())
+        {
+            int start = Number(match.group(2), 0xFFFF);
+            int last = (match.group(3) == null) ? start : Number(match.group(3), 0xFFFF);
+            int flags = MemoryModule.WATCHREAD | MemoryModule.WATCHWRITE;
+            String kind = "";
+            if(last < start)
+                throw new IllegalArgumentException("watch range ends before it starts");
+            if(match.group(1) != null)
+            {
+                kind = match.group(1).toLowerCase() + " ";
+                flags = kind.equals("read ") ? MemoryModule.WATCHREAD : MemoryModule.WATCHWRITE;
+            }
+            return (new Entry(WATCH, start, last + 1, flags, null,
+                    String.format("watch %s%04X", kind, start) + ((last > start) ? String.format("-%04X", last) : "")));
+        }
+        if((match = WHENSPEC.matcher(text)).matches())
+        {
+            Test tests[] = Condition(match.group(1));
+            return (new Entry(WHEN, 0, 0, MemoryModule.WATCHFETCH, tests, "if " + Describe(tests)));
+        }
+        if((match = BREAKSPEC.matcher(text)).matches())
+        {
+            int address = Number(match.group(1), 0xFFFF);
+            Test tests[] = (match.group(2) == null) ? new Test[0] : Condition(match.group(2));
+            return (new Entry(BREAK, address, address + 1, MemoryModule.WATCHFETCH, tests,
+                    String.format("break %04X", address) + ((tests.length > 0) ? " if " + Describe(tests) : "")));
+        }
+        throw new IllegalArgumentException("expected break, watch or if");
+    }
+
+/*
+**      Add, Remove and Clear - change what stops the CPU
+*/
+    public void Add(Entry entry)
+    {
+        entries.add(entry);
+        Install();
+    }
+
+    public void Remove(Entry entry)
+    {
+        entries.remove(entry);
+        Install();
+    }
+
+    public void Clear()
+    {
+        entries.clear();
+        Install();
+    }
+
+    public void SetListener(StopListener stopListener)
+    {
+        listener = stopListener;
+    }
+
+/*
+**      GetLastStop - why and where the CPU last stopped, null if it hasn't.
+**      Safe from any thread.
+*/
+    public String GetLastStop()
+    {
+        return (lastStop);
+    }
+
+/*
+**      Fetching - the CPU is about to fetch an opcode from a watched address
+*/
+    @Override
+    public void Fetching(int iAddress)
+    {
+        int icounter;
+        Entry entry;
+        for(icounter = 0; icounter < entries.size(); icounter++)
+        {
+            entry = entries.get(icounter);
+            if(((entry.kind == WHEN) || ((entry.kind == BREAK) && (entry.start == iAddress))) &&
+                    entry.True(cpu))
+                cpu.Stop(entry.text);
+        }
+    }
+
+/*
+**      Accessed - an instruction read or wrote a watched address
+*/
+    @Override
+    public void Accessed(int iAddress, int iValue, boolean bWrite)
+    {
+        int icounter;
+        Entry entry;
+        int flag = bWrite ? MemoryModule.WATCHWRITE : MemoryModule.WATCHREAD;
+        for(icounter = 0; icounter < entries.size(); icounter++)
+        {
+            entry = entries.get(icounter);
+            if((entry.kind == WATCH) && ((entry.flags & flag) != 0) &&
+                    (iAddress >= entry.start) && (iAddress < entry.end))
+            {
+                cpu.StopAfter(String.format("%s, %s %02X %s %04X", entry.text,
+                        bWrite ? "wrote" : "read", iValue, bWrite ? "to" : "from", iAddress));
+                return;
+            }
+        }
+    }
+
+/*
+**      Report - called by CPU.Stop
+*/
+    void Report(String reason)
+    {
+        String report = String.format("%s: PC %04X A %02X B %02X X %04X SP %04X CC %02X, cycle %d",
+                reason, cpu.GetPC(), cpu.GetACCA(), cpu.GetACCB(), cpu.GetIX(), cpu.GetSP(),
+                cpu.GetCC(), cpu.GetCycleCount());
+        lastStop = report;
+        if(listener != null)
+            listener.Stopped(report);
+    }
+
+/*
+**      Install - set the watches in memory for the entries
+*/
+    private void Install()
+    {
+        MemoryModule mem = cpu.GetMemoryModule();
+        boolean bWatching = false;
+        int icounter;
+        Entry entry;
+        mem.ClearWatches();
+        for(icounter = 0; icounter < entries.size(); icounter++)
+        {
+            entry = entries.get(icounter);
+            if(entry.kind == WHEN)
+                mem.Watch(0, MemoryModule.MEMSIZE, entry.flags);
+            else
+                mem.Watch(entry.start, entry.end - entry.start, entry.flags);
+            bWatching |= (entry.kind == WATCH);
+        }
+        mem.SetWatchListener(entries.isEmpty() ? null : this);
+        cpu.SetStops(entries.isEmpty() ? null : this, bWatching);
+    }
+
+    private static Test[] Condition(String text)
+    {
+        String terms[] = text.split("&&");
+        Test tests[] = new Test[terms.length];
+        Matcher match;
+        String register;
+        int icounter, address = 0;
+        for(icounter = 0; icounter < terms.length; icounter++)
+        {
+            match = TESTSPEC.matcher(terms[icounter]);
+            if(!match.matches())
+                throw new IllegalArgumentException("can't read condition \"" + terms[icounter].trim() + "\"");
+            register = match.group(1).toUpperCase();
+            if(register.startsWith("["))
+            {
+                address = Number(register.substring(1, register.length() - 1).trim(), 0xFFFF);
+                register = null;
+            }
+            else if(register.equals("ACCA"))
+                register = "A";
+            else if(register.equals("ACCB"))
+                register = "B";
+            else if(register.equals("IX"))
+                register = "X";
+            else if(!register.matches("A|B|X|SP|PC|CC"))
+                throw new IllegalArgumentException("no register " + register);
+            tests[icounter] = new Test(register, address, Operator(match.group(2)),
+                    Number(match.group(3), 0xFFFF));
+        }
+        return (tests);
+    }
+
+    private static int Operator(String text)
+    {
+        int icounter;
+        for(icounter = 0; !OPERATORS[icounter].equals(text); icounter++)
+            ;
+        return (icounter);
+    }
+
+    private static String Describe(Test tests[])
+    {
+        StringBuilder text = new StringBuilder();
+        int icounter;
+        for(icounter = 0; icounter < tests.length; icounter++)
+        {
+            if(icounter > 0)
+                text.append(" && ");
+            if(tests[icounter].register == null)
+                text.append(String.format("[%04X]", tests[icounter].address));
+            else
+                text.append(tests[icounter].register);
+            text.append(String.format(" %s %X", OPERATORS[tests[icounter].operator], tests[icounter].value));
+        }
+        return (text.toString());
+    }
+
+/*
+**      Number - hex text, with or without $ or 0x in front, up to max
+*/
+    static int Number(String text, int max)
+    {
+        String digits = text;
+        int value;
+        if(digits.startsWith("$"))
+            digits = digits.substring(1);
+        else if(digits.startsWith("0x") || digits.startsWith("0X"))
+            digits = digits.substring(2);
+        try {
+            value = Integer.parseInt(digits, 16);
+        } catch (NumberFormatException exc) {
+            throw new IllegalArgumentException("\"" + text + "\" isn't a hex number");
+        }
+        if((value < 0) || (value > max))
+            throw new IllegalArgumentException("\"" + text + "\" is more than " + Integer.toHexString(max).toUpperCase());
+        return (value);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+** BusDevice.java
+** A memory mapped peripheral.  MemoryModule.AttachDevice gives it a range
+** of addresses, and reads and writes there are passed to it instead of to
+** RAM or ROM.  Only the pages a device is attached to are slowed down by it.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Add Fork
+*/
+package m6800;
+
+/**
+ *
+ * @author daves
+ */
+public interface BusDevice {
+
+/*
+**      Read - value (0-255) the CPU sees at iAddress, which is in a range
+**      the device was attached to
+*/
+    int Read(int iAddress);
+
+/*
+**      Write - CPU stores iValue (0-255) at iAddress
+*/
+    void Write(int iAddress, int iValue);
+
+/*
+**      Fork - a device in the same state for MemoryModule.Fork, to be used
+**      on another thread from then on.  One that has no state can return
+**      itself.
+*/
+    BusDevice Fork();
+}
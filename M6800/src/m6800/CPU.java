@@ -12,8 +12,56 @@
 ** 4/10/2020 Fix GetArgument16 for Extended addressing
 ** 9/13/2020 Add NMI, IRQ, and WAI functionality
 ** 5/11/2022 Modified clock delay to use better range that's more realistic
+** 10/17/2026 Decode opcodes through a shared 256 entry table instead of
+**            scanning the instruction list on every fetch
+** 10/17/2026 Add TABLE engine, per opcode handlers with addressing mode,
+**            register and carry fixed when the table is built
+** 10/17/2026 Add step() and run() to execute whole instructions, checking
+**            reset and interrupt requests only between instructions
+** 10/17/2026 Add BLOCK engine, run() executes cached predecoded basic blocks
+** 10/17/2026 Add JIT engine, hot blocks are translated to JVM bytecode
+** 10/17/2026 Add LoadTranslation for AOTCompiler images
+** 10/17/2026 Evaluate condition codes lazily, ALU operations record what
+**            they did and flags are worked out only when read
+** 10/17/2026 Take add and subtract flags and DAA adjustments from FlagTables
+** 10/17/2026 Wrap PC to 16 bits at each fetch
+** 10/17/2026 Add Fork, a copy of the machine sharing memory copy on write
+** 10/17/2026 Add SaveState and RestoreState for Snapshot
+** 10/17/2026 Add fast boot, a reset can load BootSnapshot instead of
+**            running the monitor's power on code
+** 10/17/2026 Add Post and KeyRequest, keys and requests from other threads
+**            are taken between instructions and can be recorded in an
+**            InputLog.  clock() takes requests between instructions only,
+**            as step() and run() do, finishes an instruction before halting
+**            and spends one cycle on an invalid opcode as they do
+** 10/17/2026 Add Pause and checkpoints for History
+** 10/17/2026 Replace the fixed debugstop address with Breakpoints, opcodes
+**            are fetched through MemoryModule.Fetch and a stop unwinds
+**            clock(), step() or run() before the instruction
+** 10/17/2026 Add SetTrace, Fetch records each instruction in a Trace
+** 10/17/2026 Add SetTraceWriter to stream each instruction to disk
+** 10/17/2026 A TraceWriter can take the reads as well as the writes
+** 10/17/2026 Remove the clock delay, Throttle runs the CPU in real time
+** 10/17/2026 Add Leave, for a warp to end a run() where it happened
+** 10/17/2026 Add SetWaitStops, for run() to return at a WAI
+** 10/17/2026 RestoreState refuses flags, FlagPending and counts out of range
+** 10/17/2026 Add GetFlagState and ConditionCode, for a TraceWriter to work
+**            out the CC on its own thread
+** 10/17/2026 BSR reads its offset before pushing, as the 6800 and the
+**            TABLE engine do, a push onto the offset no longer moves it
+** 10/17/2026 Look flags up in the 64 entry FlagTables, DAA uses DAAAdjust
+** 10/17/2026 TraceFlags, TraceOperation and TraceOperands in place of
+**            GetFlagState, and RunStreamed, run() streaming to a
+**            TraceWriter without the rest of the single stepping
+** 10/17/2026 JitStopped, JitLeave and JitExecute for translated code loaded
+**            by a RegionLoader, in place of JitEnter and JitUndo
+** 10/17/2026 The BLOCK engine runs translations LoadTranslation installed
  */
 package m6800;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
 /**
  *
  * @author daves
@@ -30,19 +78,80 @@ public class CPU {
         private boolean N;
         private boolean I;
         private boolean H;
+        // lazy condition codes: the flags in FlagPending are stale and are
+        // worked out from FlagOp, FlagArg and FlagResult when read
+        // through Carry(), Overflow(), Zero() or Negative()
+        private int FlagPending;
+        private int FlagOp;
+        private int FlagArg;
+        private int FlagResult;
+        private boolean LazyFlags = true;
+        private boolean FastBoot = false;
+        private static final int FLAG_C = 0x01; // as in the CC register
+        private static final int FLAG_V = 0x02;
+        private static final int FLAG_Z = 0x04;
+        private static final int FLAG_N = 0x08;
+        private static final int FLAG_I = 0x10;
+        private static final int FLAG_H = 0x20;
+        private static final int STATE_WAI = 0x01;  // status bits in snapshots
+        private static final int STATE_IRQ = 0x02;
+        private static final int STATE_NMI = 0x04;
+        private static final int STATE_RESET = 0x08;
+        private static final int STATE_HALTED = 0x10;
+        private static final int STATE_CLOCKWAIT = 0x20;
+        static final int STATESIZE = 60;            // bytes SaveState writes
+        private static final int FLAGS_ADD = 0;     // FlagTables index in FlagArg
+        private static final int FLAGS_SUB = 1;     // FlagTables index in FlagArg
+        private static final int FLAGS_NEG = 2;     // 0 - FlagArg
+        private static final int FLAGS_LOAD = 3;    // loads, stores, logic
+        private static final int FLAGS_LOAD16 = 4;
+        private static final int FLAGS_INC = 5;
+        private static final int FLAGS_DEC = 6;
+        private static final int FLAGS_SHIFT = 7;   // carry out in FlagArg
+        private static final int FLAGS_TEST = 8;    // TST, COM, CLR, carry in FlagArg
+        private static final int FLAGS_LSR = 9;     // N clear, V = C in FlagArg
+        private static final int FLAGSET[] = {      // flags each one sets
+            FLAG_H | FLAG_N | FLAG_Z | FLAG_V | FLAG_C,
+            FLAG_N | FLAG_Z | FLAG_V | FLAG_C,
+            FLAG_N | FLAG_Z | FLAG_V | FLAG_C,
+            FLAG_N | FLAG_Z | FLAG_V,
+            FLAG_N | FLAG_Z | FLAG_V,
+            FLAG_N | FLAG_Z | FLAG_V,
+            FLAG_N | FLAG_Z | FLAG_V,
+            FLAG_N | FLAG_Z | FLAG_V | FLAG_C,
+            FLAG_N | FLAG_Z | FLAG_V | FLAG_C,
+            FLAG_N | FLAG_Z | FLAG_V | FLAG_C
+        };
         private boolean WAIFlag;
+        private boolean WaitStops;  // run() returns at a WAI
+        // requests below are raised through Post, Halted is set from the
+        // UI thread
         private boolean IRQFlag;
         private boolean NMIFlag;
         private boolean ResetReq;
-        private boolean Halted = false;
-        public final int NUMCOMMANDS = 198; // per 6800 reference, there are 197
+        private volatile boolean Halted = false;
+        // work for the thread running the CPU, done between instructions
+        private final ConcurrentLinkedQueue<Runnable> Posted = new ConcurrentLinkedQueue<>();
+        private volatile boolean PostPending;
+        private boolean Draining;   // doing posted work
+        private InputLog Recorder;  // inputs are added to it as they're taken
+        private History Timeline;   // checkpoints and inputs for going back
+        private long CheckpointAt = Long.MAX_VALUE; // when Timeline wants one
+        private volatile boolean Paused;
+        // Breakpoints set in memory, see Stop
+        private Breakpoints Stops;
+        private boolean Watching;   // read or write watches
+        private boolean Quiet;      // History re-executing, no stops or trace
+        private long StoppedAt = -1; // cycle of the last stop, the next fetch there runs on
+        private static final Stopped STOPPED = new Stopped();
+        private Trace Tracer;       // records each instruction fetched
+        private TraceWriter Streamer; // writes each instruction fetched to disk
+        private boolean Stepping;   // watches or a trace, run() goes one instruction at a time
+        public static final int NUMCOMMANDS = 198; // per 6800 reference, there are 197
                                      // possible opcodes, add 1 for invalid opcode
+        public static final int NUMOPCODES = 256;
         public final int MEMEND = 0xFFFF;
         
-        public static final int MINCLOCKDELAY = 0;
-        public static final int MAXCLOCKDELAY = 10;
-        public static final int DEFAULTCLOCKDELAY = 5;
-        public static final int DEFAULTCLOCKTICKS = 1000;
         private int lastLocation; // for instructions that modify a value
         
         private final int RESETVECTOR = 0xFFFE;
@@ -50,8 +159,21 @@ public class CPU {
         private final int SWIVECTOR = 0xFFFA;
         private final int IRQVECTOR = 0xFFF8;
         
-        private int debugstop = 0x0024;
-        private boolean debug;
+/*
+**      Stopped - thrown to leave clock(), step() or run() at a stop.  Only
+**      STOPPED is thrown, with no stack trace, so it costs nothing until it
+**      is.
+*/
+        private static final class Stopped extends RuntimeException
+        {
+            private static final long serialVersionUID = 1L;
+
+            Stopped()
+            {
+                super(null, null, false, false);
+            }
+        }
+
         private enum CommandStates {
             COMMAND,
             CLOCKWAIT
@@ -65,13 +187,45 @@ public class CPU {
             SP
         };
         
+        public enum Engine
+        {
+            SWITCH,     // DoInstruction, switch on command then addressing mode
+            TABLE,      // one pre-bound handler per opcode
+            BLOCK,      // TABLE handlers, run() uses predecoded basic blocks
+            JIT         // BLOCK, with hot blocks translated by Translator
+        };
+        
+/*
+**      OpHandler - executes one opcode.  PC has already been moved past the
+**      instruction and operand holds its argument bytes (0, 8 or 16 bits).
+*/
+        private interface OpHandler
+        {
+            void Execute(CPU cpu, int operand);
+        }
+        
+/*
+**      Operand - turns the raw argument bytes into a value or an address for
+**      one addressing mode
+*/
+        private interface Operand
+        {
+            int Value(CPU cpu, int operand);
+        }
+        
         private CommandStates state;
         private final MemoryModule mem;
+        private final BlockCache Blocks;
+        private final Translator Compiler;
+        private AOTImage Translation;
+        private static final int JITTHRESHOLD = 1000; // block runs before translation
+        private static final int JITMAXBACKOFF = 10; // doublings of it after drops
         private int clockstep;
         private Instruction CurrentInstruction;
+        private long InstructionCount;
+        private long CycleCount;
 
-        private int ClockDelay = DEFAULTCLOCKDELAY; // setting from slider
-        private int ActualClockDelay = DEFAULTCLOCKTICKS;
+        private Engine engine = Engine.SWITCH;
 /*
 **      Reset - init CPU to reset state
 */
@@ -94,6 +248,34 @@ public class CPU {
             Z=false;
             V=false;
             C=false;
+            FlagPending = 0;
+            // a reset follows every S-record load, drop anything decoded
+            // while the UI thread was still writing memory
+            Blocks.Clear();
+            if(Translation != null)
+                Translation.Install(Blocks, mem);
+        }
+        
+/*
+**      TakeReset - act on ResetRequest.  With fast boot on the monitor's
+**      power on code is skipped where BootSnapshot can stand in for it,
+**      otherwise this is Reset.  Returns the cycles the boot would have
+**      taken, 0 if it is left to run.
+*/
+        private int TakeReset()
+        {
+            long instructions = InstructionCount;
+            long cycles = CycleCount;
+            if(FastBoot && BootSnapshot.Boot(this))
+            {
+                // the snapshot counts from the reset
+                int skipped = (int) CycleCount;
+                InstructionCount += instructions;
+                CycleCount = cycles;
+                return (skipped);
+            }
+            Reset();
+            return (0);
         }
         
         public void Halt (boolean bHalt)
@@ -101,43 +283,611 @@ public class CPU {
             Halted = bHalt;
         }
         
+/*
+**      ResetRequest, NMIReq and IRQReq - raise the request between
+**      instructions, so a recording knows the cycle the CPU saw it
+*/
         public void ResetRequest ()
         {
-            ResetReq = true;
+            Post(() -> Input(InputLog.RESET, 0));
         }
+
 /*
-**      Clock - excute one clock cycle.  Decrement clock cycles and execute
-**      instruction when cycles have expired.
-*/        
-        public void clock()
+**      Post - have action done by the thread running the CPU, before the
+**      next instruction starts.  Safe to call from any thread.  Work not yet
+**      done isn't part of a Fork or Snapshot.
+*/
+        public void Post(Runnable action)
+        {
+            Posted.add(action);
+            PostPending = true;
+        }
+
+/*
+**      KeyRequest - press keypad key iValue (0-F) between instructions, so
+**      a recording knows the cycle the program saw it
+*/
+        public void KeyRequest(int iValue)
+        {
+            Post(() -> Input(InputLog.KEY, iValue));
+        }
+
+/*
+**      Input - take an InputLog event now, recording it if a recording is
+**      running.  Only between instructions, on the thread running the CPU.
+*/
+        void Input(int type, int iValue)
+        {
+            if(Recorder != null)
+                Recorder.Add(CycleCount, type, iValue);
+            if(Timeline != null)
+                Timeline.Input(CycleCount, type, iValue);
+            switch(type)
+            {
+                case InputLog.KEY:
+                    mem.KeypadWrite(iValue);
+                break;
+                case InputLog.NMI:
+                    NMIFlag = true;
+                break;
+                case InputLog.IRQ:
+                    if(!I)
+                    {
+                        IRQFlag = true;
+                    }
+                break;
+                case InputLog.RESET:
+                    ResetReq = true;
+                break;
+            }
+        }
+
+/*
+**      StartRecording - from the next instruction boundary, put the state of
+**      the machine and then every input taken into log
+*/
+        public void StartRecording(InputLog log)
+        {
+            Post(() -> {
+                log.Begin(Snapshot.Capture(this), engine);
+                Recorder = log;
+            });
+        }
+
+/*
+**      StopRecording - end the recording at the next instruction boundary,
+**      InputLog.AwaitEnd waits for it
+*/
+        public void StopRecording()
+        {
+            Post(() -> {
+                if(Recorder != null)
+                    Recorder.End(CycleCount, Snapshot.Capture(this));
+                Recorder = null;
+            });
+        }
+
+/*
+**      TakePosted - do posted work.  Work that runs the CPU itself, e.g.
+**      History going back, leaves anything posted meanwhile until it's done.
+*/
+        private void TakePosted()
+        {
+            Runnable action;
+            if(Draining)
+                return;
+            Draining = true;
+            try {
+                PostPending = false;
+                while((action = Posted.poll()) != null)
+                    action.run();
+            } finally {
+                Draining = false;
+                // a stop leaves the rest for the next boundary
+                if(!Posted.isEmpty())
+                    PostPending = true;
+            }
+        }
+
+/*
+**      Boundary - between instructions, take a checkpoint if one is due and
+**      do posted work
+*/
+        private void Boundary()
+        {
+            if(CycleCount >= CheckpointAt)
+                CheckpointAt = Timeline.Checkpoint();
+            if(PostPending)
+                TakePosted();
+        }
+
+/*
+**      SetTimeline - have history take checkpoints and see inputs, null
+**      to stop.  History re-executes with none set.
+*/
+        void SetTimeline(History history)
+        {
+            Timeline = history;
+            CheckpointAt = (history == null) ? Long.MAX_VALUE : history.NextCheckpoint();
+        }
+
+        History GetTimeline()
+        {
+            return (Timeline);
+        }
+
+        boolean IsRecording()
+        {
+            return (Recorder != null);
+        }
+
+/*
+**      Pause - with it on clock() and runUntilPaused() stop between
+**      instructions, doing only posted work and leaving the cycle count
+**      alone.  step() and run() aren't affected.
+*/
+        public void Pause(boolean bPause)
+        {
+            Paused = bPause;
+        }
+
+        public boolean GetPaused()
+        {
+            return (Paused);
+        }
+
+/*
+**      SetStops - have breakpoints stop the CPU, null for none.  With
+**      bWatching run() goes one instruction at a time even with the BLOCK
+**      and JIT engines, so a watch stops right after the instruction that
+**      hit it.
+*/
+        void SetStops(Breakpoints breakpoints, boolean bWatching)
+        {
+            Stops = breakpoints;
+            Watching = (breakpoints != null) && bWatching;
+            UpdateStepping();
+        }
+
+/*
+**      SetTrace - record every instruction from here on in trace, null to
+**      stop.  Call it from the thread running the CPU, e.g. through Post.
+*/
+        public void SetTrace(Trace trace)
+        {
+            Tracer = trace;
+            UpdateStepping();
+        }
+
+        public Trace GetTrace()
+        {
+            return (Tracer);
+        }
+
+/*
+**      SetTraceWriter - stream every instruction from here on to writer,
+**      null to stop, then Close it.  Call it from the thread running the
+**      CPU, e.g. through Post.
+*/
+        public void SetTraceWriter(TraceWriter writer)
+        {
+            Streamer = writer;
+            UpdateStepping();
+            Listen();
+        }
+
+        public TraceWriter GetTraceWriter()
+        {
+            return (Streamer);
+        }
+
+        private void UpdateStepping()
+        {
+            Stepping = Watching || (Tracer != null) || (Streamer != null);
+        }
+
+/*
+**      Listen - have the memory tell Streamer about accesses unless Quiet
+*/
+        private void Listen()
+        {
+            if((Streamer == null) || Quiet)
+                mem.SetAccessListener(null, false);
+            else
+                mem.SetAccessListener(Streamer, Streamer.GetReads());
+        }
+
+/*
+**      SetQuiet - with it on nothing stops the CPU or goes in the trace,
+**      for History running it again.  Turning it off doesn't stop where the CPU is now.
+*/
+        void SetQuiet(boolean bQuiet)
+        {
+            Quiet = bQuiet;
+            Listen();
+            if(!bQuiet)
+                StoppedAt = CycleCount;
+        }
+
+/*
+**      Stop - called between instructions, pause the CPU, report why and
+**      leave clock(), step() or run().  Running on from here doesn't stop
+**      again until the cycle count has moved.
+*/
+        void Stop(String reason)
+        {
+            if(Quiet || (Stops == null) || (CycleCount == StoppedAt))
+                return;
+            StoppedAt = CycleCount;
+            Paused = true;
+            Stops.Report(reason);
+            throw STOPPED;
+        }
+
+/*
+**      StopAfter - Stop once the instruction running now is done
+*/
+        void StopAfter(String reason)
+        {
+            if(!Quiet)
+                Post(() -> Stop(reason));
+        }
+
+/*
+**      Leave - called from posted work, leave clock(), step() or run()
+**      before the next instruction, without pausing
+*/
+        void Leave()
+        {
+            throw STOPPED;
+        }
+
+/*
+**      TakeRequest - act on a reset or interrupt request between
+**      instructions.  Returns the cycles a fast boot skipped.
+*/
+        private int TakeRequest()
         {
             if(ResetReq)
-                Reset();
-            else if(NMIFlag)
+                return (TakeReset());
+            if(NMIFlag)
                 NMI();
-            else if(IRQFlag)
+            else
                 IRQ();
-            else if(!WAIFlag && !Halted)
+            return (0);
+        }
+
+/*
+**      Clock - excute one clock cycle.  Decrement clock cycles and execute
+**      instruction when cycles have expired.  Requests are taken between
+**      instructions.
+*/        
+        public void clock()
+        {
+            int cycles = 1;
+            if(state == CommandStates.CLOCKWAIT)
             {
-                switch(state)
+                if((clockstep == 0) || (--clockstep == 0))
                 {
-                    case COMMAND:
-                        if(PC == debugstop)
-                            debug = true;
-                        CurrentInstruction = InstructionLookup(mem.MemRead(PC));
+                    Execute(CurrentInstruction);
+                    state = CommandStates.COMMAND;
+                }
+            }
+            else
+            {
+                try {
+                    Boundary();
+                    if(Paused)
+                        return;
+                    if(ResetReq || NMIFlag || IRQFlag)
+                        cycles += TakeRequest();
+                    else if(!WAIFlag && !Halted)
+                    {
+                        CurrentInstruction = Fetch();
                         clockstep = CurrentInstruction.cycles - 1;
-                        state = CommandStates.CLOCKWAIT;
-                        PC++;
-                    break;
-                    case CLOCKWAIT:
-                        if((clockstep == 0) || (--clockstep == 0))
+                        // only INVALID takes one cycle, as it does in step()
+                        if(clockstep == 0)
+                            Execute(CurrentInstruction);
+                        else
+                            state = CommandStates.CLOCKWAIT;
+                    }
+                } catch (Stopped stop) {
+                    return;
+                }
+            }
+            CycleCount += cycles;
+        }
+
+/*
+**      step - execute one whole instruction and return the cycles it took,
+**      per the instruction table.  A pending reset or interrupt is taken
+**      instead of an instruction and counts as one cycle, as with clock().
+**      While halted or in WAI one idle cycle passes.  If clock() stopped part
+**      way through an instruction, that instruction is finished first.
+**      At a stop nothing runs and 0 is returned.
+*/
+        public int step()
+        {
+            int cycles = 1;
+            try {
+                if(state == CommandStates.COMMAND)
+                    Boundary();
+            } catch (Stopped stop) {
+                return (0);
+            }
+            if(state == CommandStates.CLOCKWAIT)
+            {
+                cycles = (clockstep == 0) ? 1 : clockstep;
+                Execute(CurrentInstruction);
+                state = CommandStates.COMMAND;
+            }
+            else if(ResetReq || NMIFlag || IRQFlag)
+                cycles += TakeRequest();
+            else if(!WAIFlag && !Halted)
+            {
+                try {
+                    CurrentInstruction = Fetch();
+                } catch (Stopped stop) {
+                    return (0);
+                }
+                Execute(CurrentInstruction);
+                cycles = CurrentInstruction.cycles;
+            }
+            CycleCount += cycles;
+            return (cycles);
+        }
+
+/*
+**      run - execute instructions until at least cycleBudget cycles have
+**      passed.  Requests are only looked at between instructions.  Time
+**      spent halted or in WAI is counted as idle cycles up to the end of
+**      the budget, or ends it with SetWaitStops.  Returns the cycles used,
+**      which can go past the budget by part of the last instruction, or
+**      fall short of it at a stop.
+*/
+        public long run(long cycleBudget)
+        {
+            return (Run(cycleBudget, false));
+        }
+
+/*
+**      runUntilPaused - run() for a loop driving the CPU in place of clock().
+**      It stops between instructions once the CPU is paused, by posted
+**      work or a stop, and while paused only does posted work and returns 0.
+*/
+        public long runUntilPaused(long cycleBudget)
+        {
+            if(state == CommandStates.COMMAND)
+            {
+                try {
+                    Boundary();
+                } catch (Stopped stop) {
+                    return (0);
+                }
+                if(Paused)
+                    return (0);
+            }
+            return (Run(cycleBudget, true));
+        }
+
+        private long Run(long cycleBudget, boolean bPausable)
+        {
+            long start = CycleCount;
+            long end = start + cycleBudget;
+            Instruction instruction;
+            try {
+                while(CycleCount < end)
+                {
+                    if(ResetReq || NMIFlag || IRQFlag || PostPending || (CycleCount >= CheckpointAt) ||
+                            (state != CommandStates.COMMAND))
+                    {
+                        if(bPausable && (state == CommandStates.COMMAND))
                         {
-                            DoInstruction(CurrentInstruction.ID, CurrentInstruction.mode);
-                            state = CommandStates.COMMAND;
+                            Boundary();
+                            if(Paused)
+                                break;
                         }
-                    break;
+                        if(step() == 0)
+                            break;
+                    }
+                    else if(WAIFlag || Halted)
+                    {
+                        if(WAIFlag && WaitStops)
+                            break;
+                        CycleCount = Math.min(end, CheckpointAt);
+                    }
+                    else if((Streamer != null) && (Tracer == null) && !Watching && !Quiet)
+                        RunStreamed(Math.min(end, CheckpointAt));
+                    else if(((engine == Engine.BLOCK) || (engine == Engine.JIT)) && !Stepping)
+                        RunBlocks(Math.min(end, CheckpointAt));
+                    else
+                    {
+                        instruction = Fetch();
+                        CurrentInstruction = instruction;
+                        Execute(instruction);
+                        CycleCount += instruction.cycles;
+                    }
+                }
+            } catch (Stopped stop) {
+                // stopped at a fetch, before the instruction
+            }
+            return (CycleCount - start);
+        }
+
+/*
+**      RunStreamed - run instructions one at a time with the selected engine
+**      until the cycle count reaches end or a request needs step(), each
+**      one recorded by Streamer.  Only the instructions change the CPU in
+**      here, so Streamer need only take what each one can change.
+*/
+        private void RunStreamed(long end)
+        {
+            TraceWriter writer = Streamer;
+            Instruction instruction;
+            writer.Restart();
+            do
+            {
+                PC &= MemoryModule.ADDRESSMASK;
+                instruction = InstructionLookup(mem.Fetch(PC));
+                writer.Next(this, instruction);
+                InstructionCount++;
+                PC++;
+                CurrentInstruction = instruction;
+                Execute(instruction);
+                CycleCount += instruction.cycles;
+            } while((CycleCount < end) && !(ResetReq || NMIFlag || IRQFlag || PostPending || WAIFlag || Halted));
+        }
+
+/*
+**      RunBlocks - run cached blocks until the cycle count reaches end or a
+**      request needs step().  A block that doesn't fit in what is left of
+**      the budget is run one instruction at a time, so run() stops on the
+**      same instruction as the other engines.
+*/
+        private void RunBlocks(long end)
+        {
+            CodeBlock block = Blocks.Lookup(PC);
+            CodeBlock link;
+            while(true)
+            {
+                if((block == null) || (block.cycles > end - CycleCount))
+                {
+                    CurrentInstruction = Fetch();
+                    Execute(CurrentInstruction);
+                    CycleCount += CurrentInstruction.cycles;
+                    return;
+                }
+                if(engine == Engine.JIT)
+                    RunHot(block, end);
+                else if((block.compiled != null) && block.compiled.valid)
+                    block.compiled.Run(this, end); // installed by LoadTranslation
+                else
+                    RunBlock(block);
+                if((CycleCount >= end) || ResetReq || NMIFlag || IRQFlag || PostPending || WAIFlag || Halted)
+                    return;
+                // follow the successor links before going back to the cache
+                if(PC == block.endPC)
+                {
+                    link = block.next;
+                    if((link == null) || !link.valid)
+                        block.next = link = Blocks.Lookup(PC);
+                }
+                else
+                {
+                    link = block.target;
+                    if((link == null) || !link.valid || (link.startPC != PC))
+                        block.target = link = Blocks.Lookup(PC);
+                }
+                block = link;
+            }
+        }
+        
+/*
+**      RunBlock - execute one block.  If an instruction writes over the
+**      block's own code the rest of it is abandoned and PC is left at the
+**      next instruction.
+*/
+        private void RunBlock(CodeBlock block)
+        {
+            int icounter;
+            for(icounter = 0; icounter < block.length; icounter++)
+            {
+                PC = block.nextPC[icounter];
+                Handlers[block.opcode[icounter]].Execute(this, block.operand[icounter]);
+                if(!block.valid)
+                {
+                    InstructionCount += icounter + 1;
+                    CycleCount += block.CyclesBefore(icounter + 1);
+                    return;
                 }
             }
+            InstructionCount += block.length;
+            CycleCount += block.cycles;
+        }
+
+/*
+**      RunHot - run a block for the JIT engine.  Once a block has been
+**      interpreted JITTHRESHOLD times it and the blocks it leads to are
+**      translated, and the translation is entered from then on.  When a
+**      write drops the translation the count starts again, with the
+**      threshold doubled each time so code that keeps modifying itself
+**      settles in the interpreter.
+*/
+        private void RunHot(CodeBlock block, long end)
+        {
+            CompiledRegion region = block.compiled;
+            if((region != null) && !region.valid)
+            {
+                block.compiled = region = null;
+                block.hits = 0;
+                block.drops++;
+            }
+            if(region != null)
+                region.Run(this, end);
+            else
+            {
+                RunBlock(block);
+                if(block.valid && (++block.hits == JITTHRESHOLD << Math.min(block.drops, JITMAXBACKOFF)))
+                    block.compiled = Compiler.Compile(block);
+            }
+        }
+
+/*
+**      JitStopped - called by translated code at the start of each block,
+**      true if the interpreter has to look at a request first
+*/
+        boolean JitStopped()
+        {
+            return (ResetReq || NMIFlag || IRQFlag || PostPending || WAIFlag || Halted);
+        }
+
+/*
+**      JitLeave - translated code keeps the registers, flags and counts in
+**      locals and stores them here when it leaves or runs a handler.  The
+**      flags come as the code keeps them: C in bit 0 of c, V, N in bit 7 of
+**      v and n, Z set if z is 0 and H in bit 3 of h.  None are left pending.
+*/
+        void JitLeave(int pc, int a, int b, int x, int sp, int c, int v, int z, int n, int h,
+                long cycles, long count)
+        {
+            PC = pc;
+            ACCA = a;
+            ACCB = b;
+            IX = x;
+            SP = sp;
+            FlagPending = 0;
+            C = ((c & 1) != 0);
+            V = ((v & 0x80) != 0);
+            Z = (z == 0);
+            N = ((n & 0x80) != 0);
+            H = ((h & 0x08) != 0);
+            CycleCount = cycles;
+            InstructionCount = count;
+        }
+
+/*
+**      JitExecute - run one instruction translated code leaves to the
+**      handler, as RunBlock would
+*/
+        void JitExecute(int opcode, int operand)
+        {
+            Handlers[opcode].Execute(this, operand);
+        }
+
+/*
+**      Fetch - decode the opcode at PC and move PC past it
+*/
+        private Instruction Fetch()
+        {
+            PC &= MemoryModule.ADDRESSMASK; // running off either end wraps
+            Instruction instruction = InstructionLookup(mem.Fetch(PC));
+            if((Tracer != null) && !Quiet)
+                Tracer.Record(this, instruction);
+            if((Streamer != null) && !Quiet)
+                Streamer.Record(this, instruction);
+            InstructionCount++;
+            PC++;
+            return (instruction);
         }
 
 /*
@@ -170,10 +920,7 @@ public class CPU {
 
         public void IRQReq ()
         {
-            if(!I)
-            {
-                IRQFlag = true;
-            }
+            Post(() -> Input(InputLog.IRQ, 0));
         }
 /*
 **      NMI - Simulate NMI signal
@@ -200,18 +947,220 @@ public class CPU {
         
         public void NMIReq()
         {
-            NMIFlag = true;
+            Post(() -> Input(InputLog.NMI, 0));
+        }
+        
+/*
+**      LoadTranslation - use classes made by AOTCompiler.  Those whose code
+**      is in memory as it was translated are run by the BLOCK and JIT
+**      engines from now on, and looked for again after every reset.  The
+**      BLOCK engine runs them but translates nothing itself.  Returns how
+**      many were installed.
+*/
+        public int LoadTranslation(AOTImage image)
+        {
+            Translation = image;
+            return (image.Install(Blocks, mem));
         }
         
-        private Instruction CPUInstructions[];
+/*
+**      SetEngine - choose how decoded instructions are executed.  Takes
+**      effect at the next instruction.
+*/
+        public void SetEngine(Engine engine)
+        {
+            this.engine = engine;
+        }
+        
+/*
+**      SetLazyFlags - with it off every ALU operation works out its flags
+**      straight away, as before.  Either way the flags read the same.
+*/
+        public void SetLazyFlags(boolean bLazy)
+        {
+            LazyFlags = bLazy;
+        }
+
+        public boolean GetLazyFlags()
+        {
+            return (LazyFlags);
+        }
+
+/*
+**      SetFastBoot - with it on a reset request loads the state the built in
+**      monitor reaches once it has booted, see BootSnapshot, as one long
+**      step instead of running the power on code
+*/
+        public void SetFastBoot(boolean bFast)
+        {
+            FastBoot = bFast;
+        }
+
+        public boolean GetFastBoot()
+        {
+            return (FastBoot);
+        }
+
+        public boolean GetHalted()
+        {
+            return (Halted);
+        }
+
+/*
+**      SetWaitStops - with it on run() returns once the CPU is waiting in
+**      WAI, instead of counting idle cycles to the end of the budget.
+**      Requests still end the wait as before.
+*/
+        public void SetWaitStops(boolean bStop)
+        {
+            WaitStops = bStop;
+        }
+
+        public boolean GetWaiting()
+        {
+            return (WAIFlag);
+        }
+
+        public Engine GetEngine()
+        {
+            return (engine);
+        }
+        
+        public int GetPC()
+        {
+            return (PC);
+        }
+        
+        public void SetPC(int iValue)
+        {
+            PC = iValue & MEMEND;
+        }
+
+        public int GetACCA()
+        {
+            return (ACCA);
+        }
+
+        public int GetACCB()
+        {
+            return (ACCB);
+        }
+
+        public int GetIX()
+        {
+            return (IX);
+        }
+
+        public int GetSP()
+        {
+            return (SP);
+        }
+
+/*
+**      GetCC - the condition code register, bits 7 and 6 set.  Pending flags
+**      are worked out without being stored back.
+*/
+        public int GetCC()
+        {
+            boolean bHalf = ((FlagPending & FLAG_H) != 0) ? LazyHalfCarry(FlagArg, FlagResult) : H;
+            return (0xC0 | (Carry() ? FLAG_C : 0) | (Overflow() ? FLAG_V : 0) | (Zero() ? FLAG_Z : 0) |
+                    (Negative() ? FLAG_N : 0) | (I ? FLAG_I : 0) | (bHalf ? FLAG_H : 0));
+        }
+
+/*
+**      TraceFlags - the flags as they are, pending ones not worked out, in
+**      a long for a TraceWriter.  Cheaper than GetCC, ConditionCode gives
+**      the CC from it later.  FlagArg and FlagResult are folded into 17
+**      and 16 bits with a bit above for anything higher, which keeps all
+**      the lazy flags look at.
+*/
+        long TraceFlags()
+        {
+            return ((C ? FLAG_C : 0) | (V ? FLAG_V : 0) | (Z ? FLAG_Z : 0) | (N ? FLAG_N : 0) |
+                    (I ? FLAG_I : 0) | (H ? FLAG_H : 0) | (FlagPending << 8) | (FlagOp << 16) |
+                    ((long) ((FlagArg & 0x1FFFF) | ((FlagArg >>> 17 != 0) ? 0x20000 : 0)) << 20) |
+                    ((long) ((FlagResult & 0xFFFF) | ((FlagResult >>> 16 != 0) ? 0x10000 : 0)) << 40));
+        }
+
+/*
+**      TraceOperation, TraceOperands - FlagOp, and FlagArg and FlagResult
+**      in a long, for a TraceWriter after an instruction that only set the
+**      flags through DeferFlags
+*/
+        int TraceOperation()
+        {
+            return (FlagOp);
+        }
+
+        long TraceOperands()
+        {
+            return (((long) FlagArg << 32) | (FlagResult & 0xFFFFFFFFL));
+        }
+
+/*
+**      ConditionCode - the CC register GetCC gave when TraceFlags returned
+**      flags, or after previous when an instruction deferred op with the
+**      operands TraceOperands returned
+*/
+        static int ConditionCode(long flags)
+        {
+            int pending = ((int) flags >> 8) & 0xFF;
+            return (Pending(0xC0 | ((int) flags & ~pending & 0x3F), pending, ((int) flags >> 16) & 0x0F,
+                    (int) (flags >>> 20) & 0x3FFFF, (int) (flags >>> 40) & 0x1FFFF));
+        }
+
+        static int ConditionCode(int previous, int op, long operands)
+        {
+            return (Pending(0xC0 | (previous & ~FLAGSET[op] & 0x3F), FLAGSET[op], op,
+                    (int) (operands >> 32), (int) operands));
+        }
+
+/*
+**      Pending - cc with the pending flags of op worked out
+*/
+        private static int Pending(int cc, int pending, int op, int arg, int result)
+        {
+            if(((pending & FLAG_C) != 0) && LazyCarry(op, arg, result))
+                cc |= FLAG_C;
+            if(((pending & FLAG_V) != 0) && LazyOverflow(op, arg, result))
+                cc |= FLAG_V;
+            if(((pending & FLAG_Z) != 0) && (result == 0))
+                cc |= FLAG_Z;
+            if(((pending & FLAG_N) != 0) && LazyNegative(op, result))
+                cc |= FLAG_N;
+            if(((pending & FLAG_H) != 0) && LazyHalfCarry(arg, result))
+                cc |= FLAG_H;
+            return (cc);
+        }
+        
+/*
+**      GetInstructionCount - number of instructions fetched since power up
+*/
+        public long GetInstructionCount()
+        {
+            return (InstructionCount);
+        }
+        
+/*
+**      GetCycleCount - emulated clock cycles since power up, from clock(),
+**      step() or run()
+*/
+        public long GetCycleCount()
+        {
+            return (CycleCount);
+        }
+        
+        static final Instruction CPUInstructions[] = InitInstructions();
+        private static final Instruction DecodeTable[] = BuildDecodeTable(CPUInstructions);
+        private static final OpHandler Handlers[] = BuildHandlers();
 
 /*
 **      InitInstructins - populate instruction set with opcode, enumerated instruction, clock cycles, and addressing mode
 */
-        private void InitInstructions () 
+        private static Instruction[] InitInstructions () 
         {
             int icounter = 0;
-            CPUInstructions  = new Instruction[NUMCOMMANDS];
+            Instruction CPUInstructions[] = new Instruction[NUMCOMMANDS];
             CPUInstructions[icounter++] = new Instruction(Instruction.CommandID.ABA, 0x1B, Instruction.AddressMode.INHERENT, 2, 1);
             CPUInstructions[icounter++] = new Instruction(Instruction.CommandID.ADCA,0x89, Instruction.AddressMode.IMMEDIATE, 2, 2);
             CPUInstructions[icounter++] = new Instruction(Instruction.CommandID.ADCA,0x99, Instruction.AddressMode.DIRECT, 3, 2);
@@ -410,22 +1359,459 @@ public class CPU {
             CPUInstructions[icounter++] = new Instruction(Instruction.CommandID.TXS, 0x35, Instruction.AddressMode.INHERENT, 4, 1);
             CPUInstructions[icounter++] = new Instruction(Instruction.CommandID.WAI, 0x3E, Instruction.AddressMode.INHERENT, 9, 1);
             CPUInstructions[icounter++] = new Instruction(Instruction.CommandID.INVALID, 0x0, Instruction.AddressMode.INHERENT, 1, 1); //terminator
+            return (CPUInstructions);
         }   
 
+/*
+**      BuildDecodeTable - index the instruction set by opcode.  The first entry
+**      listed for an opcode wins, same as the old linear search.  Opcodes that
+**      are not in the list get their own INVALID entry so the opcode is kept.
+*/
+        private static Instruction[] BuildDecodeTable (Instruction instructions[])
+        {
+            Instruction table[] = new Instruction[NUMOPCODES];
+            int icounter;
+            for(icounter = 0; icounter < instructions.length; icounter++)
+            {
+                Instruction instruction = instructions[icounter];
+                if(table[instruction.opcode] == null)
+                    table[instruction.opcode] = instruction;
+            }
+            for(icounter = 0; icounter < NUMOPCODES; icounter++)
+            {
+                if(table[icounter] == null)
+                    table[icounter] = new Instruction(Instruction.CommandID.INVALID, icounter, Instruction.AddressMode.INHERENT, 1, 1);
+            }
+            return (table);
+        }
+
 /*
 **      InstructionLookup - Decode instruction opcode
 */        
-        Instruction InstructionLookup(int opcode)
+        static Instruction InstructionLookup(int opcode)
         {
-            Instruction instruction = CPUInstructions[0];
+            return (DecodeTable[opcode & 0xFF]);
+        }
+
+/*
+**      BuildHandlers - bind a handler to every opcode in the decode table
+*/
+        private static OpHandler[] BuildHandlers ()
+        {
+            OpHandler handlers[] = new OpHandler[NUMOPCODES];
             int icounter;
-            for(icounter = 0; icounter < NUMCOMMANDS; icounter++)
+            for(icounter = 0; icounter < NUMOPCODES; icounter++)
+                handlers[icounter] = BuildHandler(DecodeTable[icounter]);
+            return (handlers);
+        }
+        
+/*
+**      Value8, Value16, Address - operand accessors for an addressing mode.
+**      These match GetArgument, GetArgument16 and GetJump/STA/ST16.
+*/
+        private static Operand Value8 (Instruction.AddressMode mode)
+        {
+            switch(mode)
+            {
+                case IMMEDIATE:
+                    return (cpu, operand) -> operand;
+                case DIRECT:
+                case EXTENDED:
+                    return (cpu, operand) -> cpu.mem.MemRead(operand);
+                case INDEXED:
+                    return (cpu, operand) -> cpu.mem.MemRead(cpu.IX + operand);
+                default:
+                    return (cpu, operand) -> 0;
+            }
+        }
+        
+        private static Operand Value16 (Instruction.AddressMode mode)
+        {
+            switch(mode)
+            {
+                case IMMEDIATE:
+                    return (cpu, operand) -> operand;
+                case DIRECT:
+                case EXTENDED:
+                    return (cpu, operand) -> cpu.Read16(operand);
+                case INDEXED:
+                    return (cpu, operand) -> cpu.Read16(cpu.IX + operand);
+                default:
+                    return (cpu, operand) -> 0;
+            }
+        }
+        
+        private static Operand Address (Instruction.AddressMode mode)
+        {
+            switch(mode)
+            {
+                case DIRECT:
+                case EXTENDED:
+                    return (cpu, operand) -> operand;
+                case INDEXED:
+                    return (cpu, operand) -> cpu.IX + operand;
+                default:
+                    return (cpu, operand) -> 0;
+            }
+        }
+        
+/*
+**      BuildHandler - handler for one opcode, equivalent to the DoInstruction
+**      case for the same command and addressing mode
+*/
+        private static OpHandler BuildHandler (Instruction instruction)
+        {
+            final Operand value = Value8(instruction.mode);
+            final Operand value16 = Value16(instruction.mode);
+            final Operand address = Address(instruction.mode);
+            switch(instruction.ID)
             {
-                instruction = CPUInstructions[icounter];
-                if(instruction.opcode == opcode)
-                    break;
+                case ABA:
+                    return (cpu, operand) -> cpu.ABA();
+                case ADCA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Add8(cpu.ACCA, value.Value(cpu, operand), true);
+                case ADCB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Add8(cpu.ACCB, value.Value(cpu, operand), true);
+                case ADDA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Add8(cpu.ACCA, value.Value(cpu, operand), false);
+                case ADDB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Add8(cpu.ACCB, value.Value(cpu, operand), false);
+                case ANDA:
+                    return (cpu, operand) -> {
+                        cpu.ACCA &= value.Value(cpu, operand);
+                        cpu.SetConditionLoad(cpu.ACCA);
+                    };
+                case ANDB:
+                    return (cpu, operand) -> {
+                        cpu.ACCB &= value.Value(cpu, operand);
+                        cpu.SetConditionLoad(cpu.ACCB);
+                    };
+                case ASL:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemWrite(location, cpu.Asl8(cpu.mem.MemRead(location)));
+                    };
+                case ASLA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Asl8(cpu.ACCA);
+                case ASLB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Asl8(cpu.ACCB);
+                case ASR:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemWrite(location, cpu.Asr8(cpu.mem.MemRead(location)));
+                    };
+                case ASRA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Asr8(cpu.ACCA);
+                case ASRB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Asr8(cpu.ACCB);
+                case BCC:
+                    return (cpu, operand) -> {
+                        if(!cpu.Carry())
+                            cpu.branch(operand);
+                    };
+                case BCS:
+                    return (cpu, operand) -> {
+                        if(cpu.Carry())
+                            cpu.branch(operand);
+                    };
+                case BEQ:
+                    return (cpu, operand) -> {
+                        if(cpu.Zero())
+                            cpu.branch(operand);
+                    };
+                case BGE:
+                    return (cpu, operand) -> {
+                        if(cpu.Negative() == cpu.Overflow())
+                            cpu.branch(operand);
+                    };
+                case BGT:
+                    return (cpu, operand) -> {
+                        if(!cpu.Zero() && (cpu.Negative() == cpu.Overflow()))
+                            cpu.branch(operand);
+                    };
+                case BHI:
+                    return (cpu, operand) -> {
+                        if(!cpu.Carry() && !cpu.Zero())
+                            cpu.branch(operand);
+                    };
+                case BITA:
+                    return (cpu, operand) -> cpu.SetConditionLoad(cpu.ACCA & value.Value(cpu, operand));
+                case BITB:
+                    return (cpu, operand) -> cpu.SetConditionLoad(cpu.ACCB & value.Value(cpu, operand));
+                case BLE:
+                    return (cpu, operand) -> {
+                        if(cpu.Zero() || (cpu.Negative() != cpu.Overflow()))
+                            cpu.branch(operand);
+                    };
+                case BLS:
+                    return (cpu, operand) -> {
+                        if(cpu.Carry() || cpu.Zero())
+                            cpu.branch(operand);
+                    };
+                case BLT:
+                    return (cpu, operand) -> {
+                        if(cpu.Negative() != cpu.Overflow())
+                            cpu.branch(operand);
+                    };
+                case BMI:
+                    return (cpu, operand) -> {
+                        if(cpu.Negative())
+                            cpu.branch(operand);
+                    };
+                case BNE:
+                    return (cpu, operand) -> {
+                        if(!cpu.Zero())
+                            cpu.branch(operand);
+                    };
+                case BPL:
+                    return (cpu, operand) -> {
+                        if(!cpu.Negative())
+                            cpu.branch(operand);
+                    };
+                case BRA:
+                    return (cpu, operand) -> cpu.branch(operand);
+                case BSR:
+                    return (cpu, operand) -> {
+                        cpu.push16(cpu.PC);
+                        cpu.branch(operand);
+                    };
+                case BVC:
+                    return (cpu, operand) -> {
+                        if(!cpu.Overflow())
+                            cpu.branch(operand);
+                    };
+                case BVS:
+                    return (cpu, operand) -> {
+                        if(cpu.Overflow())
+                            cpu.branch(operand);
+                    };
+                case CBA:
+                    return (cpu, operand) -> cpu.CBA();
+                case CLC:
+                    return (cpu, operand) -> cpu.SetCarry(false);
+                case CLI:
+                    return (cpu, operand) -> cpu.I = false;
+                case CLR:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemRead(location); // CLR reads before writing, as GetArgument does
+                        cpu.mem.MemWrite(location, 0);
+                        cpu.ClearFlags();
+                    };
+                case CLRA:
+                    return (cpu, operand) -> {
+                        cpu.ACCA = 0;
+                        cpu.ClearFlags();
+                    };
+                case CLRB:
+                    return (cpu, operand) -> {
+                        cpu.ACCB = 0;
+                        cpu.ClearFlags();
+                    };
+                case CLV:
+                    return (cpu, operand) -> cpu.SetOverflow(false);
+                case CMPA:
+                    return (cpu, operand) -> cpu.Sub8(cpu.ACCA, value.Value(cpu, operand));
+                case CMPB:
+                    return (cpu, operand) -> cpu.Sub8(cpu.ACCB, value.Value(cpu, operand));
+                case COM:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemWrite(location, cpu.Com8(cpu.mem.MemRead(location)));
+                    };
+                case COMA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Com8(cpu.ACCA);
+                case COMB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Com8(cpu.ACCB);
+                case CPX:
+                    return (cpu, operand) -> cpu.Cpx(value16.Value(cpu, operand));
+                case DAA:
+                    return (cpu, operand) -> cpu.DAA();
+                case DEC:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemWrite(location, cpu.Decrement8(cpu.mem.MemRead(location)));
+                    };
+                case DECA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Decrement8(cpu.ACCA);
+                case DECB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Decrement8(cpu.ACCB);
+                case DES:
+                    return (cpu, operand) -> cpu.DES();
+                case DEX:
+                    return (cpu, operand) -> cpu.DEX();
+                case EORA:
+                    return (cpu, operand) -> {
+                        cpu.ACCA ^= value.Value(cpu, operand);
+                        cpu.SetConditionLoad(cpu.ACCA);
+                    };
+                case EORB:
+                    return (cpu, operand) -> {
+                        cpu.ACCB ^= value.Value(cpu, operand);
+                        cpu.SetConditionLoad(cpu.ACCB);
+                    };
+                case INC:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemWrite(location, cpu.Increment8(cpu.mem.MemRead(location)));
+                    };
+                case INCA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Increment8(cpu.ACCA);
+                case INCB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Increment8(cpu.ACCB);
+                case INS:
+                    return (cpu, operand) -> cpu.INS();
+                case INX:
+                    return (cpu, operand) -> cpu.INX();
+                case JMP:
+                    return (cpu, operand) -> cpu.PC = address.Value(cpu, operand);
+                case JSR:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.push16(cpu.PC);
+                        cpu.PC = location;
+                    };
+                case LDAA:
+                    return (cpu, operand) -> {
+                        cpu.ACCA = value.Value(cpu, operand);
+                        cpu.SetConditionLoad(cpu.ACCA);
+                    };
+                case LDAB:
+                    return (cpu, operand) -> {
+                        cpu.ACCB = value.Value(cpu, operand);
+                        cpu.SetConditionLoad(cpu.ACCB);
+                    };
+                case LDS:
+                    return (cpu, operand) -> {
+                        cpu.SP = value16.Value(cpu, operand);
+                        cpu.SetConditionLoad16(cpu.SP);
+                    };
+                case LDX:
+                    return (cpu, operand) -> {
+                        cpu.IX = value16.Value(cpu, operand);
+                        cpu.SetConditionLoad16(cpu.IX);
+                    };
+                case LSR:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemWrite(location, cpu.SetConditionLSR(cpu.mem.MemRead(location)));
+                    };
+                case LSRA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.SetConditionLSR(cpu.ACCA);
+                case LSRB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.SetConditionLSR(cpu.ACCB);
+                case NEG:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemWrite(location, cpu.Negate8(cpu.mem.MemRead(location)));
+                    };
+                case NEGA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Negate8(cpu.ACCA);
+                case NEGB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Negate8(cpu.ACCB);
+                case ORAA:
+                    return (cpu, operand) -> {
+                        cpu.ACCA |= value.Value(cpu, operand);
+                        cpu.SetConditionLoad(cpu.ACCA);
+                    };
+                case ORAB:
+                    return (cpu, operand) -> {
+                        cpu.ACCB |= value.Value(cpu, operand);
+                        cpu.SetConditionLoad(cpu.ACCB);
+                    };
+                case PSHA:
+                    return (cpu, operand) -> cpu.push8(cpu.ACCA);
+                case PSHB:
+                    return (cpu, operand) -> cpu.push8(cpu.ACCB);
+                case PULA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.pull8();
+                case PULB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.pull8();
+                case ROL:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemWrite(location, cpu.SetConditionROL(cpu.mem.MemRead(location)));
+                    };
+                case ROLA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.SetConditionROL(cpu.ACCA);
+                case ROLB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.SetConditionROL(cpu.ACCB);
+                case ROR:
+                    return (cpu, operand) -> {
+                        int location = address.Value(cpu, operand);
+                        cpu.mem.MemWrite(location, cpu.SetConditionROR(cpu.mem.MemRead(location)));
+                    };
+                case RORA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.SetConditionROR(cpu.ACCA);
+                case RORB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.SetConditionROR(cpu.ACCB);
+                case RTI:
+                    return (cpu, operand) -> cpu.RTI();
+                case RTS:
+                    return (cpu, operand) -> cpu.RTS();
+                case SBA:
+                    return (cpu, operand) -> cpu.SBA();
+                case SBCA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Sbc8(cpu.ACCA, value.Value(cpu, operand));
+                case SBCB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Sbc8(cpu.ACCB, value.Value(cpu, operand));
+                case SEC:
+                    return (cpu, operand) -> cpu.SetCarry(true);
+                case SEI:
+                    return (cpu, operand) -> cpu.I = true;
+                case SEV:
+                    return (cpu, operand) -> cpu.SetOverflow(true);
+                case STAA:
+                    return (cpu, operand) -> {
+                        cpu.SetConditionLoad(cpu.ACCA);
+                        cpu.mem.MemWrite(address.Value(cpu, operand), cpu.ACCA);
+                    };
+                case STAB:
+                    return (cpu, operand) -> {
+                        cpu.SetConditionLoad(cpu.ACCB);
+                        cpu.mem.MemWrite(address.Value(cpu, operand), cpu.ACCB);
+                    };
+                case STS:
+                    return (cpu, operand) -> cpu.Store16(address.Value(cpu, operand), cpu.SP);
+                case STX:
+                    return (cpu, operand) -> cpu.Store16(address.Value(cpu, operand), cpu.IX);
+                case SUBA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.Sub8(cpu.ACCA, value.Value(cpu, operand));
+                case SUBB:
+                    return (cpu, operand) -> cpu.ACCB = cpu.Sub8(cpu.ACCB, value.Value(cpu, operand));
+                case SWI:
+                    return (cpu, operand) -> cpu.SWI();
+                case TAB:
+                    return (cpu, operand) -> {
+                        cpu.ACCB = cpu.ACCA;
+                        cpu.SetConditionLoad(cpu.ACCB);
+                    };
+                case TAP:
+                    return (cpu, operand) -> cpu.SetConditionCode(cpu.ACCA);
+                case TBA:
+                    return (cpu, operand) -> {
+                        cpu.ACCA = cpu.ACCB;
+                        cpu.SetConditionLoad(cpu.ACCA);
+                    };
+                case TPA:
+                    return (cpu, operand) -> cpu.ACCA = cpu.GetConditionCode();
+                case TST:
+                    return (cpu, operand) -> cpu.Tst8(value.Value(cpu, operand));
+                case TSTA:
+                    return (cpu, operand) -> cpu.Tst8(cpu.ACCA);
+                case TSTB:
+                    return (cpu, operand) -> cpu.Tst8(cpu.ACCB);
+                case TSX:
+                    return (cpu, operand) -> cpu.IX = cpu.SP + 1;
+                case TXS:
+                    return (cpu, operand) -> cpu.SP = cpu.IX - 1;
+                case WAI:
+                    return (cpu, operand) -> cpu.WAI();
+                case NOP:
+                case INVALID: // intentional fall through
+                default:
+                    return (cpu, operand) -> { };
             }
-            return (instruction);
         }
 
 /*
@@ -435,7 +1821,189 @@ public class CPU {
         {
             this.mem = mem;
             state = CommandStates.COMMAND;
-            InitInstructions();
+            Blocks = new BlockCache(mem);
+            mem.SetCodeWriteListener(Blocks);
+            Compiler = new Translator(Blocks);
+        }
+
+/*
+**      Fork - an independent machine in the same state: registers, flags,
+**      interrupt requests, counts, settings and a MemoryModule.Fork of
+**      memory.  Decoded blocks and JIT translations aren't copied, the fork
+**      builds its own as it runs, and an AOT image is looked for again at
+**      its next reset.  Call it from the thread running this CPU or while
+**      it's stopped, then each can be run on its own thread.
+*/
+        public CPU Fork()
+        {
+            CPU copy = new CPU(mem.Fork());
+            copy.ACCA = ACCA;
+            copy.ACCB = ACCB;
+            copy.IX = IX;
+            copy.PC = PC;
+            copy.SP = SP;
+            copy.C = C;
+            copy.V = V;
+            copy.Z = Z;
+            copy.N = N;
+            copy.I = I;
+            copy.H = H;
+            copy.FlagPending = FlagPending;
+            copy.FlagOp = FlagOp;
+            copy.FlagArg = FlagArg;
+            copy.FlagResult = FlagResult;
+            copy.LazyFlags = LazyFlags;
+            copy.FastBoot = FastBoot;
+            copy.WAIFlag = WAIFlag;
+            copy.WaitStops = WaitStops;
+            copy.IRQFlag = IRQFlag;
+            copy.NMIFlag = NMIFlag;
+            copy.ResetReq = ResetReq;
+            copy.Halted = Halted;
+            copy.lastLocation = lastLocation;
+            copy.state = state;
+            copy.Translation = Translation;
+            copy.clockstep = clockstep;
+            copy.CurrentInstruction = CurrentInstruction;
+            copy.InstructionCount = InstructionCount;
+            copy.CycleCount = CycleCount;
+            copy.engine = engine;
+            return (copy);
+        }
+
+/*
+**      SaveState - put the processor state in out for Snapshot.  The engine,
+**      lazy flags and the like are settings of this simulator, not of
+**      the machine, and aren't saved.  Neither is lastLocation, which only
+**      lasts for one instruction and only the SWITCH engine sets.
+*/
+        void SaveState(ByteBuffer out)
+        {
+            out.putInt(ACCA);
+            out.putInt(ACCB);
+            out.putInt(IX);
+            out.putInt(PC);
+            out.putInt(SP);
+            out.put((byte) ((C ? FLAG_C : 0) | (V ? FLAG_V : 0) | (Z ? FLAG_Z : 0) |
+                    (N ? FLAG_N : 0) | (I ? FLAG_I : 0) | (H ? FLAG_H : 0)));
+            out.putInt(FlagPending);
+            out.putInt(FlagOp);
+            out.putInt(FlagArg);
+            out.putInt(FlagResult);
+            out.put((byte) ((WAIFlag ? STATE_WAI : 0) | (IRQFlag ? STATE_IRQ : 0) |
+                    (NMIFlag ? STATE_NMI : 0) | (ResetReq ? STATE_RESET : 0) |
+                    (Halted ? STATE_HALTED : 0) |
+                    ((state == CommandStates.CLOCKWAIT) ? STATE_CLOCKWAIT : 0)));
+            // between instructions what's left of the last one only matters to
+            // the engine that ran it
+            if(state == CommandStates.CLOCKWAIT)
+            {
+                out.putInt(clockstep);
+                out.putShort((short) CurrentInstruction.opcode);
+            }
+            else
+            {
+                out.putInt(0);
+                out.putShort((short) -1);
+            }
+            out.putLong(InstructionCount);
+            out.putLong(CycleCount);
+        }
+
+/*
+**      RestoreState - load what SaveState wrote.  Memory has to be restored
+**      first, decoded code is dropped as at a reset.  Registers are taken
+**      as they're held: the CPU doesn't keep them in range itself, e.g. a
+**      push with SP at 0 leaves it at -1, and memory is addressed through
+**      ADDRESSMASK.  Flags, states and counts no machine can reach are
+**      refused.
+*/
+        void RestoreState(ByteBuffer in) throws IOException
+        {
+            int flags, status, opcode;
+            ACCA = in.getInt();
+            ACCB = in.getInt();
+            IX = in.getInt();
+            PC = in.getInt();
+            SP = in.getInt();
+            flags = in.get();
+            FlagPending = in.getInt();
+            FlagOp = in.getInt();
+            FlagArg = in.getInt();
+            FlagResult = in.getInt();
+            status = in.get();
+            clockstep = in.getInt();
+            opcode = in.getShort();
+            InstructionCount = in.getLong();
+            CycleCount = in.getLong();
+            if(((flags & ~(FLAG_C | FLAG_V | FLAG_Z | FLAG_N | FLAG_I | FLAG_H)) != 0) ||
+                    ((status & ~(STATE_WAI | STATE_IRQ | STATE_NMI | STATE_RESET | STATE_HALTED | STATE_CLOCKWAIT)) != 0) ||
+                    (FlagOp < 0) || (FlagOp >= FLAGSET.length) || ((FlagPending & ~FLAGSET[FlagOp]) != 0) ||
+                    (clockstep < 0) || (opcode < -1) || (opcode >= NUMOPCODES) ||
+                    (((status & STATE_CLOCKWAIT) != 0) && (opcode < 0)) ||
+                    (InstructionCount < 0) || (CycleCount < 0))
+                throw new IOException("bad CPU state");
+            C = (flags & FLAG_C) != 0;
+            V = (flags & FLAG_V) != 0;
+            Z = (flags & FLAG_Z) != 0;
+            N = (flags & FLAG_N) != 0;
+            I = (flags & FLAG_I) != 0;
+            H = (flags & FLAG_H) != 0;
+            WAIFlag = (status & STATE_WAI) != 0;
+            IRQFlag = (status & STATE_IRQ) != 0;
+            NMIFlag = (status & STATE_NMI) != 0;
+            ResetReq = (status & STATE_RESET) != 0;
+            Halted = (status & STATE_HALTED) != 0;
+            state = ((status & STATE_CLOCKWAIT) != 0) ? CommandStates.CLOCKWAIT : CommandStates.COMMAND;
+            CurrentInstruction = (opcode < 0) ? null : InstructionLookup(opcode);
+            Blocks.Clear();
+            if(Translation != null)
+                Translation.Install(Blocks, mem);
+        }
+
+/*
+**      GetMemoryModule - the memory this CPU runs from, e.g. to press keys
+**      on a fork
+*/
+        public MemoryModule GetMemoryModule()
+        {
+            return (mem);
+        }
+
+/*
+**      Execute - run a decoded instruction with the selected engine.  PC is
+**      just past the opcode.
+*/
+        private void Execute(Instruction instruction)
+        {
+            if(engine == Engine.SWITCH)
+                DoInstruction(instruction.ID, instruction.mode);
+            else
+                Handlers[instruction.opcode].Execute(this, FetchOperand(instruction.commandlength));
+        }
+        
+/*
+**      FetchOperand - read the argument bytes following the opcode and move
+**      PC past them
+*/
+        private int FetchOperand(int length)
+        {
+            int operand;
+            switch(length)
+            {
+                case 2:
+                    operand = mem.MemRead(PC);
+                    PC++;
+                break;
+                case 3:
+                    operand = (mem.MemRead(PC) << 8) + mem.MemRead(PC+1);
+                    PC += 2;
+                break;
+                default:
+                    operand = 0;
+                break;
+            }
+            return (operand);
         }
 
 /*
@@ -443,6 +2011,7 @@ public class CPU {
 */        
         private void DoInstruction(Instruction.CommandID ID, Instruction.AddressMode mode)
         {
+            int offset;
             switch(ID)
             {
                 case ABA:
@@ -485,37 +2054,37 @@ public class CPU {
                     ASRReg(Register.B);
                 break;
                 case BCC:
-                    if(!C)
+                    if(!Carry())
                         branch();
                     else
                         PC++;
                 break;
                 case BCS:
-                    if(C)
+                    if(Carry())
                         branch();
                     else
                         PC++;
                 break;
                 case BEQ:
-                    if(Z)
+                    if(Zero())
                         branch();
                     else
                         PC++;
                 break;
                 case BGE:
-                    if((N && V) || (!N && !V))
+                    if(Negative() == Overflow())
                         branch();
                     else
                         PC++;
                 break;
                 case BGT:
-                    if(!Z && ((N && V) || (!N && !V)))
+                    if(!Zero() && (Negative() == Overflow()))
                         branch();
                     else
                         PC++;
                 break;
                 case BHI:
-                    if(!C && !Z)
+                    if(!Carry() && !Zero())
                         branch();
                     else
                         PC++;
@@ -527,37 +2096,37 @@ public class CPU {
                     BIT(mode, Register.B);
                 break;
                 case BLE:
-                    if(Z || ((N && !V) || (!N && V)))
+                    if(Zero() || (Negative() != Overflow()))
                         branch();
                     else
                         PC++;
                 break;
                 case BLS:
-                    if(C || Z)
+                    if(Carry() || Zero())
                         branch();
                     else
                         PC++;
                 break;
                 case BLT:
-                    if((N && !V) || (!N && V))
+                    if(Negative() != Overflow())
                         branch();
                     else
                         PC++;
                 break;
                 case BMI:
-                    if (N)
+                    if (Negative())
                         branch();
                     else
                         PC++;
                 break;
                 case BNE:
-                    if (!Z)
+                    if (!Zero())
                         branch();
                     else
                         PC++;
                 break;
                 case BPL:
-                    if (!N)
+                    if (!Negative())
                         branch();
                     else
                         PC++;
@@ -566,17 +2135,19 @@ public class CPU {
                     branch();
                 break;
                 case BSR:
-                    push16(PC + 1);
-                    branch();
+                    offset = mem.MemRead(PC);   // before the push, which can
+                    PC++;                       // land on it
+                    push16(PC);
+                    branch(offset);
                 break;
                 case BVC:
-                    if(!V)
+                    if(!Overflow())
                         branch();
                     else
                         PC++;
                 break;
                 case BVS:
-                    if(V)
+                    if(Overflow())
                         branch();
                     else
                         PC++;
@@ -585,7 +2156,7 @@ public class CPU {
                     CBA();
                 break;
                 case CLC:
-                    C = false;
+                    SetCarry(false);
                 break;
                 case CLI:
                     I = false;
@@ -595,20 +2166,14 @@ public class CPU {
                 break;
                 case CLRA:
                     ACCA = 0;
-                    Z = true;
-                    N = false;
-                    V = false;
-                    C = false;
+                    ClearFlags();
                 break;
                 case CLRB:
                     ACCB = 0;
-                    Z = true;
-                    N = false;
-                    V = false;
-                    C = false;
+                    ClearFlags();
                 break;
                 case CLV:
-                    V = false;
+                    SetOverflow(false);
                 break;
                 case CMPA:
                     CMP(mode, Register.A);
@@ -757,13 +2322,13 @@ public class CPU {
                     SBC(mode, Register.B);
                 break;
                 case SEC:
-                    C = true;
+                    SetCarry(true);
                 break;
                 case SEI:
                     I = true;
                 break;
                 case SEV:
-                    V = true;
+                    SetOverflow(true);
                 break;
                 case STAA:
                     STA(mode, Register.A);
@@ -833,7 +2398,7 @@ public class CPU {
         private void ABA()
         {
             int result = ACCA + ACCB;
-            SetConditionAdd(ACCA, ACCB, result);
+            SetConditionAdd(ACCA, ACCB, 0, result);
             ACCA = result & 0xFF;
         }
 
@@ -843,13 +2408,18 @@ public class CPU {
         
         private void ADD(Instruction.AddressMode mode, Register reg, boolean bCarry)
         {
-            int value1, value2, result;
+            int value1, value2;
             value1 = GetReg(reg);
             value2 = GetArgument(mode);
-
-            result = (value1 + value2 + (C && bCarry ? 1 : 0)) & 0xFF;
-            SetConditionAdd(value1, value2, result);
-            StoreReg(reg, result);
+            StoreReg(reg, Add8(value1, value2, bCarry));
+        }
+        
+        private int Add8(int value1, int value2, boolean bCarry)
+        {
+            int carry = (bCarry && Carry()) ? 1 : 0;
+            int result = (value1 + value2 + carry) & 0xFF;
+            SetConditionAdd(value1, value2, carry, result);
+            return (result);
         }
         
         private void AND(Instruction.AddressMode mode, Register reg)
@@ -864,55 +2434,42 @@ public class CPU {
 
         private void ASLReg(Register reg)
         {
-            int value = GetReg(reg);
-            C = BitTest(value,7);
-            value <<= 1;
-            value &= 0xFF;
-            N = BitTest(value,7);
-            Z = (value == 0);
-            V = ((N && !C) || (!N && C));
-            StoreReg(reg, value);
+            StoreReg(reg, Asl8(GetReg(reg)));
         }
         
         private void ASRReg(Register reg)
         {
-            int value = GetReg(reg);
-            boolean B7 = BitTest(value,7);
-            C = BitTest(value,0);
-            value >>= 1;
-            if(B7)
-                value |= (1<<7);
-            N = BitTest(value,7);
-            Z = (value == 0);
-            V = ((N && !C) || (!N && C));
-            StoreReg(reg, value);
+            StoreReg(reg, Asr8(GetReg(reg)));
         }
         
         private void ASL(Instruction.AddressMode mode)
         {
-            int value = GetArgument(mode);
-            C = BitTest(value,7);
+            StoreValue(-1, Asl8(GetArgument(mode)));
+        }
+        
+        private void ASR(Instruction.AddressMode mode)
+        {
+            StoreValue(-1, Asr8(GetArgument(mode)));
+        }
+        
+        private int Asl8(int value)
+        {
+            int carry = (value >> 7) & 1;
             value <<= 1;
             value &= 0xFF;
-            N = BitTest(value,7);
-            Z = (value == 0);
-            V = (N ^ C);
-            StoreValue(-1, value);
+            DeferFlags(FLAGS_SHIFT, carry, value);
+            return (value);
         }
         
-        private void ASR(Instruction.AddressMode mode)
+        private int Asr8(int value)
         {
-            int value = GetArgument(mode);
             boolean B7 = BitTest(value,7);
-            C = BitTest(value,0);
+            int carry = value & 1;
             value >>= 1;
             if(B7)
                 value |= (1<<7);
-            N = BitTest(value,7);
-            Z = (value == 0);
-            V = (N ^ C);
-            
-            StoreValue(-1, value);
+            DeferFlags(FLAGS_SHIFT, carry, value);
+            return (value);
         }
         
         private void BIT(Instruction.AddressMode mode, Register reg)
@@ -920,66 +2477,67 @@ public class CPU {
             int result;
             result = GetArgument(mode);
             result = result & GetReg(reg);
-            N = (BitTest(result, 7));
-            Z = (result == 0);
-            V = false;   
+            SetConditionLoad(result);
         }
         
         private void CBA ()
         {
             int result = subtract8(ACCA, ACCB);
-            SetConditionSubtract(ACCA, ACCB, result);
+            SetConditionSubtract(ACCA, ACCB, 0, result);
         }
         
         private void CLR (Instruction.AddressMode mode)
         {
             int value = GetArgument(mode);
             StoreValue(-1, 0);
-            Z = true;
-            N = false;
-            V = false;
-            C = false;
+            ClearFlags();
+        }
+        
+/*
+**      ClearFlags - condition codes after CLR, CLRA and CLRB
+*/
+        private void ClearFlags ()
+        {
+            DeferFlags(FLAGS_TEST, 0, 0);
         }
         
         private void CMP (Instruction.AddressMode mode, Register reg)
         {
             int value1, value2 = GetArgument(mode);
-            int result;
             
             if (reg == Register.A)
                 value1 = ACCA;
             else
                 value1 = ACCB;
-            result = subtract8(value1, value2);
-            SetConditionSubtract(value1, value2, result);
+            Sub8(value1, value2);
         }
         
         private void COM (Instruction.AddressMode mode)
         {
-            int value = GetArgument(mode);
-            value = ~value & 0xFF;
-            N = BitTest(value, 7);
-            Z = (value == 0);
-            V = false;
-            C = true;
-            StoreValue(-1, value);
+            StoreValue(-1, Com8(GetArgument(mode)));
         }
         
         private void COMReg (Register reg)
         {
-            int value = GetReg(reg);
+            StoreReg(reg, Com8(GetReg(reg)));
+        }
+        
+        private int Com8 (int value)
+        {
             value = ~value & 0xFF;
-            N = BitTest(value, 7);
-            Z = (value == 0);
-            V = false;
-            C = true;
-            StoreReg(reg, value);
+            DeferFlags(FLAGS_TEST, 1, value);
+            return (value);
         }
         
         private void CPX (Instruction.AddressMode mode)
         {
-            int value2 = GetArgument16(mode);
+            Cpx(GetArgument16(mode));
+        }
+        
+        private void Cpx (int value2)
+        {
             int result = subtract16 (IX, value2);
+            FlagPending &= ~(FLAG_N | FLAG_Z | FLAG_V);
             N = BitTest(result, 15);
             Z = (result == 0);
             V = ((BitTest(IX, 15) && !BitTest(value2, 7) && !BitTest(result,15)) ||
@@ -988,63 +2546,30 @@ public class CPU {
         
         private void DAA ()
         {
-            int nibble_hi, nibble_low;
-            nibble_hi = ACCA >> 4;
-            nibble_low = ACCA & 0xF;
-            
-            if(!C)
-            {
-                if ((nibble_hi < 9) && (nibble_low > 9) && !H)
-                    ACCA += 0x6;
-                if ((nibble_hi < 10) && (nibble_low < 4) && H)
-                    ACCA += 0x6;
-                if((nibble_hi > 9) && (nibble_low < 10) && !H)
-                {
-                    ACCA += 0x60;
-                    C = true;
-                }
-                if((nibble_hi > 8) && (nibble_low > 9) && !H)
-                {
-                    ACCA += 0x66;
-                    C = true;
-                }
-                if((nibble_hi > 9) && (nibble_low  < 4) && H)
-                {
-                    ACCA += 0x66;
-                    C = true;
-                }
-            }
-            else
-            {
-                if((nibble_hi < 3) && (nibble_low < 10) && !H)
-                    ACCA += 0x60;
-                if((nibble_hi < 3) && (nibble_low > 9) && !H)
-                    ACCA += 0x66;
-                if((nibble_hi < 4) && (nibble_low < 4) && H)
-                    ACCA += 0x66;
-            }
+            int adjust;
+            ResolveFlags();
+            adjust = FlagTables.DAAAdjust(C, H, ACCA);
+            ACCA += adjust & 0xFF;
+            C = ((adjust & FlagTables.DAACARRY) != 0);
             N = (BitTest(ACCA, 7));
             Z = (ACCA == 0);
         }
         
         private void DEC (Instruction.AddressMode mode)
         {
-            int value = GetArgument(mode);
-            value = DEC8 (value);
-            N = BitTest(value, 7);
-            Z = (value == 0);
-            V = (value == 0x7F);
-            StoreValue(-1, value);
+            StoreValue(-1, Decrement8(GetArgument(mode)));
         }
         
         private void DECReg (Register reg)
         {
-            int value = GetReg(reg);
+            StoreReg(reg, Decrement8(GetReg(reg)));
+        }
+        
+        private int Decrement8 (int value)
+        {
             value = DEC8 (value);
-            N = BitTest(value, 7);
-            Z = (value == 0);
-            V = (value == 0x7F);
-            StoreReg(reg, value);
+            DeferFlags(FLAGS_DEC, 0, value);
+            return (value);
         }
         
         private int DEC8 (int arg)
@@ -1069,6 +2594,7 @@ public class CPU {
                 IX--;
             else
                 IX = 65535;
+            FlagPending &= ~FLAG_Z;
             Z = (IX == 0);          
         }
         
@@ -1076,30 +2602,25 @@ public class CPU {
         {
             int result = GetArgument(mode);
             result = (result ^ GetReg(reg));
-            N = BitTest(result, 7);
-            Z = (result == 0);
-            V = false;
+            SetConditionLoad(result);
             StoreReg(reg, result);
         }
         
         private void INC (Instruction.AddressMode mode)
         {
-            int value = GetArgument(mode);
-            value = INC8 (value);
-            N = BitTest(value, 7);
-            Z = (value == 0);
-            V = (value == 0x80);
-            StoreValue(-1, value);
+            StoreValue(-1, Increment8(GetArgument(mode)));
         }
         
         private void INCReg (Register reg)
         {
-            int value = GetReg(reg);
+            StoreReg(reg, Increment8(GetReg(reg)));
+        }
+        
+        private int Increment8 (int value)
+        {
             value = INC8 (value);
-            N = BitTest(value, 7);
-            Z = (value == 0);
-            V = (value == 0x80);
-            StoreReg(reg, value);
+            DeferFlags(FLAGS_INC, 0, value);
+            return (value);
         }
         
         private int INC8 (int arg)
@@ -1124,6 +2645,7 @@ public class CPU {
                 IX++;
             else
                 IX = 0;
+            FlagPending &= ~FLAG_Z;
             Z = (IX == 0);
         }
 
@@ -1152,6 +2674,15 @@ public class CPU {
             PC = PC + 1 + rel;
         }
         
+/*
+**      branch - same as above for when PC has already been moved past the
+**      offset byte
+*/
+        private void branch (int offset)
+        {
+            PC = PC + TwosComplement8Bit(offset);
+        }
+        
         private void LD(Instruction.AddressMode mode, Register reg)
         {
             int value;
@@ -1214,9 +2745,7 @@ public class CPU {
             int ivalue = GetArgument(mode);
             int ivalue2 = GetReg(reg);
             ivalue2 = ivalue2 | ivalue;
-            N = BitTest(ivalue2, 7);
-            Z = (ivalue2 == 0);
-            V = false;
+            SetConditionLoad(ivalue2);
             StoreReg(reg, ivalue2);
         }
         
@@ -1265,7 +2794,7 @@ public class CPU {
         private void SBA ()
         {
             int result = subtract8(ACCA, ACCB);
-            SetConditionSubtract(ACCA, ACCB, result);
+            SetConditionSubtract(ACCA, ACCB, 0, result);
             ACCA = result;
         }
         
@@ -1273,10 +2802,15 @@ public class CPU {
         {
             int ivalue1 = GetReg(reg);
             int ioldValue = GetArgument(mode);
-            int ivalue2 = ioldValue + (C ? 1 : 0);
-            int result = subtract8(ivalue1, ivalue2);
-            SetConditionSubtract(ivalue1, ioldValue, result);
-            StoreReg(reg, result);
+            StoreReg(reg, Sbc8(ivalue1, ioldValue));
+        }
+        
+        private int Sbc8 (int ivalue1, int ioldValue)
+        {
+            int carry = Carry() ? 1 : 0;
+            int result = subtract8(ivalue1, ioldValue + carry);
+            SetConditionSubtract(ivalue1, ioldValue, carry, result);
+            return (result);
         }
         
         private void STA (Instruction.AddressMode mode, Register reg)
@@ -1316,9 +2850,12 @@ public class CPU {
                     index = IX + mem.MemRead(PC++);
                 break;
             }
-            N = BitTest(value, 15);
-            Z = (value == 0);
-            V = false;
+            Store16(index, value);
+        }
+        
+        private void Store16 (int index, int value)
+        {
+            SetConditionLoad16(value);
             mem.MemWrite(index, value >> 8);
             mem.MemWrite(index+1, value);
         }
@@ -1327,9 +2864,14 @@ public class CPU {
         {
             int ivalue1 = GetReg(reg);
             int ivalue2 = GetArgument(mode);
+            StoreReg(reg, Sub8(ivalue1, ivalue2));
+        }
+        
+        private int Sub8 (int ivalue1, int ivalue2)
+        {
             int result = subtract8(ivalue1, ivalue2);
-            SetConditionSubtract(ivalue1, ivalue2, result);
-            StoreReg(reg, result);
+            SetConditionSubtract(ivalue1, ivalue2, 0, result);
+            return (result);
         }
         
         private void SWI ()
@@ -1345,20 +2887,17 @@ public class CPU {
         
         private void TST (Instruction.AddressMode mode)
         {
-            int ivalue = GetArgument(mode);
-            V = false;
-            C = false;
-            N = (BitTest(ivalue, 7));
-            Z = (ivalue == 0);
+            Tst8(GetArgument(mode));
         }
         
         private void TSTReg (Register reg)
         {
-            int ivalue = GetReg(reg);
-            V = false;
-            C = false;
-            N = (BitTest(ivalue, 7));
-            Z = (ivalue == 0);
+            Tst8(GetReg(reg));
+        }
+        
+        private void Tst8 (int ivalue)
+        {
+            DeferFlags(FLAGS_TEST, 0, ivalue);
         }
         
         private void WAI ()
@@ -1372,6 +2911,16 @@ public class CPU {
         }
         
         private int Negate8 (int ivalue)
+        {
+            int result = Negated(ivalue);
+            DeferFlags(FLAGS_NEG, ivalue, result);
+            return (result);
+        }
+
+/*
+**      Negated - NEG's result, shared with translated code
+*/
+        static int Negated (int ivalue)
         {
             int result = 0;
             if (ivalue != 0x80 && ivalue != 0x0)
@@ -1381,36 +2930,17 @@ public class CPU {
                 else
                     result = (~ivalue & 0xFF) + 1;
             }
-            C = (ivalue != 0);
-            V = (ivalue == 0x80);
-            N = BitTest(result,7);
-            Z = (result == 0);
             return (result);
         }
         
-        private void SetConditionAdd (int accumulator, int current, int result)
+        private void SetConditionAdd (int accumulator, int current, int carry, int result)
         {
-            H = (BitTest(accumulator, 3) && BitTest(current, 3)) ||
-                (BitTest(current, 3) && !BitTest(result, 3)) ||
-                 (!BitTest(result, 3) && BitTest(accumulator, 3));
-            N = BitTest(result, 7);
-            Z = (result == 0);
-            V = (BitTest(accumulator, 7) && BitTest(current, 7) && !BitTest(result, 7)) ||
-                (!BitTest(accumulator, 7) && !BitTest(current, 7) && BitTest(result, 7));
-            C = (BitTest(accumulator, 7) && BitTest(current, 7)) ||
-                (BitTest(current, 7) && !BitTest(result, 7)) ||
-                (!BitTest(result, 7) && BitTest(accumulator, 7));      
+            DeferFlags(FLAGS_ADD, FlagTables.Index(accumulator, current, carry), result);
         }
         
-        private void SetConditionSubtract (int accumulator, int current, int result)
+        private void SetConditionSubtract (int accumulator, int current, int carry, int result)
         {
-            N = BitTest(result, 7);
-            Z = (result == 0);
-            V = ((BitTest(accumulator, 7) && !BitTest(current, 7) && !BitTest(result,7)) ||
-                (!BitTest(accumulator, 7) && BitTest(current,7) && BitTest(result, 7)));
-            C = ((!BitTest(accumulator, 7) && BitTest(current, 7)) ||
-                (BitTest(current, 7) && BitTest(result, 7)) ||
-                (BitTest(result,7) && !BitTest(accumulator, 7)));
+            DeferFlags(FLAGS_SUB, FlagTables.Index(accumulator, current, carry), result);
         }
         
         private int subtract8 (int arg1, int arg2)
@@ -1431,51 +2961,177 @@ public class CPU {
 
         private void SetConditionLoad (int value)
         {
-            N = BitTest(value, 7);
-            Z = (value == 0);
-            V = false;
+            DeferFlags(FLAGS_LOAD, 0, value);
         }
         
         private void SetConditionLoad16 (int value)
         {
-            N = BitTest(value, 15);
-            Z = (value == 0);
-            V = false;
+            DeferFlags(FLAGS_LOAD16, 0, value);
         }
         
         private int SetConditionLSR (int value)
         {
-            C = BitTest(value, 0);
-            N = false;
-            V = C;
+            int carry = value & 1;
             value >>= 1;
-            Z = (value == 0);
+            DeferFlags(FLAGS_LSR, carry, value);
             return (value);
         }
  
         private int SetConditionROL (int value)
         {
             int result;
-            boolean bTemp = BitTest(value, 7);
-            result = ((value << 1) & 0xFF) + (C ? 1 : 0);
-            C = bTemp;
-            N = BitTest(result, 7);
-            V = ((N && !C) || (!N && C));
-            Z = (result == 0);
+            int carry = (value >> 7) & 1;
+            result = ((value << 1) & 0xFF) + (Carry() ? 1 : 0);
+            DeferFlags(FLAGS_SHIFT, carry, result);
             return (result);
         }
         
         private int SetConditionROR (int value)
         {
             int result;
-            boolean bTemp = BitTest(value, 0);
-            result = ((value >> 1) & 0xFF) + (C ? 0x80 : 0);
-            C = bTemp;
-            N = BitTest(result, 7);
-            V = ((N && !C) || (!N && C));
-            Z = (result == 0);
+            int carry = value & 1;
+            result = ((value >> 1) & 0xFF) + (Carry() ? 0x80 : 0);
+            DeferFlags(FLAGS_SHIFT, carry, result);
             return (result);
         }
+
+/*
+**      DeferFlags - note the ALU operation that last set the flags, they're
+**      worked out from it only when something reads them.  Flags the last
+**      operation set but this one doesn't are worked out first.
+*/
+        private void DeferFlags (int op, int arg, int result)
+        {
+            int stale = FlagPending & ~FLAGSET[op];
+            if(stale != 0)
+                MaterializeFlags(stale);
+            FlagOp = op;
+            FlagArg = arg;
+            FlagResult = result;
+            FlagPending = FLAGSET[op];
+            if(!LazyFlags)
+                MaterializeFlags(FlagPending);
+        }
+
+/*
+**      MaterializeFlags - work out the pending flags in mask and store them
+*/
+        private void MaterializeFlags (int mask)
+        {
+            if((mask & FLAG_H) != 0)
+                H = LazyHalfCarry(FlagArg, FlagResult);
+            if((mask & FLAG_N) != 0)
+                N = LazyNegative(FlagOp, FlagResult);
+            if((mask & FLAG_Z) != 0)
+                Z = (FlagResult == 0);
+            if((mask & FLAG_V) != 0)
+                V = LazyOverflow(FlagOp, FlagArg, FlagResult);
+            if((mask & FLAG_C) != 0)
+                C = LazyCarry(FlagOp, FlagArg, FlagResult);
+            FlagPending &= ~mask;
+        }
+
+/*
+**      ResolveFlags - bring all the flag fields up to date
+*/
+        private void ResolveFlags ()
+        {
+            if(FlagPending != 0)
+                MaterializeFlags(FlagPending);
+        }
+
+/*
+**      Carry, Overflow, Zero, Negative - read one flag for a branch, working
+**      it out from the last operation if it's pending
+*/
+        private boolean Carry ()
+        {
+            return (((FlagPending & FLAG_C) != 0) ? LazyCarry(FlagOp, FlagArg, FlagResult) : C);
+        }
+
+        private boolean Overflow ()
+        {
+            return (((FlagPending & FLAG_V) != 0) ? LazyOverflow(FlagOp, FlagArg, FlagResult) : V);
+        }
+
+        private boolean Zero ()
+        {
+            return (((FlagPending & FLAG_Z) != 0) ? (FlagResult == 0) : Z);
+        }
+
+        private boolean Negative ()
+        {
+            return (((FlagPending & FLAG_N) != 0) ? LazyNegative(FlagOp, FlagResult) : N);
+        }
+
+/*
+**      SetCarry, SetOverflow - CLC, SEC, CLV and SEV
+*/
+        private void SetCarry (boolean value)
+        {
+            FlagPending &= ~FLAG_C;
+            C = value;
+        }
+
+        private void SetOverflow (boolean value)
+        {
+            FlagPending &= ~FLAG_V;
+            V = value;
+        }
+
+/*
+**      LazyCarry, LazyOverflow, LazyNegative, LazyHalfCarry - one flag of
+**      the last operation op, with arg and result, ADD and SUB from
+**      FlagTables
+*/
+        private static boolean LazyCarry (int op, int arg, int result)
+        {
+            switch(op)
+            {
+                case FLAGS_ADD:
+                    return ((FlagTables.ADD[FlagTables.Bits(arg, result)] & FlagTables.CARRY) != 0);
+                case FLAGS_SUB:
+                    return ((FlagTables.SUB[FlagTables.Bits(arg, result)] & FlagTables.CARRY) != 0);
+                default: // NEG's operand wasn't 0, the others give the bit
+                    return (arg != 0);
+            }
+        }
+
+        private static boolean LazyOverflow (int op, int arg, int result)
+        {
+            switch(op)
+            {
+                case FLAGS_ADD:
+                    return ((FlagTables.ADD[FlagTables.Bits(arg, result)] & FlagTables.OVERFLOW) != 0);
+                case FLAGS_SUB:
+                    return ((FlagTables.SUB[FlagTables.Bits(arg, result)] & FlagTables.OVERFLOW) != 0);
+                case FLAGS_NEG:
+                    return (arg == 0x80);
+                case FLAGS_INC:
+                    return (result == 0x80);
+                case FLAGS_DEC:
+                    return (result == 0x7F);
+                case FLAGS_SHIFT: // N ^ C
+                    return (BitTest(result, 7) ^ (arg != 0));
+                case FLAGS_LSR:
+                    return (arg != 0);
+                default: // LOAD, LOAD16 and TEST clear it
+                    return (false);
+            }
+        }
+
+        private static boolean LazyNegative (int op, int result)
+        {
+            if(op == FLAGS_LSR)
+                return (false);
+            return (BitTest(result, (op == FLAGS_LOAD16) ? 15 : 7));
+        }
+
+        private static boolean LazyHalfCarry (int arg, int result)
+        {
+            // only ADD leaves H pending
+            return ((FlagTables.ADD[FlagTables.Bits(arg, result)] & FlagTables.HALFCARRY) != 0);
+        }
         
         private int ImmediateValue(int length)
         {
@@ -1675,7 +3331,7 @@ public class CPU {
 /*
 **      BitTest - test bit by bit position (0-7)
 */
-        private boolean BitTest (int arg, int bitnum)
+        private static boolean BitTest (int arg, int bitnum)
         {
             if((arg & (1<<bitnum)) > 0)
                 return (true);
@@ -1683,6 +3339,14 @@ public class CPU {
                 return (false);
         }
 
+/*
+**      Read16 - read a big endian 16 bit value
+*/
+        private int Read16 (int address)
+        {
+            return ((mem.MemRead(address) << 8) + mem.MemRead(address+1));
+        }
+
 /*
 **      push8 - Push 8 bit value onto stack
 */
@@ -1733,6 +3397,7 @@ public class CPU {
         private int GetConditionCode()
         {
             int result = 0xC0;
+            ResolveFlags();
             result += (C ? 1 : 0);
             result += (V ? 2 : 0);
             result += (Z ? 4 : 0);
@@ -1748,6 +3413,7 @@ public class CPU {
 */
         private void SetConditionCode(int ivalue)
         {
+            FlagPending = 0;
             C = BitTest(ivalue, 0);
             V = BitTest(ivalue, 1);
             Z = BitTest(ivalue, 2);
@@ -1756,33 +3422,4 @@ public class CPU {
             H = BitTest(ivalue, 5);
         }
         
-        
-        public void SetClockDelay(int iValue)
-        {
-            if(iValue < MINCLOCKDELAY)
-                iValue = MINCLOCKDELAY;
-            if(iValue > MAXCLOCKDELAY)
-                iValue = MAXCLOCKDELAY;
-            ActualClockDelay = ClockSpeedToTicks (iValue);
-        }
-        
-        public int GetClockDelay()
-        {
-            return (MAXCLOCKDELAY - ClockDelay);
-        }
-        
-        public int GetRealClockDelay()
-        {
-            return (ActualClockDelay);
-        }
-        
-        private int ClockSpeedToTicks (int val)
-        {
-            double a = -150;
-            double b = 1750;
-            int workval;
-            workval = (int) (a * val) + (int) b;
-            return (workval);
-        }
-        
 }
@@ -0,0 +1,360 @@
+/*
+** ClassFileWriter.java
+** Just enough of the JVM class file format to emit the classes built by
+** Translator: a constant pool, one class with its methods, and method code
+** with forward and backward jumps.  Classes are written as version 49 so
+** the verifier doesn't need stack map frames.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Add lookupswitch for regions with more than one entry
+** 10/17/2026 Add the array, long, shift and static call opcodes for code
+**            that keeps the registers in locals
+*/
+package m6800;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ *
+ * @author daves
+ */
+class ClassFileWriter {
+
+    final static int CLASSVERSION = 49;
+    final static int ACC_PUBLIC = 0x0001;
+    final static int ACC_PROTECTED = 0x0004;
+    final static int ACC_FINAL = 0x0010;
+    final static int ACC_SUPER = 0x0020;
+
+    // opcodes used by Translator
+    final static int ICONST_0 = 0x03;
+    final static int BIPUSH = 0x10;
+    final static int SIPUSH = 0x11;
+    final static int LDC_W = 0x13;
+    final static int ILOAD = 0x15;
+    final static int LLOAD = 0x16;
+    final static int ALOAD = 0x19;
+    final static int ALOAD_0 = 0x2A;
+    final static int ALOAD_1 = 0x2B;
+    final static int AALOAD = 0x32;
+    final static int BALOAD = 0x33;
+    final static int ISTORE = 0x36;
+    final static int LSTORE = 0x37;
+    final static int ASTORE = 0x3A;
+    final static int BASTORE = 0x54;
+    final static int POP = 0x57;
+    final static int DUP = 0x59;
+    final static int IADD = 0x60;
+    final static int LADD = 0x61;
+    final static int ISUB = 0x64;
+    final static int LSUB = 0x65;
+    final static int ISHL = 0x78;
+    final static int ISHR = 0x7A;
+    final static int IUSHR = 0x7C;
+    final static int IAND = 0x7E;
+    final static int IOR = 0x80;
+    final static int IXOR = 0x82;
+    final static int I2L = 0x85;
+    final static int LCMP = 0x94;
+    final static int IFEQ = 0x99;
+    final static int IFNE = 0x9A;
+    final static int IFLT = 0x9B;
+    final static int IFLE = 0x9E;
+    final static int IF_ICMPEQ = 0x9F;
+    final static int IF_ICMPNE = 0xA0;
+    final static int IF_ICMPGE = 0xA2;
+    final static int GOTO = 0xA7;
+    final static int LOOKUPSWITCH = 0xAB;
+    final static int RETURN = 0xB1;
+    final static int GETFIELD = 0xB4;
+    final static int PUTFIELD = 0xB5;
+    final static int INVOKEVIRTUAL = 0xB6;
+    final static int INVOKESPECIAL = 0xB7;
+    final static int INVOKESTATIC = 0xB8;
+    final static int IFNULL = 0xC6;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final HashMap<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final ArrayList<byte[]> methods = new ArrayList<>();
+    private final int thisClass;
+    private final int superClass;
+
+    ClassFileWriter(String name, String superName)
+    {
+        thisClass = Class(name);
+        superClass = Class(superName);
+    }
+
+/*
+**      Utf8, Class, Integer, Field, Method - constant pool entries, each
+**      added once and returned by index after that
+*/
+    int Utf8(String value)
+    {
+        Integer index = poolIndex.get("U" + value);
+        if(index == null)
+        {
+            index = Add("U" + value);
+            try {
+                poolOut.writeByte(1);
+                poolOut.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return (index);
+    }
+
+    int Class(String name)
+    {
+        return (Entry("C" + name, 7, Utf8(name), -1));
+    }
+
+    int Integer(int value)
+    {
+        Integer index = poolIndex.get("I" + value);
+        if(index == null)
+        {
+            index = Add("I" + value);
+            poolOut(3, value >>> 16, value & 0xFFFF);
+        }
+        return (index);
+    }
+
+    int Field(String owner, String name, String descriptor)
+    {
+        return (Entry("F" + owner + "." + name + ":" + descriptor, 9,
+                Class(owner), NameAndType(name, descriptor)));
+    }
+
+    int Method(String owner, String name, String descriptor)
+    {
+        return (Entry("M" + owner + "." + name + descriptor, 10,
+                Class(owner), NameAndType(name, descriptor)));
+    }
+
+    private int NameAndType(String name, String descriptor)
+    {
+        return (Entry("N" + name + ":" + descriptor, 12, Utf8(name), Utf8(descriptor)));
+    }
+
+    private int Entry(String key, int tag, int first, int second)
+    {
+        Integer index = poolIndex.get(key);
+        if(index == null)
+        {
+            index = Add(key);
+            poolOut(tag, first, second);
+        }
+        return (index);
+    }
+
+    private int Add(String key)
+    {
+        int index = poolCount++;
+        poolIndex.put(key, index);
+        return (index);
+    }
+
+    private void poolOut(int tag, int first, int second)
+    {
+        try {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(first);
+            if(second >= 0)
+                poolOut.writeShort(second);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+/*
+**      AddMethod - add a method whose body is code
+*/
+    void AddMethod(int access, String name, String descriptor, Code code)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte body[] = code.ToBytes();
+        try {
+            out.writeShort(access);
+            out.writeShort(Utf8(name));
+            out.writeShort(Utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(Utf8("Code"));
+            out.writeInt(12 + body.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+/*
+**      ToBytes - the finished class file
+*/
+    byte[] ToBytes()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASSVERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for(byte method[] : methods)
+                out.write(method);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return (bytes.toByteArray());
+    }
+
+/*
+**      Code - bytecode for one method.  Jumps go to labels from NewLabel and
+**      are patched when the label is placed with Mark.
+*/
+    static class Code {
+        final static int MAXLENGTH = 32767; // so every jump fits in 16 bits
+
+        private byte code[] = new byte[1024];
+        private int length;
+        private final ArrayList<Integer> labels = new ArrayList<>();
+        private final ArrayList<int[]> jumps = new ArrayList<>(); // {at, label}
+        private final ArrayList<int[]> wideJumps = new ArrayList<>(); // {from, at, label}
+        int maxStack;
+        int maxLocals;
+
+        Code(int maxStack, int maxLocals)
+        {
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        void Op(int opcode)
+        {
+            Byte(opcode);
+        }
+
+        void Op(int opcode, int index)
+        {
+            Byte(opcode);
+            if((opcode == ILOAD) || (opcode == LLOAD) || (opcode == ALOAD) || (opcode == ISTORE) ||
+                    (opcode == LSTORE) || (opcode == ASTORE) || (opcode == BIPUSH))
+                Byte(index);
+            else
+                Short(index);
+        }
+
+        int NewLabel()
+        {
+            labels.add(-1);
+            return (labels.size() - 1);
+        }
+
+        void Mark(int label)
+        {
+            labels.set(label, length);
+        }
+
+        void Jump(int opcode, int label)
+        {
+            jumps.add(new int[] {length, label});
+            Byte(opcode);
+            Short(0);
+        }
+
+/*
+**      LookupSwitch - jump to the label for the int on the stack, keys must
+**      be in ascending order
+*/
+        void LookupSwitch(int keys[], int targets[], int defaultLabel)
+        {
+            int from = length;
+            int icounter;
+            Byte(LOOKUPSWITCH);
+            while((length % 4) != 0)
+                Byte(0);
+            wideJumps.add(new int[] {from, length, defaultLabel});
+            Int(0);
+            Int(keys.length);
+            for(icounter = 0; icounter < keys.length; icounter++)
+            {
+                Int(keys[icounter]);
+                wideJumps.add(new int[] {from, length, targets[icounter]});
+                Int(0);
+            }
+        }
+
+        int Length()
+        {
+            return (length);
+        }
+
+        byte[] ToBytes()
+        {
+            if(length > MAXLENGTH)
+                throw new IllegalStateException("method too large");
+            for(int jump[] : jumps)
+            {
+                int offset = labels.get(jump[1]) - jump[0];
+                code[jump[0] + 1] = (byte) (offset >> 8);
+                code[jump[0] + 2] = (byte) offset;
+            }
+            for(int jump[] : wideJumps)
+            {
+                int offset = labels.get(jump[2]) - jump[0];
+                code[jump[1]] = (byte) (offset >> 24);
+                code[jump[1] + 1] = (byte) (offset >> 16);
+                code[jump[1] + 2] = (byte) (offset >> 8);
+                code[jump[1] + 3] = (byte) offset;
+            }
+            byte result[] = new byte[length];
+            System.arraycopy(code, 0, result, 0, length);
+            return (result);
+        }
+
+        private void Byte(int value)
+        {
+            if(length == code.length)
+            {
+                byte larger[] = new byte[code.length * 2];
+                System.arraycopy(code, 0, larger, 0, length);
+                code = larger;
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void Short(int value)
+        {
+            Byte(value >> 8);
+            Byte(value);
+        }
+
+        private void Int(int value)
+        {
+            Short(value >> 16);
+            Short(value);
+        }
+    }
+}
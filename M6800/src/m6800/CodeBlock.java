@@ -0,0 +1,92 @@
+/*
+** CodeBlock.java
+** A basic block of predecoded instructions: a run of instructions starting
+** at one address and ending with the first one that can change the flow of
+** control.  Built and invalidated by BlockCache, executed by CPU.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Add hit count and translated regions for the JIT engine
+*/
+package m6800;
+
+import java.util.ArrayList;
+
+/**
+ *
+ * @author daves
+ */
+class CodeBlock {
+    final int startPC;
+    final int endPC;        // address just past the last instruction
+    final int length;       // number of instructions
+    final int opcode[];
+    final int operand[];    // argument bytes of each instruction
+    final int nextPC[];     // PC after each instruction is fetched
+    final int cycles;       // total for the whole block
+    boolean valid;
+    CodeBlock next;         // block last run from endPC
+    CodeBlock target;       // block last run after a jump or taken branch
+    int hits;               // times interpreted, for the JIT engine
+    int drops;              // translations lost to writes, for the JIT engine
+    CompiledRegion compiled; // translation entered at this block
+    private ArrayList<CompiledRegion> regions; // translations including this block
+
+    CodeBlock(int startPC, int length, int opcode[], int operand[], int nextPC[], int cycles)
+    {
+        this.startPC = startPC;
+        this.endPC = nextPC[length - 1];
+        this.length = length;
+        this.opcode = opcode;
+        this.operand = operand;
+        this.nextPC = nextPC;
+        this.cycles = cycles;
+        this.valid = true;
+    }
+
+/*
+**      Covers - true if any byte of the block is in [iStart, iEnd)
+*/
+    boolean Covers(int iStart, int iEnd)
+    {
+        return ((startPC < iEnd) && (endPC > iStart));
+    }
+
+/*
+**      AddRegion - note a translation that includes this block
+*/
+    void AddRegion(CompiledRegion region)
+    {
+        if(regions == null)
+            regions = new ArrayList<>();
+        regions.add(region);
+    }
+
+/*
+**      Invalidate - the block's code has changed.  Drop it and every
+**      translation that includes it.
+*/
+    void Invalidate()
+    {
+        valid = false;
+        if(regions != null)
+        {
+            for(CompiledRegion region : regions)
+                region.valid = false;
+            regions = null;
+        }
+    }
+
+/*
+**      CyclesBefore - cycles used by the first count instructions, for when
+**      a block is left part way through
+*/
+    int CyclesBefore(int count)
+    {
+        int total = 0;
+        int icounter;
+        for(icounter = 0; icounter < count; icounter++)
+            total += CPU.InstructionLookup(opcode[icounter]).cycles;
+        return (total);
+    }
+}
@@ -0,0 +1,17 @@
+/*
+** CodeWriteListener.java
+** Told when memory holding cached code is changed, see
+** MemoryModule.SetCodeWriteListener.
+**
+** Revisions:
+** 10/17/2026 Initial version, moved out of MemoryModule
+*/
+package m6800;
+
+/**
+ *
+ * @author daves
+ */
+interface CodeWriteListener {
+    void CodeWritten(int iStart, int iSize);
+}
@@ -0,0 +1,89 @@
+/*
+** CompiledRegion.java
+** Base class of the classes Translator generates.  Each one runs a group of
+** cached blocks as straight JVM code, looping between them without going
+** back to the interpreter.
+**
+** The generated classes are defined by a RegionLoader, outside the package
+** CPU and MemoryModule are in, so what they need that isn't public is here
+** as protected static methods.  HotSpot inlines them.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Public, with the accessors translated code needs from a
+**            RegionLoader
+*/
+package m6800;
+
+/**
+ *
+ * @author daves
+ */
+public abstract class CompiledRegion {
+    // cleared when any code the region was translated from is written,
+    // the generated code checks it after every store
+    protected boolean valid = true;
+
+/*
+**      Run - run from the region's first block until control leaves the
+**      region, the next block won't fit before end, a request comes in or
+**      valid is cleared.  PC, CycleCount and InstructionCount are left as
+**      if the interpreter had run the same instructions.
+*/
+    protected abstract void Run(CPU cpu, long end);
+
+/*
+**      ReadPages, WritePages, CodePages - mem's page tables, see
+**      MemoryModule.GetReadPages
+*/
+    protected static byte[][] ReadPages(MemoryModule mem)
+    {
+        return (mem.GetReadPages());
+    }
+
+    protected static byte[][] WritePages(MemoryModule mem)
+    {
+        return (mem.GetWritePages());
+    }
+
+    protected static boolean[] CodePages(MemoryModule mem)
+    {
+        return (mem.GetCodePages());
+    }
+
+/*
+**      Stopped - true if the interpreter has to look at a request before
+**      the next block
+*/
+    protected static boolean Stopped(CPU cpu)
+    {
+        return (cpu.JitStopped());
+    }
+
+/*
+**      Leave - store the registers, flags and counts kept in locals back
+**      into cpu, see CPU.JitLeave
+*/
+    protected static void Leave(CPU cpu, int pc, int a, int b, int x, int sp,
+            int c, int v, int z, int n, int h, long cycles, long count)
+    {
+        cpu.JitLeave(pc, a, b, x, sp, c, v, z, n, h, cycles, count);
+    }
+
+/*
+**      Execute - run an instruction that isn't translated with the BLOCK
+**      engine's handler, PC already past it
+*/
+    protected static void Execute(CPU cpu, int opcode, int operand)
+    {
+        cpu.JitExecute(opcode, operand);
+    }
+
+/*
+**      Negate - NEG's result, as the interpreter works it out
+*/
+    protected static int Negate(int value)
+    {
+        return (CPU.Negated(value));
+    }
+}
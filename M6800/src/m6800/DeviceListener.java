@@ -0,0 +1,18 @@
+/*
+** DeviceListener.java
+** Told by the display about each write the CPU makes to it, and by the
+** keypad when the CPU reads it with no key down.
+**
+** Revisions:
+** 10/17/2026 Initial version, moved out of MemoryModule
+*/
+package m6800;
+
+/**
+ *
+ * @author daves
+ */
+interface DeviceListener {
+    void DisplayWritten(int iAddress, int iValue);
+    void KeypadIdle();
+}
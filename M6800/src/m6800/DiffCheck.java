@@ -0,0 +1,235 @@
+/*
+** DiffCheck.java
+** Differential check of the CPU against itself.  Random programs are run
+** from RAM with each CPU.Engine, with lazy flags off, across a snapshot
+** save and restore and across a Fork, and every register, the counts and
+** all of memory are compared with the same program on the SWITCH engine
+** with lazy flags on, the reference the others were written against.  Run
+** it after a change to the engines, the flags or the machine state with:
+**
+**      java -cp M6800.jar m6800.DiffCheck [programs [cycles]]
+**
+** Each program is PROGRAMBYTES from a Random seeded with its number after
+** an LDS, run() in slices of random size from another, so a failure is
+** found again by its number.  The first difference of each check is
+** printed.  The exit status is 1 if anything differed.
+**
+** Revisions:
+** 10/17/2026 Initial version
+*/
+package m6800;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+/**
+ *
+ * @author daves
+ */
+public class DiffCheck {
+
+    final static int DEFAULTPROGRAMS = 1000;
+    final static int DEFAULTCYCLES = 50000;
+    final static int PROGRAMBYTES = 512;
+    final static int STACKTOP = 0x01F0;
+    final static int MAXSLICE = 5000;
+    final static String REGISTERS[] = { "PC", "A", "B", "X", "SP", "CC" };
+
+    private final String name;
+    private int differ;
+    private String first;
+
+    DiffCheck(String name)
+    {
+        this.name = name;
+    }
+
+    public static void main(String[] args) {
+        int programs = DEFAULTPROGRAMS;
+        long cycles = DEFAULTCYCLES;
+        CPU.Engine engines[] = CPU.Engine.values();
+        DiffCheck checks[] = new DiffCheck[2 * engines.length];
+        DiffCheck snapshot = new DiffCheck("snapshot");
+        DiffCheck fork = new DiffCheck("fork");
+        CPU reference;
+        int program, icounter;
+        boolean bFailed = false;
+        try {
+            if(args.length > 0)
+                programs = Integer.parseInt(args[0]);
+            if(args.length > 1)
+                cycles = Long.parseLong(args[1]);
+        } catch (NumberFormatException e) {
+            System.err.println("usage: DiffCheck [programs [cycles]]");
+            System.exit(2);
+        }
+        for(icounter = 0; icounter < engines.length; icounter++)
+        {
+            checks[2 * icounter] = new DiffCheck("lazy  " + engines[icounter]);
+            checks[2 * icounter + 1] = new DiffCheck("eager " + engines[icounter]);
+        }
+
+        System.out.printf("%d programs of %,d cycles against SWITCH run()%n", programs, cycles);
+        for(program = 0; program < programs; program++)
+        {
+            reference = Run(program, CPU.Engine.SWITCH, true, cycles);
+            for(icounter = 0; icounter < engines.length; icounter++)
+            {
+                if(engines[icounter] != CPU.Engine.SWITCH)
+                    checks[2 * icounter].Compare(program, reference, Run(program, engines[icounter], true, cycles));
+                checks[2 * icounter + 1].Compare(program, reference, Run(program, engines[icounter], false, cycles));
+            }
+            snapshot.Compare(program, reference, RunRestored(program, cycles));
+            fork.Compare(program, reference, RunForked(program, cycles));
+        }
+        for(DiffCheck check : checks)
+        {
+            if(check != checks[2 * CPU.Engine.SWITCH.ordinal()])
+                bFailed |= check.Report(programs);
+        }
+        bFailed |= snapshot.Report(programs);
+        bFailed |= fork.Report(programs);
+        System.exit(bFailed ? 1 : 0);
+    }
+
+/*
+**      NewProgram - machine with program loaded at 0x0000 and the PC on it
+*/
+    static CPU NewProgram(int program)
+    {
+        Random bytes = new Random(program);
+        int code[] = new int[PROGRAMBYTES];
+        int icounter;
+        code[0] = 0x8E;     // LDS #STACKTOP
+        code[1] = STACKTOP >> 8;
+        code[2] = STACKTOP & 0xFF;
+        for(icounter = 3; icounter < code.length; icounter++)
+            code[icounter] = bytes.nextInt(256);
+        return (Benchmark.NewMachine(new MemoryModule(), code, 0));
+    }
+
+/*
+**      RunTo - run() in slices from slices until the cycle count reaches end
+*/
+    static void RunTo(CPU aCPU, Random slices, long end)
+    {
+        while(aCPU.GetCycleCount() < end)
+        {
+            if(aCPU.run(Math.min(1 + slices.nextInt(MAXSLICE), end - aCPU.GetCycleCount())) == 0)
+                break;
+        }
+    }
+
+/*
+**      Run - program run for cycles on engine, halfway and then the rest
+*/
+    static CPU Run(int program, CPU.Engine engine, boolean bLazy, long cycles)
+    {
+        CPU aCPU = NewProgram(program);
+        Random slices = new Random(~program);
+        aCPU.SetEngine(engine);
+        aCPU.SetLazyFlags(bLazy);
+        RunTo(aCPU, slices, cycles / 2);
+        RunTo(aCPU, slices, cycles);
+        return (aCPU);
+    }
+
+/*
+**      RunRestored - program run halfway, saved, restored into a new
+**      machine and run for the rest there
+*/
+    static CPU RunRestored(int program, long cycles)
+    {
+        CPU aCPU = NewProgram(program);
+        CPU restored = new CPU(new MemoryModule());
+        Random slices = new Random(~program);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RunTo(aCPU, slices, cycles / 2);
+        try {
+            Snapshot.Write(aCPU, Channels.newChannel(out), true);
+            Snapshot.Read(restored, Channels.newChannel(new ByteArrayInputStream(out.toByteArray())));
+        } catch (IOException e) {
+            throw new IllegalStateException("program " + program + ": " + e.getMessage(), e);
+        }
+        RunTo(restored, slices, cycles);
+        return (restored);
+    }
+
+/*
+**      RunForked - program run halfway, forked, and the fork run for the rest
+*/
+    static CPU RunForked(int program, long cycles)
+    {
+        CPU aCPU = NewProgram(program);
+        CPU copy;
+        Random slices = new Random(~program);
+        RunTo(aCPU, slices, cycles / 2);
+        copy = aCPU.Fork();
+        RunTo(copy, slices, cycles);
+        return (copy);
+    }
+
+/*
+**      Compare - count program as differing if actual doesn't match
+**      expected, keeping the first difference
+*/
+    void Compare(int program, CPU expected, CPU actual)
+    {
+        String difference = Difference(expected, actual);
+        if(difference == null)
+            return;
+        if(differ == 0)
+            first = "program " + program + ": " + difference;
+        differ++;
+    }
+
+/*
+**      Difference - the first thing actual holds that expected doesn't,
+**      null if they match
+*/
+    static String Difference(CPU expected, CPU actual)
+    {
+        int want[] = Registers(expected);
+        int got[] = Registers(actual);
+        MemoryModule wantMem = expected.GetMemoryModule();
+        MemoryModule gotMem = actual.GetMemoryModule();
+        int icounter;
+        for(icounter = 0; icounter < want.length; icounter++)
+        {
+            if(want[icounter] != got[icounter])
+                return (String.format("%s %X, expected %X", REGISTERS[icounter], got[icounter], want[icounter]));
+        }
+        if(expected.GetInstructionCount() != actual.GetInstructionCount())
+            return (String.format("%d instructions, expected %d",
+                    actual.GetInstructionCount(), expected.GetInstructionCount()));
+        if(expected.GetCycleCount() != actual.GetCycleCount())
+            return (String.format("%d cycles, expected %d", actual.GetCycleCount(), expected.GetCycleCount()));
+        for(icounter = 0; icounter <= MemoryModule.ADDRESSMASK; icounter++)
+        {
+            if(wantMem.Peek(icounter) != gotMem.Peek(icounter))
+                return (String.format("%04X holds %02X, expected %02X", icounter,
+                        gotMem.Peek(icounter), wantMem.Peek(icounter)));
+        }
+        return (null);
+    }
+
+    private static int[] Registers(CPU aCPU)
+    {
+        return (new int[] { aCPU.GetPC(), aCPU.GetACCA(), aCPU.GetACCB(), aCPU.GetIX(),
+                aCPU.GetSP(), aCPU.GetCC() });
+    }
+
+/*
+**      Report - print how many programs differed and the first, true if any
+*/
+    boolean Report(int programs)
+    {
+        System.out.printf("%-14s %d of %d differ%n", name, differ, programs);
+        if(differ > 0)
+            System.out.println("    " + first);
+        return (differ > 0);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+** DisplayDevice.java
+** The six seven segment displays, one byte per segment.  Address bits 3 and
+** 7 aren't decoded by the ET-3400A, so a write lands on the address with
+** them cleared.
+**
+** Revisions:
+** 10/17/2026 Initial version, moved out of MemoryModule
+** 10/17/2026 Keep the segments as bytes
+** 10/17/2026 Add Fork
+** 10/17/2026 Add Save and Restore for snapshots
+** 10/17/2026 Tell a DeviceListener about writes
+** 10/17/2026 Add Digit and Character, to read the display as text
+** 10/17/2026 Add Segments, for Scenario's display patterns
+*/
+package m6800;
+
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * @author daves
+ */
+class DisplayDevice implements BusDevice {
+
+    final static int DISPLAY_DONTCARE_MASK = 0xFF77;
+    final static int DIGITS = 6;
+    final static int DIGITSTART = 0x60;     // low byte of the leftmost digit
+    final static int DECIMALPOINT = 0x80;
+    // patterns the monitor and common programs show, segments a to g as
+    // bits 6 to 0, and what they read as.  Those that look like a digit
+    // read as it, e.g. O as 0 and S as 5.
+    private final static int PATTERNS[] = {
+        0x7E, 0x30, 0x6D, 0x79, 0x33, 0x5B, 0x5F, 0x70, 0x7F, 0x7B, 0x77, 0x1F, 0x4E, 0x3D, 0x4F, 0x47,
+        0x37, 0x0E, 0x67, 0x3E, 0x1D, 0x05, 0x15, 0x1C, 0x17, 0x0D, 0x0F, 0x3B, 0x3C, 0x5E, 0x01, 0x08,
+        0x09, 0x00
+    };
+    private final static String CHARACTERS = "0123456789AbCdEFHLPUornuhctyJG-_= ";
+
+    private final byte segments[] = new byte[256]; // by low byte of address
+    DeviceListener listener;   // not passed on to a Fork
+
+    @Override
+    public int Read(int iAddress)
+    {
+        return (segments[iAddress & 0xFF] & 0xFF);
+    }
+
+    @Override
+    public void Write(int iAddress, int iValue)
+    {
+        segments[iAddress & DISPLAY_DONTCARE_MASK & 0xFF] = (byte) iValue;
+        if(listener != null)
+            listener.DisplayWritten(iAddress, iValue);
+    }
+
+/*
+**      Digit - the segments lit on digit (0-5, left to right), a to g as
+**      bits 6 to 0 and the decimal point as DECIMALPOINT.  Each segment is
+**      bit 0 of its byte, g at the lowest address and the point at the
+**      highest.
+*/
+    int Digit(int digit)
+    {
+        int base = DIGITSTART - 0x10 * digit;
+        int value = 0;
+        int icounter;
+        for(icounter = 0; icounter < 8; icounter++)
+            value |= (segments[base + icounter] & 1) << icounter;
+        return (value);
+    }
+
+/*
+**      Character - what a digit's segments read as, leaving out the
+**      decimal point, '?' if they aren't one of PATTERNS
+*/
+    static char Character(int value)
+    {
+        int icounter;
+        for(icounter = 0; icounter < PATTERNS.length; icounter++)
+        {
+            if(PATTERNS[icounter] == (value & ~DECIMALPOINT))
+                return (CHARACTERS.charAt(icounter));
+        }
+        return ('?');
+    }
+
+/*
+**      Segments - the segments that show character, -1 if none do.  A
+**      letter the display only has in the other case reads as that, and
+**      O, S, I, Z and g as the digits that look like them.
+*/
+    static int Segments(char character)
+    {
+        final String ALIKE = "OSIZg";
+        final String DIGITS = "05129";
+        int index = CHARACTERS.indexOf(character);
+        if(index < 0)
+            index = CHARACTERS.indexOf(Character.isUpperCase(character) ?
+                    Character.toLowerCase(character) : Character.toUpperCase(character));
+        if((index < 0) && (ALIKE.indexOf(character) >= 0))
+            index = CHARACTERS.indexOf(DIGITS.charAt(ALIKE.indexOf(character)));
+        return ((index < 0) ? -1 : PATTERNS[index]);
+    }
+
+    @Override
+    public BusDevice Fork()
+    {
+        DisplayDevice device = new DisplayDevice();
+        System.arraycopy(segments, 0, device.segments, 0, segments.length);
+        return (device);
+    }
+
+    int StateSize()
+    {
+        return (segments.length);
+    }
+
+    void Save(ByteBuffer out)
+    {
+        out.put(segments);
+    }
+
+    void Restore(ByteBuffer in)
+    {
+        in.get(segments);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+** FlagTables.java
+** Condition codes for the 8 bit ALU operations whose flags need more than
+** the result to work out, built once and shared by every CPU:
+**
+**      ADD     H, V and C of a + b + carry         64 bytes
+**      SUB     V and C of a - b - carry            64 bytes
+**
+** The flags only depend on bits 3 and 7 of a, b and the result, so the
+** tables are indexed by those six bits through Bits, small enough to stay
+** in the cache next to the interpreter.  CPU keeps the operands as Index
+** gives them.  N and Z aren't kept, CPU works them out from the result it
+** already has.  NEG and the shifts and rotates get each flag from the
+** result or the bit shifted out with a single test, so they don't have
+** tables.  DAA is worked out with DAAAdjust each time, a table of its
+** adjustments was measured no faster.  The entries are built with the same
+** rules CPU used before there were tables, which stay here as the
+** reference.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Index ADD and SUB by bits 3 and 7 only, drop the DAA table
+*/
+package m6800;
+
+/**
+ *
+ * @author daves
+ */
+final class FlagTables {
+
+    final static int CARRY = 0x01;      // same bits as the CC register
+    final static int OVERFLOW = 0x02;
+    final static int HALFCARRY = 0x20;
+    final static int DAACARRY = 0x100;  // above the adjustment in DAA entries
+
+    final static byte ADD[] = new byte[64];
+    final static byte SUB[] = new byte[64];
+
+    static
+    {
+        int bits, a, b, result;
+        for(bits = 0; bits < ADD.length; bits++)
+        {
+            a = ((bits & 0x02) << 2) | ((bits & 0x10) << 3);
+            b = ((bits & 0x01) << 3) | ((bits & 0x08) << 4);
+            result = ((bits & 0x04) << 1) | ((bits & 0x20) << 2);
+            ADD[bits] = (byte) AddFlags(a, b, result);
+            SUB[bits] = (byte) SubtractFlags(a, b, result);
+        }
+    }
+
+    private FlagTables()
+    {
+    }
+
+/*
+**      Index - operands a and b with carry (0 or 1) in, as CPU keeps them
+**      until the flags are read.  Only the low 8 bits of a and b count, as
+**      in the rules below.
+*/
+    static int Index(int a, int b, int carry)
+    {
+        return ((carry << 16) | ((a & 0xFF) << 8) | (b & 0xFF));
+    }
+
+/*
+**      Bits - ADD and SUB entry for the operands in index, from Index, and
+**      result: bits 3 of b, a and the result, then their bits 7
+*/
+    static int Bits(int index, int result)
+    {
+        return (((index >> 3) & 0x01) | ((index >> 10) & 0x02) | ((result >> 1) & 0x04) |
+                ((index >> 4) & 0x08) | ((index >> 11) & 0x10) | ((result >> 2) & 0x20));
+    }
+
+/*
+**      Size - bytes held by the tables
+*/
+    static int Size()
+    {
+        return (ADD.length + SUB.length);
+    }
+
+/*
+**      AddFlags - H, V and C after an add, from the operands and result
+*/
+    static int AddFlags(int accumulator, int current, int result)
+    {
+        int flags = 0;
+        if((BitTest(accumulator, 3) && BitTest(current, 3)) ||
+            (BitTest(current, 3) && !BitTest(result, 3)) ||
+             (!BitTest(result, 3) && BitTest(accumulator, 3)))
+            flags |= HALFCARRY;
+        if((BitTest(accumulator, 7) && BitTest(current, 7) && !BitTest(result, 7)) ||
+            (!BitTest(accumulator, 7) && !BitTest(current, 7) && BitTest(result, 7)))
+            flags |= OVERFLOW;
+        if((BitTest(accumulator, 7) && BitTest(current, 7)) ||
+            (BitTest(current, 7) && !BitTest(result, 7)) ||
+            (!BitTest(result, 7) && BitTest(accumulator, 7)))
+            flags |= CARRY;
+        return (flags);
+    }
+
+/*
+**      SubtractFlags - V and C after a subtract or compare
+*/
+    static int SubtractFlags(int accumulator, int current, int result)
+    {
+        int flags = 0;
+        if((BitTest(accumulator, 7) && !BitTest(current, 7) && !BitTest(result,7)) ||
+            (!BitTest(accumulator, 7) && BitTest(current,7) && BitTest(result, 7)))
+            flags |= OVERFLOW;
+        if((!BitTest(accumulator, 7) && BitTest(current, 7)) ||
+            (BitTest(current, 7) && BitTest(result, 7)) ||
+            (BitTest(result,7) && !BitTest(accumulator, 7)))
+            flags |= CARRY;
+        return (flags);
+    }
+
+/*
+**      DAAAdjust - what DAA adds to ACCA, with DAACARRY set if C is set
+**      afterwards
+*/
+    static int DAAAdjust(boolean C, boolean H, int acca)
+    {
+        int nibble_hi, nibble_low;
+        int adjust = 0;
+        nibble_hi = acca >> 4;
+        nibble_low = acca & 0xF;
+        if(!C)
+        {
+            if ((nibble_hi < 9) && (nibble_low > 9) && !H)
+                adjust += 0x6;
+            if ((nibble_hi < 10) && (nibble_low < 4) && H)
+                adjust += 0x6;
+            if((nibble_hi > 9) && (nibble_low < 10) && !H)
+            {
+                adjust += 0x60;
+                C = true;
+            }
+            if((nibble_hi > 8) && (nibble_low > 9) && !H)
+            {
+                adjust += 0x66;
+                C = true;
+            }
+            if((nibble_hi > 9) && (nibble_low  < 4) && H)
+            {
+                adjust += 0x66;
+                C = true;
+            }
+        }
+        else
+        {
+            if((nibble_hi < 3) && (nibble_low < 10) && !H)
+                adjust += 0x60;
+            if((nibble_hi < 3) && (nibble_low > 9) && !H)
+                adjust += 0x66;
+            if((nibble_hi < 4) && (nibble_low < 4) && H)
+                adjust += 0x66;
+        }
+        return (adjust | (C ? DAACARRY : 0));
+    }
+
+    private static boolean BitTest(int arg, int bitnum)
+    {
+        return ((arg & (1<<bitnum)) != 0);
+    }
+}
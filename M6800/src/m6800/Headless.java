@@ -0,0 +1,448 @@
+/*
+** Headless.java
+** Runs S-record programs with no UI, for scripts and grading.  The files
+** are loaded as the UI's Load and Load ROM would, - reads one from stdin,
+** and the trainer is reset.  It then runs flat out until the cycle budget
+** is used up, PC reaches one of the -until addresses, with -wai the
+** program waits in WAI, or the -timeout passes, and prints the registers,
+** the display and any -dump ranges as text or JSON.  Nothing in AWT is
+** touched.  Options and files take effect in the order given.
+**
+**      java -cp M6800.jar m6800.Headless [options] [file.s19 | -] ...
+**
+**      -rom file       load file into ROM instead of RAM
+**      -state file     start from a Snapshot file instead of a reset.  A
+**                      file loaded after it or -start still resets the
+**                      CPU, keeping the rest of memory.
+**      -start hhhh     run from hhhh once the monitor is up, as DO hhhh,
+**                      the boot isn't counted in the budget
+**      -cycles n       cycle budget, DEFAULTCYCLES if not given
+**      -until hhhh     stop when PC reaches hhhh, can be given more than once
+**      -wai            stop when the program waits in WAI
+**      -key n:h        press key h n cycles into the run, -nmi n, -irq n
+**                      and -reset n raise those then, each can be given
+**                      more than once
+**      -timeout s      stop after s seconds of wall clock time
+**      -dump hhhh-hhhh memory to print, can be given more than once
+**      -engine name    SWITCH, TABLE, BLOCK or JIT, BLOCK if not given
+**      -aot file.jar   run the blocks AOTCompiler translated into file.jar
+**                      wherever memory still holds them
+**      -json           print JSON instead of text
+**
+** Run from a jar made by AOTCompiler, java -jar out.jar, its translations
+** are loaded first, then the program in it, before the options.
+**
+** The exit status is 0 once it has run, 1 if a file couldn't be loaded,
+** 2 for bad arguments and 3 if -until or -wai was given and the budget or
+** timeout ran out first.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Add Configure, -state, timed inputs and -timeout for Batch
+** 10/17/2026 Add -aot, and load the image and program of an AOTCompiler jar
+**            run with java -jar
+*/
+package m6800;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ *
+ * @author daves
+ */
+public class Headless {
+
+    final static long DEFAULTCYCLES = 10000000;
+    final static long CHUNKCYCLES = 1000000;    // run between timeout checks
+    final static int BYTESPERLINE = 16;
+
+    // why the run ended
+    final static String BUDGET = "cycles";
+    final static String UNTIL = "until";
+    final static String WAIT = "wai";
+    final static String TIMEOUT = "timeout";
+
+    private final MemoryModule mem = new MemoryModule();
+    private final CPU cpu = new CPU(mem);
+    private final Breakpoints stops = new Breakpoints(cpu);
+    private final ArrayList<Integer> untils = new ArrayList<>(); // set by Run
+    private final ArrayList<int[]> dumps = new ArrayList<>();   // first, last
+    private final ArrayList<long[]> inputs = new ArrayList<>(); // cycle, InputLog type, value
+    // set by Configure
+    private long cycles = DEFAULTCYCLES;
+    private boolean bWait;
+    private boolean bJson;
+    private int start = -1;
+    private long timeout;       // nanoseconds, 0 for none
+    private String stop;
+    private long ran;
+
+    public Headless()
+    {
+        cpu.SetEngine(CPU.Engine.BLOCK);
+        cpu.Reset();
+    }
+
+    public CPU GetCPU()
+    {
+        return (cpu);
+    }
+
+    public MemoryModule GetMemoryModule()
+    {
+        return (mem);
+    }
+
+/*
+**      Load - an S-record file into RAM, or ROM with bROM, "-" for stdin.
+**      Throws IOException saying what's wrong.
+*/
+    public void Load(String fileName, boolean bROM) throws IOException
+    {
+        boolean bStdin = fileName.equals("-");
+        Reader in;
+        try {
+            in = bStdin ? new InputStreamReader(System.in) : new FileReader(fileName);
+        } catch (FileNotFoundException exc) {
+            throw new IOException(fileName + ": not found");
+        }
+        try {
+            Load(in, bROM, bStdin ? "stdin" : fileName);
+        } finally {
+            if(!bStdin)
+                in.close();
+        }
+    }
+
+    private void Load(Reader in, boolean bROM, String name) throws IOException
+    {
+        int result;
+        if(bROM)
+            result = M6800.ReadSRecordFileROM(in, mem, cpu);
+        else
+            result = M6800.ReadSRecordFile(in, mem, cpu);
+        if(result != SRecord.NO_ERROR)
+            throw new IOException(name + ": not an S-record file, error " + result);
+    }
+
+/*
+**      LoadTranslation - the AOTCompiler image in fileName, see
+**      CPU.LoadTranslation
+*/
+    public void LoadTranslation(String fileName) throws IOException
+    {
+        cpu.LoadTranslation(AOTImage.Read(fileName));
+    }
+
+/*
+**      LoadEmbedded - the image and program of the AOTCompiler jar on the
+**      class path, if there is one
+*/
+    public void LoadEmbedded() throws IOException
+    {
+        AOTImage image = AOTImage.ReadResource();
+        if(image == null)
+            return;
+        cpu.LoadTranslation(image);
+        for(String name : new String[] { AOTImage.ROM, AOTImage.PROGRAM })
+        {
+            Reader in = AOTImage.Resource(name);
+            if(in != null)
+            {
+                try {
+                    Load(in, name.equals(AOTImage.ROM), name);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+/*
+**      Start - reset and let the monitor come up, then run from address as
+**      DO would
+*/
+    public void Start(int address)
+    {
+        cpu.ResetRequest();
+        cpu.run(BootSnapshot.BOOTCYCLES);
+        cpu.SetPC(address);
+    }
+
+/*
+**      Until - have Run stop when PC reaches address
+*/
+    public void Until(int address)
+    {
+        untils.add(address);
+    }
+
+/*
+**      Input - have Run give the CPU an InputLog event cycle cycles in
+*/
+    public void Input(long cycle, int type, int iValue)
+    {
+        int index = inputs.size();
+        while((index > 0) && (inputs.get(index - 1)[0] > cycle))
+            index--;
+        inputs.add(index, new long[] { cycle, type, iValue });
+    }
+
+/*
+**      SetTimeout - have Run stop after seconds of wall clock time, 0 for
+**      no limit
+*/
+    public void SetTimeout(double seconds)
+    {
+        timeout = (long) (seconds * 1e9);
+    }
+
+    public boolean GetTimeoutSet()
+    {
+        return (timeout > 0);
+    }
+
+/*
+**      Configure - the options and files above, in order.  Throws
+**      IOException if a file can't be loaded and IllegalArgumentException
+**      saying what's wrong with the options.
+*/
+    public void Configure(String args[]) throws IOException
+    {
+        int icounter;
+        String arg, value, range[];
+        for(icounter = 0; icounter < args.length; icounter++)
+        {
+            arg = args[icounter];
+            if(arg.equals("-wai"))
+                bWait = true;
+            else if(arg.equals("-json"))
+                bJson = true;
+            else if(arg.equals("-") || !arg.startsWith("-"))
+                Load(arg, false);
+            else if(icounter + 1 == args.length)
+                throw new IllegalArgumentException(arg + " needs a value");
+            else
+            {
+                value = args[++icounter];
+                switch(arg)
+                {
+                    case "-rom":
+                        Load(value, true);
+                    break;
+                    case "-state":
+                        Snapshot.Load(cpu, Paths.get(value));
+                    break;
+                    case "-start":
+                        start = Breakpoints.Number(value, 0xFFFF);
+                    break;
+                    case "-cycles":
+                        cycles = Long.parseLong(value);
+                    break;
+                    case "-until":
+                        Until(Breakpoints.Number(value, 0xFFFF));
+                    break;
+                    case "-key":
+                        range = value.split(":", 2);
+                        if(range.length != 2)
+                            throw new IllegalArgumentException("-key needs cycle:key");
+                        Input(Long.parseLong(range[0]), InputLog.KEY, Breakpoints.Number(range[1], 0xF));
+                    break;
+                    case "-nmi":
+                        Input(Long.parseLong(value), InputLog.NMI, 0);
+                    break;
+                    case "-irq":
+                        Input(Long.parseLong(value), InputLog.IRQ, 0);
+                    break;
+                    case "-reset":
+                        Input(Long.parseLong(value), InputLog.RESET, 0);
+                    break;
+                    case "-timeout":
+                        SetTimeout(Double.parseDouble(value));
+                    break;
+                    case "-dump":
+                        range = value.split("-", 2);
+                        Dump(Breakpoints.Number(range[0], 0xFFFF), Breakpoints.Number(range[range.length - 1], 0xFFFF));
+                    break;
+                    case "-engine":
+                        cpu.SetEngine(CPU.Engine.valueOf(value.toUpperCase()));
+                    break;
+                    case "-aot":
+                        LoadTranslation(value);
+                    break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + arg);
+                }
+            }
+        }
+    }
+
+/*
+**      Targeted - true if Configure was given -until or -wai, something to
+**      reach before the budget runs out
+*/
+    public boolean Targeted()
+    {
+        return (bWait || !untils.isEmpty());
+    }
+
+    public boolean GetJson()
+    {
+        return (bJson);
+    }
+
+    public void Dump(int first, int last)
+    {
+        if(last < first)
+            throw new IllegalArgumentException("dump range ends before it starts");
+        dumps.add(new int[] { first, last });
+    }
+
+/*
+**      Run - run as Configure set up, returning why it stopped: BUDGET,
+**      UNTIL, WAIT or TIMEOUT.  Inputs are given at the first instruction
+**      boundary at or after their cycle.
+*/
+    public String Run()
+    {
+        long begin, end, target;
+        long deadline = (timeout > 0) ? System.nanoTime() + timeout : Long.MAX_VALUE;
+        int next = 0;
+        // otherwise the CPU runs on from its reset, a load's or -state
+        if(start >= 0)
+            Start(start);
+        for(int address : untils)
+            stops.Add(Breakpoints.Parse(String.format("break %04X", address)));
+        cpu.SetWaitStops(bWait);
+        begin = cpu.GetCycleCount();
+        end = begin + cycles;
+        stop = BUDGET;
+        while(cpu.GetCycleCount() < end)
+        {
+            target = Math.min(end, cpu.GetCycleCount() + CHUNKCYCLES);
+            if(next < inputs.size())
+                target = Math.min(target, begin + inputs.get(next)[0]);
+            if(target > cpu.GetCycleCount())
+                cpu.run(target - cpu.GetCycleCount());
+            if(cpu.GetPaused())
+            {
+                stop = UNTIL;
+                break;
+            }
+            if(bWait && cpu.GetWaiting())
+            {
+                stop = WAIT;
+                break;
+            }
+            while((next < inputs.size()) && (cpu.GetCycleCount() >= begin + inputs.get(next)[0]))
+            {
+                cpu.Input((int) inputs.get(next)[1], (int) inputs.get(next)[2]);
+                next++;
+            }
+            if(System.nanoTime() > deadline)
+            {
+                stop = TIMEOUT;
+                break;
+            }
+        }
+        ran = cpu.GetCycleCount() - begin;
+        return (stop);
+    }
+
+/*
+**      Text and Json - what Run left, the dumps with devices shown as --
+**      and null
+*/
+    public String Text()
+    {
+        StringBuilder out = new StringBuilder();
+        int iAddress, value;
+        out.append(String.format("stop     %s%n", stop));
+        out.append(String.format("cycles   %d ran, %d since power up, %d instructions%n",
+                ran, cpu.GetCycleCount(), cpu.GetInstructionCount()));
+        out.append(String.format("PC %04X  A %02X  B %02X  X %04X  SP %04X  CC %02X%n",
+                cpu.GetPC(), cpu.GetACCA(), cpu.GetACCB(), cpu.GetIX(), cpu.GetSP(), cpu.GetCC()));
+        out.append(String.format("display  \"%s\"", mem.DisplayText()));
+        for(iAddress = 0; iAddress < DisplayDevice.DIGITS; iAddress++)
+            out.append(String.format(" %02X", mem.DisplaySegments(iAddress)));
+        out.append(String.format("%n"));
+        for(int dump[] : dumps)
+        {
+            for(iAddress = dump[0]; iAddress <= dump[1]; iAddress++)
+            {
+                if((iAddress == dump[0]) || (iAddress % BYTESPERLINE == 0))
+                    out.append(String.format((iAddress == dump[0]) ? "%04X " : "%n%04X ", iAddress));
+                value = mem.Peek(iAddress);
+                out.append((value < 0) ? " --" : String.format(" %02X", value));
+            }
+            out.append(String.format("%n"));
+        }
+        return (out.toString());
+    }
+
+    public String Json()
+    {
+        StringBuilder out = new StringBuilder();
+        int iAddress, value;
+        out.append(String.format("{\"stop\":\"%s\",\"ran\":%d,\"cycles\":%d,\"instructions\":%d,",
+                stop, ran, cpu.GetCycleCount(), cpu.GetInstructionCount()));
+        out.append(String.format("\"registers\":{\"PC\":%d,\"A\":%d,\"B\":%d,\"X\":%d,\"SP\":%d,\"CC\":%d},",
+                cpu.GetPC(), cpu.GetACCA(), cpu.GetACCB(), cpu.GetIX(), cpu.GetSP(), cpu.GetCC()));
+        out.append(String.format("\"display\":{\"text\":\"%s\",\"segments\":[", mem.DisplayText()));
+        for(iAddress = 0; iAddress < DisplayDevice.DIGITS; iAddress++)
+            out.append((iAddress > 0) ? "," : "").append(mem.DisplaySegments(iAddress));
+        out.append("]},\"memory\":[");
+        for(int dump[] : dumps)
+        {
+            if(dump != dumps.get(0))
+                out.append(",");
+            out.append(String.format("{\"start\":%d,\"bytes\":[", dump[0]));
+            for(iAddress = dump[0]; iAddress <= dump[1]; iAddress++)
+            {
+                value = mem.Peek(iAddress);
+                out.append((iAddress > dump[0]) ? "," : "").append((value < 0) ? "null" : Integer.toString(value));
+            }
+            out.append("]}");
+        }
+        out.append("]}");
+        return (out.toString());
+    }
+
+    private static void Usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println("usage: Headless [-rom file] [-state file] [-start hhhh] [-cycles n] [-until hhhh]");
+        System.err.println("                [-wai] [-key n:h] [-nmi n] [-irq n] [-reset n] [-timeout s]");
+        System.err.println("                [-dump hhhh-hhhh] [-engine name] [-aot file.jar] [-json]");
+        System.err.println("                [file.s19 | -] ...");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) {
+        Headless runner = new Headless();
+        String stop;
+        try {
+            runner.LoadEmbedded();
+            runner.Configure(args);
+        } catch (IllegalArgumentException e) {
+            // bad hex, number or engine name
+            Usage(e.getMessage());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        stop = runner.Run();
+        if(runner.GetJson())
+            System.out.println(runner.Json());
+        else
+            System.out.print(runner.Text());
+        if(runner.Targeted() && (stop.equals(BUDGET) || stop.equals(TIMEOUT)))
+            System.exit(3);
+    }
+}
@@ -0,0 +1,408 @@
+/*
+** History.java
+** Going back in time.  While attached to a CPU, History keeps checkpoints,
+** states from Snapshot.Capture, and every input the CPU takes.  An earlier
+** instruction boundary is reached by restoring the last checkpoint before
+** it and running forward again with the same inputs, which gives the same
+** machine cycle for cycle.
+**
+** A checkpoint is taken every CHECKPOINTCYCLES.  Once there are more than
+** MAXCHECKPOINTS the one whose loss leaves the smallest gap for its age is
+** dropped, so they thin out going back: the recent past is a short run
+** away and older points a run in proportion to how far back they are.
+** When that would leave a gap of more than MAXGAP the oldest is dropped
+** instead, so the memory used and the time to reach any point stay
+** bounded, with the oldest point that can be reached moving forward.
+**
+** The methods below that move the machine pause it and have to be called
+** on the thread running the CPU, e.g. through CPU.Post.  Going back isn't
+** possible while an InputLog is being recorded.  Running on from an
+** earlier point, or giving the machine an input there, drops what came
+** after it.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Breakpoints don't stop the CPU while it's run again
+*/
+package m6800;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * @author daves
+ */
+public class History {
+
+    final static long CHECKPOINTCYCLES = 20000;
+    final static int MAXCHECKPOINTS = 128;
+    final static long MAXGAP = 2000000;
+
+    private static final int ANY = 0;       // what LastHit looks for
+    private static final int ATPC = 1;
+    private static final int CHANGE = 2;
+
+    private final CPU cpu;
+    private final InputLog events = new InputLog();
+    private final long cycles[] = new long[MAXCHECKPOINTS + 1];
+    private final ByteBuffer states[] = new ByteBuffer[MAXCHECKPOINTS + 1];
+    private int count;
+    private boolean replayed;   // cpu was put back, inputs at its cycle not taken
+    private long head;          // where it was before going back
+    // for other threads, e.g. the UI
+    private volatile long oldest;
+    private volatile long newest;
+    private volatile long position;
+    private volatile int pc;
+
+    public History(CPU cpu)
+    {
+        this.cpu = cpu;
+    }
+
+/*
+**      Attach - start keeping history from here, forgetting any kept so
+**      far, e.g. after memory was loaded around the CPU
+*/
+    public void Attach()
+    {
+        while(count > 0)
+            states[--count] = null;
+        events.Truncate(Long.MIN_VALUE);
+        replayed = false;
+        head = cpu.GetCycleCount();
+        Add(head, Snapshot.Capture(cpu));
+        cpu.SetTimeline(this);
+        Publish();
+    }
+
+    public void Detach()
+    {
+        cpu.SetTimeline(null);
+    }
+
+/*
+**      Checkpoint - called by the CPU between instructions once
+**      NextCheckpoint is reached, returns when the next one is due
+*/
+    long Checkpoint()
+    {
+        long cycle = cpu.GetCycleCount();
+        Add(cycle, Snapshot.Capture(cpu));
+        head = cycle;
+        Publish();
+        return (NextCheckpoint());
+    }
+
+    long NextCheckpoint()
+    {
+        if(replayed)
+            return (Long.MAX_VALUE);
+        return (cycles[count - 1] + CHECKPOINTCYCLES);
+    }
+
+/*
+**      Input - called by the CPU for each input it takes
+*/
+    void Input(long cycle, int type, int iValue)
+    {
+        if(replayed)
+            Branch(cycle);
+        events.Add(cycle, type, iValue);
+    }
+
+/*
+**      StepBack - go back to the start of the instruction before this one
+*/
+    public boolean StepBack()
+    {
+        return (Search(ANY, 0));
+    }
+
+/*
+**      StepForward - run one instruction, with the inputs it had if the
+**      machine was put back
+*/
+    public boolean StepForward()
+    {
+        if(count == 0)
+            return (false);
+        cpu.Pause(true);
+        if(replayed && (cpu.GetCycleCount() >= head))
+            Branch(cpu.GetCycleCount());
+        if(replayed)
+        {
+            cpu.SetTimeline(null);
+            cpu.SetQuiet(true);
+            TakeInputs(events.Find(cpu.GetCycleCount()));
+            cpu.step();
+            cpu.SetQuiet(false);
+            cpu.SetTimeline(this);
+        }
+        else
+            cpu.step();
+        Publish();
+        return (true);
+    }
+
+/*
+**      ReverseContinue - go back to the last time PC was iAddress.  Returns
+**      false, leaving the machine where it was, if it wasn't in the history.
+*/
+    public boolean ReverseContinue(int iAddress)
+    {
+        return (Search(ATPC, iAddress & MemoryModule.ADDRESSMASK));
+    }
+
+/*
+**      ReverseToChange - go back to the instruction that last changed the
+**      RAM or ROM byte at iAddress, stopped before it runs.  Returns false,
+**      leaving the machine where it was, if no instruction in the history
+**      did or a device is at iAddress.
+*/
+    public boolean ReverseToChange(int iAddress)
+    {
+        if(cpu.GetMemoryModule().Peek(iAddress) < 0)
+            return (false);
+        return (Search(CHANGE, iAddress & MemoryModule.ADDRESSMASK));
+    }
+
+/*
+**      Seek - go to the first instruction boundary at or after cycle,
+**      anywhere from the oldest checkpoint to where the machine was before
+**      it was first put back
+*/
+    public boolean Seek(long cycle)
+    {
+        if(!BeginTravel())
+            return (false);
+        GoTo(Math.min(Math.max(cycle, cycles[0]), head));
+        EndTravel();
+        return (true);
+    }
+
+/*
+**      Resume - let clock() run the machine on from where it is
+*/
+    public void Resume()
+    {
+        if(replayed)
+            Branch(cpu.GetCycleCount());
+        cpu.Pause(false);
+        Publish();
+    }
+
+/*
+**      GetOldest, GetNewest and GetPosition - the cycles that can be gone
+**      to and where the machine is, as of the last checkpoint or move.
+**      GetPC is PC then.  Safe from any thread.
+*/
+    public long GetOldest()
+    {
+        return (oldest);
+    }
+
+    public long GetNewest()
+    {
+        return (newest);
+    }
+
+    public long GetPosition()
+    {
+        return (position);
+    }
+
+    public int GetPC()
+    {
+        return (pc);
+    }
+
+/*
+**      Search - go to the last boundary before this one that mode looks
+**      for, running each checkpoint's stretch one instruction at a time,
+**      newest first
+*/
+    private boolean Search(int mode, int iAddress)
+    {
+        long from = cpu.GetCycleCount();
+        long limit, hit = -1;
+        int index;
+        if(!BeginTravel())
+            return (false);
+        for(index = Before(from); (index >= 0) && (hit < 0); index--)
+        {
+            limit = (index + 1 < count) ? Math.min(cycles[index + 1], from) : from;
+            hit = LastHit(mode, iAddress, index, limit);
+        }
+        GoTo((hit >= 0) ? hit : from);
+        EndTravel();
+        return (hit >= 0);
+    }
+
+/*
+**      LastHit - run from checkpoint index to limit and return the last
+**      boundary mode looks for, -1 if none: ANY is every boundary, ATPC
+**      those with PC at iAddress, CHANGE those starting an instruction that
+**      changes the byte at iAddress
+*/
+    private long LastHit(int mode, int iAddress, int index, long limit)
+    {
+        MemoryModule mem = cpu.GetMemoryModule();
+        long cycle, hit = -1;
+        int next, value;
+        Restore(index);
+        next = events.Find(cpu.GetCycleCount());
+        value = mem.Peek(iAddress);
+        while((cycle = cpu.GetCycleCount()) < limit)
+        {
+            if((mode == ANY) || ((mode == ATPC) && (cpu.GetPC() == iAddress)))
+                hit = cycle;
+            next = TakeInputs(next);
+            cpu.step();
+            if((mode == CHANGE) && (mem.Peek(iAddress) != value))
+            {
+                value = mem.Peek(iAddress);
+                hit = cycle;
+            }
+        }
+        return (hit);
+    }
+
+/*
+**      GoTo - put the machine at the first boundary at or after cycle
+*/
+    private void GoTo(long cycle)
+    {
+        int index = Before(cycle + 1);
+        int next;
+        long now;
+        Restore(Math.max(index, 0));
+        next = events.Find(cpu.GetCycleCount());
+        while((now = cpu.GetCycleCount()) < cycle)
+        {
+            next = TakeInputs(next);
+            if(next < events.GetEventCount())
+                cpu.run(Math.min(cycle, events.Cycle(next)) - now);
+            else
+                cpu.run(cycle - now);
+        }
+    }
+
+/*
+**      TakeInputs - give the CPU the inputs from next on that it took at
+**      this cycle, returns the index of the first one still to come
+*/
+    private int TakeInputs(int next)
+    {
+        long cycle = cpu.GetCycleCount();
+        while((next < events.GetEventCount()) && (events.Cycle(next) == cycle))
+        {
+            cpu.Input(events.Type(next), events.Value(next));
+            next++;
+        }
+        return (next);
+    }
+
+    private boolean BeginTravel()
+    {
+        if((count == 0) || cpu.IsRecording())
+            return (false);
+        cpu.Pause(true);
+        if(!replayed)
+            head = cpu.GetCycleCount();
+        cpu.SetTimeline(null);
+        cpu.SetQuiet(true);
+        return (true);
+    }
+
+    private void EndTravel()
+    {
+        replayed = true;
+        cpu.SetQuiet(false);
+        cpu.SetTimeline(this);
+        Publish();
+    }
+
+/*
+**      Branch - the machine goes on from cycle, forget what came after it
+*/
+    private void Branch(long cycle)
+    {
+        events.Truncate(cycle);
+        while((count > 1) && (cycles[count - 1] > cycle))
+            states[--count] = null;
+        head = cycle;
+        replayed = false;
+        cpu.SetTimeline(this);
+    }
+
+/*
+**      Before - the last checkpoint before cycle, -1 if none
+*/
+    private int Before(long cycle)
+    {
+        int index = count - 1;
+        while((index >= 0) && (cycles[index] >= cycle))
+            index--;
+        return (index);
+    }
+
+    private void Restore(int index)
+    {
+        try {
+            Snapshot.Restore(cpu, states[index].duplicate());
+        } catch (IOException e) {
+            throw new IllegalStateException("checkpoint at " + cycles[index] + " didn't restore", e);
+        }
+    }
+
+    private void Add(long cycle, ByteBuffer state)
+    {
+        cycles[count] = cycle;
+        states[count] = state;
+        count++;
+        if(count > MAXCHECKPOINTS)
+            Drop(Thinnest());
+    }
+
+/*
+**      Thinnest - the checkpoint to drop: the one leaving the smallest gap
+**      for its age, or the oldest if that gap is more than MAXGAP
+*/
+    private int Thinnest()
+    {
+        long now = cycles[count - 1];
+        double ratio, best = Double.MAX_VALUE;
+        int index, thinnest = 0;
+        for(index = 1; index < count - 1; index++)
+        {
+            ratio = (double) (cycles[index + 1] - cycles[index - 1]) / (now - cycles[index]);
+            if(ratio < best)
+            {
+                best = ratio;
+                thinnest = index;
+            }
+        }
+        if((thinnest > 0) && (cycles[thinnest + 1] - cycles[thinnest - 1] > MAXGAP))
+            thinnest = 0;
+        return (thinnest);
+    }
+
+    private void Drop(int index)
+    {
+        System.arraycopy(cycles, index + 1, cycles, index, count - index - 1);
+        System.arraycopy(states, index + 1, states, index, count - index - 1);
+        states[--count] = null;
+        if(index == 0)
+            events.Discard(cycles[0]);
+    }
+
+    private void Publish()
+    {
+        oldest = cycles[0];
+        position = cpu.GetCycleCount();
+        newest = replayed ? head : position;
+        pc = cpu.GetPC();
+    }
+}
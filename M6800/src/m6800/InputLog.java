@@ -0,0 +1,310 @@
+/*
+** InputLog.java
+** A recording of the machine from a starting state on, every keypad key,
+** NMI, IRQ and reset with the cycle the CPU took it at.  Replaying it
+** without the UI or any throttling gives the same run cycle for cycle,
+** checked against the state the recording ended in:
+**
+**      magic       4 bytes "E34R"
+**      version     2 bytes, VERSION when written
+**      engine      2 bytes, CPU.Engine the recording was made with
+**      start       Snapshot of the machine when recording started
+**      count       4 bytes, number of events
+**      events      8 byte cycle, 1 byte type, 1 byte value, in cycle order,
+**                  the last is END
+**      end state   8 bytes, CRC32 of Snapshot.Capture at the END cycle
+**
+** Memory written around the CPU, e.g. loading an S-record or ROM file,
+** isn't recorded, so the UI doesn't allow it while recording.  Every engine
+** replays a recording the same unless the program runs code out of the
+** keypad, whose reads count down key debouncing and which the SWITCH
+** engine reads more often, so main replays with the engine that recorded.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Add event access and trimming for History
+*/
+package m6800;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author daves
+ */
+public class InputLog {
+
+    final static int MAGIC = 0x45333452; // "E34R"
+    final static int VERSION = 1;
+    final static int HEADERSIZE = 8;
+    final static int EVENTSIZE = 10;
+    final static int MAXEVENTS = 0x1000000;
+
+    final static int KEY = 1;       // value is the key pressed
+    final static int NMI = 2;
+    final static int IRQ = 3;
+    final static int RESET = 4;
+    final static int END = 5;
+
+    private ByteBuffer start;       // as Snapshot.Capture made it
+    private CPU.Engine engine = CPU.Engine.SWITCH;
+    private long cycles[] = new long[64];
+    private byte types[] = new byte[64];
+    private byte values[] = new byte[64];
+    private int count;
+    private long endCRC;
+    private boolean ended;
+
+/*
+**      Begin, Add and End - called by the CPU, on the thread running it
+*/
+    void Begin(ByteBuffer state, CPU.Engine engine)
+    {
+        start = state;
+        this.engine = engine;
+        count = 0;
+    }
+
+    void Add(long cycle, int type, int iValue)
+    {
+        if(count == cycles.length)
+        {
+            cycles = Arrays.copyOf(cycles, count * 2);
+            types = Arrays.copyOf(types, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        cycles[count] = cycle;
+        types[count] = (byte) type;
+        values[count] = (byte) iValue;
+        count++;
+    }
+
+/*
+**      Find - index of the first event at or after cycle, or the count if
+**      there's none
+*/
+    int Find(long cycle)
+    {
+        int low = 0, high = count;
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(cycles[middle] < cycle)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return (low);
+    }
+
+    long Cycle(int index)
+    {
+        return (cycles[index]);
+    }
+
+    int Type(int index)
+    {
+        return (types[index]);
+    }
+
+    int Value(int index)
+    {
+        return (values[index]);
+    }
+
+/*
+**      Truncate - drop the events at or after cycle
+*/
+    void Truncate(long cycle)
+    {
+        count = Find(cycle);
+    }
+
+/*
+**      Discard - drop the events before cycle
+*/
+    void Discard(long cycle)
+    {
+        int first = Find(cycle);
+        System.arraycopy(cycles, first, cycles, 0, count - first);
+        System.arraycopy(types, first, types, 0, count - first);
+        System.arraycopy(values, first, values, 0, count - first);
+        count -= first;
+    }
+
+    void End(long cycle, ByteBuffer state)
+    {
+        Add(cycle, END, 0);
+        endCRC = CRC(state);
+        synchronized(this) {
+            ended = true;
+            notifyAll();
+        }
+    }
+
+/*
+**      AwaitEnd - wait for the thread running the CPU to end the recording
+**      after CPU.StopRecording
+*/
+    public synchronized void AwaitEnd() throws InterruptedException
+    {
+        while(!ended)
+            wait();
+    }
+
+    public CPU.Engine GetEngine()
+    {
+        return (engine);
+    }
+
+    public int GetEventCount()
+    {
+        return (count);
+    }
+
+/*
+**      GetLength - cycles from the start of the recording to its end
+*/
+    public long GetLength()
+    {
+        // CPU.SaveState ends with the cycle count
+        return (cycles[count - 1] - start.getLong(start.limit() - 8));
+    }
+
+/*
+**      Replay - put cpu in the starting state and run it to the end of the
+**      recording, giving it each input at its cycle.  Returns true if it
+**      ends in the state the recording did.
+*/
+    public boolean Replay(CPU cpu) throws IOException
+    {
+        int icounter;
+        Snapshot.Restore(cpu, start.duplicate());
+        for(icounter = 0; icounter < count; icounter++)
+        {
+            long cycle = cycles[icounter];
+            while(cpu.GetCycleCount() < cycle)
+                cpu.run(cycle - cpu.GetCycleCount());
+            if(cpu.GetCycleCount() != cycle)
+                return (false);     // not at an instruction boundary
+            if(types[icounter] == END)
+                return (CRC(Snapshot.Capture(cpu)) == endCRC);
+            cpu.Input(types[icounter], values[icounter]);
+        }
+        return (false);
+    }
+
+    private static long CRC(ByteBuffer state)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(state.array(), 0, state.limit());
+        return (crc.getValue());
+    }
+
+/*
+**      Save and Load - the file described above
+*/
+    public void Save(Path file) throws IOException
+    {
+        if(!ended)
+            throw new IOException("recording hasn't ended");
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+            header.putInt(MAGIC);
+            header.putShort((short) VERSION);
+            header.putShort((short) engine.ordinal());
+            header.flip();
+            Snapshot.WriteFully(out, header);
+            Snapshot.WriteState(start.duplicate(), out, true);
+            ByteBuffer events = ByteBuffer.allocate(4 + count * EVENTSIZE + 8);
+            int icounter;
+            events.putInt(count);
+            for(icounter = 0; icounter < count; icounter++)
+            {
+                events.putLong(cycles[icounter]);
+                events.put(types[icounter]);
+                events.put(values[icounter]);
+            }
+            events.putLong(endCRC);
+            events.flip();
+            Snapshot.WriteFully(out, events);
+        }
+    }
+
+    public static InputLog Load(Path file) throws IOException
+    {
+        InputLog log = new InputLog();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+            Snapshot.ReadFully(in, header);
+            header.flip();
+            if(header.getInt() != MAGIC)
+                throw new IOException("not an input recording");
+            int version = header.getShort();
+            if(version > VERSION)
+                throw new IOException("recording version " + version + " is newer than " + VERSION);
+            int iEngine = header.getShort();
+            if((iEngine < 0) || (iEngine >= CPU.Engine.values().length))
+                throw new IOException("unknown engine " + iEngine);
+            log.engine = CPU.Engine.values()[iEngine];
+            log.start = Snapshot.ReadState(in);
+            ByteBuffer number = ByteBuffer.allocate(4);
+            Snapshot.ReadFully(in, number);
+            int count = number.getInt(0);
+            if((count < 1) || (count > MAXEVENTS))
+                throw new IOException("bad event count");
+            ByteBuffer events = ByteBuffer.allocate(count * EVENTSIZE + 8);
+            Snapshot.ReadFully(in, events);
+            events.flip();
+            int icounter;
+            for(icounter = 0; icounter < count; icounter++)
+            {
+                long cycle = events.getLong();
+                int type = events.get();
+                int iValue = events.get();
+                if((type < KEY) || (type > END) || ((icounter > 0) && (cycle < log.cycles[icounter - 1])))
+                    throw new IOException("bad event " + icounter);
+                log.Add(cycle, type, iValue);
+            }
+            if(log.types[count - 1] != END)
+                throw new IOException("recording has no end");
+            log.endCRC = events.getLong();
+            log.ended = true;
+        }
+        return (log);
+    }
+
+/*
+**      main - replay a recording as fast as its engine goes
+*/
+    public static void main(String[] args) {
+        if(args.length != 1)
+        {
+            System.err.println("usage: InputLog recording");
+            System.exit(2);
+        }
+        try {
+            InputLog log = Load(Paths.get(args[0]));
+            CPU cpu = new CPU(new MemoryModule());
+            cpu.SetEngine(log.GetEngine());
+            long begin = System.nanoTime();
+            boolean bSame = log.Replay(cpu);
+            long elapsed = System.nanoTime() - begin;
+            System.out.println(args[0] + ": " + log.GetEventCount() + " events over "
+                    + log.GetLength() + " cycles replayed in " + (elapsed / 1000000) + " ms, "
+                    + (bSame ? "same end state" : "end state differs"));
+            System.exit(bSame ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println(args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
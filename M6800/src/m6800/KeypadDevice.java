@@ -0,0 +1,223 @@
+/*
+** KeypadDevice.java
+** The multiplexed hex keypad.  A key pressed in the UI is held down for
+** KEYPADDEBOUNCE reads of the column it is in, reads of an address with
+** a column's bit clear see that column's keys as 0 bits.  A key can also
+** be held down until it is let go, for scenarios.
+**
+** Revisions:
+** 10/17/2026 Initial version, moved out of MemoryModule
+** 10/17/2026 Add Fork
+** 10/17/2026 Add Save and Restore for snapshots
+** 10/17/2026 Add Pending
+** 10/17/2026 Tell a DeviceListener about reads with no key down
+** 10/17/2026 Add KeyHeld
+*/
+package m6800;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * @author daves
+ */
+class KeypadDevice implements BusDevice {
+
+    final static int KEYPADDEBOUNCE = 32;
+    final static int HELDSTATE = 0x40;     // saved with the counter of a held key
+
+    private final int KeypadCounter[] = new int[16];
+    private final boolean Held[] = new boolean[16];
+    private boolean bHolding;   // any Held
+    DeviceListener listener;   // not passed on to a Fork
+
+    @Override
+    public int Read(int address)
+    {
+        int iValue = 0xFF;
+        int key;
+        // a held key never counts down
+        if(bHolding)
+        {
+            for(key = 0; key < Held.length; key++)
+            {
+                if(Held[key])
+                    KeypadCounter[key] = KEYPADDEBOUNCE;
+            }
+        }
+        if((address & 1) == 0) // 0, 1, 4, 7, A, D keys
+        {
+            if(KeypadCounter[0] > 0) // 0 key
+            {
+                iValue &= ~(1<<5);
+                KeypadCounter[0]--;
+            }
+            if(KeypadCounter[1] > 0) // 1 key
+            {
+                iValue &= ~(1<<4);
+                KeypadCounter[1]--;
+            }
+            if(KeypadCounter[4] > 0)
+            {
+                iValue &= ~(1<<3);
+                KeypadCounter[4]--;
+            }
+            if(KeypadCounter[7] > 0)
+            {
+                iValue &= ~(1<<2);
+                KeypadCounter[7]--;
+            }
+            if(KeypadCounter[10] > 0)
+            {
+                iValue &= ~(1<<1);
+                KeypadCounter[10]--;
+            }
+            if(KeypadCounter[13] > 0)
+            {
+                iValue &= ~(1);
+                KeypadCounter[13]--;
+            }
+        }
+        if((address & (1<<1)) == 0) //2, 5, 8, B, E keys
+        {
+            if(KeypadCounter[2] > 0)
+            {
+                iValue &= ~(1<<4);
+                KeypadCounter[2]--;
+            }
+            if(KeypadCounter[5] > 0)
+            {
+                iValue &= ~(1<<3);
+                KeypadCounter[5]--;
+            }
+            if(KeypadCounter[8] > 0)
+            {
+                iValue &= ~(1<<2);
+                KeypadCounter[8]--;
+            }
+            if(KeypadCounter[11] > 0)
+            {
+                iValue &= ~(1<<1);
+                KeypadCounter[11]--;
+            }
+            if(KeypadCounter[14] > 0)
+            {
+                iValue &= ~(1);
+                KeypadCounter[14]--;
+            }
+        }
+        if((address & (1<<2)) == 0) // 3, 6, 9, C, F keys
+        {
+            if(KeypadCounter[3] > 0)
+            {
+                iValue &= ~(1<<4);
+                KeypadCounter[3]--;
+            }
+            if(KeypadCounter[6] > 0)
+            {
+                iValue &= ~(1<<3);
+                KeypadCounter[6]--;
+            }
+            if(KeypadCounter[9] > 0)
+            {
+                iValue &= ~(1<<2);
+                KeypadCounter[9]--;
+            }
+            if(KeypadCounter[12] > 0)
+            {
+                iValue &= ~(1<<1);
+                KeypadCounter[12]--;
+            }
+            if(KeypadCounter[15] > 0)
+            {
+                iValue &= ~(1);
+                KeypadCounter[15]--;
+            }
+        }
+        if((listener != null) && (iValue == 0xFF) && !Pending())
+            listener.KeypadIdle();
+        return(iValue & 0xFF);
+    }
+
+    @Override
+    public void Write(int iAddress, int iValue)
+    {
+        // the keypad is input only
+    }
+
+    @Override
+    public BusDevice Fork()
+    {
+        KeypadDevice device = new KeypadDevice();
+        System.arraycopy(KeypadCounter, 0, device.KeypadCounter, 0, KeypadCounter.length);
+        System.arraycopy(Held, 0, device.Held, 0, Held.length);
+        device.bHolding = bHolding;
+        return (device);
+    }
+
+    int StateSize()
+    {
+        return (KeypadCounter.length);
+    }
+
+    void Save(ByteBuffer out)
+    {
+        int key;
+        for(key = 0; key < KeypadCounter.length; key++)
+            out.put((byte) (KeypadCounter[key] | (Held[key] ? HELDSTATE : 0)));
+    }
+
+    void Restore(ByteBuffer in) throws IOException
+    {
+        int key, state;
+        bHolding = false;
+        for(key = 0; key < KeypadCounter.length; key++)
+        {
+            state = in.get();
+            Held[key] = (state & HELDSTATE) != 0;
+            bHolding |= Held[key];
+            KeypadCounter[key] = state & ~HELDSTATE;
+            if((KeypadCounter[key] < 0) || (KeypadCounter[key] > KEYPADDEBOUNCE))
+                throw new IOException("bad keypad state");
+        }
+    }
+
+/*
+**      Pending - true while a key is still being held down
+*/
+    boolean Pending()
+    {
+        for(int counter : KeypadCounter)
+        {
+            if(counter > 0)
+                return (true);
+        }
+        return (false);
+    }
+
+/*
+**      KeyHeld - key (0-F) went down and stays down until it's let go,
+**      which leaves it up straight away
+*/
+    void KeyHeld(int key, boolean bDown)
+    {
+        int other;
+        Held[key] = bDown;
+        KeypadCounter[key] = bDown ? KEYPADDEBOUNCE : 0;
+        bHolding = false;
+        for(other = 0; other < Held.length; other++)
+            bHolding |= Held[other];
+    }
+
+/*
+**      KeyPressed - key (0-F) went down
+*/
+    void KeyPressed(int key)
+    {
+        if(KeypadCounter[key] == 0)
+        {
+            KeypadCounter[key] = KEYPADDEBOUNCE;
+        }
+    }
+}
@@ -36,6 +36,10 @@
 **       "don't care" bits, they behave as "don't care" bits
 **      -Change default filename filter to show all files when loading
 **       S-records
+** 10/17/2026:
+**      -Read S-records from any Reader, e.g. stdin for Headless
+**      -Write S-records to any Writer, reading RAM with Peek so no
+**       watchpoint or trace takes the save for the CPU's reads
 */
 
 package m6800;
@@ -100,8 +104,6 @@ public class M6800 {
     public static void main(String[] args) {
         // TODO code application logic here
         int icounter;
-        int icounter2;
-        int junk = 0;
         
         MemoryModule CPUMem = new MemoryModule();
         /* uncomment these line to pre-load the example program
@@ -111,24 +113,16 @@ public class M6800 {
         }*/
         CPU CPU6800 = new CPU(CPUMem);
         CPU6800.Reset();
-        UI gui = new UI(CPU6800, CPUMem);
+        Throttle throttle = new Throttle(CPU6800);
+        UI gui = new UI(CPU6800, CPUMem, throttle);
         gui.FinishUIInit();
         gui.setVisible(true);
         
-        while(true)
-        {   
-            for(icounter = 0; icounter < CPU6800.GetRealClockDelay(); icounter++)
-            {
-                for(icounter2 = 0; icounter2 < CPU6800.GetRealClockDelay(); icounter2++)
-                {
-                    junk++;
-                }
-            }
-            CPU6800.clock();
-        }   
+        // runs the CPU at the clock rate set in the UI from here on
+        throttle.Run();
     }
     
-    public static void WriteSRecordFile (FileWriter out, MemoryModule mem, CPU aCPU)
+    public static void WriteSRecordFile (Writer out, MemoryModule mem, CPU aCPU)
     {
         int iAddress;
         int index;
@@ -157,7 +151,7 @@ public class M6800 {
             srec.Type = 1;
             for(index = 0; index < BYTESPERSRECORD; index++)
             {
-                srec.data[index] = mem.MemRead(iAddress + index);
+                srec.data[index] = mem.Peek(iAddress + index);
             }
             srec.dataBytes = BYTESPERSRECORD;
             srec.size = 19; //2 byte address + 16 data bytes + checksum
@@ -183,7 +177,7 @@ public class M6800 {
         aCPU.Halt(false);
     }
     
-    public static int ReadSRecordFile (FileReader in,  MemoryModule mem, CPU aCPU)
+    public static int ReadSRecordFile (Reader in,  MemoryModule mem, CPU aCPU)
     {
         String instring;
         SRecord srec = new SRecord();
@@ -240,7 +234,7 @@ public class M6800 {
         return (result);
     }
     
-    public static int ReadSRecordFileROM (FileReader in, MemoryModule mem, CPU aCPU)
+    public static int ReadSRecordFileROM (Reader in, MemoryModule mem, CPU aCPU)
     {
         String instring;
         SRecord srec = new SRecord();
@@ -296,7 +290,7 @@ public class M6800 {
         return (result);
     }
     
-    public static String ReadString (FileReader in)
+    public static String ReadString (Reader in)
     {
         String instring = "";
         int inchar;
@@ -5,6 +5,10 @@
  */
 package m6800;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
 /**
  *
  * @author daves
@@ -12,9 +16,10 @@ package m6800;
 public class MemoryModule {
 
 /*
-**      Actual image of ET-3400A ROM from 0xFC00 to 0xFFFF
+**      Actual image of ET-3400A ROM from 0xFC00 to 0xFFFF, only read to
+**      build STOCKROMPAGES
 */    
-    public final int ET3400AROM [] = {
+    private final static int ET3400AROM [] = {
         0x8E,0x00,0xEB,0xBD,0xFD,0x8D,0x4E,0x67,0x3E,0x00,0x3E,0xE7,0xCE,0x00,0xCB,0xDF,0xF2,0x86,0xFF,0xC6,0x08,0x36,0x5A,0x26,0xFC,0x97,0xEE,0x86,0x19,0x36,0x86,0xFC,
         0x36,0xBD,0xFD,0xF4,0x7D,0x00,0xEE,0x27,0x08,0x81,0x0F,0x27,0xF4,0x81,0x0B,0x27,0xF0,0xDF,0xEC,0xCE,0xFF,0xB4,0x08,0x08,0x4A,0x2A,0xFB,0xA6,0x01,0x36,0xA6,0x00,
         0x36,0xDE,0xEC,0x96,0xEE,0x39,0xCE,0x00,0xE2,0x86,0xFF,0xC6,0x04,0x08,0x08,0xA1,0x00,0x26,0x04,0xA1,0x01,0x27,0x0E,0x5A,0x26,0xF3,0xBD,0xFD,0x8D,0x00,0x47,0x3E,
@@ -50,7 +55,9 @@ public class MemoryModule {
     };
     
     final static int MEMSIZE = 65536;
-    private final int memArray[];
+    final static int ADDRESSMASK = MEMSIZE - 1; // addresses wrap at 16 bits
+    final static int PAGESIZE = 256;
+    final static int NUMPAGES = MEMSIZE / PAGESIZE;
     final static int RAMSTART = 0;
     final static int ROMSTART = 0xFC00;
     final static int DISPLAYSTART = 0xC110;
@@ -60,13 +67,58 @@ public class MemoryModule {
     //final int DISPLAYSIZE = 0x60;
     final int DISPLAYSIZE = 0xF0;
     final int KEYPADSIZE = 8;
-    final static int KEYPADDEBOUNCE = 32;
-    static int debug;
-    final static int DISPLAY_DONTCARE_MASK = 0xFF77;
     
-    private final int KeypadCounter[];
     private boolean ROMLoaded;
     
+    // page tables: the array holding each 256 byte page, or null where an
+    // access needs IOFetch, IORead or IOWrite (pages with a device or a
+    // watch, ROM writes, writes to a page shared with a fork)
+    private final byte FetchPages[][] = new byte[NUMPAGES][];
+    private final byte ReadPages[][] = new byte[NUMPAGES][];
+    private final byte WritePages[][] = new byte[NUMPAGES][];
+    // what each page holds where no device answers
+    private final byte ReadBacking[][] = new byte[NUMPAGES][];
+    private final byte WriteBacking[][] = new byte[NUMPAGES][];
+    // writable pages also used by a fork or the module it was forked
+    // from, copied by the first write to them
+    private final boolean SharedPage[] = new boolean[NUMPAGES];
+    private byte ROMPages[][];              // made by the first ROMWrite
+    private boolean ROMShared;
+    // ET3400AROM, shared by every MemoryModule and never written, read
+    // until ROMWrite loads another monitor
+    private final static byte STOCKROMPAGES[][] = new byte[ET3400AROM.length / PAGESIZE][PAGESIZE];
+    // read by every page with nothing in it, never written
+    private final static byte ZEROPAGE[] = new byte[PAGESIZE];
+    // a write table with no plain pages, see GetWritePages
+    private final static byte NOPAGES[][] = new byte[NUMPAGES][];
+    
+    static
+    {
+        int iCounter;
+        for (iCounter = 0; iCounter < ET3400AROM.length; iCounter++)
+            STOCKROMPAGES[iCounter / PAGESIZE][iCounter % PAGESIZE] = (byte) ET3400AROM[iCounter];
+    }
+    // devices attached to each page
+    private final DeviceRange Devices[] = new DeviceRange[NUMPAGES];
+    private final KeypadDevice Keypad;
+    private final DisplayDevice Display;
+    
+    // pages holding code cached by the CPU, see BlockCache
+    private final boolean CodePage[] = new boolean[NUMPAGES];
+    private CodeWriteListener codeListener;
+    
+    // watches for Breakpoints, per address, null until one is set
+    final static int WATCHFETCH = 0x01;     // opcode fetches
+    final static int WATCHREAD = 0x02;
+    final static int WATCHWRITE = 0x04;
+    private byte Watches[];
+    private final int WatchedPages[] = new int[NUMPAGES]; // watches somewhere in each page
+    private WatchListener watchListener;
+    // told about every MemWrite, and every MemRead with bReadsListened, for
+    // TraceWriter
+    private AccessListener accessListener;
+    private boolean bReadsListened;
+    
     
     MemRegion RAM;
     MemRegion ROM;
@@ -74,58 +126,339 @@ public class MemoryModule {
     MemRegion KEYPAD;
 
 /*
-**      MemWrite - Accessor for writable memory (RAM and display)
+**      DeviceRange - a device and the addresses it answers to, in a list
+**      per page
+*/
+    private static class DeviceRange
+    {
+        final BusDevice device;
+        final int start;
+        final int end;
+        final DeviceRange next;
+        DeviceRange(BusDevice device, int start, int end, DeviceRange next)
+        {
+            this.device = device;
+            this.start = start;
+            this.end = end;
+            this.next = next;
+        }
+    }
+
+/*
+**      MemWrite - Accessor for writable memory (RAM and devices)
 */    
     public void MemWrite(int iAddress, int iValue)
     {
-        if((iAddress >= RAM.memstart && iAddress < (RAM.memstart + RAM.memsize)) ||
-                (iAddress >= DISPLAY.memstart && iAddress < (DISPLAY.memstart + DISPLAY.memsize)))
+        iAddress &= ADDRESSMASK;
+        byte page[] = WritePages[iAddress >> 8];
+        if (accessListener != null)
+            accessListener.Written(iAddress, iValue & 0xFF);
+        if (page != null)
+            Store(page, iAddress, iValue);
+        else
+            IOWrite(iAddress, iValue);
+    }
+    
+    private void Store(byte page[], int iAddress, int iValue)
+    {
+        byte oldValue = page[iAddress & 0xFF];
+        page[iAddress & 0xFF] = (byte) iValue;
+        // storing the byte that is already there can't change code
+        if (CodePage[iAddress >> 8] && (oldValue != page[iAddress & 0xFF]))
+            codeListener.CodeWritten(iAddress, 1);
+    }
+    
+/*
+**      IOWrite - MemWrite for pages without a plain array in the table
+*/
+    private void IOWrite(int iAddress, int iValue)
+    {
+        DeviceRange range = DeviceAt(iAddress);
+        int page = iAddress >> 8;
+        if (range != null)
+            range.device.Write(iAddress, iValue & 0xFF);
+        else if (WriteBacking[page] != null)
         {
-            ////
-            if (iAddress >= DISPLAY.memstart)
+            if (SharedPage[page])
             {
-                iAddress &= DISPLAY_DONTCARE_MASK;
+                byte copy[] = WriteBacking[page].clone();
+                SharedPage[page] = false;
+                MapPage(page, (ReadBacking[page] == WriteBacking[page]) ? copy : ReadBacking[page], copy);
             }
-            memArray[iAddress] = (iValue & 0xFF);
+            Store(WriteBacking[page], iAddress, iValue);
         }
-        if ((iAddress == 0) && (iValue == 7))
-            debug = 1;
-        else
-            debug = 0;
+        if ((Watches != null) && ((Watches[iAddress] & WATCHWRITE) != 0))
+            watchListener.Accessed(iAddress, iValue & 0xFF, true);
     }
     
     public void ROMWrite (int iAddress, int iValue)
     {
+        int page;
+        if (!ROMLoaded)
+        {
+            // switching from the built in image, all of ROM changes
+            if (codeListener != null)
+                codeListener.CodeWritten(ROM.memstart, ROM.memsize);
+            ROMPages = new byte[ROMSIZE / PAGESIZE][PAGESIZE];
+            for (page = 0; page < ROMPages.length; page++)
+                MapPage((ROM.memstart >> 8) + page, ROMPages[page], null);
+        }
+        else if (ROMShared)
+        {
+            byte copy[][] = new byte[ROMPages.length][];
+            for (page = 0; page < ROMPages.length; page++)
+            {
+                copy[page] = ROMPages[page].clone();
+                MapPage((ROM.memstart >> 8) + page, copy[page], null);
+            }
+            ROMPages = copy;
+        }
+        ROMShared = false;
         if ((iAddress >= ROM.memstart) && (iAddress < (ROM.memstart + ROM.memsize)))
         {
-            memArray[iAddress] = iValue & 0xFF;
+            ROMPages[(iAddress - ROM.memstart) >> 8][iAddress & 0xFF] = (byte) iValue;
+            if (CodePage[iAddress >> 8])
+                codeListener.CodeWritten(iAddress, 1);
         }
         ROMLoaded = true;
     }
+    
+/*
+**      AttachDevice - pass reads and writes of iSize addresses from iStart
+**      to device.  Devices attached earlier win where ranges overlap.
+*/
+    public void AttachDevice(BusDevice device, int iStart, int iSize)
+    {
+        int page;
+        for (page = iStart >> 8; page <= (iStart + iSize - 1) >> 8; page++)
+        {
+            Devices[page] = Append(Devices[page], device, iStart, iStart + iSize);
+            MapPage(page, ReadBacking[page], WriteBacking[page]);
+        }
+    }
+    
+    private static DeviceRange Append(DeviceRange list, BusDevice device, int start, int end)
+    {
+        if (list == null)
+            return (new DeviceRange(device, start, end, null));
+        return (new DeviceRange(list.device, list.start, list.end, Append(list.next, device, start, end)));
+    }
+    
+/*
+**      MapPage - back page with read and write arrays (null for none), only
+**      going straight into the page tables if no device or watch is on the
+**      page, and reads not if they're listened to
+*/
+    private void MapPage(int page, byte read[], byte write[])
+    {
+        boolean bDevice = (Devices[page] != null);
+        ReadBacking[page] = read;
+        WriteBacking[page] = write;
+        FetchPages[page] = (bDevice || ((WatchedPages[page] & WATCHFETCH) != 0)) ? null : read;
+        ReadPages[page] = (bDevice || bReadsListened || ((WatchedPages[page] & WATCHREAD) != 0)) ? null : read;
+        WritePages[page] = (bDevice || SharedPage[page] || ((WatchedPages[page] & WATCHWRITE) != 0)) ? null : write;
+    }
+    
+    private DeviceRange DeviceAt(int iAddress)
+    {
+        DeviceRange range;
+        for (range = Devices[iAddress >> 8]; range != null; range = range.next)
+        {
+            if ((iAddress >= range.start) && (iAddress < range.end))
+                return (range);
+        }
+        return (null);
+    }
+    
+/*
+**      SetCodeWriteListener - who to tell when a page marked with
+**      MarkCodePage is written
+*/
+    void SetCodeWriteListener(CodeWriteListener listener)
+    {
+        codeListener = listener;
+    }
+    
+    void MarkCodePage(int page, boolean bCode)
+    {
+        CodePage[page] = bCode;
+    }
 
 /*
-**      MemRead - Accessor for reading RAM/ROM/Keypad/Display
+**      GetReadPages, GetWritePages, GetCodePages - the page tables, for
+**      code made by Translator to read and write plain pages itself and
+**      only call MemRead and MemWrite where they're null.  While writes
+**      are listened to there are no pages to write that way.  A write to a
+**      code page still has to go through MemWrite.
 */
-    public int MemRead(int iAddress)
+    byte[][] GetReadPages()
+    {
+        return (ReadPages);
+    }
+
+    byte[][] GetWritePages()
+    {
+        return ((accessListener == null) ? WritePages : NOPAGES);
+    }
+
+    boolean[] GetCodePages()
+    {
+        return (CodePage);
+    }
+    
+/*
+**      IsCacheable - true if the byte at iAddress only changes through
+**      MemWrite or ROMWrite, so code there can be predecoded.  A device
+**      may change what it reads as at any time, and fetches from a watched
+**      address have to go through Fetch.
+*/
+    boolean IsCacheable(int iAddress)
+    {
+        if (iAddress < 0 || iAddress >= MEMSIZE)
+            return (false);
+        if ((Watches != null) && ((Watches[iAddress] & WATCHFETCH) != 0))
+            return (false);
+        return (DeviceAt(iAddress) == null);
+    }
+
+/*
+**      SetWatchListener - who to tell about accesses to watched addresses
+*/
+    void SetWatchListener(WatchListener listener)
+    {
+        watchListener = listener;
+    }
+
+/*
+**      SetDeviceListener - who to tell about display writes and keypad
+**      reads with no key down, null for none
+*/
+    void SetDeviceListener(DeviceListener listener)
     {
-        if ((iAddress >= RAM.memstart && iAddress < (RAM.memstart + RAM.memsize)) ||
-                (iAddress >= DISPLAY.memstart && iAddress < (DISPLAY.memstart + DISPLAY.memsize)))
+        Keypad.listener = listener;
+        Display.listener = listener;
+    }
+
+/*
+**      SetAccessListener - who to tell about every MemWrite, null for none,
+**      and with bReads every MemRead too.  Reads then go through IORead.
+*/
+    void SetAccessListener(AccessListener listener, boolean bReads)
+    {
+        int page;
+        accessListener = listener;
+        bReads &= (listener != null);
+        if (bReads != bReadsListened)
         {
-            return (memArray[iAddress]);
+            bReadsListened = bReads;
+            for (page = 0; page < NUMPAGES; page++)
+                MapPage(page, ReadBacking[page], WriteBacking[page]);
         }
-        else if (iAddress >= KEYPAD.memstart && iAddress < (KEYPAD.memstart + KEYPAD.memsize))
+    }
+
+/*
+**      Watch - add the WATCH flags to iSize addresses from iStart, all
+**      within memory.  Cached code fetched from them is dropped.
+*/
+    void Watch(int iStart, int iSize, int flags)
+    {
+        int iAddress, page;
+        if (Watches == null)
+            Watches = new byte[MEMSIZE];
+        for (iAddress = iStart; iAddress < iStart + iSize; iAddress++)
+            Watches[iAddress] |= (byte) flags;
+        for (page = 0; page < NUMPAGES; page++)
         {
-            //Since a real ET-3400A uses a multiplexed keypad, translate virtual
-            //keypresses into hardware bits.
-            return(KeypadRead(iAddress));
+            for (iAddress = page << 8; iAddress < (page + 1) << 8; iAddress++)
+                WatchedPages[page] |= Watches[iAddress];
+            MapPage(page, ReadBacking[page], WriteBacking[page]);
         }
-        else if (iAddress >= ROM.memstart && iAddress < (ROM.memstart + ROM.memsize))
+        if (((flags & WATCHFETCH) != 0) && (codeListener != null))
+            codeListener.CodeWritten(iStart, iSize);
+    }
+
+/*
+**      ClearWatches - drop every watch, accesses go straight to the pages
+**      again
+*/
+    void ClearWatches()
+    {
+        int page;
+        Watches = null;
+        for (page = 0; page < NUMPAGES; page++)
         {
-            if (ROMLoaded)
-                return (memArray[iAddress]);
-            else
-                return (ET3400AROM[iAddress - ROM.memstart]);
+            WatchedPages[page] = 0;
+            MapPage(page, ReadBacking[page], WriteBacking[page]);
         }
+    }
+
+/*
+**      MemRead - Accessor for reading RAM/ROM/devices
+*/
+    public int MemRead(int iAddress)
+    {
+        iAddress &= ADDRESSMASK;
+        byte page[] = ReadPages[iAddress >> 8];
+        if (page != null)
+            return (page[iAddress & 0xFF] & 0xFF);
+        return (IORead(iAddress));
+    }
+
+/*
+**      Fetch - MemRead for the CPU reading an opcode, iAddress within the
+**      16 bits
+*/
+    int Fetch(int iAddress)
+    {
+        byte page[] = FetchPages[iAddress >> 8];
+        if (page != null)
+            return (page[iAddress & 0xFF] & 0xFF);
+        return (IOFetch(iAddress));
+    }
+    
+/*
+**      Peek - the RAM or ROM byte at iAddress, or -1 where a device is
+**      attached, without the CPU reading it
+*/
+    int Peek(int iAddress)
+    {
+        iAddress &= ADDRESSMASK;
+        if (DeviceAt(iAddress) != null)
+            return (-1);
+        else if (ReadBacking[iAddress >> 8] != null)
+            return (ReadBacking[iAddress >> 8][iAddress & 0xFF] & 0xFF);
+        else
+            return (0);
+    }
+
+/*
+**      IORead and IOFetch - MemRead and Fetch for pages without a plain
+**      array in the table
+*/
+    private int IORead(int iAddress)
+    {
+        int iValue = BusRead(iAddress);
+        if ((Watches != null) && ((Watches[iAddress] & WATCHREAD) != 0))
+            watchListener.Accessed(iAddress, iValue, false);
+        if (bReadsListened)
+            accessListener.Read(iAddress, iValue);
+        return (iValue);
+    }
+
+    private int IOFetch(int iAddress)
+    {
+        if ((Watches != null) && ((Watches[iAddress] & WATCHFETCH) != 0))
+            watchListener.Fetching(iAddress);
+        return (BusRead(iAddress));
+    }
+
+    private int BusRead(int iAddress)
+    {
+        DeviceRange range = DeviceAt(iAddress);
+        if (range != null)
+            return (range.device.Read(iAddress));
+        else if (ReadBacking[iAddress >> 8] != null)
+            return (ReadBacking[iAddress >> 8][iAddress & 0xFF] & 0xFF);
         else
             return (0);
     }
@@ -135,123 +468,219 @@ public class MemoryModule {
 */
     public MemoryModule()
     {
-        memArray = new int[MEMSIZE];
-        KeypadCounter = new int[16];
         int iCounter;
-        for(iCounter = 0; iCounter < MEMSIZE; iCounter++)
-            memArray[iCounter] = 0;
-        for (iCounter = 0; iCounter < 16; iCounter++)
-        {
-            KeypadCounter[iCounter] = 0;
-        }
+        byte RAMPages[][];
         RAM = new MemRegion(RAMSTART, RAMSIZE);
         ROM = new MemRegion(ROMSTART, ROMSIZE);
         DISPLAY = new MemRegion(DISPLAYSTART, DISPLAYSIZE);
         KEYPAD = new MemRegion(KEYPADSTART, KEYPADSIZE);
         ROMLoaded = false;
+        
+        for (iCounter = 0; iCounter < NUMPAGES; iCounter++)
+            MapPage(iCounter, ZEROPAGE, null);
+        RAMPages = new byte[RAMSIZE / PAGESIZE][PAGESIZE];
+        for (iCounter = 0; iCounter < RAMPages.length; iCounter++)
+            MapPage((RAMSTART >> 8) + iCounter, RAMPages[iCounter], RAMPages[iCounter]);
+        for (iCounter = 0; iCounter < STOCKROMPAGES.length; iCounter++)
+            MapPage((ROMSTART >> 8) + iCounter, STOCKROMPAGES[iCounter], null);
+        Keypad = new KeypadDevice();
+        AttachDevice(Keypad, KEYPADSTART, KEYPADSIZE);
+        Display = new DisplayDevice();
+        AttachDevice(Display, DISPLAYSTART, DISPLAYSIZE);
     }
     
-    public int KeypadRead(int address)
+/*
+**      MemoryModule - Constructor for Fork, the same memory and devices as
+**      parent with every writable page shared
+*/
+    private MemoryModule(MemoryModule parent)
     {
-        int iValue = 0xFF;
-        if((address & 1) == 0) // 0, 1, 4, 7, A, D keys
+        IdentityHashMap<BusDevice, BusDevice> forks = new IdentityHashMap<>();
+        DeviceRange range;
+        int page;
+        RAM = new MemRegion(RAMSTART, RAMSIZE);
+        ROM = new MemRegion(ROMSTART, ROMSIZE);
+        DISPLAY = new MemRegion(DISPLAYSTART, DISPLAYSIZE);
+        KEYPAD = new MemRegion(KEYPADSTART, KEYPADSIZE);
+        ROMLoaded = parent.ROMLoaded;
+        ROMPages = parent.ROMPages;
+        ROMShared = parent.ROMShared = (ROMPages != null);
+        
+        for (page = 0; page < NUMPAGES; page++)
         {
-            if(KeypadCounter[0] > 0) // 0 key
-            {
-                iValue &= ~(1<<5);
-                KeypadCounter[0]--;
-            }
-            if(KeypadCounter[1] > 0) // 1 key
-            {
-                iValue &= ~(1<<4);
-                KeypadCounter[1]--;
-            }
-            if(KeypadCounter[4] > 0)
+            if (parent.WriteBacking[page] != null)
             {
-                iValue &= ~(1<<3);
-                KeypadCounter[4]--;
+                SharedPage[page] = parent.SharedPage[page] = true;
+                parent.MapPage(page, parent.ReadBacking[page], parent.WriteBacking[page]);
             }
-            if(KeypadCounter[7] > 0)
+            for (range = parent.Devices[page]; range != null; range = range.next)
             {
-                iValue &= ~(1<<2);
-                KeypadCounter[7]--;
-            }
-            if(KeypadCounter[10] > 0)
-            {
-                iValue &= ~(1<<1);
-                KeypadCounter[10]--;
-            }
-            if(KeypadCounter[13] > 0)
-            {
-                iValue &= ~(1);
-                KeypadCounter[13]--;
+                BusDevice device = forks.get(range.device);
+                if (device == null)
+                {
+                    device = range.device.Fork();
+                    forks.put(range.device, device);
+                }
+                Devices[page] = Append(Devices[page], device, range.start, range.end);
             }
+            MapPage(page, parent.ReadBacking[page], parent.WriteBacking[page]);
         }
-        if((address & (1<<1)) == 0) //2, 5, 8, B, E keys
+        Keypad = (KeypadDevice) forks.get(parent.Keypad);
+        Display = (DisplayDevice) forks.get(parent.Display);
+    }
+    
+/*
+**      Fork - an independent copy of memory and the attached devices.  The
+**      pages aren't copied, each side copies a page the first time it
+**      writes to it, so this takes the same time however memory is used.
+**      Call it from the thread running this module, or while it's stopped.
+**      After that the two can be used by different threads.
+*/
+    public MemoryModule Fork()
+    {
+        return (new MemoryModule(this));
+    }
+    
+/*
+**      SaveState - put the writable pages, a loaded ROM and the keypad and
+**      display in out for Snapshot.  Other attached devices aren't saved.
+*/
+    void SaveState(ByteBuffer out)
+    {
+        int page;
+        out.put((byte) (ROMLoaded ? 1 : 0));
+        if (ROMLoaded)
         {
-            if(KeypadCounter[2] > 0)
-            {
-                iValue &= ~(1<<4);
-                KeypadCounter[2]--;
-            }
-            if(KeypadCounter[5] > 0)
-            {
-                iValue &= ~(1<<3);
-                KeypadCounter[5]--;
-            }
-            if(KeypadCounter[8] > 0)
-            {
-                iValue &= ~(1<<2);
-                KeypadCounter[8]--;
-            }
-            if(KeypadCounter[11] > 0)
-            {
-                iValue &= ~(1<<1);
-                KeypadCounter[11]--;
-            }
-            if(KeypadCounter[14] > 0)
-            {
-                iValue &= ~(1);
-                KeypadCounter[14]--;
-            }
+            for (page = 0; page < ROMPages.length; page++)
+                out.put(ROMPages[page]);
         }
-        if((address & (1<<2)) == 0) // 3, 6, 9, C, F keys
+        out.putShort((short) WritablePages());
+        for (page = 0; page < NUMPAGES; page++)
         {
-            if(KeypadCounter[3] > 0)
-            {
-                iValue &= ~(1<<4);
-                KeypadCounter[3]--;
-            }
-            if(KeypadCounter[6] > 0)
-            {
-                iValue &= ~(1<<3);
-                KeypadCounter[6]--;
-            }
-            if(KeypadCounter[9] > 0)
-            {
-                iValue &= ~(1<<2);
-                KeypadCounter[9]--;
-            }
-            if(KeypadCounter[12] > 0)
+            if (WriteBacking[page] != null)
             {
-                iValue &= ~(1<<1);
-                KeypadCounter[12]--;
-            }
-            if(KeypadCounter[15] > 0)
-            {
-                iValue &= ~(1);
-                KeypadCounter[15]--;
+                out.put((byte) page);
+                out.put(WriteBacking[page]);
             }
         }
-        return(iValue & 0xFF);
+        Keypad.Save(out);
+        Display.Save(out);
     }
     
-    public void KeypadWrite(int key)
+/*
+**      RestoreState - load what SaveState wrote.  The pages are copied, so
+**      forks sharing them are left alone.
+*/
+    void RestoreState(ByteBuffer in) throws IOException
+    {
+        int page, count;
+        ROMLoaded = (in.get() != 0);
+        ROMShared = false;
+        ROMPages = null;
+        if (ROMLoaded)
+            ROMPages = new byte[ROMSIZE / PAGESIZE][PAGESIZE];
+        for (page = 0; page < STOCKROMPAGES.length; page++)
+        {
+            if (ROMLoaded)
+                in.get(ROMPages[page]);
+            MapPage((ROMSTART >> 8) + page, ROMLoaded ? ROMPages[page] : STOCKROMPAGES[page], null);
+        }
+        count = in.getShort();
+        if (count != WritablePages())
+            throw new IOException("snapshot has " + count + " RAM pages, not " + WritablePages());
+        while (count-- > 0)
+        {
+            page = in.get() & 0xFF;
+            if (WriteBacking[page] == null)
+                throw new IOException(String.format("no RAM at %04X", page << 8));
+            byte copy[] = new byte[PAGESIZE];
+            in.get(copy);
+            SharedPage[page] = false;
+            MapPage(page, (ReadBacking[page] == WriteBacking[page]) ? copy : ReadBacking[page], copy);
+        }
+        Keypad.Restore(in);
+        Display.Restore(in);
+    }
+    
+/*
+**      StateSize - bytes SaveState will write
+*/
+    int StateSize()
+    {
+        return (1 + (ROMLoaded ? ROMSIZE : 0) + 2 + WritablePages() * (1 + PAGESIZE) +
+                Keypad.StateSize() + Display.StateSize());
+    }
+    
+    private int WritablePages()
     {
-        if(KeypadCounter[key] == 0)
+        int page, count = 0;
+        for (page = 0; page < NUMPAGES; page++)
         {
-            KeypadCounter[key] = KEYPADDEBOUNCE;
+            if (WriteBacking[page] != null)
+                count++;
         }
+        return (count);
+    }
+    
+    boolean IsROMLoaded()
+    {
+        return (ROMLoaded);
+    }
+    
+    boolean KeyPending()
+    {
+        return (Keypad.Pending());
+    }
+    
+    public int KeypadRead(int address)
+    {
+        return (Keypad.Read(address));
+    }
+    
+/*
+**      DisplayRead - the display at address as the CPU would read it, but
+**      without the read being watched or listened to, for the UI
+*/
+    public int DisplayRead(int address)
+    {
+        return (Display.Read(address));
+    }
+    
+/*
+**      DisplaySegments and DisplayText - the display the way the trainer
+**      shows it, see DisplayDevice.Digit and Character.  Nothing is
+**      watched or listened to.
+*/
+    public int DisplaySegments(int digit)
+    {
+        return (Display.Digit(digit));
+    }
+    
+    public String DisplayText()
+    {
+        StringBuilder text = new StringBuilder();
+        int digit, value;
+        for(digit = 0; digit < DisplayDevice.DIGITS; digit++)
+        {
+            value = Display.Digit(digit);
+            text.append(DisplayDevice.Character(value));
+            if((value & DisplayDevice.DECIMALPOINT) != 0)
+                text.append('.');
+        }
+        return (text.toString());
+    }
+    
+    public void KeypadWrite(int key)
+    {
+        Keypad.KeyPressed(key);
+    }
+    
+/*
+**      KeypadHold - hold key (0-F) down, or with bDown false let it go
+*/
+    public void KeypadHold(int key, boolean bDown)
+    {
+        Keypad.KeyHeld(key, bDown);
     }
 }
 
@@ -0,0 +1,32 @@
+/*
+** RegionLoader.java
+** Defines a class made by Translator.  Each class gets a loader of its own,
+** so a translation dropped by a write can be unloaded along with it.  The
+** class is in package m6800 by name only, the JVM keeps it out of the
+** package CPU is in, so it gets at the CPU through public methods and the
+** protected ones of CompiledRegion.
+**
+** Revisions:
+** 10/17/2026 Initial version, in place of hidden classes
+*/
+package m6800;
+
+/**
+ *
+ * @author daves
+ */
+final class RegionLoader extends ClassLoader {
+
+    RegionLoader()
+    {
+        super(RegionLoader.class.getClassLoader());
+    }
+
+/*
+**      Define - the class in bytes, named as the class file names it
+*/
+    Class<?> Define(byte bytes[])
+    {
+        return (defineClass(null, bytes, 0, bytes.length));
+    }
+}
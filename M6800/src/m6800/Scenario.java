@@ -0,0 +1,633 @@
+/*
+** Scenario.java
+** Checks a program by playing a script of key presses and other events to
+** it and testing what it shows and leaves in memory, with no UI and no
+** throttle.  A script has a command a line, lines starting with # are
+** comments:
+**
+**      load file           load an S-record file into RAM, or with rom into
+**      rom file            ROM, as Headless does.  Files are found next to
+**                          the script, $program is the program given with
+**                          -for.
+**      state file          start from a Snapshot file
+**      start hhhh          reset and let the monitor come up, then run from
+**                          hhhh as DO would
+**      engine name         SWITCH, TABLE, BLOCK or JIT, BLOCK if not given
+**      budget n            fail once the script has run n cycles,
+**                          DEFAULTBUDGET if not given
+**      gap n               cycles to run after each press, PRESSGAP if not
+**                          given, so the program sees keys one at a time.
+**                          With gap 0 before the last key, a wait after it
+**                          sees all that the key starts.
+**      press key [hold n]  press key, a hex digit or its name on the
+**                          trainer, e.g. DO or EXAM.  With hold it stays
+**                          down for n cycles, otherwise it's pressed as the
+**                          UI's buttons press it.
+**      nmi, irq, reset     raise NMI, IRQ or RESET
+**      run n               run n cycles
+**      wait display "text" [within n]
+**      wait pc hhhh [within n]
+**      wait keypad [within n]
+**                          run until the display shows text, PC reaches
+**                          hhhh or the program has been looking at the
+**                          keypad with no key down for KEYSETTLE cycles,
+**                          failing if it takes more than n cycles.  The
+**                          monitor misses a key pressed before its keypad
+**                          has been up a few thousand cycles.
+**      expect display "text"
+**      expect memory hhhh bb ...
+**      expect condition    fail unless the display shows text, memory from
+**                          hhhh holds the bytes or the condition is true,
+**                          written as Breakpoints' are, e.g.
+**                          A == 3F && [0080] != 0
+**      scenario name       start the next scenario, on a machine of its own
+**
+** Lines before the first scenario line are the start of every scenario, a
+** script with none is one scenario.  Display text is matched a digit at a
+** time, left to right with blanks after it: a character matches the
+** segments DisplayDevice shows it as, ? matches anything and a . after a
+** digit is its decimal point.  Each scenario runs on a machine of its own,
+** so they run in parallel on a thread per core, each printed as it
+** finishes:
+**
+**      java -cp M6800.jar m6800.Scenario [-threads n] script ... [-for file.s19 ...]
+**
+** With -for each script is run once for each program after it.  The exit
+** status is 0 if every scenario passed, 1 if not and 2 for bad arguments.
+**
+** Revisions:
+** 10/17/2026 Initial version
+*/
+package m6800;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * @author daves
+ */
+public class Scenario implements DeviceListener {
+
+    final static long DEFAULTBUDGET = 100000000;
+    final static long PRESSGAP = 100000;
+    final static long KEYSETTLE = 10000;
+    // key names on the trainer, by key
+    final static String KEYNAMES[] = { "0", "ACCA", "ACCB", "PC", "INDEX", "CC", "SP", "RTI",
+            "SS", "BR", "AUTO", "BACK", "CHAN", "DO", "EXAM", "FWD" };
+    private static final Pattern WORD = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+    private final String name;
+    private final Path directory;   // files are found in
+    private final String program;   // for $program, null for none
+    private final ArrayList<String> lines = new ArrayList<>();
+    private final ArrayList<Integer> numbers = new ArrayList<>();  // line numbers in the script
+    private final Runnable leave = this::Leave;
+    // set by Run
+    private CPU cpu;
+    private MemoryModule mem;
+    private Breakpoints stops;
+    private long used;
+    private long budget;
+    private long gap;
+    private boolean bWatching;      // leave run() on display writes
+    private boolean bKeyWatching;   // and once the keypad's settled
+    private long idleFrom;          // first idle keypad read, -1 for none
+    private boolean bIdle;          // KEYSETTLE cycles of them
+    private boolean bLeaving;
+    private String failure;
+
+    public Scenario(String name, Path directory, String program)
+    {
+        this.name = name;
+        this.directory = directory;
+        this.program = program;
+    }
+
+    public void Add(int number, String line)
+    {
+        numbers.add(number);
+        lines.add(line);
+    }
+
+    public String GetName()
+    {
+        return (name);
+    }
+
+/*
+**      GetFailure - why Run failed, with the line number, null if it passed
+*/
+    public String GetFailure()
+    {
+        return (failure);
+    }
+
+/*
+**      GetUsed - the cycles Run ran, not counting start's boot
+*/
+    public long GetUsed()
+    {
+        return (used);
+    }
+
+/*
+**      Read - the scenarios in a script, with $program as program (null for
+**      none) and named after the script and program
+*/
+    public static ArrayList<Scenario> Read(String fileName, String program) throws IOException
+    {
+        ArrayList<Scenario> scenarios = new ArrayList<>();
+        Path directory = Paths.get(fileName).toAbsolutePath().getParent();
+        String base = Paths.get(fileName).getFileName().toString();
+        String suffix = (program == null) ? "" : " " + program;
+        String absolute = (program == null) ? null : Paths.get(program).toAbsolutePath().toString();
+        String line, words[];
+        Scenario shared = new Scenario(base + suffix, directory, absolute);
+        Scenario scenario = shared;
+        int number = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+            while((line = in.readLine()) != null)
+            {
+                number++;
+                words = line.trim().split("\\s+", 2);
+                if(words[0].isEmpty() || words[0].startsWith("#"))
+                    continue;
+                if(words[0].equalsIgnoreCase("scenario"))
+                {
+                    scenario = new Scenario(base + ":" + ((words.length > 1) ? words[1] : "" + number) + suffix,
+                            directory, absolute);
+                    scenario.numbers.addAll(shared.numbers);
+                    scenario.lines.addAll(shared.lines);
+                    scenarios.add(scenario);
+                }
+                else
+                    scenario.Add(number, line.trim());
+            }
+        }
+        if(scenarios.isEmpty())
+            scenarios.add(shared);
+        return (scenarios);
+    }
+
+/*
+**      Run - play the scenario on a new machine, returning true if it
+**      passed, false with GetFailure saying why if it didn't.  Throws
+**      IOException if a file can't be loaded and IllegalArgumentException
+**      for a line that's wrong, both with the line number.
+*/
+    public boolean Run() throws IOException
+    {
+        Headless machine = new Headless();
+        int icounter;
+        cpu = machine.GetCPU();
+        mem = machine.GetMemoryModule();
+        stops = new Breakpoints(cpu);
+        mem.SetDeviceListener(this);
+        used = 0;
+        budget = DEFAULTBUDGET;
+        gap = PRESSGAP;
+        failure = null;
+        try {
+            for(icounter = 0; icounter < lines.size(); icounter++)
+            {
+                try {
+                    failure = Do(machine, lines.get(icounter));
+                } catch (IOException e) {
+                    throw new IOException("line " + numbers.get(icounter) + ": " + e.getMessage());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("line " + numbers.get(icounter) + ": " + e.getMessage());
+                }
+                if(failure != null)
+                {
+                    failure = "line " + numbers.get(icounter) + ": " + failure;
+                    return (false);
+                }
+            }
+            return (true);
+        } finally {
+            // so a long list of scenarios doesn't hold on to their machines
+            cpu = null;
+            mem = null;
+            stops = null;
+        }
+    }
+
+/*
+**      Do - one line, returning why it failed or null
+*/
+    private String Do(Headless machine, String line) throws IOException
+    {
+        ArrayList<String> words = new ArrayList<>();
+        Matcher match = WORD.matcher(line);
+        String command, rest;
+        Breakpoints.Entry entry;
+        long within;
+        int address, expected[], index, icounter;
+        while(match.find())
+        {
+            if(match.group(1) != null)
+                words.add(match.group(1));
+            else
+                words.add(match.group(2));
+        }
+        command = words.get(0).toLowerCase();
+        rest = line.substring(words.get(0).length()).trim();
+        switch(command)
+        {
+            case "load":
+            case "rom":
+                machine.Load(File(Word(words, 1), words), command.equals("rom"));
+            break;
+            case "state":
+                Snapshot.Load(cpu, Paths.get(File(Word(words, 1), words)));
+            break;
+            case "start":
+                machine.Start(Breakpoints.Number(Word(words, 1), 0xFFFF));
+            break;
+            case "engine":
+                cpu.SetEngine(CPU.Engine.valueOf(Word(words, 1).toUpperCase()));
+            break;
+            case "budget":
+                budget = Cycles(Word(words, 1));
+            break;
+            case "gap":
+                gap = Cycles(Word(words, 1));
+            break;
+            case "press":
+                return (Press(Key(Word(words, 1)), (words.size() > 2) ? Option(words, 2, "hold") : 0));
+            case "nmi":
+                cpu.Input(InputLog.NMI, 0);
+            break;
+            case "irq":
+                cpu.Input(InputLog.IRQ, 0);
+            break;
+            case "reset":
+                cpu.Input(InputLog.RESET, 0);
+            break;
+            case "run":
+                if(!Advance(Cycles(Word(words, 1)), null))
+                    return (OverBudget());
+            break;
+            case "wait":
+                // within comes after what's waited for, keypad has nothing
+                index = Word(words, 1).equalsIgnoreCase("keypad") ? 2 : 3;
+                within = (words.size() > index) ? Option(words, index, "within") : Long.MAX_VALUE;
+                if(Word(words, 1).equalsIgnoreCase("display"))
+                {
+                    expected = Display(Word(words, 2));
+                    bWatching = true;
+                    try {
+                        if(Advance(within, () -> Shows(expected)))
+                            return (null);
+                    } finally {
+                        bWatching = false;
+                    }
+                    return ((used >= budget) ? OverBudget() : String.format("display showed \"%s\", not \"%s\", after %d cycles",
+                            mem.DisplayText(), words.get(2), within));
+                }
+                if(Word(words, 1).equalsIgnoreCase("pc"))
+                {
+                    address = Breakpoints.Number(Word(words, 2), 0xFFFF);
+                    entry = Breakpoints.Parse(String.format("break %04X", address));
+                    stops.Add(entry);
+                    try {
+                        if(Advance(within, cpu::GetPaused))
+                            return (null);
+                    } finally {
+                        stops.Remove(entry);
+                        cpu.Pause(false);
+                    }
+                    return ((used >= budget) ? OverBudget() : String.format("PC didn't reach %04X in %d cycles, it's %04X",
+                            address, within, cpu.GetPC()));
+                }
+                if(Word(words, 1).equalsIgnoreCase("keypad"))
+                {
+                    bIdle = false;
+                    idleFrom = -1;
+                    bKeyWatching = true;
+                    try {
+                        if(Advance(within, () -> bIdle))
+                            return (null);
+                    } finally {
+                        bKeyWatching = false;
+                    }
+                    return ((used >= budget) ? OverBudget() : String.format("the program didn't wait for a key in %d cycles", within));
+                }
+                throw new IllegalArgumentException("wait for display, pc or keypad");
+            case "expect":
+                if(Word(words, 1).equalsIgnoreCase("display"))
+                {
+                    if(!Shows(Display(Word(words, 2))))
+                        return (String.format("display shows \"%s\", not \"%s\"", mem.DisplayText(), words.get(2)));
+                }
+                else if(Word(words, 1).equalsIgnoreCase("memory"))
+                {
+                    address = Breakpoints.Number(Word(words, 2), 0xFFFF);
+                    if(words.size() < 4)
+                        throw new IllegalArgumentException("expect memory needs bytes");
+                    for(icounter = 3; icounter < words.size(); icounter++)
+                    {
+                        if(mem.Peek((address + icounter - 3) & 0xFFFF) != Breakpoints.Number(words.get(icounter), 0xFF))
+                            return (String.format("memory at %04X is %s, not %s", address,
+                                    Bytes(address, words.size() - 3), String.join(" ", words.subList(3, words.size()))));
+                    }
+                }
+                else
+                {
+                    entry = Breakpoints.Parse("if " + rest);
+                    if(!entry.True(cpu))
+                        return (String.format("%s isn't true, A=%02X B=%02X X=%04X SP=%04X PC=%04X CC=%02X", rest,
+                                cpu.GetACCA(), cpu.GetACCB(), cpu.GetIX(), cpu.GetSP(), cpu.GetPC(), cpu.GetCC()));
+                }
+            break;
+            default:
+                throw new IllegalArgumentException("unknown command " + words.get(0));
+        }
+        return (null);
+    }
+
+/*
+**      Press - key down for hold cycles, or pressed as the UI does with hold
+**      0, then run gap cycles
+*/
+    private String Press(int key, long hold)
+    {
+        if(hold > 0)
+        {
+            mem.KeypadHold(key, true);
+            try {
+                if(!Advance(hold, null))
+                    return (OverBudget());
+            } finally {
+                mem.KeypadHold(key, false);
+            }
+        }
+        else
+            cpu.Input(InputLog.KEY, key);
+        if(!Advance(gap, null))
+            return (OverBudget());
+        return (null);
+    }
+
+/*
+**      Advance - run cycles more, or less once reached is true, stopping at
+**      the budget.  Returns whether reached came true, or with no reached
+**      whether the budget let it run them all.
+*/
+    private boolean Advance(long cycles, BooleanSupplier reached)
+    {
+        boolean bAll = (cycles <= budget - used);
+        long limit = bAll ? used + cycles : budget;
+        long before;
+        while(true)
+        {
+            if((reached != null) && reached.getAsBoolean())
+                return (true);
+            if(used >= limit)
+                return ((reached == null) && bAll);
+            before = cpu.GetCycleCount();
+            cpu.run(Math.min(limit - used, Headless.CHUNKCYCLES));
+            used += cpu.GetCycleCount() - before;
+        }
+    }
+
+    private String OverBudget()
+    {
+        return (String.format("used up the budget of %d cycles", budget));
+    }
+
+/*
+**      DisplayWritten and KeypadIdle - while waiting for them, leave run()
+**      after each write to the display to look at it, or once the keypad's
+**      been read with no key down for KEYSETTLE cycles
+*/
+    @Override
+    public void DisplayWritten(int iAddress, int iValue)
+    {
+        if(bWatching && !bLeaving)
+        {
+            bLeaving = true;
+            cpu.Post(leave);
+        }
+    }
+
+    @Override
+    public void KeypadIdle()
+    {
+        if(bKeyWatching && !bIdle)
+        {
+            if(idleFrom < 0)
+                idleFrom = cpu.GetCycleCount();
+            else if(cpu.GetCycleCount() - idleFrom >= KEYSETTLE)
+            {
+                bIdle = true;
+                cpu.Post(leave);
+            }
+        }
+    }
+
+    private void Leave()
+    {
+        bLeaving = false;
+        cpu.Leave();
+    }
+
+/*
+**      Display - text as the segments of each digit, -1 for any
+*/
+    static int[] Display(String text)
+    {
+        int digits[] = new int[DisplayDevice.DIGITS];
+        int digit = 0, segments;
+        boolean bPoint = false;     // the last digit can take a point
+        for(char character : text.toCharArray())
+        {
+            if((character == '.') && bPoint)
+            {
+                digits[digit - 1] |= DisplayDevice.DECIMALPOINT;
+                bPoint = false;
+                continue;
+            }
+            if(digit == digits.length)
+                throw new IllegalArgumentException("\"" + text + "\" has more than " + digits.length + " digits");
+            if(character == '?')
+                segments = -1;
+            else if(character == '.')
+                segments = DisplayDevice.DECIMALPOINT;
+            else if((segments = DisplayDevice.Segments(character)) < 0)
+                throw new IllegalArgumentException("the display can't show " + character);
+            bPoint = (segments >= 0) && (character != '.');
+            digits[digit++] = segments;
+        }
+        return (digits);
+    }
+
+    private boolean Shows(int digits[])
+    {
+        int digit;
+        for(digit = 0; digit < digits.length; digit++)
+        {
+            if((digits[digit] >= 0) && (mem.DisplaySegments(digit) != digits[digit]))
+                return (false);
+        }
+        return (true);
+    }
+
+    private String Bytes(int address, int count)
+    {
+        StringBuilder text = new StringBuilder();
+        int icounter, value;
+        for(icounter = 0; icounter < count; icounter++)
+        {
+            value = mem.Peek((address + icounter) & 0xFFFF);
+            text.append((icounter > 0) ? " " : "").append((value < 0) ? "--" : String.format("%02X", value));
+        }
+        return (text.toString());
+    }
+
+/*
+**      Key - a key by its name on the trainer or as a hex digit
+*/
+    static int Key(String text)
+    {
+        int key;
+        for(key = 0; key < KEYNAMES.length; key++)
+        {
+            if(KEYNAMES[key].equalsIgnoreCase(text))
+                return (key);
+        }
+        return (Breakpoints.Number(text, 0xF));
+    }
+
+    private static String Word(ArrayList<String> words, int index)
+    {
+        if(index >= words.size())
+            throw new IllegalArgumentException(words.get(0) + " needs more");
+        return (words.get(index));
+    }
+
+/*
+**      Option - the count after keyword at index, e.g. hold n
+*/
+    private static long Option(ArrayList<String> words, int index, String keyword)
+    {
+        if(!Word(words, index).equalsIgnoreCase(keyword))
+            throw new IllegalArgumentException("expected " + keyword + ", not " + words.get(index));
+        return (Cycles(Word(words, index + 1)));
+    }
+
+    private static long Cycles(String text)
+    {
+        long cycles;
+        try {
+            cycles = Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad cycle count " + text);
+        }
+        if(cycles < 0)
+            throw new IllegalArgumentException("bad cycle count " + text);
+        return (cycles);
+    }
+
+    private String File(String text, ArrayList<String> words)
+    {
+        String fileName = text;
+        if(fileName.contains("$program"))
+        {
+            if(program == null)
+                throw new IllegalArgumentException(words.get(0) + " $program needs -for");
+            fileName = fileName.replace("$program", program);
+        }
+        return (directory.resolve(fileName).toString());
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> scripts = new ArrayList<>();
+        ArrayList<String> programs = new ArrayList<>();
+        ArrayList<ForkJoinTask<?>> jobs = new ArrayList<>();
+        AtomicInteger passed = new AtomicInteger(), failed = new AtomicInteger();
+        ForkJoinPool pool;
+        int icounter;
+        try {
+            for(icounter = 0; icounter < args.length; icounter++)
+            {
+                if(args[icounter].equals("-threads") && (icounter + 1 < args.length))
+                    threads = Integer.parseInt(args[++icounter]);
+                else if(args[icounter].equals("-for"))
+                {
+                    programs.addAll(Arrays.asList(args).subList(icounter + 1, args.length));
+                    break;
+                }
+                else if(!args[icounter].startsWith("-"))
+                    scripts.add(args[icounter]);
+                else
+                    throw new IllegalArgumentException(args[icounter]);
+            }
+            if((threads < 1) || scripts.isEmpty())
+                throw new IllegalArgumentException();
+        } catch (IllegalArgumentException e) {
+            System.err.println("usage: Scenario [-threads n] script ... [-for file.s19 ...]");
+            System.exit(2);
+        }
+        if(programs.isEmpty())
+            programs.add(null);
+        pool = new ForkJoinPool(threads);
+        for(String script : scripts)
+        {
+            for(String program : programs)
+            {
+                try {
+                    for(Scenario scenario : Read(script, program))
+                        jobs.add(pool.submit(() -> scenario.Report(passed, failed)));
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    System.out.println("ERROR " + script + ((program == null) ? "" : " " + program) + ": " + e.getMessage());
+                }
+            }
+        }
+        for(ForkJoinTask<?> job : jobs)
+            job.join();
+        pool.shutdown();
+        System.out.printf("%d passed, %d failed%n", passed.get(), failed.get());
+        System.exit((failed.get() > 0) ? 1 : 0);
+    }
+
+/*
+**      Report - on a pool thread, run and print the result
+*/
+    private void Report(AtomicInteger passed, AtomicInteger failed)
+    {
+        String result;
+        try {
+            if(Run())
+            {
+                passed.incrementAndGet();
+                result = String.format("PASS  %s, %d cycles", name, used);
+            }
+            else
+            {
+                failed.incrementAndGet();
+                result = String.format("FAIL  %s, %s", name, failure);
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            result = String.format("ERROR %s, %s", name, e.getMessage());
+        }
+        synchronized(System.out) {
+            System.out.println(result);
+        }
+    }
+}
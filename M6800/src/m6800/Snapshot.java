@@ -0,0 +1,213 @@
+/*
+** Snapshot.java
+** The whole state of a machine, CPU and MemoryModule, in a few K:
+**
+**      magic       4 bytes "E34S"
+**      version     2 bytes, VERSION when written
+**      flags       2 bytes, COMPRESSED if the state is deflated
+**      length      4 bytes stored after the header
+**      size        4 bytes of state once inflated
+**      state       MemoryModule.SaveState then CPU.SaveState
+**
+** All numbers are big endian.  Reading a newer version is refused, an
+** older one is read as it was written.  Snapshots hold what the machine
+** would hold, the engine, lazy flags and clock delay settings of the CPU
+** being restored into are kept.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Split out WriteState and ReadState for InputLog
+*/
+package m6800;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ *
+ * @author daves
+ */
+public class Snapshot {
+
+    final static int MAGIC = 0x45333453; // "E34S"
+    final static int VERSION = 1;
+    final static int COMPRESSED = 0x0001;
+    final static int HEADERSIZE = 16;
+    final static int MAXSTATE = 0x20000; // more than a machine can write
+
+    private Snapshot()
+    {
+    }
+
+/*
+**      Write - save the state of cpu and its memory to out, deflated if
+**      bCompress.  The CPU must not be running.
+*/
+    public static void Write(CPU cpu, WritableByteChannel out, boolean bCompress) throws IOException
+    {
+        WriteState(Capture(cpu), out, bCompress);
+    }
+
+/*
+**      WriteState - write state made by Capture as a snapshot
+*/
+    static void WriteState(ByteBuffer state, WritableByteChannel out, boolean bCompress) throws IOException
+    {
+        byte stored[] = state.array();
+        int length = state.limit();
+        if(bCompress)
+        {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            byte deflated[] = new byte[length + 64];
+            int count = 0;
+            deflater.setInput(stored, 0, length);
+            deflater.finish();
+            while(!deflater.finished())
+            {
+                if(count == deflated.length)
+                    deflated = Arrays.copyOf(deflated, deflated.length * 2);
+                count += deflater.deflate(deflated, count, deflated.length - count);
+            }
+            deflater.end();
+            stored = deflated;
+            length = count;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) (bCompress ? COMPRESSED : 0));
+        header.putInt(length);
+        header.putInt(state.limit());
+        header.flip();
+        WriteFully(out, header);
+        WriteFully(out, ByteBuffer.wrap(stored, 0, length));
+    }
+
+/*
+**      Read - restore cpu and its memory from a snapshot in in.  If the
+**      snapshot can't be used the machine is left as it was.
+*/
+    public static void Read(CPU cpu, ReadableByteChannel in) throws IOException
+    {
+        Restore(cpu, ReadState(in));
+    }
+
+/*
+**      ReadState - the state in a snapshot, as Capture would make it
+*/
+    static ByteBuffer ReadState(ReadableByteChannel in) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+        ReadFully(in, header);
+        header.flip();
+        if(header.getInt() != MAGIC)
+            throw new IOException("not a snapshot");
+        int version = header.getShort();
+        int flags = header.getShort();
+        int length = header.getInt();
+        int size = header.getInt();
+        if(version > VERSION)
+            throw new IOException("snapshot version " + version + " is newer than " + VERSION);
+        if((length < 0) || (length > MAXSTATE) || (size < 0) || (size > MAXSTATE))
+            throw new IOException("bad snapshot size");
+        ByteBuffer stored = ByteBuffer.allocate(length);
+        ReadFully(in, stored);
+        ByteBuffer state = stored;
+        if((flags & COMPRESSED) != 0)
+        {
+            Inflater inflater = new Inflater();
+            state = ByteBuffer.allocate(size);
+            inflater.setInput(stored.array(), 0, length);
+            try {
+                if((inflater.inflate(state.array()) != size) || !inflater.finished())
+                    throw new IOException("bad snapshot data");
+            } catch (DataFormatException e) {
+                throw new IOException("bad snapshot data", e);
+            } finally {
+                inflater.end();
+            }
+        }
+        else if(length != size)
+            throw new IOException("bad snapshot size");
+        state.position(0).limit(size);
+        return (state);
+    }
+
+/*
+**      Save and Load - Write and Read for a file
+*/
+    public static void Save(CPU cpu, Path file, boolean bCompress) throws IOException
+    {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Write(cpu, out, bCompress);
+        }
+    }
+
+    public static void Load(CPU cpu, Path file) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            Read(cpu, in);
+        }
+    }
+
+/*
+**      Capture - the uncompressed state of cpu and its memory, from 0 to
+**      the limit of the buffer
+*/
+    static ByteBuffer Capture(CPU cpu)
+    {
+        MemoryModule mem = cpu.GetMemoryModule();
+        ByteBuffer state = ByteBuffer.allocate(mem.StateSize() + CPU.STATESIZE);
+        mem.SaveState(state);
+        cpu.SaveState(state);
+        state.flip();
+        return (state);
+    }
+
+/*
+**      Restore - load state made by Capture into cpu and its memory, or
+**      put back what was there if it doesn't fit
+*/
+    static void Restore(CPU cpu, ByteBuffer state) throws IOException
+    {
+        ByteBuffer previous = Capture(cpu);
+        try {
+            cpu.GetMemoryModule().RestoreState(state);
+            cpu.RestoreState(state);
+            if(state.hasRemaining())
+                throw new IOException("snapshot has " + state.remaining() + " bytes left over");
+        } catch (IOException | BufferUnderflowException e) {
+            cpu.GetMemoryModule().RestoreState(previous);
+            cpu.RestoreState(previous);
+            if(e instanceof IOException)
+                throw (IOException) e;
+            throw new IOException("snapshot is short", e);
+        }
+    }
+
+    static void WriteFully(WritableByteChannel out, ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining())
+            out.write(buffer);
+    }
+
+    static void ReadFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(in.read(buffer) < 0)
+                throw new IOException("snapshot is short");
+        }
+    }
+}
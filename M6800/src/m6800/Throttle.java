@@ -0,0 +1,205 @@
+/*
+** Throttle.java
+** Runs a CPU at a set clock rate in real time.  Time goes in slices of
+** SLICENANOS.  Each slice the CPU runs the cycles the rate has earned since
+** the last one, then the thread parks until the next, so at the trainer's
+** speed the host is idle most of the time.  Cycles earned and not run, or
+** run past what was earned by the end of an instruction, carry over to the
+** next slice, so oversleeping or a slow slice is made up and the rate holds
+** over time.  Once the CPU is more than MAXBEHINDNANOS behind, e.g. the host
+** can't keep up or was suspended, the rest is let go rather than run flat
+** out to catch up.  The rate reached is measured over RATENANOS for the UI.
+** While the CPU is paused only posted work is done, and a pause posted or
+** hit part way through a slice ends it there.
+**
+** Warp runs the CPU flat out instead, WARPCYCLES at a time, until a stop,
+** a chosen event or a number of emulated seconds, then real time takes up
+** again from there.  The events come from the display and keypad through
+** a DeviceListener, and the run() they happen in is left at the next
+** instruction, or with the BLOCK and JIT engines the end of the block.  A
+** warp asked for while the CPU is paused starts when it runs on.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Add Warp
+*/
+package m6800;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * @author daves
+ */
+public class Throttle implements DeviceListener {
+
+    final static double TRAINERHZ = 1000000;   // the trainer's clock
+    final static long SLICENANOS = 10000000;
+    final static long MAXBEHINDNANOS = 100000000;
+    final static long RATENANOS = 500000000;
+    final static long WARPCYCLES = 1000000;
+    // events that end a warp as well as a stop, for Warp
+    public final static int KEYWAIT = 0x01;    // the keypad read with no key down
+    public final static int DISPLAY = 0x02;    // a write to the display
+
+    private final CPU cpu;
+    private volatile double rate = TRAINERHZ;
+    private volatile double achieved;
+    private volatile boolean warping;
+    // set on the thread running the CPU
+    private int warpEvents;
+    private long warpEnd;       // cycle count the warp runs to
+
+    public Throttle(CPU aCPU)
+    {
+        cpu = aCPU;
+    }
+
+/*
+**      SetRate - the clock rate to run at in Hz, e.g. a multiple of
+**      TRAINERHZ.  Safe from any thread.
+*/
+    public void SetRate(double hz)
+    {
+        if(hz > 0)
+            rate = hz;
+    }
+
+    public double GetRate()
+    {
+        return (rate);
+    }
+
+/*
+**      GetAchieved - cycles a second the CPU actually ran over the last
+**      RATENANOS, 0 while it's paused.  Safe from any thread.
+*/
+    public double GetAchieved()
+    {
+        return (achieved);
+    }
+
+/*
+**      Warp - run flat out until the CPU stops, one of events happens or
+**      seconds at TRAINERHZ have passed, 0 for no limit.  Safe from any
+**      thread.
+*/
+    public void Warp(int events, double seconds)
+    {
+        long cycles = (seconds > 0) ? (long) (seconds * TRAINERHZ) : Long.MAX_VALUE;
+        cpu.Post(() -> {
+            warpEnd = (cycles == Long.MAX_VALUE) ? cycles : cpu.GetCycleCount() + cycles;
+            warpEvents = events;
+            cpu.GetMemoryModule().SetDeviceListener((events != 0) ? this : null);
+            warping = true;
+        });
+    }
+
+/*
+**      EndWarp - go back to real time.  Safe from any thread.
+*/
+    public void EndWarp()
+    {
+        cpu.Post(this::Arrived);
+    }
+
+    public boolean GetWarping()
+    {
+        return (warping);
+    }
+
+    private void Arrived()
+    {
+        warping = false;
+        warpEvents = 0;
+        cpu.GetMemoryModule().SetDeviceListener(null);
+    }
+
+/*
+**      DisplayWritten and KeypadIdle - the events, on the thread running the
+**      CPU part way through an instruction
+*/
+    @Override
+    public void DisplayWritten(int iAddress, int iValue)
+    {
+        if((warpEvents & DISPLAY) != 0)
+            Event();
+    }
+
+    @Override
+    public void KeypadIdle()
+    {
+        if((warpEvents & KEYWAIT) != 0)
+            Event();
+    }
+
+    private void Event()
+    {
+        Arrived();
+        cpu.Post(cpu::Leave);
+    }
+
+/*
+**      Run - run the CPU on this thread, doesn't return
+*/
+    public void Run()
+    {
+        long now, ran;
+        long last = System.nanoTime();
+        long next = last;
+        long measured = last;   // start of the rate measurement
+        long counted = 0;       // cycles run since then
+        double credit = 0;      // cycles earned and not yet run
+        double hz;
+        while(true)
+        {
+            now = System.nanoTime();
+            hz = rate;
+            credit = Math.min(credit + (now - last) * hz / 1e9, MAXBEHINDNANOS * hz / 1e9);
+            last = now;
+            if(cpu.GetPaused())
+            {
+                cpu.runUntilPaused(0);      // takes the posted work
+                credit = 0;
+                achieved = 0;
+                measured = now;
+                counted = 0;
+            }
+            else if(warping)
+            {
+                if(cpu.GetCycleCount() >= warpEnd)
+                    Arrived();
+                else
+                {
+                    ran = cpu.runUntilPaused(Math.min(WARPCYCLES, warpEnd - cpu.GetCycleCount()));
+                    counted += Math.max(ran, 0);
+                    if(cpu.GetPaused())
+                        Arrived();      // a breakpoint or a pause
+                }
+                credit = 0;
+            }
+            else if(credit >= 1)
+            {
+                // a slice at a time, so a new rate or a pause isn't held up
+                // by a long way behind
+                ran = cpu.runUntilPaused((long) Math.min(credit, SLICENANOS * hz / 1e9));
+                // posted work, e.g. History going back, can move the count
+                // anywhere, owe no more than a slice for it
+                credit = Math.max(credit - ran, -SLICENANOS * hz / 1e9);
+                counted += Math.max(ran, 0);
+            }
+            if(now - measured >= RATENANOS)
+            {
+                achieved = counted * 1e9 / (now - measured);
+                measured = now;
+                counted = 0;
+            }
+            if(((credit >= 1) || warping) && !cpu.GetPaused())
+                continue;                   // behind or warping, run on
+            next += SLICENANOS;
+            if(next < now)
+                next = now + SLICENANOS;    // fell behind, start again from now
+            LockSupport.parkNanos(next - System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+** TimelineDialog.java
+** The History of the machine as a slider from the oldest point it can go
+** back to up to now, with buttons to pause, step either way and go back to
+** the last time PC was at, or an instruction changed, an address.  Every
+** move is posted to the CPU and the dialog catches up on its next refresh.
+**
+** Revisions:
+** 10/17/2026 Initial version
+*/
+package m6800;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ *
+ * @author daves
+ */
+public class TimelineDialog extends JDialog implements ActionListener, ChangeListener {
+
+    private static final long serialVersionUID = 1L;
+    final static int SLIDERSTEPS = 1000;
+    final static int REFRESHMILLISECONDS = 100;
+
+    private final CPU myCPU;
+    private final History history;
+    private final JSlider slider = new JSlider(0, SLIDERSTEPS, SLIDERSTEPS);
+    private final JLabel status = new JLabel(" ");
+    private final JButton pauseButton = new JButton("Pause");
+    private final JButton backButton = new JButton("Step Back");
+    private final JButton stepButton = new JButton("Step");
+    private final JButton backToPCButton = new JButton("Back to PC");
+    private final JButton backToChangeButton = new JButton("Back to Change");
+    private final Timer refresh = new Timer(REFRESHMILLISECONDS, this);
+    private final AtomicLong seekTarget = new AtomicLong(-1);  // -1 when none is posted
+    private boolean bPaused;
+    private boolean bRefreshing;    // slider being moved by Refresh, not the user
+
+    public TimelineDialog(JFrame owner, CPU aCPU, History aHistory)
+    {
+        super(owner, "Timeline", false);
+        myCPU = aCPU;
+        history = aHistory;
+        JPanel buttons = new JPanel(new FlowLayout());
+        buttons.add(pauseButton);
+        buttons.add(backButton);
+        buttons.add(stepButton);
+        buttons.add(backToPCButton);
+        buttons.add(backToChangeButton);
+        pauseButton.addActionListener(this);
+        backButton.addActionListener(this);
+        stepButton.addActionListener(this);
+        backToPCButton.addActionListener(this);
+        backToChangeButton.addActionListener(this);
+        slider.addChangeListener(this);
+        add(slider, BorderLayout.NORTH);
+        add(status, BorderLayout.CENTER);
+        add(buttons, BorderLayout.SOUTH);
+        setDefaultCloseOperation(JDialog.HIDE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                // don't leave the machine stopped with nothing to start it
+                refresh.stop();
+                bPaused = false;
+                myCPU.Post(history::Resume);
+            }
+        });
+        pack();
+    }
+
+/*
+**      Open - show the dialog and start following the machine
+*/
+    public void Open()
+    {
+        Refresh();
+        refresh.start();
+        setVisible(true);
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent evt) {
+        Object source = evt.getSource();
+        if(source == refresh)
+            Refresh();
+        if(source == pauseButton)
+        {
+            bPaused = !bPaused;
+            if(bPaused)
+                myCPU.Post(() -> myCPU.Pause(true));
+            else
+                myCPU.Post(history::Resume);
+        }
+        if(source == backButton)
+            Travel(history::StepBack);
+        if(source == stepButton)
+            Travel(history::StepForward);
+        if(source == backToPCButton)
+        {
+            int iAddress = AskAddress("Go back to the last time PC was at (hex)");
+            if(iAddress >= 0)
+                Travel(() -> history.ReverseContinue(iAddress));
+        }
+        if(source == backToChangeButton)
+        {
+            int iAddress = AskAddress("Go back to the last write that changed (hex)");
+            if(iAddress >= 0)
+                Travel(() -> history.ReverseToChange(iAddress));
+        }
+    }
+
+/*
+**      stateChanged - the user dragging the slider.  Seeks are coalesced so
+**      the CPU only does the latest one.
+*/
+    @Override
+    public void stateChanged(ChangeEvent evt) {
+        if(bRefreshing)
+            return;
+        long oldest = history.GetOldest();
+        long newest = history.GetNewest();
+        long target = oldest + (newest - oldest) * slider.getValue() / SLIDERSTEPS;
+        bPaused = true;
+        if(seekTarget.getAndSet(target) < 0)
+            myCPU.Post(() -> history.Seek(seekTarget.getAndSet(-1)));
+    }
+
+    private interface Move {
+        boolean Go();
+    }
+
+    private void Travel(Move move)
+    {
+        bPaused = true;
+        myCPU.Post(() -> {
+            if(!move.Go())
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                        "Not in the timeline, or recording", "Timeline", JOptionPane.INFORMATION_MESSAGE));
+        });
+    }
+
+    private int AskAddress(String prompt)
+    {
+        String answer = JOptionPane.showInputDialog(this, prompt);
+        if(answer == null)
+            return (-1);
+        try {
+            return (Integer.parseInt(answer.trim(), 16) & MemoryModule.ADDRESSMASK);
+        } catch (NumberFormatException exc) {
+            JOptionPane.showMessageDialog(this, "Not a hex address", "Error", JOptionPane.ERROR_MESSAGE);
+            return (-1);
+        }
+    }
+
+    private void Refresh()
+    {
+        long oldest = history.GetOldest();
+        long newest = history.GetNewest();
+        long position = history.GetPosition();
+        status.setText(String.format("cycle %d of %d to %d   PC %04X", position, oldest, newest, history.GetPC()));
+        pauseButton.setText(bPaused ? "Run" : "Pause");
+        if(!slider.getValueIsAdjusting() && (seekTarget.get() < 0))
+        {
+            bRefreshing = true;
+            slider.setValue((newest > oldest) ? (int) ((position - oldest) * SLIDERSTEPS / (newest - oldest)) : SLIDERSTEPS);
+            bRefreshing = false;
+        }
+    }
+}
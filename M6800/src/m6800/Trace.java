@@ -0,0 +1,209 @@
+/*
+** Trace.java
+** The last instructions the CPU ran, kept in a ring of fixed width records
+** in one preallocated long array, so recording one allocates nothing:
+**
+**      long 0      cycle count when the instruction was fetched
+**      long 1      PC 16 bits, opcode 8, operand 16, A 8, B 8, CC 8
+**      long 2      X 16 bits, SP 16
+**
+** The registers are as they were before the instruction ran, each cut to
+** its width so one out of range can't spill into the next.  Operand bytes
+** are read with Peek, so a trace doesn't count down keypad debouncing.
+** CPU.SetTrace starts and stops recording into it.  While one is set
+** run() goes one instruction at a time with every engine.  Dump and the
+** getters have to be called on the thread running the CPU or while it's
+** stopped.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Mask each register to its field
+*/
+package m6800;
+
+import java.io.PrintStream;
+
+/**
+ *
+ * @author daves
+ */
+public class Trace {
+
+    final static int RECORDLONGS = 3;
+    final static int DEFAULTRECORDS = 65536;
+
+    private final long ring[];
+    private final int capacity;
+    private int next;       // record written next
+    private long total;     // records written since Clear
+
+    public Trace()
+    {
+        this(DEFAULTRECORDS);
+    }
+
+    public Trace(int records)
+    {
+        capacity = records;
+        ring = new long[records * RECORDLONGS];
+    }
+
+/*
+**      Record - called by the CPU with PC at the opcode of instruction
+*/
+    void Record(CPU cpu, Instruction instruction)
+    {
+        MemoryModule mem = cpu.GetMemoryModule();
+        int pc = cpu.GetPC();
+        int operand = 0;
+        int index = next * RECORDLONGS;
+        if(instruction.commandlength == 2)
+            operand = mem.Peek(pc + 1) & 0xFF;
+        else if(instruction.commandlength == 3)
+            operand = ((mem.Peek(pc + 1) & 0xFF) << 8) | (mem.Peek(pc + 2) & 0xFF);
+        ring[index] = cpu.GetCycleCount();
+        ring[index + 1] = ((long) (pc & 0xFFFF) << 48) | ((long) instruction.opcode << 40) | ((long) operand << 24) |
+                ((long) (cpu.GetACCA() & 0xFF) << 16) | ((long) (cpu.GetACCB() & 0xFF) << 8) |
+                (cpu.GetCC() & 0xFF);
+        ring[index + 2] = ((long) (cpu.GetIX() & 0xFFFF) << 16) | (cpu.GetSP() & 0xFFFF);
+        if(++next == capacity)
+            next = 0;
+        total++;
+    }
+
+    public void Clear()
+    {
+        next = 0;
+        total = 0;
+    }
+
+/*
+**      GetCount - records held, at most the capacity
+*/
+    public int GetCount()
+    {
+        return ((int) Math.min(total, capacity));
+    }
+
+/*
+**      GetTotal - instructions recorded since the trace was made or cleared
+*/
+    public long GetTotal()
+    {
+        return (total);
+    }
+
+/*
+**      Cycle, PC, Opcode, Operand, A, B, CC, X and SP - fields of record
+**      index, 0 the oldest held
+*/
+    public long Cycle(int index)
+    {
+        return (ring[Slot(index)]);
+    }
+
+    public int PC(int index)
+    {
+        return ((int) (ring[Slot(index) + 1] >>> 48));
+    }
+
+    public int Opcode(int index)
+    {
+        return ((int) (ring[Slot(index) + 1] >>> 40) & 0xFF);
+    }
+
+    public int Operand(int index)
+    {
+        return ((int) (ring[Slot(index) + 1] >>> 24) & 0xFFFF);
+    }
+
+    public int A(int index)
+    {
+        return ((int) (ring[Slot(index) + 1] >>> 16) & 0xFF);
+    }
+
+    public int B(int index)
+    {
+        return ((int) (ring[Slot(index) + 1] >>> 8) & 0xFF);
+    }
+
+    public int CC(int index)
+    {
+        return ((int) ring[Slot(index) + 1] & 0xFF);
+    }
+
+    public int X(int index)
+    {
+        return ((int) (ring[Slot(index) + 2] >>> 16) & 0xFFFF);
+    }
+
+    public int SP(int index)
+    {
+        return ((int) ring[Slot(index) + 2] & 0xFFFF);
+    }
+
+    private int Slot(int index)
+    {
+        int slot = next - GetCount() + index;
+        if(slot < 0)
+            slot += capacity;
+        return (slot * RECORDLONGS);
+    }
+
+/*
+**      Dump - print the last count records, oldest first, one line each
+*/
+    public void Dump(PrintStream out, int count)
+    {
+        int index;
+        for(index = Math.max(GetCount() - count, 0); index < GetCount(); index++)
+            out.println(Line(index));
+    }
+
+/*
+**      Line - record index as text: cycle, address, bytes, instruction and
+**      registers
+*/
+    public String Line(int index)
+    {
+        Instruction instruction = CPU.InstructionLookup(Opcode(index));
+        String bytes = String.format("%02X", Opcode(index));
+        if(instruction.commandlength == 2)
+            bytes += String.format(" %02X", Operand(index));
+        else if(instruction.commandlength == 3)
+            bytes += String.format(" %02X %02X", Operand(index) >> 8, Operand(index) & 0xFF);
+        return (String.format("%10d  %04X  %-8s  %-14s  A=%02X B=%02X X=%04X SP=%04X CC=%02X",
+                Cycle(index), PC(index), bytes, Disassemble(instruction, PC(index), Operand(index)),
+                A(index), B(index), X(index), SP(index), CC(index)));
+    }
+
+/*
+**      Disassemble - instruction at pc with operand in Motorola syntax.  The
+**      table has the branches as INHERENT with an operand byte, they show
+**      the address they go to.
+*/
+    static String Disassemble(Instruction instruction, int pc, int operand)
+    {
+        String name = instruction.ID.name();
+        if(instruction.ID == Instruction.CommandID.INVALID)
+            return (String.format("FCB $%02X", instruction.opcode));
+        switch(instruction.mode)
+        {
+            case IMMEDIATE:
+                return (String.format((instruction.commandlength == 3) ? "%s #$%04X" : "%s #$%02X", name, operand));
+            case DIRECT:
+                return (String.format("%s $%02X", name, operand));
+            case EXTENDED:
+                return (String.format("%s $%04X", name, operand));
+            case INDEXED:
+                return (String.format("%s $%02X,X", name, operand));
+            case RELATIVE:
+            case INHERENT:
+                if(instruction.commandlength == 1)
+                    return (name);
+                return (String.format("%s $%04X", name, (pc + 2 + (byte) operand) & MemoryModule.ADDRESSMASK));
+            default:
+                return (name);
+        }
+    }
+}
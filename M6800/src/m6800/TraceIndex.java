@@ -0,0 +1,734 @@
+/*
+** TraceIndex.java
+** Answers questions about a trace TraceWriter wrote without reading through
+** it again: the last instruction to write or read an address before a
+** cycle, every time an address was executed, when a register first went
+** below or above a value.  Update reads the records written since it was
+** last called, so an index can be kept up alongside a run being traced or
+** built once after it.
+**
+** Records are numbered from 0 and the index keeps the cycle and PC of each.
+** For every address there are postings, the numbers of the records whose
+** instruction wrote it, read it or was fetched from it, and for each
+** register the records it changed at.  A posting list holds the change from
+** one record number to the next as a variable length number, then the
+** value written, read or changed to, in blocks of BLOCKENTRIES.  The first
+** record of each block is kept apart, so a query finds the block it wants
+** by binary search and only decodes that one.  Each block also keeps the
+** lowest and highest value in it, and a search for a register going below
+** or above a value skips the blocks it can't be in.  An instruction takes
+** roughly a dozen bytes of index.
+**
+** An instruction's writes and reads come with the record after it, so the
+** last record's only show up once there's another.  A trace only has the
+** reads if it was written with them.  If the trace goes back in time, as
+** when History went back and the machine ran on from there, the records
+** from that cycle on are dropped.  Use an index from one thread.  Query one
+** from the command line with
+**
+**      java -cp M6800.jar m6800.TraceIndex directory
+**
+** and a query a line on standard input, addresses and values in hex:
+**
+**      write ADDR [CYCLE]          the last write before CYCLE
+**      read ADDR [CYCLE]           the last read before CYCLE
+**      writes ADDR [FROM [TO]]     the writes from cycle FROM up to TO
+**      reads ADDR [FROM [TO]]      the reads
+**      pc ADDR [FROM [TO]]         the instructions fetched from ADDR
+**      below REG VALUE [CYCLE]     the first time from CYCLE on that A, B,
+**      above REG VALUE [CYCLE]     X, SP or CC was below or above VALUE
+**
+** Revisions:
+** 10/17/2026 Initial version
+*/
+package m6800;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ *
+ * @author daves
+ */
+public class TraceIndex {
+
+    public final static int A = 0;
+    public final static int B = 1;
+    public final static int X = 2;
+    public final static int SP = 3;
+    public final static int CC = 4;
+    final static String REGISTERS[] = { "A", "B", "X", "SP", "CC" };
+    final static int BLOCKENTRIES = 64;     // postings in a block
+    final static int RECORDBLOCK = 64;      // records sharing a base cycle
+    final static int FAR = 0xFFFF;          // offset for a cycle kept in far
+    final static int MAXLINES = 50;         // records main prints for a query
+
+/*
+**      Postings - record numbers in order, each with a value of payload
+**      bytes, in blocks
+*/
+    private final class Postings {
+        private final int payload;
+        private byte data[] = new byte[16];
+        private int length;
+        private int count;
+        private int last;                       // record of the last posting
+        private int firsts[] = new int[1];      // record of each block's first
+        private int starts[] = new int[1];      // and where it is in data
+        private int lows[] = new int[1];        // lowest value in each block
+        private int highs[] = new int[1];
+
+        Postings(int payload)
+        {
+            this.payload = payload;
+        }
+
+        void Add(int record, int value)
+        {
+            int block = count / BLOCKENTRIES;
+            int delta = record - last;
+            if(count % BLOCKENTRIES == 0)
+            {
+                if(block == firsts.length)
+                {
+                    firsts = Arrays.copyOf(firsts, 2 * block);
+                    starts = Arrays.copyOf(starts, 2 * block);
+                    lows = Arrays.copyOf(lows, 2 * block);
+                    highs = Arrays.copyOf(highs, 2 * block);
+                }
+                firsts[block] = record;
+                starts[block] = length;
+                lows[block] = value;
+                highs[block] = value;
+                delta = 0;
+            }
+            else
+            {
+                lows[block] = Math.min(lows[block], value);
+                highs[block] = Math.max(highs[block], value);
+            }
+            if(length + 5 + payload > data.length)
+                data = Arrays.copyOf(data, 2 * data.length);
+            while(delta >= 0x80)
+            {
+                data[length++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            if(payload == 2)
+                data[length++] = (byte) (value >> 8);
+            if(payload > 0)
+                data[length++] = (byte) value;
+            last = record;
+            count++;
+        }
+
+/*
+**      Decode - block into blockRecords, blockValues and blockAt, returns
+**      how many postings it has
+*/
+        int Decode(int block)
+        {
+            int at = starts[block];
+            int record = firsts[block];
+            int size = Math.min(count - block * BLOCKENTRIES, BLOCKENTRIES);
+            int icounter, delta, shift, value;
+            byte next;
+            for(icounter = 0; icounter < size; icounter++)
+            {
+                blockAt[icounter] = at;
+                delta = 0;
+                shift = 0;
+                do {
+                    next = data[at++];
+                    delta |= (next & 0x7F) << shift;
+                    shift += 7;
+                } while(next < 0);
+                record += delta;
+                value = 0;
+                if(payload == 2)
+                    value = (data[at++] & 0xFF) << 8;
+                if(payload > 0)
+                    value |= data[at++] & 0xFF;
+                blockRecords[icounter] = record;
+                blockValues[icounter] = value;
+            }
+            return (size);
+        }
+
+        int Blocks()
+        {
+            return ((count + BLOCKENTRIES - 1) / BLOCKENTRIES);
+        }
+
+/*
+**      BlockOf - the last block starting at or before record, -1 if none
+*/
+        int BlockOf(int record)
+        {
+            int low = 0;
+            int high = Blocks() - 1;
+            int middle;
+            while(low <= high)
+            {
+                middle = (low + high) >>> 1;
+                if(firsts[middle] <= record)
+                    low = middle + 1;
+                else
+                    high = middle - 1;
+            }
+            return (high);
+        }
+
+/*
+**      Before - the last posting for a record before record, as
+**      record << 16 | value, -1 if none
+*/
+        long Before(int record)
+        {
+            int block = BlockOf(record - 1);
+            int index;
+            if(block < 0)
+                return (-1);
+            index = Decode(block) - 1;
+            while(blockRecords[index] >= record)
+                index--;
+            return (Posting(index));
+        }
+
+/*
+**      Between - add the records from from up to to to found
+*/
+        void Between(int from, int to)
+        {
+            int block, size, icounter;
+            for(block = Math.max(BlockOf(from), 0); (block < Blocks()) && (firsts[block] < to); block++)
+            {
+                size = Decode(block);
+                for(icounter = 0; icounter < size; icounter++)
+                {
+                    if((blockRecords[icounter] >= from) && (blockRecords[icounter] < to))
+                        Found(blockRecords[icounter]);
+                }
+            }
+        }
+
+/*
+**      First - the first posting for record from or later with a value
+**      below value, or above it if not bBelow, -1 if none
+*/
+        long First(int from, int value, boolean bBelow)
+        {
+            int block, size, icounter;
+            for(block = Math.max(BlockOf(from), 0); block < Blocks(); block++)
+            {
+                if(bBelow ? (lows[block] >= value) : (highs[block] <= value))
+                    continue;
+                size = Decode(block);
+                for(icounter = 0; icounter < size; icounter++)
+                {
+                    if((blockRecords[icounter] >= from) &&
+                            (bBelow ? (blockValues[icounter] < value) : (blockValues[icounter] > value)))
+                        return (Posting(icounter));
+                }
+            }
+            return (-1);
+        }
+
+/*
+**      Truncate - drop the postings for record and after
+*/
+        void Truncate(int record)
+        {
+            int block = BlockOf(record);
+            int size, index, icounter;
+            if(block < 0)
+            {
+                count = 0;
+                length = 0;
+                return;
+            }
+            size = Decode(block);
+            index = 0;
+            while((index < size) && (blockRecords[index] < record))
+                index++;
+            if(index == size)
+            {
+                // the blocks after this one start after record
+                if(block + 1 < Blocks())
+                {
+                    count = (block + 1) * BLOCKENTRIES;
+                    length = starts[block + 1];
+                }
+                return;
+            }
+            count = block * BLOCKENTRIES + index;
+            length = blockAt[index];
+            if(index > 0)
+            {
+                last = blockRecords[index - 1];
+                lows[block] = blockValues[0];
+                highs[block] = blockValues[0];
+                for(icounter = 1; icounter < index; icounter++)
+                {
+                    lows[block] = Math.min(lows[block], blockValues[icounter]);
+                    highs[block] = Math.max(highs[block], blockValues[icounter]);
+                }
+            }
+        }
+
+        private long Posting(int index)
+        {
+            return (((long) blockRecords[index] << 16) | blockValues[index]);
+        }
+    }
+
+    private final TraceReader reader;
+    // records
+    private int count;
+    private long bases[] = new long[16];        // cycle of each RECORDBLOCK's first
+    private char offsets[] = new char[1024];    // cycle - its base, or FAR
+    private char pcs[] = new char[1024];
+    private int farRecords[] = new int[16];
+    private long farCycles[] = new long[16];
+    private int farCount;
+    // postings
+    private final Postings writes[] = new Postings[MemoryModule.MEMSIZE];
+    private final Postings reads[] = new Postings[MemoryModule.MEMSIZE];
+    private final Postings executions[] = new Postings[MemoryModule.MEMSIZE];
+    private final Postings changes[] = new Postings[REGISTERS.length];
+    private final int registers[] = new int[REGISTERS.length];   // at the last record
+    private boolean bChanged;       // take every register as changed at the next record
+    private int segment;            // the reader's at the last record
+    // a block decoded by Postings.Decode
+    private final int blockRecords[] = new int[BLOCKENTRIES];
+    private final int blockValues[] = new int[BLOCKENTRIES];
+    private final int blockAt[] = new int[BLOCKENTRIES];
+    // records found by Between
+    private int found[] = new int[16];
+    private int foundCount;
+
+/*
+**      TraceIndex - index the trace in directory, call Update to read it
+*/
+    public TraceIndex(Path directory) throws IOException
+    {
+        int icounter;
+        reader = new TraceReader(directory);
+        changes[A] = new Postings(1);
+        changes[B] = new Postings(1);
+        changes[X] = new Postings(2);
+        changes[SP] = new Postings(2);
+        changes[CC] = new Postings(1);
+        bChanged = true;
+        for(icounter = 0; icounter < registers.length; icounter++)
+            registers[icounter] = -1;
+    }
+
+/*
+**      Update - index the records written since the last call, returns how
+**      many there were
+*/
+    public int Update() throws IOException
+    {
+        int added = 0;
+        int icounter;
+        long cycle;
+        boolean bJoined;
+        while(reader.Next())
+        {
+            cycle = reader.Cycle();
+            // the accesses are the last record's unless segments were skipped
+            bJoined = (count > 0) && (reader.GetSegment() - segment <= 1);
+            if((count > 0) && (cycle <= Cycle(count - 1)))
+            {
+                Truncate(Find(cycle));
+                bJoined = false;
+            }
+            if(count == Integer.MAX_VALUE)
+                throw new IOException("more records than an index can hold");
+            if(bJoined)
+            {
+                for(icounter = 0; icounter < reader.WriteCount(); icounter++)
+                    ListFor(writes, reader.WriteAddress(icounter)).Add(count - 1, reader.WriteValue(icounter));
+                for(icounter = 0; icounter < reader.ReadCount(); icounter++)
+                    ListFor(reads, reader.ReadAddress(icounter)).Add(count - 1, reader.ReadValue(icounter));
+            }
+            segment = reader.GetSegment();
+            AddRecord(cycle, reader.PC());
+            ListFor(executions, reader.PC()).Add(count - 1, 0);
+            Change(A, reader.A());
+            Change(B, reader.B());
+            Change(X, reader.X());
+            Change(SP, reader.SP());
+            Change(CC, reader.CC());
+            bChanged = false;
+            added++;
+        }
+        return (added);
+    }
+
+/*
+**      GetCount - records indexed
+*/
+    public int GetCount()
+    {
+        return (count);
+    }
+
+/*
+**      Cycle and PC - of record, the cycle count and address of the
+**      instruction as it was fetched
+*/
+    public long Cycle(int record)
+    {
+        int low = 0;
+        int high = farCount - 1;
+        int middle;
+        if(offsets[record] != FAR)
+            return (bases[record / RECORDBLOCK] + offsets[record]);
+        while(low < high)
+        {
+            middle = (low + high) >>> 1;
+            if(farRecords[middle] < record)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return (farCycles[low]);
+    }
+
+    public int PC(int record)
+    {
+        return (pcs[record]);
+    }
+
+/*
+**      Register - A, B, X, SP or CC as record's instruction was fetched
+*/
+    public int Register(int register, int record)
+    {
+        return ((int) changes[register].Before(record + 1) & 0xFFFF);
+    }
+
+/*
+**      Find - the first record fetched at or after cycle, GetCount() if
+**      none
+*/
+    public int Find(long cycle)
+    {
+        int low = 0;
+        int high = count;
+        int middle;
+        while(low < high)
+        {
+            middle = (low + high) >>> 1;
+            if(Cycle(middle) < cycle)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return (low);
+    }
+
+/*
+**      LastWrite and LastRead - the last record before cycle whose
+**      instruction wrote or read iAddress, -1 if none
+*/
+    public int LastWrite(int iAddress, long cycle)
+    {
+        return (Last(writes, iAddress, cycle));
+    }
+
+    public int LastRead(int iAddress, long cycle)
+    {
+        return (Last(reads, iAddress, cycle));
+    }
+
+/*
+**      WriteValue and ReadValue - what record's instruction last wrote to or
+**      read from iAddress, -1 if it didn't
+*/
+    public int WriteValue(int record, int iAddress)
+    {
+        return (Value(writes, iAddress, record));
+    }
+
+    public int ReadValue(int record, int iAddress)
+    {
+        return (Value(reads, iAddress, record));
+    }
+
+/*
+**      Writes, Reads and Executions - the records from cycle from up to to
+**      whose instruction wrote iAddress, read it or was fetched from it
+*/
+    public int[] Writes(int iAddress, long from, long to)
+    {
+        return (Between(writes, iAddress, from, to));
+    }
+
+    public int[] Reads(int iAddress, long from, long to)
+    {
+        return (Between(reads, iAddress, from, to));
+    }
+
+    public int[] Executions(int iAddress, long from, long to)
+    {
+        return (Between(executions, iAddress, from, to));
+    }
+
+/*
+**      FirstBelow and FirstAbove - the first record from cycle on with
+**      register below or above iValue, -1 if none
+*/
+    public int FirstBelow(int register, int iValue, long cycle)
+    {
+        return (First(register, iValue, cycle, true));
+    }
+
+    public int FirstAbove(int register, int iValue, long cycle)
+    {
+        return (First(register, iValue, cycle, false));
+    }
+
+    private int Last(Postings lists[], int iAddress, long cycle)
+    {
+        Postings list = lists[iAddress & MemoryModule.ADDRESSMASK];
+        if(list == null)
+            return (-1);
+        return ((int) (list.Before(Find(cycle)) >> 16));
+    }
+
+    private int Value(Postings lists[], int iAddress, int record)
+    {
+        Postings list = lists[iAddress & MemoryModule.ADDRESSMASK];
+        long posting;
+        if(list == null)
+            return (-1);
+        posting = list.Before(record + 1);
+        if((posting < 0) || ((posting >> 16) != record))
+            return (-1);
+        return ((int) posting & 0xFFFF);
+    }
+
+    private int[] Between(Postings lists[], int iAddress, long from, long to)
+    {
+        Postings list = lists[iAddress & MemoryModule.ADDRESSMASK];
+        foundCount = 0;
+        if(list != null)
+            list.Between(Find(from), Find(to));
+        return (Arrays.copyOf(found, foundCount));
+    }
+
+    private int First(int register, int iValue, long cycle, boolean bBelow)
+    {
+        int from = Find(cycle);
+        int current;
+        if(from == count)
+            return (-1);
+        current = Register(register, from);
+        if(bBelow ? (current < iValue) : (current > iValue))
+            return (from);
+        return ((int) (changes[register].First(from, iValue, bBelow) >> 16));
+    }
+
+    private void Found(int record)
+    {
+        if(foundCount == found.length)
+            found = Arrays.copyOf(found, 2 * found.length);
+        found[foundCount++] = record;
+    }
+
+/*
+**      ListFor - the postings for iAddress in lists, made the first time
+*/
+    private Postings ListFor(Postings lists[], int iAddress)
+    {
+        if(lists[iAddress] == null)
+            lists[iAddress] = new Postings((lists == executions) ? 0 : 1);
+        return (lists[iAddress]);
+    }
+
+    private void Change(int register, int iValue)
+    {
+        if(bChanged || (registers[register] != iValue))
+        {
+            changes[register].Add(count - 1, iValue);
+            registers[register] = iValue;
+        }
+    }
+
+    private void AddRecord(long cycle, int pc)
+    {
+        long offset;
+        if(count == pcs.length)
+        {
+            pcs = Arrays.copyOf(pcs, 2 * count);
+            offsets = Arrays.copyOf(offsets, 2 * count);
+        }
+        if(count % RECORDBLOCK == 0)
+        {
+            if(count / RECORDBLOCK == bases.length)
+                bases = Arrays.copyOf(bases, 2 * bases.length);
+            bases[count / RECORDBLOCK] = cycle;
+        }
+        offset = cycle - bases[count / RECORDBLOCK];
+        if(offset < FAR)
+            offsets[count] = (char) offset;
+        else
+        {
+            offsets[count] = (char) FAR;
+            if(farCount == farRecords.length)
+            {
+                farRecords = Arrays.copyOf(farRecords, 2 * farCount);
+                farCycles = Arrays.copyOf(farCycles, 2 * farCount);
+            }
+            farRecords[farCount] = count;
+            farCycles[farCount++] = cycle;
+        }
+        pcs[count++] = (char) pc;
+    }
+
+/*
+**      Truncate - drop record and those after it
+*/
+    private void Truncate(int record)
+    {
+        int iAddress;
+        count = record;
+        while((farCount > 0) && (farRecords[farCount - 1] >= record))
+            farCount--;
+        for(iAddress = 0; iAddress < MemoryModule.MEMSIZE; iAddress++)
+        {
+            if(writes[iAddress] != null)
+                writes[iAddress].Truncate(record);
+            if(reads[iAddress] != null)
+                reads[iAddress].Truncate(record);
+            if(executions[iAddress] != null)
+                executions[iAddress].Truncate(record);
+        }
+        for(Postings list : changes)
+            list.Truncate(record);
+        bChanged = true;
+    }
+
+    public static void main(String[] args) {
+        TraceIndex index;
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        long start;
+        if(args.length != 1)
+        {
+            System.err.println("usage: TraceIndex directory, then queries on standard input");
+            System.exit(2);
+        }
+        try {
+            start = System.nanoTime();
+            index = new TraceIndex(Paths.get(args[0]));
+            index.Update();
+            System.out.printf("%d records indexed in %.0f ms%n", index.GetCount(), (System.nanoTime() - start) / 1e6);
+            while((line = in.readLine()) != null)
+            {
+                if(line.trim().isEmpty())
+                    continue;
+                try {
+                    index.Query(line.trim().split("\\s+"));
+                } catch (IllegalArgumentException exc) {
+                    System.out.println(exc.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+/*
+**      Query - answer one line of main's queries, the records found one a
+**      line
+*/
+    private void Query(String words[])
+    {
+        long start = System.nanoTime();
+        String query = words[0].toLowerCase();
+        int records[];
+        int iAddress = -1;
+        int register, iValue;
+        long from, to;
+        if(words.length < 2)
+            throw new IllegalArgumentException("a query needs at least an address or register");
+        switch(query)
+        {
+            case "write":
+            case "read":
+                iAddress = Breakpoints.Number(words[1], MemoryModule.ADDRESSMASK);
+                to = (words.length > 2) ? Cycle(words[2]) : Long.MAX_VALUE;
+                records = One(query.equals("write") ? LastWrite(iAddress, to) : LastRead(iAddress, to));
+            break;
+            case "writes":
+            case "reads":
+            case "pc":
+                iAddress = Breakpoints.Number(words[1], MemoryModule.ADDRESSMASK);
+                from = (words.length > 2) ? Cycle(words[2]) : 0;
+                to = (words.length > 3) ? Cycle(words[3]) : Long.MAX_VALUE;
+                if(query.equals("writes"))
+                    records = Writes(iAddress, from, to);
+                else if(query.equals("reads"))
+                    records = Reads(iAddress, from, to);
+                else
+                    records = Executions(iAddress, from, to);
+            break;
+            case "below":
+            case "above":
+                register = Arrays.asList(REGISTERS).indexOf(words[1].toUpperCase());
+                if((register < 0) || (words.length < 3))
+                    throw new IllegalArgumentException("below and above need a register, A, B, X, SP or CC, and a value");
+                iValue = Breakpoints.Number(words[2], 0xFFFF);
+                from = (words.length > 3) ? Cycle(words[3]) : 0;
+                records = One(query.equals("below") ? FirstBelow(register, iValue, from) : FirstAbove(register, iValue, from));
+            break;
+            default:
+                throw new IllegalArgumentException("\"" + words[0] + "\" isn't a query: write, read, writes, reads, pc, below or above");
+        }
+        System.out.printf("%d found in %.3f ms%n", records.length, (System.nanoTime() - start) / 1e6);
+        Print(records, query.startsWith("pc") ? -1 : iAddress, query.startsWith("read"));
+    }
+
+    private static int[] One(int record)
+    {
+        return ((record < 0) ? new int[0] : new int[] { record });
+    }
+
+    private void Print(int records[], int iAddress, boolean bRead)
+    {
+        StringBuilder line = new StringBuilder();
+        int icounter, record, iValue;
+        for(icounter = 0; icounter < Math.min(records.length, MAXLINES); icounter++)
+        {
+            record = records[icounter];
+            line.setLength(0);
+            line.append(String.format("%12d  %04X  A=%02X B=%02X X=%04X SP=%04X CC=%02X", Cycle(record), PC(record),
+                    Register(A, record), Register(B, record), Register(X, record), Register(SP, record), Register(CC, record)));
+            iValue = (iAddress < 0) ? -1 : bRead ? ReadValue(record, iAddress) : WriteValue(record, iAddress);
+            if(iValue >= 0)
+                line.append(bRead ? String.format(" %02X=[%04X]", iValue, iAddress) : String.format(" [%04X]=%02X", iAddress, iValue));
+            System.out.println(line);
+        }
+        if(records.length > MAXLINES)
+            System.out.println("and " + (records.length - MAXLINES) + " more");
+    }
+
+    private static long Cycle(String text)
+    {
+        try {
+            return (Long.parseLong(text));
+        } catch (NumberFormatException exc) {
+            throw new IllegalArgumentException("\"" + text + "\" isn't a cycle count");
+        }
+    }
+}
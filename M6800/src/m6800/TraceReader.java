@@ -0,0 +1,325 @@
+/*
+** TraceReader.java
+** Reads back the segments a TraceWriter wrote, mapping each into memory in
+** turn.  Next moves to the following record and the getters give the state
+** the machine was in at it: the cycle count and registers as the
+** instruction at PC was fetched, and the writes, and reads if the trace has
+** them, made since the record before.  A trace still being written can be followed, Next returns false
+** at the last record written so far and is called again later.  The first
+** segment only appears once the writer has passed on its first records.
+** Segments the writer deleted before they were reached are skipped.  Dump
+** the records in a directory, following a run in progress with -f, with
+**
+**      java -cp M6800.jar m6800.TraceReader [-f] directory
+**
+** Revisions:
+** 10/17/2026 Initial version
+*/
+package m6800;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ *
+ * @author daves
+ */
+public class TraceReader {
+
+    final static int FOLLOWMILLISECONDS = 200;
+
+    private final Path directory;
+    private MappedByteBuffer segment;
+    private int number;
+    private long cycle;
+    private int pc;
+    private int a;
+    private int b;
+    private int x;
+    private int sp;
+    private int cc;
+    private int writes[] = new int[16];    // address << 8 | value
+    private int writeCount;
+    private int reads[] = new int[16];
+    private int readCount;
+    private boolean bReads;
+    private int count;          // left by GetAccesses
+
+/*
+**      TraceReader - read the trace in directory from the oldest segment
+**      there
+*/
+    public TraceReader(Path directory) throws IOException
+    {
+        int first = Integer.MAX_VALUE;
+        String name;
+        this.directory = directory;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, TraceWriter.PATTERN)) {
+            for(Path path : segments)
+            {
+                name = path.getFileName().toString();
+                try {
+                    first = Math.min(first, Integer.parseInt(name.substring(6, name.length() - 5)));
+                } catch (NumberFormatException exc) {
+                }
+            }
+        }
+        if((first == Integer.MAX_VALUE) || !Open(first))
+            throw new IOException(directory + " has no trace segments");
+    }
+
+/*
+**      Next - move to the next record, false if there isn't one yet
+*/
+    public boolean Next() throws IOException
+    {
+        int flags;
+        boolean bClosed;
+        while(true)
+        {
+            bClosed = (segment.getShort(TraceWriter.CLOSEDAT) != 0);
+            if(segment.position() < TraceWriter.HEADERSIZE + segment.getInt(TraceWriter.LENGTHAT))
+                break;
+            if(!bClosed || !Open(number + 1))
+                return (false);
+        }
+        flags = segment.get() & 0xFF;
+        if((flags & TraceWriter.PCFULL) != 0)
+            pc = segment.getShort() & 0xFFFF;
+        else
+            pc += segment.get();
+        if((flags & TraceWriter.CYCLESFULL) != 0)
+            cycle = segment.getLong();
+        else
+            cycle += segment.get() & 0xFF;
+        if((flags & TraceWriter.ACHANGED) != 0)
+            a = segment.get() & 0xFF;
+        if((flags & TraceWriter.BCHANGED) != 0)
+            b = segment.get() & 0xFF;
+        if((flags & TraceWriter.XCHANGED) != 0)
+            x = segment.getShort() & 0xFFFF;
+        if((flags & TraceWriter.SPCHANGED) != 0)
+            sp = segment.getShort() & 0xFFFF;
+        if((flags & TraceWriter.CCCHANGED) != 0)
+            cc = segment.get() & 0xFF;
+        writeCount = 0;
+        readCount = 0;
+        if((flags & TraceWriter.ACCESSES) != 0)
+        {
+            writes = GetAccesses(writes);
+            writeCount = count;
+            if(bReads)
+            {
+                reads = GetAccesses(reads);
+                readCount = count;
+            }
+        }
+        return (true);
+    }
+
+/*
+**      GetAccesses - a count and that many accesses into accesses, or a
+**      bigger array if they don't fit, leaving the count in count
+*/
+    private int[] GetAccesses(int accesses[])
+    {
+        int icounter;
+        count = segment.get() & 0xFF;
+        if(count == 0xFF)
+            count = segment.getInt();
+        if(count > accesses.length)
+            accesses = Arrays.copyOf(accesses, Math.max(count, 2 * accesses.length));
+        for(icounter = 0; icounter < count; icounter++)
+            accesses[icounter] = ((segment.getShort() & 0xFFFF) << 8) | (segment.get() & 0xFF);
+        return (accesses);
+    }
+
+    public long Cycle()
+    {
+        return (cycle);
+    }
+
+    public int PC()
+    {
+        return (pc);
+    }
+
+    public int A()
+    {
+        return (a);
+    }
+
+    public int B()
+    {
+        return (b);
+    }
+
+    public int X()
+    {
+        return (x);
+    }
+
+    public int SP()
+    {
+        return (sp);
+    }
+
+    public int CC()
+    {
+        return (cc);
+    }
+
+/*
+**      WriteCount, WriteAddress and WriteValue - the writes since the
+**      record before, in the order they were made
+*/
+    public int WriteCount()
+    {
+        return (writeCount);
+    }
+
+    public int WriteAddress(int index)
+    {
+        return (writes[index] >>> 8);
+    }
+
+    public int WriteValue(int index)
+    {
+        return (writes[index] & 0xFF);
+    }
+
+/*
+**      ReadCount, ReadAddress and ReadValue - the reads the same way, none
+**      if the trace doesn't have them
+*/
+    public int ReadCount()
+    {
+        return (readCount);
+    }
+
+    public int ReadAddress(int index)
+    {
+        return (reads[index] >>> 8);
+    }
+
+    public int ReadValue(int index)
+    {
+        return (reads[index] & 0xFF);
+    }
+
+/*
+**      HasReads - true if the segment being read has the reads
+*/
+    public boolean HasReads()
+    {
+        return (bReads);
+    }
+
+/*
+**      GetSegment - the number of the segment being read
+*/
+    public int GetSegment()
+    {
+        return (number);
+    }
+
+/*
+**      Open - start reading segment first, or the oldest after it if the
+**      writer has deleted it.  False if there's none after it yet, or
+**      its header isn't written yet.
+*/
+    private boolean Open(int first) throws IOException
+    {
+        int next = first;
+        Path path = TraceWriter.Name(directory, next);
+        MappedByteBuffer opened;
+        // a reader falling behind a writer keeping only the last segments
+        while(!Files.exists(path))
+        {
+            if(!Files.exists(TraceWriter.Name(directory, next + 1)))
+                return (false);
+            path = TraceWriter.Name(directory, ++next);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            opened = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if((opened.limit() == 0) || (opened.getInt(0) == 0))
+            return (false);
+        if((opened.limit() < TraceWriter.HEADERSIZE) || (opened.getInt(0) != TraceWriter.MAGIC))
+            throw new IOException(path + " isn't a trace segment");
+        if(opened.getShort(4) > TraceWriter.VERSION)
+            throw new IOException(path + " is from a newer version");
+        opened.position(TraceWriter.BASEAT);
+        cycle = opened.getLong();
+        pc = opened.getShort() & 0xFFFF;
+        a = opened.get() & 0xFF;
+        b = opened.get() & 0xFF;
+        x = opened.getShort() & 0xFFFF;
+        sp = opened.getShort() & 0xFFFF;
+        cc = opened.get() & 0xFF;
+        bReads = (opened.getShort(4) >= 2) && ((opened.get() & TraceWriter.READS) != 0);
+        opened.position(TraceWriter.HEADERSIZE);
+        segment = opened;
+        number = next;
+        writeCount = 0;
+        readCount = 0;
+        return (true);
+    }
+
+    public static void main(String[] args) {
+        boolean bFollow = (args.length == 2) && args[0].equals("-f");
+        TraceReader reader;
+        StringBuilder line = new StringBuilder();
+        int icounter;
+        if((args.length != 1) && !bFollow)
+        {
+            System.err.println("usage: TraceReader [-f] directory");
+            System.exit(2);
+        }
+        try {
+            reader = null;
+            while(reader == null)
+            {
+                try {
+                    reader = new TraceReader(Paths.get(args[args.length - 1]));
+                } catch (IOException e) {
+                    // the writer hasn't passed on its first records yet
+                    if(!bFollow)
+                        throw e;
+                    Thread.sleep(FOLLOWMILLISECONDS);
+                }
+            }
+            while(true)
+            {
+                if(!reader.Next())
+                {
+                    if(!bFollow)
+                        break;
+                    Thread.sleep(FOLLOWMILLISECONDS);
+                    continue;
+                }
+                line.setLength(0);
+                line.append(String.format("%12d  %04X  A=%02X B=%02X X=%04X SP=%04X CC=%02X",
+                        reader.Cycle(), reader.PC(), reader.A(), reader.B(), reader.X(), reader.SP(), reader.CC()));
+                for(icounter = 0; icounter < reader.WriteCount(); icounter++)
+                    line.append(String.format(" [%04X]=%02X", reader.WriteAddress(icounter), reader.WriteValue(icounter)));
+                for(icounter = 0; icounter < reader.ReadCount(); icounter++)
+                    line.append(String.format(" %02X=[%04X]", reader.ReadValue(icounter), reader.ReadAddress(icounter)));
+                System.out.println(line);
+                if(System.out.checkError())
+                    break;      // e.g. piped into head
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+        }
+    }
+}
@@ -0,0 +1,765 @@
+/*
+** TraceWriter.java
+** Every instruction the CPU runs, streamed to disk for runs far too long to
+** keep in a Trace.  Records go into segment files of a fixed size in a
+** directory, trace-000000.e34t, trace-000001.e34t and so on, each mapped
+** into memory while it's written.  With a limit on the number kept the
+** oldest is deleted as a new one starts, so a soak run keeps its recent
+** past.  TraceReader reads them back, also while they're being written, and
+** TraceIndex answers questions about them.
+**
+** Segment:
+**      magic       4 bytes "E34T"
+**      version     2 bytes, VERSION when written
+**      closed      2 bytes, 1 once the next segment has been started or
+**                  the writer closed
+**      number      4 bytes, counting from 0 when the writer started
+**      length      4 bytes, bytes of records so far
+**      count       4 bytes, records so far
+**      base        8 byte cycle, 2 byte PC, A, B, 2 byte X, 2 byte SP and
+**                  CC, what the first record is a change from
+**      options     1 byte, READS if the records have the reads
+**      records     one per instruction, each a change from the one before
+**
+** Record, made as an instruction is fetched:
+**      flags       1 byte, the bits below for what follows
+**      PC          1 byte signed change, or 2 bytes with PCFULL
+**      cycles      1 byte change, or the 8 byte count with CYCLESFULL
+**      registers   A, B, X, SP and CC that changed, 1, 1, 2, 2 and 1 bytes
+**      accesses    with ACCESSES, 1 byte count of writes, or 0xFF and a 4
+**                  byte count, then a 2 byte address and 1 byte value for
+**                  each, then the reads the same way with READS
+**
+** The writes are the MemWrites since the record before, what the last
+** instruction, or an interrupt taken after it, stored.  The reads are the
+** MemReads, without the last instruction's own operand bytes, and are only
+** taken when asked for since every read then goes the slow way through the
+** MemoryModule.  For each instruction the CPU stores a long of PC and
+** its cycles, then only the cycle count, registers and flags it may have
+** changed since the record before, and a long for each access, one after
+** the other into Chunks.  After an instruction that set the flags only
+** through CPU.DeferFlags that's the operation and its operands, cheaper
+** than the flags, and the CC is worked out from the one before.  What an instruction can change goes by its
+** CommandID, and in RunStreamed nothing else changes the CPU; any other
+** record, e.g. after an interrupt, has them all.  A thread of the writer's own works out the CC, makes the
+** records and copies them into the mapped segments, so neither that nor
+** the page faults and the disk hold up the CPU unless every Chunk is
+** waiting to be written.  Length and count are set as each Chunk is
+** copied, so a reader following the trace sees records in steps.  Flush
+** passes on a Chunk sooner, e.g. while the CPU is paused.
+** CPU.SetTraceWriter starts and stops writing.  Nothing is written while
+** History runs the machine again, so going back in time shows as a jump.
+** An error writing stops the trace, Close throws it.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 The writer thread makes the records, the CPU only copies
+**            the registers and flag state into a Chunk
+** 10/17/2026 Less for the CPU to do: the registers and flags only where
+**            an instruction can have changed them, the accesses in between
+**            as they happen
+*/
+package m6800;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ *
+ * @author daves
+ */
+public class TraceWriter implements AccessListener, Runnable {
+
+    final static int MAGIC = 0x45333454; // "E34T"
+    final static int VERSION = 2;
+    final static String PATTERN = "trace-*.e34t";
+    final static int DEFAULTSEGMENTBYTES = 64 << 20;
+    final static int CHUNKBYTES = 65536;
+    final static int CHUNKLONGS = 8192;
+    final static int CHUNKS = 8;
+    // header offsets
+    final static int CLOSEDAT = 6;
+    final static int NUMBERAT = 8;
+    final static int LENGTHAT = 12;
+    final static int COUNTAT = 16;
+    final static int BASEAT = 20;
+    final static int OPTIONSAT = 37;
+    final static int HEADERSIZE = 40;
+    // options
+    final static int READS = 0x01;
+    // record flags
+    final static int ACHANGED = 0x01;
+    final static int BCHANGED = 0x02;
+    final static int XCHANGED = 0x04;
+    final static int SPCHANGED = 0x08;
+    final static int CCCHANGED = 0x10;
+    final static int PCFULL = 0x20;
+    final static int CYCLESFULL = 0x40;
+    final static int ACCESSES = 0x80;
+    final static int MAXRECORD = 1 + 2 + 8 + 7 + 5 + 5; // without the accesses
+    // in a Chunk
+    private final static int MAXLONGS = 7;          // longest record
+    private final static int AFOLLOWS = 0x01;       // in a record, above HEADAT
+    private final static int BFOLLOWS = 0x02;
+    private final static int XFOLLOWS = 0x04;
+    private final static int SPFOLLOWS = 0x08;
+    private final static int FLAGSFOLLOW = 0x10;
+    private final static int OPERANDSFOLLOW = 0x20;
+    private final static int CYCLEFOLLOWS = 0x40;
+    private final static int ALL = AFOLLOWS | BFOLLOWS | XFOLLOWS | SPFOLLOWS | FLAGSFOLLOW | CYCLEFOLLOWS;
+    private final static int HEADAT = 56;
+    private final static long ACCESS = 1L << 63;    // an access, not a record
+    private final static long READ = 1L << 32;      // in an access
+    private final static long EMPTY[] = new long[0];
+    private final static int CHANGES[] = BuildChanges(); // by opcode
+
+/*
+**      Chunk - instructions for the writer thread to make records of, and
+**      between them the accesses the one before made.  A record is a long
+**      of what follows above HEADAT, CPU.TraceOperation, the instruction's
+**      cycles and PC, then the cycle count, A, B, X, SP and CPU.TraceFlags
+**      or CPU.TraceOperands if they follow.  Without the
+**      cycle count it's the one before's and its cycles.  An access is a long of ACCESS, READ or not, the address
+**      and the value.  A record is never split between Chunks.
+*/
+    private static final class Chunk {
+        long data[] = new long[CHUNKLONGS];
+        int length;
+        boolean bLast;      // close the segment after this one
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final boolean bReads;
+    private final ArrayBlockingQueue<Chunk> free = new ArrayBlockingQueue<>(CHUNKS);
+    private final ArrayBlockingQueue<Chunk> full = new ArrayBlockingQueue<>(CHUNKS);
+    private final Thread writer;
+    private volatile IOException failed;
+    // used by the CPU
+    private Chunk chunk;        // being filled
+    private long data[] = EMPTY; // its data
+    private int at;             // and how much of it is filled
+    private long total;
+    private int changes = ALL;  // what the last instruction can have changed
+    private int operandStart;   // the last instruction's operand bytes
+    private int operandLength;
+    // used by the writer thread
+    private int writes[] = new int[16];    // address << 8 | value
+    private int writeCount;
+    private int reads[] = new int[16];
+    private int readCount;
+    private long cycle;         // the record being made
+    private int pc;
+    private int a;
+    private int b;
+    private int x;
+    private int sp;
+    private int cc;
+    private int cycles;         // its instruction's
+    private volatile int number = -1;   // segment being written
+    private MappedByteBuffer segment;
+    private int count;          // records in segment
+    private byte records[] = new byte[CHUNKBYTES]; // made, not yet copied
+    private int made;
+    private int madeCount;
+    private long lastCycle;     // the record before
+    private int lastPC;
+    private int lastA;
+    private int lastB;
+    private int lastX;
+    private int lastSP;
+    private int lastCC;
+
+    public TraceWriter(Path directory) throws IOException
+    {
+        this(directory, DEFAULTSEGMENTBYTES, 0, false);
+    }
+
+    public TraceWriter(Path directory, int segmentBytes, int maxSegments) throws IOException
+    {
+        this(directory, segmentBytes, maxSegments, false);
+    }
+
+/*
+**      TraceWriter - write segments of segmentBytes into directory, keeping
+**      the last maxSegments or every one with 0, with the reads if bReads.
+**      Segments already there are deleted.
+*/
+    public TraceWriter(Path directory, int segmentBytes, int maxSegments, boolean bReads) throws IOException
+    {
+        int icounter;
+        if(segmentBytes < HEADERSIZE + 2 * MAXRECORD)
+            throw new IllegalArgumentException("segments of " + segmentBytes + " bytes are too small");
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.bReads = bReads;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(directory, PATTERN)) {
+            for(Path path : old)
+                Files.delete(path);
+        }
+        for(icounter = 0; icounter < CHUNKS; icounter++)
+            free.add(new Chunk());
+        writer = new Thread(this, "TraceWriter " + directory);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+/*
+**      Name - the file segment number is written to
+*/
+    static Path Name(Path directory, int number)
+    {
+        return (directory.resolve(String.format("trace-%06d.e34t", number)));
+    }
+
+/*
+**      BuildChanges - what the instruction for each opcode can change
+*/
+    private static int[] BuildChanges()
+    {
+        int changes[] = new int[256];
+        int icounter;
+        for(icounter = 0; icounter < changes.length; icounter++)
+            changes[icounter] = Changes(CPU.InstructionLookup(icounter).ID);
+        return (changes);
+    }
+
+/*
+**      Changes - what an instruction can change.  Those that set the flags
+**      only through DeferFlags leave the operation and its operands to
+**      follow, the rest the flags.
+*/
+    private static int Changes(Instruction.CommandID id)
+    {
+        int changed;
+        switch(id)
+        {
+            case BCC: case BCS: case BEQ: case BGE: case BGT: case BHI: case BLE: case BLS:
+            case BLT: case BMI: case BNE: case BPL: case BRA: case BVC: case BVS: case JMP:
+            case NOP:
+                changed = 0;
+            break;
+            case BSR: case DES: case INS: case JSR: case PSHA: case PSHB: case RTS: case TXS:
+                changed = SPFOLLOWS;
+            break;
+            case PULA:
+                changed = AFOLLOWS | SPFOLLOWS;
+            break;
+            case PULB:
+                changed = BFOLLOWS | SPFOLLOWS;
+            break;
+            case TPA:
+                changed = AFOLLOWS;
+            break;
+            case TSX:
+                changed = XFOLLOWS;
+            break;
+            case ASL: case ASR: case BITA: case BITB: case CBA: case CLR: case CMPA: case CMPB:
+            case COM: case DEC: case INC: case LSR: case NEG: case ROL: case ROR: case STAA:
+            case STAB: case STS: case STX: case TST: case TSTA: case TSTB:
+                changed = OPERANDSFOLLOW;
+            break;
+            case CLC: case CLI: case CLV: case CPX: case SEC: case SEI: case SEV: case TAP:
+                changed = FLAGSFOLLOW;
+            break;
+            case DAA:
+                changed = AFOLLOWS | FLAGSFOLLOW;
+            break;
+            case DEX: case INX:
+                changed = XFOLLOWS | FLAGSFOLLOW;
+            break;
+            case ABA: case ADCA: case ADDA: case ANDA: case ASLA: case ASRA: case CLRA: case COMA:
+            case DECA: case EORA: case INCA: case LDAA: case LSRA: case NEGA: case ORAA: case ROLA:
+            case RORA: case SBA: case SBCA: case SUBA: case TBA:
+                changed = AFOLLOWS | OPERANDSFOLLOW;
+            break;
+            case ADCB: case ADDB: case ANDB: case ASLB: case ASRB: case CLRB: case COMB: case DECB:
+            case EORB: case INCB: case LDAB: case LSRB: case NEGB: case ORAB: case ROLB: case RORB:
+            case SBCB: case SUBB: case TAB:
+                changed = BFOLLOWS | OPERANDSFOLLOW;
+            break;
+            case LDX:
+                changed = XFOLLOWS | OPERANDSFOLLOW;
+            break;
+            case LDS:
+                changed = SPFOLLOWS | OPERANDSFOLLOW;
+            break;
+            default: // RTI, SWI, WAI and INVALID
+                changed = ALL;
+            break;
+        }
+        return (changed);
+    }
+
+/*
+**      Record - called by the CPU with PC at the opcode of instruction,
+**      anything may have changed since the record before
+*/
+    void Record(CPU cpu, Instruction instruction)
+    {
+        changes = ALL;
+        Next(cpu, instruction);
+        changes = ALL;
+    }
+
+/*
+**      Restart - the next record has everything, the CPU may have changed
+**      since the last
+*/
+    void Restart()
+    {
+        changes = ALL;
+    }
+
+/*
+**      Next - called by the CPU's RunStreamed with PC at the opcode of
+**      instruction, only the instruction before has changed the CPU since
+**      the record before
+*/
+    void Next(CPU cpu, Instruction instruction)
+    {
+        int changed = changes;
+        if((at > data.length - MAXLONGS) && !NextChunk())
+            return;
+        data[at++] = ((long) changed << HEADAT) | (cpu.TraceOperation() << 24) | (instruction.cycles << 16) |
+                (cpu.GetPC() & 0xFFFF);
+        if((changed & CYCLEFOLLOWS) != 0)
+            data[at++] = cpu.GetCycleCount();
+        if((changed & AFOLLOWS) != 0)
+            data[at++] = cpu.GetACCA();
+        if((changed & BFOLLOWS) != 0)
+            data[at++] = cpu.GetACCB();
+        if((changed & XFOLLOWS) != 0)
+            data[at++] = cpu.GetIX();
+        if((changed & SPFOLLOWS) != 0)
+            data[at++] = cpu.GetSP();
+        if((changed & FLAGSFOLLOW) != 0)
+            data[at++] = cpu.TraceFlags();
+        else if((changed & OPERANDSFOLLOW) != 0)
+            data[at++] = cpu.TraceOperands();
+        changes = CHANGES[instruction.opcode];
+        total++;
+        if(bReads)
+        {
+            operandStart = (cpu.GetPC() + 1) & MemoryModule.ADDRESSMASK;
+            operandLength = instruction.commandlength - 1;
+        }
+    }
+
+/*
+**      Take - the record at data[at] as the one being made, where the next
+**      thing in data starts
+*/
+    private int Take(long data[], int at)
+    {
+        long head = data[at++];
+        int follow = (int) (head >>> HEADAT);
+        cycle = ((follow & CYCLEFOLLOWS) != 0) ? data[at++] : cycle + cycles;
+        if((follow & AFOLLOWS) != 0)
+            a = (int) data[at++] & 0xFF;
+        if((follow & BFOLLOWS) != 0)
+            b = (int) data[at++] & 0xFF;
+        if((follow & XFOLLOWS) != 0)
+            x = (int) data[at++] & 0xFFFF;
+        if((follow & SPFOLLOWS) != 0)
+            sp = (int) data[at++] & 0xFFFF;
+        if((follow & FLAGSFOLLOW) != 0)
+            cc = CPU.ConditionCode(data[at++]);
+        else if((follow & OPERANDSFOLLOW) != 0)
+            cc = CPU.ConditionCode(cc, (int) (head >>> 24) & 0x0F, data[at++]);
+        cycles = (int) (head >>> 16) & 0xFF;
+        pc = (int) head & 0xFFFF;
+        return (at);
+    }
+
+/*
+**      Make - the record for the one being made after the ones made so
+**      far, with the writes and reads taken since the one before
+*/
+    private void Make()
+    {
+        byte out[] = records;
+        int flags = 0;
+        int start = made;
+        int next = start + 1;
+        int change = pc - lastPC;
+        long elapsed = cycle - lastCycle;
+        if((change >= -128) && (change <= 127))
+            out[next++] = (byte) change;
+        else
+        {
+            flags |= PCFULL;
+            next = Put(out, next, pc, 2);
+        }
+        if((elapsed >= 0) && (elapsed <= 0xFF))
+            out[next++] = (byte) elapsed;
+        else
+        {
+            flags |= CYCLESFULL;
+            next = Put(out, next, (int) (cycle >>> 32), 4);
+            next = Put(out, next, (int) cycle, 4);
+        }
+        if(a != lastA)
+        {
+            flags |= ACHANGED;
+            out[next++] = (byte) a;
+        }
+        if(b != lastB)
+        {
+            flags |= BCHANGED;
+            out[next++] = (byte) b;
+        }
+        if(x != lastX)
+        {
+            flags |= XCHANGED;
+            next = Put(out, next, x, 2);
+        }
+        if(sp != lastSP)
+        {
+            flags |= SPCHANGED;
+            next = Put(out, next, sp, 2);
+        }
+        if(cc != lastCC)
+        {
+            flags |= CCCHANGED;
+            out[next++] = (byte) cc;
+        }
+        if((writeCount > 0) || (readCount > 0))
+        {
+            flags |= ACCESSES;
+            next = PutAccesses(out, next, writes, writeCount);
+            if(bReads)
+                next = PutAccesses(out, next, reads, readCount);
+            writeCount = 0;
+            readCount = 0;
+        }
+        out[start] = (byte) flags;
+        made = next;
+        madeCount++;
+        lastCycle = cycle;
+        lastPC = pc;
+        lastA = a;
+        lastB = b;
+        lastX = x;
+        lastSP = sp;
+        lastCC = cc;
+    }
+
+/*
+**      Put - the low bytes of value at out[at], high byte first
+*/
+    private static int Put(byte out[], int at, int value, int bytes)
+    {
+        int icounter;
+        for(icounter = bytes - 1; icounter >= 0; icounter--)
+            out[at++] = (byte) (value >> (8 * icounter));
+        return (at);
+    }
+
+/*
+**      PutAccesses - count and then the count accesses in taken at out[at]
+*/
+    private static int PutAccesses(byte out[], int at, int taken[], int count)
+    {
+        int icounter;
+        if(count < 0xFF)
+            out[at++] = (byte) count;
+        else
+        {
+            out[at++] = (byte) 0xFF;
+            at = Put(out, at, count, 4);
+        }
+        for(icounter = 0; icounter < count; icounter++)
+            at = Put(out, at, taken[icounter], 3);
+        return (at);
+    }
+
+/*
+**      Written - a MemWrite, goes in the next record
+*/
+    @Override
+    public void Written(int iAddress, int iValue)
+    {
+        if((at == data.length) && !NextChunk())
+            return;
+        data[at++] = ACCESS | (iAddress << 8) | iValue;
+    }
+
+/*
+**      Read - a MemRead, goes in the next record unless it's an operand
+**      byte of the instruction making it
+*/
+    @Override
+    public void Read(int iAddress, int iValue)
+    {
+        if((((iAddress - operandStart) & MemoryModule.ADDRESSMASK) < operandLength) ||
+                ((at == data.length) && !NextChunk()))
+            return;
+        data[at++] = ACCESS | READ | (iAddress << 8) | iValue;
+    }
+
+/*
+**      GetReads - true if the reads are taken too
+*/
+    public boolean GetReads()
+    {
+        return (bReads);
+    }
+
+/*
+**      Flush - pass the records made so far on to be written.  Call it
+**      from the thread running the CPU, e.g. through Post.
+*/
+    public void Flush()
+    {
+        if((chunk != null) && (at > 0))
+        {
+            chunk.length = at;
+            Hand(chunk);
+            chunk = null;
+            data = EMPTY;
+            at = 0;
+        }
+    }
+
+/*
+**      Close - write the rest and finish the last segment, after
+**      CPU.SetTraceWriter(null)
+*/
+    public void Close() throws IOException
+    {
+        Chunk last;
+        Flush();
+        try {
+            last = free.take();
+            last.length = 0;
+            last.bLast = true;
+            full.put(last);
+            writer.join();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("closing the trace");
+        }
+        if(failed != null)
+            throw failed;
+    }
+
+/*
+**      GetTotal - records made, GetSegment the number of the segment being
+**      written, -1 before the first
+*/
+    public long GetTotal()
+    {
+        return (total);
+    }
+
+    public int GetSegment()
+    {
+        return (number);
+    }
+
+    public Path GetDirectory()
+    {
+        return (directory);
+    }
+
+/*
+**      NextChunk - pass on the Chunk being filled and take an empty one.
+**      False if the trace has stopped.
+*/
+    private boolean NextChunk()
+    {
+        Flush();
+        if(failed != null)
+            return (false);
+        try {
+            chunk = free.take();
+        } catch (InterruptedException e) {
+            failed = new InterruptedIOException("waiting to write the trace");
+            return (false);
+        }
+        chunk.bLast = false;
+        data = chunk.data;
+        return (true);
+    }
+
+    private void Hand(Chunk filled)
+    {
+        try {
+            full.put(filled);
+        } catch (InterruptedException e) {
+            failed = new InterruptedIOException("waiting to write the trace");
+        }
+    }
+
+/*
+**      run - the writer thread, making the records of each Chunk and
+**      copying them into the segment until the last.  After an error
+**      Chunks are only given back.
+*/
+    @Override
+    public void run()
+    {
+        Chunk next;
+        boolean bLast = false;
+        while(!bLast)
+        {
+            try {
+                next = full.take();
+            } catch (InterruptedException e) {
+                failed = new InterruptedIOException("writing the trace");
+                return;
+            }
+            bLast = next.bLast;
+            try {
+                if(failed == null)
+                    Write(next);
+                if(bLast && (segment != null))
+                {
+                    segment.putShort(CLOSEDAT, (short) 1);
+                    segment.force();
+                }
+            } catch (IOException e) {
+                if(failed == null)
+                    failed = e;
+                segment = null;
+            }
+            free.add(next);
+        }
+    }
+
+/*
+**      Write - make the records for the instructions in filled and copy
+**      them into the segment, starting the next one from the record before
+**      when they won't fit.  The first segment starts from the first
+**      instruction.
+*/
+    private void Write(Chunk filled) throws IOException
+    {
+        long data[] = filled.data;
+        int at = 0;
+        int size;
+        while(at < filled.length)
+        {
+            if(data[at] < 0)
+            {
+                Keep(data[at++]);
+                continue;
+            }
+            at = Take(data, at);
+            size = MAXRECORD + 3 * (writeCount + (bReads ? readCount : 0));
+            if(HEADERSIZE + size > segmentBytes)
+            {
+                Copy();
+                failed = new IOException((writeCount + readCount) + " accesses don't fit in a segment");
+                return;
+            }
+            if((segment == null) || (segment.position() + made + size > segmentBytes))
+            {
+                Copy();
+                Roll();
+            }
+            if(made + size > records.length)
+            {
+                Copy();
+                if(size > records.length)
+                    records = new byte[size];
+            }
+            Make();
+        }
+        Copy();
+    }
+
+/*
+**      Keep - keep an access for the next record
+*/
+    private void Keep(long access)
+    {
+        if((access & READ) == 0)
+        {
+            if(writeCount == writes.length)
+                writes = Arrays.copyOf(writes, 2 * writes.length);
+            writes[writeCount++] = (int) access & 0xFFFFFF;
+        }
+        else
+        {
+            if(readCount == reads.length)
+                reads = Arrays.copyOf(reads, 2 * reads.length);
+            reads[readCount++] = (int) access & 0xFFFFFF;
+        }
+    }
+
+/*
+**      Copy - put the records made so far into the segment, where a reader
+**      finds them
+*/
+    private void Copy()
+    {
+        if(made == 0)
+            return;
+        segment.put(records, 0, made);
+        count += madeCount;
+        segment.putInt(COUNTAT, count);
+        segment.putInt(LENGTHAT, segment.position() - HEADERSIZE);
+        made = 0;
+        madeCount = 0;
+    }
+
+/*
+**      Roll - start the next segment from the record before, or for the
+**      first from the one being made.  It's ready before the last one is
+**      closed, so a reader finds it there.
+*/
+    private void Roll() throws IOException
+    {
+        MappedByteBuffer next;
+        int numbered = number + 1;
+        if(number < 0)
+        {
+            lastCycle = cycle;
+            lastPC = pc;
+            lastA = a;
+            lastB = b;
+            lastX = x;
+            lastSP = sp;
+            lastCC = cc;
+        }
+        try (FileChannel channel = FileChannel.open(Name(directory, numbered),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            next = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        next.putInt(MAGIC);
+        next.putShort((short) VERSION);
+        next.putShort((short) 0);
+        next.putInt(numbered);
+        next.putInt(0);
+        next.putInt(0);
+        next.putLong(lastCycle);
+        next.putShort((short) lastPC);
+        next.put((byte) lastA);
+        next.put((byte) lastB);
+        next.putShort((short) lastX);
+        next.putShort((short) lastSP);
+        next.put((byte) lastCC);
+        next.put((byte) (bReads ? READS : 0));
+        next.position(HEADERSIZE);
+        if(segment != null)
+            segment.putShort(CLOSEDAT, (short) 1);
+        segment = next;
+        number = numbered;
+        count = 0;
+        if((maxSegments > 0) && (numbered >= maxSegments))
+            Files.deleteIfExists(Name(directory, numbered - maxSegments));
+    }
+}
@@ -0,0 +1,1570 @@
+/*
+** Translator.java
+** Translates hot cached blocks into JVM bytecode for the JIT engine.  A
+** region is the hot block plus the blocks it can branch or fall through
+** to, so a loop runs inside one generated method.
+**
+** The generated Run keeps the registers, the flags and the cycle and
+** instruction counts in locals, loading them from the CPU when it starts
+** and storing them back with CompiledRegion.Leave wherever it leaves.  It
+** works out the flags inline, each kept in the form that is cheapest to
+** set and test (see CPU.JitLeave), so HotSpot drops those nothing reads.
+** Reads and writes go straight to the MemoryModule page arrays, through
+** MemRead and MemWrite only for pages with a device, a watch, a listener
+** or cached code.  The few instructions that aren't worth translating,
+** DAA, TAP, TPA, CLI, SEI, RTI, SWI and WAI, store the locals back and run
+** the BLOCK engine's handler.  Everything is worked out as the handlers in
+** CPU.BuildHandler do, so the results can't differ.
+**
+** Classes are defined by a RegionLoader, which works on any runtime from
+** Java 8 on.
+**
+** Revisions:
+** 10/17/2026 Initial version
+** 10/17/2026 Add TranslateImage and Define for AOTCompiler translations
+** 10/17/2026 Read and set C, V, Z and N through CPU's lazy flag methods
+** 10/17/2026 Load classes with a RegionLoader instead of as hidden classes,
+**            keep the registers and flags in locals and work the flags
+**            out inline, read and write plain pages inline
+*/
+package m6800;
+
+import java.util.ArrayList;
+
+/**
+ *
+ * @author daves
+ */
+class Translator {
+
+    final static int MAXBLOCKS = 16; // per region
+    final static int MAXCODE = 8000; // HotSpot doesn't compile larger methods
+    private final static String CPUCLASS = "m6800/CPU";
+    private final static String MEMCLASS = "m6800/MemoryModule";
+    private final static String REGIONCLASS = "m6800/CompiledRegion";
+
+    // locals of the generated Run(CPU cpu, long end), cpu is always ALOAD_1
+    private final static int ENDLOCAL = 2;      // long
+    private final static int ALOCAL = 4;
+    private final static int BLOCAL = 5;
+    private final static int XLOCAL = 6;
+    private final static int SPLOCAL = 7;
+    private final static int CLOCAL = 8;        // C in bit 0
+    private final static int VLOCAL = 9;        // V in bit 7
+    private final static int ZLOCAL = 10;       // 0 if Z is set
+    private final static int NLOCAL = 11;       // N in bit 7
+    private final static int HLOCAL = 12;       // H in bit 3
+    private final static int CYCLESLOCAL = 13;  // long
+    private final static int COUNTLOCAL = 15;   // long
+    private final static int MEMLOCAL = 17;
+    private final static int READSLOCAL = 18;
+    private final static int WRITESLOCAL = 19;
+    private final static int CODELOCAL = 20;
+    private final static int ADDRESSLOCAL = 21; // for Read and Write
+    private final static int VALUELOCAL = 22;   // for Write, and results
+    private final static int OPERANDLOCAL = 23;
+    private final static int PCLOCAL = 24;      // where Leave leaves PC
+    private final static int LOCALS = 25;
+    private final static int MAXSTACK = 16;
+
+    private final BlockCache cache;
+
+    // state while one region is being translated
+    private ClassFileWriter cf;
+    private ClassFileWriter.Code code;
+    private ArrayList<CodeBlock> blocks;
+    private int labels[];
+    private int leave;
+
+    Translator(BlockCache cache)
+    {
+        this.cache = cache;
+    }
+
+/*
+**      Compile - translate the region starting at entry.  Every block in it
+**      is told about the region so a write to any of them drops it.  Returns
+**      null if the region can't be translated or loaded.
+*/
+    CompiledRegion Compile(CodeBlock entry)
+    {
+        ArrayList<CodeBlock> region = Region(entry);
+        String name = String.format("m6800/Region%04X", entry.startPC);
+        CompiledRegion compiled;
+        try {
+            byte bytes[] = Translate(region, name, false);
+            while((code.Length() > MAXCODE) && (region.size() > 1))
+            {
+                region.remove(region.size() - 1);
+                bytes = Translate(region, name, false);
+            }
+            compiled = NewRegion(Define(bytes));
+        } catch (ReflectiveOperationException | LinkageError | IllegalStateException e) {
+            return (null); // too large or rejected, leave it to the interpreter
+        }
+        for(CodeBlock block : region)
+            block.AddRegion(compiled);
+        return (compiled);
+    }
+
+/*
+**      TranslateImage - translate blocks for AOTCompiler.  The region can be
+**      entered at any of its blocks.  Returns null if the code would be too
+**      large for HotSpot to compile.
+*/
+    byte[] TranslateImage(ArrayList<CodeBlock> region)
+    {
+        byte bytes[] = Translate(region, String.format("m6800/Image%04X", region.get(0).startPC), true);
+        return ((code.Length() > MAXCODE) ? null : bytes);
+    }
+
+/*
+**      Define - load a translated class with a RegionLoader of its own
+*/
+    static Class<?> Define(byte bytes[])
+    {
+        return (new RegionLoader().Define(bytes));
+    }
+
+    static CompiledRegion NewRegion(Class<?> loaded) throws ReflectiveOperationException
+    {
+        return ((CompiledRegion) loaded.getDeclaredConstructor().newInstance());
+    }
+
+/*
+**      Region - entry and the blocks reachable from it through branches,
+**      jumps and fall through to a fixed address, up to MAXBLOCKS
+*/
+    private ArrayList<CodeBlock> Region(CodeBlock entry)
+    {
+        ArrayList<CodeBlock> region = new ArrayList<>();
+        int icounter;
+        region.add(entry);
+        for(icounter = 0; icounter < region.size(); icounter++)
+        {
+            for(int iAddress : Successors(region.get(icounter)))
+            {
+                if((region.size() < MAXBLOCKS) && (Find(region, iAddress) < 0))
+                {
+                    CodeBlock block = cache.Lookup(iAddress);
+                    if(block != null)
+                        region.add(block);
+                }
+            }
+        }
+        return (region);
+    }
+
+/*
+**      Successors - addresses the block can go to next that are known
+**      before it runs
+*/
+    static int[] Successors(CodeBlock block)
+    {
+        int last = block.length - 1;
+        Instruction instruction = CPU.InstructionLookup(block.opcode[last]);
+        int operand = block.operand[last];
+        switch(instruction.ID)
+        {
+            case BCC:
+            case BCS:
+            case BEQ:
+            case BGE:
+            case BGT:
+            case BHI:
+            case BLE:
+            case BLS:
+            case BLT:
+            case BMI:
+            case BNE:
+            case BPL:
+            case BVC:
+            case BVS:
+                return (new int[] {block.endPC, block.endPC + (byte) operand});
+            case BRA:
+            case BSR:
+                return (new int[] {block.endPC + (byte) operand});
+            case JMP:
+            case JSR:
+                if(instruction.mode == Instruction.AddressMode.EXTENDED)
+                    return (new int[] {operand});
+                return (new int[0]);
+            case RTI:
+            case RTS:
+            case SWI:
+            case WAI:
+                return (new int[0]);
+            default:
+                // block was cut short, it just runs on
+                return (new int[] {block.endPC});
+        }
+    }
+
+    private static int Find(ArrayList<CodeBlock> region, int iAddress)
+    {
+        int icounter;
+        for(icounter = 0; icounter < region.size(); icounter++)
+        {
+            if(region.get(icounter).startPC == iAddress)
+                return (icounter);
+        }
+        return (-1);
+    }
+
+/*
+**      Translate - class file for a region.  Run loads the locals, then has
+**      one label per block; each block checks that it fits in the cycle
+**      budget and that no request is waiting before running, and leaves
+**      with PC at its start if not.  With bAnyEntry Run starts with a
+**      switch on PC to the block starting there, otherwise it starts at
+**      the first.  Every way out but the handlers that end a block goes
+**      through leave, with PC in PCLOCAL.
+*/
+    private byte[] Translate(ArrayList<CodeBlock> region, String name, boolean bAnyEntry)
+    {
+        int icounter;
+        blocks = region;
+        cf = new ClassFileWriter(name, REGIONCLASS);
+
+        code = new ClassFileWriter.Code(1, 1);
+        code.Op(ClassFileWriter.ALOAD_0);
+        code.Op(ClassFileWriter.INVOKESPECIAL, cf.Method(REGIONCLASS, "<init>", "()V"));
+        code.Op(ClassFileWriter.RETURN);
+        cf.AddMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", code);
+
+        code = new ClassFileWriter.Code(MAXSTACK, LOCALS);
+        labels = new int[region.size()];
+        for(icounter = 0; icounter < region.size(); icounter++)
+            labels[icounter] = code.NewLabel();
+        leave = code.NewLabel();
+        Enter(true);
+        if(bAnyEntry)
+            EntrySwitch();
+        for(icounter = 0; icounter < region.size(); icounter++)
+            Block(icounter);
+        code.Mark(leave);
+        Leave();
+        code.Op(ClassFileWriter.RETURN);
+        cf.AddMethod(ClassFileWriter.ACC_PROTECTED, "Run", "(Lm6800/CPU;J)V", code);
+        return (cf.ToBytes());
+    }
+
+    private void EntrySwitch()
+    {
+        int order[] = new int[blocks.size()];
+        int keys[] = new int[blocks.size()];
+        int targets[] = new int[blocks.size()];
+        int none = code.NewLabel();
+        int icounter, index;
+        // insertion sort on start address, lookupswitch keys must ascend
+        for(icounter = 0; icounter < order.length; icounter++)
+        {
+            for(index = icounter; (index > 0) && (blocks.get(order[index - 1]).startPC > blocks.get(icounter).startPC); index--)
+                order[index] = order[index - 1];
+            order[index] = icounter;
+        }
+        for(icounter = 0; icounter < order.length; icounter++)
+        {
+            keys[icounter] = blocks.get(order[icounter]).startPC;
+            targets[icounter] = labels[order[icounter]];
+        }
+        code.Op(ClassFileWriter.ALOAD_1);
+        Call("GetPC", "()I");
+        code.LookupSwitch(keys, targets, none);
+        code.Mark(none);
+        code.Op(ClassFileWriter.RETURN); // nothing has changed yet
+    }
+
+/*
+**      Enter - load the locals from the CPU, with bTables the page tables
+**      too.  GetCC works out any pending flags.
+*/
+    private void Enter(boolean bTables)
+    {
+        Get("GetACCA", "()I", ALOCAL);
+        Get("GetACCB", "()I", BLOCAL);
+        Get("GetIX", "()I", XLOCAL);
+        Get("GetSP", "()I", SPLOCAL);
+        Get("GetCC", "()I", VALUELOCAL);
+        FlagBit(0x01, 0, CLOCAL);
+        FlagBit(0x02, 6, VLOCAL);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        Push(0x04);
+        code.Op(ClassFileWriter.IAND);
+        Push(0x04);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.ISTORE, ZLOCAL);
+        FlagBit(0x08, 4, NLOCAL);
+        FlagBit(0x20, -2, HLOCAL);
+        code.Op(ClassFileWriter.ALOAD_1);
+        Call("GetCycleCount", "()J");
+        code.Op(ClassFileWriter.LSTORE, CYCLESLOCAL);
+        code.Op(ClassFileWriter.ALOAD_1);
+        Call("GetInstructionCount", "()J");
+        code.Op(ClassFileWriter.LSTORE, COUNTLOCAL);
+        if(bTables)
+        {
+            code.Op(ClassFileWriter.ALOAD_1);
+            Call("GetMemoryModule", "()Lm6800/MemoryModule;");
+            code.Op(ClassFileWriter.ASTORE, MEMLOCAL);
+            Table("ReadPages", "[[B", READSLOCAL);
+            Table("WritePages", "[[B", WRITESLOCAL);
+            Table("CodePages", "[Z", CODELOCAL);
+        }
+    }
+
+    private void Get(String method, String descriptor, int local)
+    {
+        code.Op(ClassFileWriter.ALOAD_1);
+        Call(method, descriptor);
+        code.Op(ClassFileWriter.ISTORE, local);
+    }
+
+/*
+**      FlagBit - local = the bit in mask of the CC in VALUELOCAL, moved
+**      left by shift
+*/
+    private void FlagBit(int mask, int shift, int local)
+    {
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        Push(mask);
+        code.Op(ClassFileWriter.IAND);
+        if(shift != 0)
+        {
+            Push(Math.abs(shift));
+            code.Op((shift > 0) ? ClassFileWriter.ISHL : ClassFileWriter.ISHR);
+        }
+        code.Op(ClassFileWriter.ISTORE, local);
+    }
+
+    private void Table(String method, String type, int local)
+    {
+        code.Op(ClassFileWriter.ALOAD, MEMLOCAL);
+        Static(method, "(Lm6800/MemoryModule;)" + type);
+        code.Op(ClassFileWriter.ASTORE, local);
+    }
+
+/*
+**      Leave - store the locals back into the CPU, PC from PCLOCAL
+*/
+    private void Leave()
+    {
+        code.Op(ClassFileWriter.ALOAD_1);
+        code.Op(ClassFileWriter.ILOAD, PCLOCAL);
+        code.Op(ClassFileWriter.ILOAD, ALOCAL);
+        code.Op(ClassFileWriter.ILOAD, BLOCAL);
+        code.Op(ClassFileWriter.ILOAD, XLOCAL);
+        code.Op(ClassFileWriter.ILOAD, SPLOCAL);
+        code.Op(ClassFileWriter.ILOAD, CLOCAL);
+        code.Op(ClassFileWriter.ILOAD, VLOCAL);
+        code.Op(ClassFileWriter.ILOAD, ZLOCAL);
+        code.Op(ClassFileWriter.ILOAD, NLOCAL);
+        code.Op(ClassFileWriter.ILOAD, HLOCAL);
+        code.Op(ClassFileWriter.LLOAD, CYCLESLOCAL);
+        code.Op(ClassFileWriter.LLOAD, COUNTLOCAL);
+        Static("Leave", "(Lm6800/CPU;IIIIIIIIIIJJ)V");
+    }
+
+    private void Block(int index)
+    {
+        CodeBlock block = blocks.get(index);
+        int exit = code.NewLabel();
+        int remaining = block.cycles;
+        int icounter;
+        Instruction instruction = null;
+
+        code.Mark(labels[index]);
+        code.Op(ClassFileWriter.LLOAD, ENDLOCAL);
+        code.Op(ClassFileWriter.LLOAD, CYCLESLOCAL);
+        code.Op(ClassFileWriter.LSUB);
+        Push(block.cycles);
+        code.Op(ClassFileWriter.I2L);
+        code.Op(ClassFileWriter.LCMP);
+        code.Jump(ClassFileWriter.IFLT, exit);
+        code.Op(ClassFileWriter.ALOAD_1);
+        Static("Stopped", "(Lm6800/CPU;)Z");
+        code.Jump(ClassFileWriter.IFNE, exit);
+        Count(block.cycles, block.length);
+        for(icounter = 0; icounter < block.length; icounter++)
+        {
+            instruction = CPU.InstructionLookup(block.opcode[icounter]);
+            remaining -= instruction.cycles;
+            Instruction(instruction, block.opcode[icounter], block.operand[icounter], block.nextPC[icounter],
+                    remaining, block.length - icounter - 1);
+        }
+        if(!BlockCache.EndsBlock(instruction.ID))
+            GotoOrExit(block.endPC);
+        code.Mark(exit);
+        Exit(block.startPC);
+    }
+
+/*
+**      Count - add cycles and count to the counts in the locals
+*/
+    private void Count(int cycles, int count)
+    {
+        code.Op(ClassFileWriter.LLOAD, CYCLESLOCAL);
+        Push(cycles);
+        code.Op(ClassFileWriter.I2L);
+        code.Op(ClassFileWriter.LADD);
+        code.Op(ClassFileWriter.LSTORE, CYCLESLOCAL);
+        code.Op(ClassFileWriter.LLOAD, COUNTLOCAL);
+        Push(count);
+        code.Op(ClassFileWriter.I2L);
+        code.Op(ClassFileWriter.LADD);
+        code.Op(ClassFileWriter.LSTORE, COUNTLOCAL);
+    }
+
+/*
+**      Instruction - code for one instruction, matching CPU.BuildHandler.
+**      nextPC is the address after it; remaining and count are the cycles
+**      and instructions after it in the block, backed out if a store drops
+**      the region part way through.
+*/
+    private void Instruction(Instruction instruction, int opcode, int operand, int nextPC, int remaining, int count)
+    {
+        Instruction.AddressMode mode = instruction.mode;
+        int target = nextPC + (byte) operand;
+        int taken;
+        switch(instruction.ID)
+        {
+            case ADCA:
+            case ADCB:
+                Value8(mode, operand);
+                Add(Reg(instruction), true, false);
+            break;
+            case ADDA:
+            case ADDB:
+                Value8(mode, operand);
+                Add(Reg(instruction), false, false);
+            break;
+            case ABA:
+                code.Op(ClassFileWriter.ILOAD, BLOCAL);
+                Add(ALOCAL, false, true);
+            break;
+            case SUBA:
+            case SUBB:
+                Value8(mode, operand);
+                Subtract(Reg(instruction), false, true);
+            break;
+            case SBCA:
+            case SBCB:
+                Value8(mode, operand);
+                Subtract(Reg(instruction), true, true);
+            break;
+            case CMPA:
+            case CMPB:
+                Value8(mode, operand);
+                Subtract(Reg(instruction), false, false);
+            break;
+            case SBA:
+                code.Op(ClassFileWriter.ILOAD, BLOCAL);
+                Subtract(ALOCAL, false, true);
+            break;
+            case CBA:
+                code.Op(ClassFileWriter.ILOAD, BLOCAL);
+                Subtract(ALOCAL, false, false);
+            break;
+            case ANDA:
+            case ANDB:
+                Logic(Reg(instruction), ClassFileWriter.IAND, mode, operand);
+            break;
+            case EORA:
+            case EORB:
+                Logic(Reg(instruction), ClassFileWriter.IXOR, mode, operand);
+            break;
+            case ORAA:
+            case ORAB:
+                Logic(Reg(instruction), ClassFileWriter.IOR, mode, operand);
+            break;
+            case BITA:
+            case BITB:
+                code.Op(ClassFileWriter.ILOAD, Reg(instruction));
+                Value8(mode, operand);
+                code.Op(ClassFileWriter.IAND);
+                LoadFlags();
+                code.Op(ClassFileWriter.POP);
+            break;
+            case LDAA:
+            case LDAB:
+                Value8(mode, operand);
+                LoadFlags();
+                code.Op(ClassFileWriter.ISTORE, Reg(instruction));
+            break;
+            case LDS:
+            case LDX:
+                Value16(mode, operand);
+                Load16Flags();
+                code.Op(ClassFileWriter.ISTORE, (instruction.ID == Instruction.CommandID.LDS) ? SPLOCAL : XLOCAL);
+            break;
+            case STAA:
+            case STAB:
+                code.Op(ClassFileWriter.ILOAD, Reg(instruction));
+                LoadFlags();
+                code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+                Address(mode, operand);
+                Write();
+                WriteCheck(nextPC, remaining, count);
+            break;
+            case STS:
+            case STX:
+                code.Op(ClassFileWriter.ILOAD, (instruction.ID == Instruction.CommandID.STS) ? SPLOCAL : XLOCAL);
+                Load16Flags();
+                code.Op(ClassFileWriter.DUP);
+                Push(8);
+                code.Op(ClassFileWriter.ISHR);
+                code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+                Address(mode, operand);
+                Write();
+                code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+                NextAddress();
+                Write();
+                WriteCheck(nextPC, remaining, count);
+            break;
+            case ASLA:
+            case ASLB:
+            case ASRA:
+            case ASRB:
+            case COMA:
+            case COMB:
+            case DECA:
+            case DECB:
+            case INCA:
+            case INCB:
+            case LSRA:
+            case LSRB:
+            case NEGA:
+            case NEGB:
+            case ROLA:
+            case ROLB:
+            case RORA:
+            case RORB:
+                code.Op(ClassFileWriter.ILOAD, Reg(instruction));
+                Unary(instruction.ID);
+                code.Op(ClassFileWriter.ISTORE, Reg(instruction));
+            break;
+            case ASL:
+            case ASR:
+            case COM:
+            case DEC:
+            case INC:
+            case LSR:
+            case NEG:
+            case ROL:
+            case ROR:
+                Address(mode, operand);
+                Read();
+                Unary(instruction.ID);
+                code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+                Write();
+                WriteCheck(nextPC, remaining, count);
+            break;
+            case CLR:
+                Address(mode, operand);
+                Read(); // CLR reads before writing, as the handler does
+                code.Op(ClassFileWriter.POP);
+                Push(0);
+                code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+                Write();
+                Push(0);
+                TestFlags(0);
+                code.Op(ClassFileWriter.POP);
+                WriteCheck(nextPC, remaining, count);
+            break;
+            case CLRA:
+            case CLRB:
+                Push(0);
+                TestFlags(0);
+                code.Op(ClassFileWriter.ISTORE, Reg(instruction));
+            break;
+            case TST:
+                Value8(mode, operand);
+                TestFlags(0);
+                code.Op(ClassFileWriter.POP);
+            break;
+            case TSTA:
+            case TSTB:
+                code.Op(ClassFileWriter.ILOAD, Reg(instruction));
+                TestFlags(0);
+                code.Op(ClassFileWriter.POP);
+            break;
+            case CPX:
+                Value16(mode, operand);
+                CompareX();
+            break;
+            case CLC:
+            case SEC:
+                Push((instruction.ID == Instruction.CommandID.SEC) ? 1 : 0);
+                code.Op(ClassFileWriter.ISTORE, CLOCAL);
+            break;
+            case CLV:
+            case SEV:
+                Push((instruction.ID == Instruction.CommandID.SEV) ? 0x80 : 0);
+                code.Op(ClassFileWriter.ISTORE, VLOCAL);
+            break;
+            case DES:
+                Decrement(SPLOCAL);
+            break;
+            case INS:
+                Increment(SPLOCAL);
+            break;
+            case DEX:
+                Decrement(XLOCAL);
+                code.Op(ClassFileWriter.ILOAD, XLOCAL);
+                code.Op(ClassFileWriter.ISTORE, ZLOCAL);
+            break;
+            case INX:
+                Increment(XLOCAL);
+                code.Op(ClassFileWriter.ILOAD, XLOCAL);
+                code.Op(ClassFileWriter.ISTORE, ZLOCAL);
+            break;
+            case PSHA:
+            case PSHB:
+                code.Op(ClassFileWriter.ILOAD, Reg(instruction));
+                code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+                Push8();
+                WriteCheck(nextPC, remaining, count);
+            break;
+            case PULA:
+            case PULB:
+                Pull8();
+                code.Op(ClassFileWriter.ISTORE, Reg(instruction));
+            break;
+            case TAB:
+                code.Op(ClassFileWriter.ILOAD, ALOCAL);
+                LoadFlags();
+                code.Op(ClassFileWriter.ISTORE, BLOCAL);
+            break;
+            case TBA:
+                code.Op(ClassFileWriter.ILOAD, BLOCAL);
+                LoadFlags();
+                code.Op(ClassFileWriter.ISTORE, ALOCAL);
+            break;
+            case TSX:
+                code.Op(ClassFileWriter.ILOAD, SPLOCAL);
+                Push(1);
+                code.Op(ClassFileWriter.IADD);
+                code.Op(ClassFileWriter.ISTORE, XLOCAL);
+            break;
+            case TXS:
+                code.Op(ClassFileWriter.ILOAD, XLOCAL);
+                Push(1);
+                code.Op(ClassFileWriter.ISUB);
+                code.Op(ClassFileWriter.ISTORE, SPLOCAL);
+            break;
+            case BCC:
+            case BCS:
+            case BEQ:
+            case BGE:
+            case BGT:
+            case BHI:
+            case BLE:
+            case BLS:
+            case BLT:
+            case BMI:
+            case BNE:
+            case BPL:
+            case BVC:
+            case BVS:
+                taken = code.NewLabel();
+                Condition(instruction.ID, taken);
+                GotoOrExit(nextPC);
+                code.Mark(taken);
+                GotoOrExit(target);
+            break;
+            case BRA:
+                GotoOrExit(target);
+            break;
+            case BSR:
+                Push16(nextPC);
+                WriteCheck(target, 0, 0);
+                GotoOrExit(target);
+            break;
+            case JMP:
+                if(mode == Instruction.AddressMode.EXTENDED)
+                    GotoOrExit(operand);
+                else
+                {
+                    Jump(operand);
+                    code.Jump(ClassFileWriter.GOTO, leave);
+                }
+            break;
+            case JSR:
+                if(mode == Instruction.AddressMode.EXTENDED)
+                {
+                    Push16(nextPC);
+                    WriteCheck(operand, 0, 0);
+                    GotoOrExit(operand);
+                }
+                else
+                {
+                    Jump(operand);
+                    Push16(nextPC);
+                    code.Jump(ClassFileWriter.GOTO, leave);
+                }
+            break;
+            case RTS:
+                Pull8();
+                Push(8);
+                code.Op(ClassFileWriter.ISHL);
+                code.Op(ClassFileWriter.ISTORE, OPERANDLOCAL);
+                Pull8();
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                code.Op(ClassFileWriter.IADD);
+                code.Op(ClassFileWriter.ISTORE, PCLOCAL);
+                code.Jump(ClassFileWriter.GOTO, leave);
+            break;
+            case CLI:
+            case SEI:
+            case DAA:
+            case TAP:
+            case TPA:
+                Handler(opcode, operand, nextPC);
+                Enter(false);
+            break;
+            case RTI:
+            case SWI:
+            case WAI:
+                Handler(opcode, operand, nextPC);
+                code.Op(ClassFileWriter.RETURN);
+            break;
+            case NOP:
+            case INVALID: // intentional fall through
+            default:
+            break;
+        }
+    }
+
+/*
+**      Reg - accumulator local for an A or B form instruction
+*/
+    private static int Reg(Instruction instruction)
+    {
+        return (instruction.ID.name().endsWith("A") ? ALOCAL : BLOCAL);
+    }
+
+/*
+**      Add - reg = reg + the value on the stack [+ C], as Add8.  H and C
+**      are bits 3 and 7 of (a & b) | ((a | b) & ~result) and V bit 7 of
+**      (a ^ result) & (b ^ result), the rules in FlagTables.AddFlags.
+**      With bRaw N and Z are from the sum before it's cut to 8 bits, as
+**      CPU.ABA leaves them.
+*/
+    private void Add(int reg, boolean bCarry, boolean bRaw)
+    {
+        code.Op(ClassFileWriter.ISTORE, OPERANDLOCAL);
+        code.Op(ClassFileWriter.ILOAD, reg);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.IADD);
+        if(bCarry)
+        {
+            code.Op(ClassFileWriter.ILOAD, CLOCAL);
+            code.Op(ClassFileWriter.IADD);
+        }
+        code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+        code.Op(ClassFileWriter.ILOAD, reg);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.ILOAD, reg);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.IOR);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        Push(-1);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.IOR);
+        code.Op(ClassFileWriter.DUP);
+        code.Op(ClassFileWriter.ISTORE, HLOCAL);
+        Bit7(CLOCAL);
+        code.Op(ClassFileWriter.ILOAD, reg);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.ISTORE, VLOCAL);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        if(bRaw)
+            ZeroNegative();
+        Push(0xFF);
+        code.Op(ClassFileWriter.IAND);
+        if(!bRaw)
+            ZeroNegative();
+        code.Op(ClassFileWriter.ISTORE, reg);
+    }
+
+/*
+**      Subtract - reg - the value on the stack [- C], as Sub8 and Sbc8,
+**      stored back in reg if bStore.  C is bit 7 of (~a & b) | ((~a | b)
+**      & result) and V bit 7 of (a ^ b) & (a ^ result), the rules in
+**      FlagTables.SubtractFlags.
+*/
+    private void Subtract(int reg, boolean bCarry, boolean bStore)
+    {
+        code.Op(ClassFileWriter.ISTORE, OPERANDLOCAL);
+        code.Op(ClassFileWriter.ILOAD, reg);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.ISUB);
+        if(bCarry)
+        {
+            code.Op(ClassFileWriter.ILOAD, CLOCAL);
+            code.Op(ClassFileWriter.ISUB);
+        }
+        Wrap(256);
+        code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+        code.Op(ClassFileWriter.ILOAD, reg);
+        Push(-1);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.ILOAD, reg);
+        Push(-1);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.IOR);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.IOR);
+        Bit7(CLOCAL);
+        code.Op(ClassFileWriter.ILOAD, reg);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.ILOAD, reg);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.ISTORE, VLOCAL);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        ZeroNegative();
+        if(bStore)
+            code.Op(ClassFileWriter.ISTORE, reg);
+        else
+            code.Op(ClassFileWriter.POP);
+    }
+
+/*
+**      CompareX - CPX of the value on the stack, as CPU.Cpx.  V is worked
+**      out from bit 7 of the operand, as Cpx does, and C isn't changed.
+*/
+    private void CompareX()
+    {
+        code.Op(ClassFileWriter.ISTORE, OPERANDLOCAL);
+        code.Op(ClassFileWriter.ILOAD, XLOCAL);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.ISUB);
+        Wrap(65536);
+        code.Op(ClassFileWriter.DUP);
+        code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+        Load16Flags();
+        code.Op(ClassFileWriter.POP);
+        code.Op(ClassFileWriter.ILOAD, XLOCAL);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        code.Op(ClassFileWriter.IXOR);
+        Push(8);
+        code.Op(ClassFileWriter.ISHR);
+        code.Op(ClassFileWriter.ILOAD, XLOCAL);
+        Push(8);
+        code.Op(ClassFileWriter.ISHR);
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.ISTORE, VLOCAL);
+    }
+
+    private void Logic(int reg, int opcode, Instruction.AddressMode mode, int operand)
+    {
+        code.Op(ClassFileWriter.ILOAD, reg);
+        Value8(mode, operand);
+        code.Op(opcode);
+        LoadFlags();
+        code.Op(ClassFileWriter.ISTORE, reg);
+    }
+
+/*
+**      Unary - replace the value on the stack with what the read, modify,
+**      write instruction ID makes of it, and set the flags as the CPU
+**      method for it does
+*/
+    private void Unary(Instruction.CommandID ID)
+    {
+        int other, done;
+        code.Op(ClassFileWriter.ISTORE, OPERANDLOCAL);
+        switch(ID)
+        {
+            case ASL:
+            case ASLA:
+            case ASLB:
+                Operand(7, ClassFileWriter.ISHR, 1);
+                code.Op(ClassFileWriter.ISTORE, CLOCAL);
+                Operand(1, ClassFileWriter.ISHL, 0xFF);
+                ShiftFlags();
+            break;
+            case ASR:
+            case ASRA:
+            case ASRB:
+                Operand(1, ClassFileWriter.ISHR, -1);
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                Push(0x80);
+                code.Op(ClassFileWriter.IAND);
+                code.Op(ClassFileWriter.IOR);
+                code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                Push(1);
+                code.Op(ClassFileWriter.IAND);
+                code.Op(ClassFileWriter.ISTORE, CLOCAL);
+                code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+                ShiftFlags();
+            break;
+            case ROL:
+            case ROLA:
+            case ROLB:
+                Operand(1, ClassFileWriter.ISHL, 0xFF);
+                code.Op(ClassFileWriter.ILOAD, CLOCAL);
+                code.Op(ClassFileWriter.IADD);
+                Operand(7, ClassFileWriter.ISHR, 1);
+                code.Op(ClassFileWriter.ISTORE, CLOCAL);
+                ShiftFlags();
+            break;
+            case ROR:
+            case RORA:
+            case RORB:
+                Operand(1, ClassFileWriter.ISHR, 0xFF);
+                code.Op(ClassFileWriter.ILOAD, CLOCAL);
+                Push(7);
+                code.Op(ClassFileWriter.ISHL);
+                code.Op(ClassFileWriter.IADD);
+                Operand(0, 0, 1);
+                code.Op(ClassFileWriter.ISTORE, CLOCAL);
+                ShiftFlags();
+            break;
+            case LSR:
+            case LSRA:
+            case LSRB:
+                Operand(0, 0, 1);
+                code.Op(ClassFileWriter.DUP);
+                code.Op(ClassFileWriter.ISTORE, CLOCAL);
+                Push(7);
+                code.Op(ClassFileWriter.ISHL);
+                code.Op(ClassFileWriter.ISTORE, VLOCAL);
+                Operand(1, ClassFileWriter.ISHR, -1);
+                code.Op(ClassFileWriter.DUP);
+                code.Op(ClassFileWriter.ISTORE, ZLOCAL);
+                Push(0);
+                code.Op(ClassFileWriter.ISTORE, NLOCAL);
+            break;
+            case COM:
+            case COMA:
+            case COMB:
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                Push(-1);
+                code.Op(ClassFileWriter.IXOR);
+                Push(0xFF);
+                code.Op(ClassFileWriter.IAND);
+                TestFlags(1);
+            break;
+            case NEG:
+            case NEGA:
+            case NEGB:
+                // C if the operand isn't 0, V if it's 0x80
+                Push(0);
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                code.Op(ClassFileWriter.ISUB);
+                Push(31);
+                code.Op(ClassFileWriter.IUSHR);
+                code.Op(ClassFileWriter.ISTORE, CLOCAL);
+                Equals(0x80);
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                Static("Negate", "(I)I");
+                ZeroNegative();
+            break;
+            case INC:
+            case INCA:
+            case INCB:
+                other = code.NewLabel();
+                done = code.NewLabel();
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                Push(255);
+                code.Jump(ClassFileWriter.IF_ICMPGE, other);
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                Push(1);
+                code.Op(ClassFileWriter.IADD);
+                code.Jump(ClassFileWriter.GOTO, done);
+                code.Mark(other);
+                Push(0);
+                code.Mark(done);
+                code.Op(ClassFileWriter.DUP);
+                code.Op(ClassFileWriter.ISTORE, OPERANDLOCAL);
+                Equals(0x80);
+                ZeroNegative();
+            break;
+            case DEC:
+            case DECA:
+            case DECB:
+                other = code.NewLabel();
+                done = code.NewLabel();
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                code.Jump(ClassFileWriter.IFLE, other);
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+                Push(1);
+                code.Op(ClassFileWriter.ISUB);
+                code.Jump(ClassFileWriter.GOTO, done);
+                code.Mark(other);
+                Push(255);
+                code.Mark(done);
+                code.Op(ClassFileWriter.DUP);
+                code.Op(ClassFileWriter.ISTORE, OPERANDLOCAL);
+                Equals(0x7F);
+                ZeroNegative();
+            break;
+            default:
+                code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+            break;
+        }
+    }
+
+/*
+**      Operand - push (operand shifted by shift with opcode) & mask, the
+**      mask left off if it's -1 and the shift if it's 0
+*/
+    private void Operand(int shift, int opcode, int mask)
+    {
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        if(shift != 0)
+        {
+            Push(shift);
+            code.Op(opcode);
+        }
+        if(mask != -1)
+        {
+            Push(mask);
+            code.Op(ClassFileWriter.IAND);
+        }
+    }
+
+/*
+**      Equals - V = 0x80 if OPERANDLOCAL is value, else 0.  value ^
+**      OPERANDLOCAL is 0 only then, and one less than that sets the top 8
+**      bits.
+*/
+    private void Equals(int value)
+    {
+        code.Op(ClassFileWriter.ILOAD, OPERANDLOCAL);
+        Push(value);
+        code.Op(ClassFileWriter.IXOR);
+        Push(1);
+        code.Op(ClassFileWriter.ISUB);
+        Push(24);
+        code.Op(ClassFileWriter.IUSHR);
+        code.Op(ClassFileWriter.ISTORE, VLOCAL);
+    }
+
+/*
+**      ShiftFlags - N and Z from the result on the stack, V = N ^ C with C
+**      already set
+*/
+    private void ShiftFlags()
+    {
+        ZeroNegative();
+        code.Op(ClassFileWriter.DUP);
+        code.Op(ClassFileWriter.ILOAD, CLOCAL);
+        Push(7);
+        code.Op(ClassFileWriter.ISHL);
+        code.Op(ClassFileWriter.IXOR);
+        code.Op(ClassFileWriter.ISTORE, VLOCAL);
+    }
+
+/*
+**      ZeroNegative, LoadFlags, Load16Flags, TestFlags - set the flags from
+**      the value on the stack and leave it there: N and Z, then for a load
+**      V clear, for a 16 bit load N from bit 15 and for TST, COM and CLR C
+**      as given too
+*/
+    private void ZeroNegative()
+    {
+        code.Op(ClassFileWriter.DUP);
+        code.Op(ClassFileWriter.ISTORE, ZLOCAL);
+        code.Op(ClassFileWriter.DUP);
+        code.Op(ClassFileWriter.ISTORE, NLOCAL);
+    }
+
+    private void LoadFlags()
+    {
+        ZeroNegative();
+        Push(0);
+        code.Op(ClassFileWriter.ISTORE, VLOCAL);
+    }
+
+    private void Load16Flags()
+    {
+        code.Op(ClassFileWriter.DUP);
+        code.Op(ClassFileWriter.ISTORE, ZLOCAL);
+        code.Op(ClassFileWriter.DUP);
+        Push(8);
+        code.Op(ClassFileWriter.ISHR);
+        code.Op(ClassFileWriter.ISTORE, NLOCAL);
+        Push(0);
+        code.Op(ClassFileWriter.ISTORE, VLOCAL);
+    }
+
+    private void TestFlags(int carry)
+    {
+        LoadFlags();
+        Push(carry);
+        code.Op(ClassFileWriter.ISTORE, CLOCAL);
+    }
+
+/*
+**      Bit7 - local = bit 7 of the value on the stack, popping it
+*/
+    private void Bit7(int local)
+    {
+        Push(7);
+        code.Op(ClassFileWriter.ISHR);
+        Push(1);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.ISTORE, local);
+    }
+
+/*
+**      Wrap - add size to the value on the stack if it's negative, as
+**      subtract8 and subtract16 do
+*/
+    private void Wrap(int size)
+    {
+        code.Op(ClassFileWriter.DUP);
+        Push(31);
+        code.Op(ClassFileWriter.ISHR);
+        Push(size);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.IADD);
+    }
+
+/*
+**      Increment, Decrement - INS, INX, DES and DEX, wrapping as the CPU
+**      methods do
+*/
+    private void Increment(int local)
+    {
+        int wrap = code.NewLabel();
+        int done = code.NewLabel();
+        code.Op(ClassFileWriter.ILOAD, local);
+        Push(65535);
+        code.Jump(ClassFileWriter.IF_ICMPGE, wrap);
+        code.Op(ClassFileWriter.ILOAD, local);
+        Push(1);
+        code.Op(ClassFileWriter.IADD);
+        code.Jump(ClassFileWriter.GOTO, done);
+        code.Mark(wrap);
+        Push(0);
+        code.Mark(done);
+        code.Op(ClassFileWriter.ISTORE, local);
+    }
+
+    private void Decrement(int local)
+    {
+        int wrap = code.NewLabel();
+        int done = code.NewLabel();
+        code.Op(ClassFileWriter.ILOAD, local);
+        code.Jump(ClassFileWriter.IFLE, wrap);
+        code.Op(ClassFileWriter.ILOAD, local);
+        Push(1);
+        code.Op(ClassFileWriter.ISUB);
+        code.Jump(ClassFileWriter.GOTO, done);
+        code.Mark(wrap);
+        Push(65535);
+        code.Mark(done);
+        code.Op(ClassFileWriter.ISTORE, local);
+    }
+
+/*
+**      Push8, Pull8, Push16 - push8, pull8 and push16 on SPLOCAL.  Push8
+**      pushes VALUELOCAL, Pull8 leaves the byte on the stack.
+*/
+    private void Push8()
+    {
+        code.Op(ClassFileWriter.ILOAD, SPLOCAL);
+        StackAddress();
+        Write();
+        code.Op(ClassFileWriter.ILOAD, SPLOCAL);
+        Push(1);
+        code.Op(ClassFileWriter.ISUB);
+        code.Op(ClassFileWriter.ISTORE, SPLOCAL);
+    }
+
+    private void Pull8()
+    {
+        code.Op(ClassFileWriter.ILOAD, SPLOCAL);
+        Push(1);
+        code.Op(ClassFileWriter.IADD);
+        code.Op(ClassFileWriter.DUP);
+        code.Op(ClassFileWriter.ISTORE, SPLOCAL);
+        StackAddress();
+        Read();
+    }
+
+    private void Push16(int value)
+    {
+        Push(value);
+        code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+        Push8();
+        Push(value >> 8);
+        code.Op(ClassFileWriter.ISTORE, VALUELOCAL);
+        Push8();
+    }
+
+    private void StackAddress()
+    {
+        Push(MemoryModule.ADDRESSMASK);
+        code.Op(ClassFileWriter.IAND);
+        code.Op(ClassFileWriter.ISTORE, ADDRESSLOCAL);
+    }
+
+/*
+**      Jump - PCLOCAL = the address of an indexed JMP or JSR, not wrapped,
+**      as the handlers leave PC
+*/
+    private void Jump(int operand)
+    {
+        code.Op(ClassFileWriter.ILOAD, XLOCAL);
+        Push(operand);
+        code.Op(ClassFileWriter.IADD);
+        code.Op(ClassFileWriter.ISTORE, PCLOCAL);
+    }
+
+/*
+**      Handler - store the locals back and run an instruction with its
+**      handler, PC past it
+*/
+    private void Handler(int opcode, int operand, int nextPC)
+    {
+        Push(nextPC);
+        code.Op(ClassFileWriter.ISTORE, PCLOCAL);
+        Leave();
+        code.Op(ClassFileWriter.ALOAD_1);
+        Push(opcode);
+        Push(operand);
+        Static("Execute", "(Lm6800/CPU;II)V");
+    }
+
+/*
+**      Condition - jump to taken if the branch condition holds, as in the
+**      BuildHandler case for the same branch
+*/
+    private void Condition(Instruction.CommandID ID, int taken)
+    {
+        int notTaken;
+        switch(ID)
+        {
+            case BCC:
+                code.Op(ClassFileWriter.ILOAD, CLOCAL);
+                code.Jump(ClassFileWriter.IFEQ, taken);
+            break;
+            case BCS:
+                code.Op(ClassFileWriter.ILOAD, CLOCAL);
+                code.Jump(ClassFileWriter.IFNE, taken);
+            break;
+            case BEQ:
+                code.Op(ClassFileWriter.ILOAD, ZLOCAL);
+                code.Jump(ClassFileWriter.IFEQ, taken);
+            break;
+            case BNE:
+                code.Op(ClassFileWriter.ILOAD, ZLOCAL);
+                code.Jump(ClassFileWriter.IFNE, taken);
+            break;
+            case BMI:
+                Flag(NLOCAL);
+                code.Jump(ClassFileWriter.IFNE, taken);
+            break;
+            case BPL:
+                Flag(NLOCAL);
+                code.Jump(ClassFileWriter.IFEQ, taken);
+            break;
+            case BVS:
+                Flag(VLOCAL);
+                code.Jump(ClassFileWriter.IFNE, taken);
+            break;
+            case BVC:
+                Flag(VLOCAL);
+                code.Jump(ClassFileWriter.IFEQ, taken);
+            break;
+            case BGE:
+                NegativeOverflow();
+                code.Jump(ClassFileWriter.IFEQ, taken);
+            break;
+            case BLT:
+                NegativeOverflow();
+                code.Jump(ClassFileWriter.IFNE, taken);
+            break;
+            case BGT:
+                notTaken = code.NewLabel();
+                code.Op(ClassFileWriter.ILOAD, ZLOCAL);
+                code.Jump(ClassFileWriter.IFEQ, notTaken);
+                NegativeOverflow();
+                code.Jump(ClassFileWriter.IFEQ, taken);
+                code.Mark(notTaken);
+            break;
+            case BLE:
+                code.Op(ClassFileWriter.ILOAD, ZLOCAL);
+                code.Jump(ClassFileWriter.IFEQ, taken);
+                NegativeOverflow();
+                code.Jump(ClassFileWriter.IFNE, taken);
+            break;
+            case BHI:
+                notTaken = code.NewLabel();
+                code.Op(ClassFileWriter.ILOAD, CLOCAL);
+                code.Jump(ClassFileWriter.IFNE, notTaken);
+                code.Op(ClassFileWriter.ILOAD, ZLOCAL);
+                code.Jump(ClassFileWriter.IFNE, taken);
+                code.Mark(notTaken);
+            break;
+            case BLS:
+                code.Op(ClassFileWriter.ILOAD, CLOCAL);
+                code.Jump(ClassFileWriter.IFNE, taken);
+                code.Op(ClassFileWriter.ILOAD, ZLOCAL);
+                code.Jump(ClassFileWriter.IFEQ, taken);
+            break;
+            default:
+            break;
+        }
+    }
+
+/*
+**      Flag - push bit 7 of V or N
+*/
+    private void Flag(int local)
+    {
+        code.Op(ClassFileWriter.ILOAD, local);
+        Push(0x80);
+        code.Op(ClassFileWriter.IAND);
+    }
+
+/*
+**      NegativeOverflow - push 0 if N and V are the same
+*/
+    private void NegativeOverflow()
+    {
+        code.Op(ClassFileWriter.ILOAD, NLOCAL);
+        code.Op(ClassFileWriter.ILOAD, VLOCAL);
+        code.Op(ClassFileWriter.IXOR);
+        Push(0x80);
+        code.Op(ClassFileWriter.IAND);
+    }
+
+/*
+**      GotoOrExit - continue at iAddress, inside the region if it starts a
+**      block there, otherwise back to the interpreter
+*/
+    private void GotoOrExit(int iAddress)
+    {
+        int index = Find(blocks, iAddress);
+        if(index >= 0)
+            code.Jump(ClassFileWriter.GOTO, labels[index]);
+        else
+            Exit(iAddress);
+    }
+
+    private void Exit(int iAddress)
+    {
+        Push(iAddress);
+        code.Op(ClassFileWriter.ISTORE, PCLOCAL);
+        code.Jump(ClassFileWriter.GOTO, leave);
+    }
+
+/*
+**      WriteCheck - after a store, leave if it dropped the region.  The
+**      instructions after this one in the block haven't run, so their share
+**      of the block's counts is taken back.
+*/
+    private void WriteCheck(int nextPC, int remaining, int count)
+    {
+        int valid = code.NewLabel();
+        code.Op(ClassFileWriter.ALOAD_0);
+        code.Op(ClassFileWriter.GETFIELD, cf.Field(REGIONCLASS, "valid", "Z"));
+        code.Jump(ClassFileWriter.IFNE, valid);
+        if(count > 0)
+            Count(-remaining, -count);
+        Exit(nextPC);
+        code.Mark(valid);
+    }
+
+/*
+**      Value8, Value16 - push an operand, as CPU.Value8 and Value16 do for
+**      the handlers
+*/
+    private void Value8(Instruction.AddressMode mode, int operand)
+    {
+        switch(mode)
+        {
+            case IMMEDIATE:
+                Push(operand);
+            break;
+            case DIRECT:
+            case EXTENDED:
+            case INDEXED:
+                Address(mode, operand);
+                Read();
+            break;
+            default:
+                Push(0);
+            break;
+        }
+    }
+
+    private void Value16(Instruction.AddressMode mode, int operand)
+    {
+        switch(mode)
+        {
+            case IMMEDIATE:
+                Push(operand);
+            break;
+            case DIRECT:
+            case EXTENDED:
+            case INDEXED:
+                Address(mode, operand);
+                Read();
+                Push(8);
+                code.Op(ClassFileWriter.ISHL);
+                NextAddress();
+                Read();
+                code.Op(ClassFileWriter.IADD);
+            break;
+            default:
+                Push(0);
+            break;
+        }
+    }
+
+/*
+**      Address, NextAddress - ADDRESSLOCAL = the operand's address or the
+**      one after it, wrapped as MemRead and MemWrite wrap it
+*/
+    private void Address(Instruction.AddressMode mode, int operand)
+    {
+        switch(mode)
+        {
+            case DIRECT:
+            case EXTENDED:
+                Push(operand);
+                code.Op(ClassFileWriter.ISTORE, ADDRESSLOCAL);
+            break;
+            case INDEXED:
+                code.Op(ClassFileWriter.ILOAD, XLOCAL);
+                Push(operand);
+                code.Op(ClassFileWriter.IADD);
+                StackAddress();
+            break;
+            default:
+                Push(0);
+                code.Op(ClassFileWriter.ISTORE, ADDRESSLOCAL);
+            break;
+        }
+    }
+
+    private void NextAddress()
+    {
+        code.Op(ClassFileWriter.ILOAD, ADDRESSLOCAL);
+        Push(1);
+        code.Op(ClassFileWriter.IADD);
+        StackAddress();
+    }
+
+/*
+**      Read - push the byte at ADDRESSLOCAL, from its page if it has one in
+**      the read table, otherwise through MemRead
+*/
+    private void Read()
+    {
+        int slow = code.NewLabel();
+        int done = code.NewLabel();
+        Page(READSLOCAL);
+        code.Jump(ClassFileWriter.IFNULL, slow);
+        Offset();
+        code.Op(ClassFileWriter.BALOAD);
+        Push(0xFF);
+        code.Op(ClassFileWriter.IAND);
+        code.Jump(ClassFileWriter.GOTO, done);
+        code.Mark(slow);
+        code.Op(ClassFileWriter.POP);
+        code.Op(ClassFileWriter.ALOAD, MEMLOCAL);
+        code.Op(ClassFileWriter.ILOAD, ADDRESSLOCAL);
+        code.Op(ClassFileWriter.INVOKEVIRTUAL, cf.Method(MEMCLASS, "MemRead", "(I)I"));
+        code.Mark(done);
+    }
+
+/*
+**      Write - store VALUELOCAL at ADDRESSLOCAL, into its page if it has
+**      one in the write table and no cached code, otherwise through
+**      MemWrite
+*/
+    private void Write()
+    {
+        int slow = code.NewLabel();
+        int done = code.NewLabel();
+        Page(WRITESLOCAL);
+        code.Jump(ClassFileWriter.IFNULL, slow);
+        code.Op(ClassFileWriter.ALOAD, CODELOCAL);
+        code.Op(ClassFileWriter.ILOAD, ADDRESSLOCAL);
+        Push(8);
+        code.Op(ClassFileWriter.ISHR);
+        code.Op(ClassFileWriter.BALOAD);
+        code.Jump(ClassFileWriter.IFNE, slow);
+        Offset();
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        code.Op(ClassFileWriter.BASTORE);
+        code.Jump(ClassFileWriter.GOTO, done);
+        code.Mark(slow);
+        code.Op(ClassFileWriter.POP);
+        code.Op(ClassFileWriter.ALOAD, MEMLOCAL);
+        code.Op(ClassFileWriter.ILOAD, ADDRESSLOCAL);
+        code.Op(ClassFileWriter.ILOAD, VALUELOCAL);
+        code.Op(ClassFileWriter.INVOKEVIRTUAL, cf.Method(MEMCLASS, "MemWrite", "(II)V"));
+        code.Mark(done);
+    }
+
+/*
+**      Page - push the page of table for ADDRESSLOCAL twice, once for the
+**      null test; Offset - push the offset into it
+*/
+    private void Page(int table)
+    {
+        code.Op(ClassFileWriter.ALOAD, table);
+        code.Op(ClassFileWriter.ILOAD, ADDRESSLOCAL);
+        Push(8);
+        code.Op(ClassFileWriter.ISHR);
+        code.Op(ClassFileWriter.AALOAD);
+        code.Op(ClassFileWriter.DUP);
+    }
+
+    private void Offset()
+    {
+        code.Op(ClassFileWriter.ILOAD, ADDRESSLOCAL);
+        Push(0xFF);
+        code.Op(ClassFileWriter.IAND);
+    }
+
+    private void Call(String name, String descriptor)
+    {
+        code.Op(ClassFileWriter.INVOKEVIRTUAL, cf.Method(CPUCLASS, name, descriptor));
+    }
+
+/*
+**      Static - call one of CompiledRegion's accessors
+*/
+    private void Static(String name, String descriptor)
+    {
+        code.Op(ClassFileWriter.INVOKESTATIC, cf.Method(REGIONCLASS, name, descriptor));
+    }
+
+    private void Push(int value)
+    {
+        if((value >= -1) && (value <= 5))
+            code.Op(ClassFileWriter.ICONST_0 + value);
+        else if((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE))
+            code.Op(ClassFileWriter.BIPUSH, value & 0xFF);
+        else if((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE))
+            code.Op(ClassFileWriter.SIPUSH, value & 0xFFFF);
+        else
+            code.Op(ClassFileWriter.LDC_W, cf.Integer(value));
+    }
+}
@@ -9,6 +9,18 @@ revisions:
     Add setOpaque true for JButtons, and use getCrossPlatformLookAndFeelClassName
     to set default look and feel (fix appearance in Mac OSX)
     3/28/2020 - Add ability to load and save
+    10/17/2026 - Keys go through the CPU between instructions, add Record
+                 and Stop Recording to save an InputLog
+    10/17/2026 - Add Debug menu with a Timeline to go back in time
+    10/17/2026 - Add Breakpoints to the Debug menu
+    10/17/2026 - Add Trace and Save Trace to the Debug menu
+    10/17/2026 - Settings picks a clock rate for the Throttle and the title
+                 shows the rate reached, the display is read with
+                 DisplayRead
+    10/17/2026 - Add Warp to the Debug menu, the display is refreshed less
+                 often while warping
+    10/17/2026 - Load and Load ROM write memory on the CPU thread
+    10/17/2026 - Save reads memory on the CPU thread, without watchpoints
 */
 package m6800;
 
@@ -26,11 +38,16 @@ import javax.swing.JOptionPane;
 import javax.swing.JDialog;
 import javax.swing.JSlider;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import java.awt.*;
 import javax.swing.UIManager;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Hashtable;
 import javax.swing.UnsupportedLookAndFeelException;
 /**
  *
@@ -65,6 +82,7 @@ public class UI extends JFrame implements ActionListener, Runnable {
     
     private final CPU myCPU;
     private final MemoryModule myMemoryModule;
+    private final Throttle myThrottle;
     private final Thread runner;
     
     sevenSegmentDisplay HDisplay;
@@ -175,30 +193,51 @@ public class UI extends JFrame implements ActionListener, Runnable {
     final int iFButtonStartY = 150;
     
     final static int REFRESHMILLISECONDS = 10;
+    final static int WARPREFRESHMILLISECONDS = 100; // leaves the host to the CPU
+    final static long RATEMILLISECONDS = 500;   // between showing the clock rate
+    final static String TITLE = "ET3400A Simulator";
+    // clock rates in Settings, TRAINERHZ times 2 to the power of the setting
+    final static int MINSPEED = -3;
+    final static int MAXSPEED = 4;
     
     int debug;
     
     private final JMenuBar menubar;
     private final JMenu menuFile;
+    private final JMenu menuDebug;
+    private final JMenu menuWarp;
     private final JMenu menuHelp;
     private final JMenuItem load;
     private final JMenuItem loadROM;
     private final JMenuItem save;
     private final JMenuItem settings;
+    private final JMenuItem record;
+    private final JMenuItem stopRecording;
+    private final JMenuItem timeline;
+    private final JMenuItem breakpoints;
+    private final JMenuItem trace;
+    private final JMenuItem saveTrace;
+    private final JMenuItem warpBreakpoint;
+    private final JMenuItem warpKey;
+    private final JMenuItem warpDisplay;
+    private final JMenuItem warpSeconds;
+    private final JMenuItem warpEnd;
     private final JMenuItem about;
     private final JMenuItem exit;
     
     private final JOptionPane dialog;
     
     private FileDialog fileDialog;
+    private InputLog recording;
+    private History history;
+    private TimelineDialog timelineDialog;
+    private BreakpointDialog breakpointDialog;
     
-    FileReader infile = null;
-    FileWriter outfile = null;
     String fileName;
     
-    public UI (CPU aCPU, MemoryModule aMemoryModule)
+    public UI (CPU aCPU, MemoryModule aMemoryModule, Throttle aThrottle)
     {   
-        super ("ET3400A Simulator");
+        super (TITLE);
         try {
             UIManager.setLookAndFeel(UIManager.getCrossPlatformLookAndFeelClassName());
         } catch (ClassNotFoundException | IllegalAccessException | InstantiationException | UnsupportedLookAndFeelException e) {
@@ -354,21 +393,50 @@ public class UI extends JFrame implements ActionListener, Runnable {
         loadROM = new JMenuItem("Load ROM");
         save = new JMenuItem("Save");
         settings = new JMenuItem("Settings");
+        record = new JMenuItem("Record");
+        stopRecording = new JMenuItem("Stop Recording");
+        stopRecording.setEnabled(false);
         exit = new JMenuItem("Exit");
         menuFile.add(load);
         menuFile.add(loadROM);
         menuFile.add(save);
         menuFile.add(settings);
+        menuFile.add(record);
+        menuFile.add(stopRecording);
         menuFile.add(exit);
+        menuDebug = new JMenu("Debug");
+        timeline = new JMenuItem("Timeline");
+        menuDebug.add(timeline);
+        breakpoints = new JMenuItem("Breakpoints");
+        menuDebug.add(breakpoints);
+        trace = new JMenuItem("Trace");
+        menuDebug.add(trace);
+        saveTrace = new JMenuItem("Save Trace");
+        saveTrace.setEnabled(false);
+        menuDebug.add(saveTrace);
+        menuWarp = new JMenu("Warp");
+        warpBreakpoint = new JMenuItem("Until Breakpoint");
+        menuWarp.add(warpBreakpoint);
+        warpKey = new JMenuItem("Until Key Wait");
+        menuWarp.add(warpKey);
+        warpDisplay = new JMenuItem("Until Display Change");
+        menuWarp.add(warpDisplay);
+        warpSeconds = new JMenuItem("For Seconds...");
+        menuWarp.add(warpSeconds);
+        warpEnd = new JMenuItem("Real Time");
+        menuWarp.add(warpEnd);
+        menuDebug.add(menuWarp);
         menuHelp = new JMenu("Help");
         about = new JMenuItem("About");
         menuHelp.add(about);
         menubar = new JMenuBar();
         menubar.add(menuFile);
+        menubar.add(menuDebug);
         menubar.add(menuHelp);
         dialog = new JOptionPane();
         myCPU = aCPU;
         myMemoryModule = aMemoryModule;
+        myThrottle = aThrottle;
     }
     
     public void FinishUIInit()
@@ -401,6 +469,17 @@ public class UI extends JFrame implements ActionListener, Runnable {
         loadROM.addActionListener(this);
         save.addActionListener(this);
         settings.addActionListener(this);
+        record.addActionListener(this);
+        stopRecording.addActionListener(this);
+        timeline.addActionListener(this);
+        breakpoints.addActionListener(this);
+        trace.addActionListener(this);
+        saveTrace.addActionListener(this);
+        warpBreakpoint.addActionListener(this);
+        warpKey.addActionListener(this);
+        warpDisplay.addActionListener(this);
+        warpSeconds.addActionListener(this);
+        warpEnd.addActionListener(this);
         exit.addActionListener(this);
         about.addActionListener(this);
         jpane.add(ResetButton);
@@ -480,7 +559,7 @@ public class UI extends JFrame implements ActionListener, Runnable {
         }
         if(source == settings)
         {
-            JSlider clockSlider = getSlider(dialog, myCPU);
+            JSlider clockSlider = getSlider(dialog, myThrottle);
             dialog.setMessage(new Object[] { "Clock Rate", clockSlider} );
             dialog.setOptionType(JOptionPane.DEFAULT_OPTION);
             JDialog newDialog = dialog.createDialog(this, "Settings");
@@ -495,22 +574,7 @@ public class UI extends JFrame implements ActionListener, Runnable {
             if(fileDialog.getFile().compareTo("null") != 0)
             {
                 fileName = fileDialog.getDirectory() + fileDialog.getFile();
-                try {
-                    infile = new FileReader(fileName);
-                } catch (FileNotFoundException exc) {
-                    
-                }
-                if (infile != null)
-                {
-                    if(M6800.ReadSRecordFile(infile, myMemoryModule, myCPU) != SRecord.NO_ERROR)
-                        JOptionPane.showMessageDialog(this, "Error Loading S-Record", "Error", JOptionPane.ERROR_MESSAGE);
-                    try {
-                        infile.close();
-                    } catch (IOException exc) {
-                        
-                    }
-                }
-                
+                LoadSRecords(fileName, false);
             }
         }
         if(source == loadROM)
@@ -521,22 +585,7 @@ public class UI extends JFrame implements ActionListener, Runnable {
             if(fileDialog.getFile().compareTo("null") != 0)
             {
                 fileName = fileDialog.getDirectory() + fileDialog.getFile();
-                try {
-                    infile = new FileReader(fileName);
-                } catch (FileNotFoundException exc) {
-                    
-                }
-                if (infile != null)
-                {
-                    if(M6800.ReadSRecordFileROM(infile, myMemoryModule, myCPU) != SRecord.NO_ERROR)
-                        JOptionPane.showMessageDialog(this, "Error Loading S-Record", "Error", JOptionPane.ERROR_MESSAGE);
-                    try {
-                        infile.close();
-                    } catch (IOException exc) {
-                        
-                    }
-                }
-                
+                LoadSRecords(fileName, true);
             }
         }
         if(source == save)
@@ -545,23 +594,96 @@ public class UI extends JFrame implements ActionListener, Runnable {
             fileDialog.setFile("new.s19");
             fileDialog.setVisible(true);
             if(fileDialog.getFile().compareTo("null") != 0)
+            {
+                fileName = fileDialog.getDirectory() + fileDialog.getFile();
+                SaveSRecords(fileName);
+            }
+        }
+        if(source == record)
+        {
+            // memory loaded from files wouldn't be in the recording
+            recording = new InputLog();
+            myCPU.StartRecording(recording);
+            RecordingMenus(true);
+        }
+        if(source == stopRecording)
+        {
+            myCPU.StopRecording();
+            RecordingMenus(false);
+            try {
+                recording.AwaitEnd();
+            } catch (InterruptedException exc) {
+                return;
+            }
+            fileDialog = new FileDialog(this, "Save Recording", FileDialog.SAVE);
+            fileDialog.setFile("session.e34r");
+            fileDialog.setVisible(true);
+            if(fileDialog.getFile() != null)
             {
                 fileName = fileDialog.getDirectory() + fileDialog.getFile();
                 try {
-                    outfile = new FileWriter(fileName);
+                    recording.Save(Paths.get(fileName));
                 } catch (IOException exc) {
+                    JOptionPane.showMessageDialog(this, "Error Saving Recording", "Error", JOptionPane.ERROR_MESSAGE);
                 }
-                if(outfile != null)
-                {
-                    M6800.WriteSRecordFile(outfile, myMemoryModule, myCPU);
-                    try {
-                        outfile.close();
-                    } catch (IOException exc) {
-                        
-                    }
+            }
+            recording = null;
+        }
+        if(source == timeline)
+        {
+            if(history == null)
+            {
+                history = new History(myCPU);
+                myCPU.Post(history::Attach);
+                timelineDialog = new TimelineDialog(this, myCPU, history);
+            }
+            timelineDialog.Open();
+        }
+        if(source == breakpoints)
+        {
+            if(breakpointDialog == null)
+                breakpointDialog = new BreakpointDialog(this, myCPU, new Breakpoints(myCPU));
+            breakpointDialog.setVisible(true);
+        }
+        if(source == trace)
+        {
+            Trace tracer = new Trace();
+            myCPU.Post(() -> myCPU.SetTrace(tracer));
+            trace.setEnabled(false);
+            saveTrace.setEnabled(true);
+        }
+        if(source == saveTrace)
+        {
+            // the trace is only read once the CPU has stopped writing it
+            myCPU.Post(() -> {
+                Trace tracer = myCPU.GetTrace();
+                myCPU.SetTrace(null);
+                SwingUtilities.invokeLater(() -> SaveTrace(tracer));
+            });
+            saveTrace.setEnabled(false);
+            trace.setEnabled(true);
+        }
+        // warps end at a breakpoint whatever else they wait for
+        if(source == warpBreakpoint)
+            myThrottle.Warp(0, 0);
+        if(source == warpKey)
+            myThrottle.Warp(Throttle.KEYWAIT, 0);
+        if(source == warpDisplay)
+            myThrottle.Warp(Throttle.DISPLAY, 0);
+        if(source == warpSeconds)
+        {
+            String seconds = JOptionPane.showInputDialog(this, "Emulated seconds", "Warp", JOptionPane.QUESTION_MESSAGE);
+            if(seconds != null)
+            {
+                try {
+                    myThrottle.Warp(0, Double.parseDouble(seconds.trim()));
+                } catch (NumberFormatException exc) {
+                    JOptionPane.showMessageDialog(this, "Not a number of seconds", "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
         }
+        if(source == warpEnd)
+            myThrottle.EndWarp();
         if(source == exit)
             System.exit(0);
         
@@ -574,7 +696,78 @@ public class UI extends JFrame implements ActionListener, Runnable {
     
     public void KeyAction (int iValue)
     {
-        myMemoryModule.KeypadWrite(iValue);
+        myCPU.KeyRequest(iValue);
+    }
+
+    private void RecordingMenus(boolean bRecording)
+    {
+        record.setEnabled(!bRecording);
+        stopRecording.setEnabled(bRecording);
+        load.setEnabled(!bRecording);
+        loadROM.setEnabled(!bRecording);
+    }
+
+    private void SaveTrace(Trace tracer)
+    {
+        fileDialog = new FileDialog(this, "Save Trace", FileDialog.SAVE);
+        fileDialog.setFile("trace.txt");
+        fileDialog.setVisible(true);
+        if(fileDialog.getFile() != null)
+        {
+            fileName = fileDialog.getDirectory() + fileDialog.getFile();
+            try (PrintStream out = new PrintStream(fileName)) {
+                tracer.Dump(out, tracer.GetCount());
+            } catch (IOException exc) {
+                JOptionPane.showMessageDialog(this, "Error Saving Trace", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    // the load is done by the thread running the CPU, between instructions,
+    // so no block or page it's using changes under it
+    private void LoadSRecords(String fileName, boolean bROM)
+    {
+        String text;
+        try {
+            text = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.ISO_8859_1);
+        } catch (IOException exc) {
+            JOptionPane.showMessageDialog(this, "Error Loading S-Record", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        myCPU.Post(() -> {
+            Reader in = new StringReader(text);
+            int result = bROM ? M6800.ReadSRecordFileROM(in, myMemoryModule, myCPU) :
+                    M6800.ReadSRecordFile(in, myMemoryModule, myCPU);
+            if(result != SRecord.NO_ERROR)
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                        "Error Loading S-Record", "Error", JOptionPane.ERROR_MESSAGE));
+        });
+        HistoryRestart();
+    }
+
+    // the copy of memory is made by the thread running the CPU, between
+    // instructions, and written to the file back on this one
+    private void SaveSRecords(String fileName)
+    {
+        myCPU.Post(() -> {
+            StringWriter out = new StringWriter();
+            M6800.WriteSRecordFile(out, myMemoryModule, myCPU);
+            String text = out.toString();
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    Files.write(Paths.get(fileName), text.getBytes(StandardCharsets.ISO_8859_1));
+                } catch (IOException exc) {
+                    JOptionPane.showMessageDialog(this, "Error Saving S-Record", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            });
+        });
+    }
+
+    // memory loaded around the CPU can't be gone back through
+    private void HistoryRestart()
+    {
+        if(history != null)
+            myCPU.Post(history::Attach);
     }
     
     
@@ -611,28 +804,28 @@ public class UI extends JFrame implements ActionListener, Runnable {
             switch(iCounter)
             {
                 case 0: //highest address, DP position
-                    iSegmentValue |= (((myMemoryModule.MemRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.DPWEIGHTING : 0);
+                    iSegmentValue |= (((myMemoryModule.DisplayRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.DPWEIGHTING : 0);
                 break;
                 case 1: // A segment
-                    iSegmentValue |= (((myMemoryModule.MemRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.AWEIGHTING : 0);
+                    iSegmentValue |= (((myMemoryModule.DisplayRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.AWEIGHTING : 0);
                 break;
                 case 2: // B segment
-                    iSegmentValue |= (((myMemoryModule.MemRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.BWEIGHTING : 0);
+                    iSegmentValue |= (((myMemoryModule.DisplayRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.BWEIGHTING : 0);
                 break;
                 case 3: // C segment
-                    iSegmentValue |= (((myMemoryModule.MemRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.CWEIGHTING : 0);
+                    iSegmentValue |= (((myMemoryModule.DisplayRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.CWEIGHTING : 0);
                 break;
                 case 4: // D segment
-                    iSegmentValue |= (((myMemoryModule.MemRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.DWEIGHTING : 0);
+                    iSegmentValue |= (((myMemoryModule.DisplayRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.DWEIGHTING : 0);
                 break;
                 case 5: // E segment
-                    iSegmentValue |= (((myMemoryModule.MemRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.EWEIGHTING : 0);
+                    iSegmentValue |= (((myMemoryModule.DisplayRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.EWEIGHTING : 0);
                 break;
                 case 6: // F segment
-                    iSegmentValue |= (((myMemoryModule.MemRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.FWEIGHTING : 0);
+                    iSegmentValue |= (((myMemoryModule.DisplayRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.FWEIGHTING : 0);
                 break;
                 case 7: // G segment
-                    iSegmentValue |= (((myMemoryModule.MemRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.GWEIGHTING : 0);
+                    iSegmentValue |= (((myMemoryModule.DisplayRead(iAddress) & 1) > 0) ? sevenSegmentDisplay.GWEIGHTING : 0);
                 break;   
             }
             iAddress--;
@@ -656,10 +849,16 @@ public class UI extends JFrame implements ActionListener, Runnable {
     public void run ()
     {
         
+        long shown = System.currentTimeMillis();
         while(true)
         {
             Refresh();
-            try {Thread.sleep(REFRESHMILLISECONDS); }
+            if(System.currentTimeMillis() - shown >= RATEMILLISECONDS)
+            {
+                ShowRate();
+                shown = System.currentTimeMillis();
+            }
+            try {Thread.sleep(myThrottle.GetWarping() ? WARPREFRESHMILLISECONDS : REFRESHMILLISECONDS); }
             catch (InterruptedException exc) {
             debug = 1;
             }
@@ -667,14 +866,29 @@ public class UI extends JFrame implements ActionListener, Runnable {
         
     }
     
-    static JSlider getSlider (final JOptionPane optionPane, CPU aCPU)
+    // put the clock rate the Throttle reached in the title
+    private void ShowRate()
+    {
+        String title = String.format("%s - %.2f MHz%s", TITLE, myThrottle.GetAchieved() / 1e6,
+                myThrottle.GetWarping() ? " (warp)" : "");
+        SwingUtilities.invokeLater(() -> setTitle(title));
+    }
+    
+    static JSlider getSlider (final JOptionPane optionPane, Throttle aThrottle)
     {
-        JSlider slider = new JSlider(CPU.MINCLOCKDELAY, CPU.MAXCLOCKDELAY, aCPU.GetClockDelay());
+        int iSpeed = (int) Math.round(Math.log(aThrottle.GetRate() / Throttle.TRAINERHZ) / Math.log(2));
+        JSlider slider = new JSlider(MINSPEED, MAXSPEED, Math.max(MINSPEED, Math.min(MAXSPEED, iSpeed)));
+        Hashtable<Integer, JLabel> labels = new Hashtable<>();
+        for(iSpeed = MINSPEED; iSpeed <= MAXSPEED; iSpeed++)
+            labels.put(iSpeed, new JLabel((iSpeed < 0) ? "1/" + (1 << -iSpeed) + "x" : (1 << iSpeed) + "x"));
+        slider.setLabelTable(labels);
+        slider.setPaintLabels(true);
+        slider.setSnapToTicks(true);
         ChangeListener listener = (ChangeEvent changeEvent) -> {
             JSlider theSlider = (JSlider) changeEvent.getSource();
             if(!theSlider.getValueIsAdjusting())
             {
-                aCPU.SetClockDelay(theSlider.getValue());
+                aThrottle.SetRate(Throttle.TRAINERHZ * Math.pow(2, theSlider.getValue()));
             }
         };
         slider.addChangeListener(listener);
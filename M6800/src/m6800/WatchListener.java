@@ -0,0 +1,18 @@
+/*
+** WatchListener.java
+** Told about accesses to addresses set with MemoryModule.Watch.  Fetching
+** is called before the opcode is read, Accessed after the read or write.
+**
+** Revisions:
+** 10/17/2026 Initial version, moved out of MemoryModule
+*/
+package m6800;
+
+/**
+ *
+ * @author daves
+ */
+interface WatchListener {
+    void Fetching(int iAddress);
+    void Accessed(int iAddress, int iValue, boolean bWrite);
+}